@@ -0,0 +1,19 @@
+#!/bin/bash
+# Builds the server and the JMH benchmarks, runs them with the gc profiler and compares the results
+# with the stored baseline (bench/baseline.json).
+# usage: ./bench.sh [--update-baseline] [JMH options, e.g. a benchmark name pattern such as Parser]
+cd "$(dirname "$0")" || exit 1
+update_baseline=false
+if [ "$1" = "--update-baseline" ]; then
+    update_baseline=true
+    shift
+fi
+mvn -B -q install -DskipTests || exit 1
+mvn -B -q -f bench/pom.xml package || exit 1
+java -jar bench/target/benchmarks.jar -prof gc -rf json -rff bench/target/result.json "$@" || exit 1
+if [ "$update_baseline" = true ]; then
+    cp bench/target/result.json bench/baseline.json
+    echo "baseline updated: bench/baseline.json"
+else
+    java -cp bench/target/benchmarks.jar src.BaselineComparison bench/baseline.json bench/target/result.json
+fi
@@ -0,0 +1,101 @@
+package src;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The src.BaselineComparison class compares a JMH result file (-rf json) with the stored baseline and prints,
+ * for each benchmark, the change in time and in bytes allocated per operation (the gc profiler's
+ * gc.alloc.rate.norm). Changes beyond the thresholds are marked as regressions, and the exit status is 1
+ * if there is any, so that bench.sh shows them before a change is sent for review.
+ * Usage: java -cp benchmarks.jar src.BaselineComparison baseline.json result.json [time threshold %]
+ */
+public class BaselineComparison {
+    private static final double DEFAULT_TIME_THRESHOLD_PERCENT = 15;
+    private static final double ALLOCATION_THRESHOLD_BYTES = 8;
+    private static final String ALLOCATION_METRIC = "gc.alloc.rate.norm";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: java src.BaselineComparison <baseline.json> <result.json> [time threshold %]");
+            System.exit(2);
+        }
+        double timeThreshold = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TIME_THRESHOLD_PERCENT;
+        Map<String, Result> baseline = read(Path.of(args[0]));
+        Map<String, Result> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        System.out.printf("%-72s %12s %12s %8s %10s %10s%n", "benchmark", "baseline", "current", "change",
+                "base B/op", "B/op");
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            Result now = entry.getValue();
+            Result before = baseline.get(entry.getKey());
+            if (before == null) {
+                System.out.printf("%-72s %12s %12.1f %8s %10s %10.1f  (new)%n", entry.getKey(), "-", now.score, "-",
+                        "-", now.allocation);
+                continue;
+            }
+            double change = (now.score - before.score) / before.score * 100;
+            boolean slower = change > timeThreshold;
+            boolean allocates = now.allocation - before.allocation > ALLOCATION_THRESHOLD_BYTES;
+            if (slower || allocates) {
+                regressions++;
+            }
+            System.out.printf("%-72s %12.1f %12.1f %+7.1f%% %10.1f %10.1f%s%n", entry.getKey(), before.score,
+                    now.score, change, before.allocation, now.allocation,
+                    slower || allocates ? "  REGRESSION" + (slower ? " (time)" : "") + (allocates ? " (allocation)" : "") : "");
+        }
+        for (String name : baseline.keySet()) {
+            if (!current.containsKey(name)) {
+                System.out.printf("%-72s  (not run)%n", name);
+            }
+        }
+        System.out.println(regressions == 0 ? "no regressions against the baseline"
+                : regressions + " regression(s) against the baseline");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * Reads the score and the allocation per operation of each benchmark in a JMH JSON result file,
+     * keyed by the benchmark name and its parameters.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Result> read(Path file) throws IOException {
+        List<Object> benchmarks = (List<Object>) Json.parse(Files.readString(file, StandardCharsets.UTF_8));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (Object element : benchmarks) {
+            Map<String, Object> benchmark = (Map<String, Object>) element;
+            String name = ((String) benchmark.get("benchmark")).replaceFirst("^src\\.", "");
+            Map<String, Object> params = (Map<String, Object>) benchmark.get("params");
+            if (params != null) {
+                name += params.toString().replace(", ", ",");
+            }
+            Map<String, Object> primary = (Map<String, Object>) benchmark.get("primaryMetric");
+            Map<String, Object> secondary = (Map<String, Object>) benchmark.get("secondaryMetrics");
+            double allocation = Double.NaN;
+            if (secondary != null && secondary.get(ALLOCATION_METRIC) != null) {
+                allocation = (Double) ((Map<String, Object>) secondary.get(ALLOCATION_METRIC)).get("score");
+            }
+            results.put(name, new Result((Double) primary.get("score"), allocation));
+        }
+        return results;
+    }
+
+    /**
+     * The time per operation and the bytes allocated per operation of one benchmark.
+     */
+    private static class Result {
+        private final double score;
+        private final double allocation;
+
+        Result(double score, double allocation) {
+            this.score = score;
+            this.allocation = allocation;
+        }
+    }
+}
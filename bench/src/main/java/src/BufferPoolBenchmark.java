@@ -0,0 +1,85 @@
+package src;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The src.BufferPoolBenchmark class measures borrowing and returning a 16 KB buffer from src.BufferPool,
+ * from the thread-local cache of one thread and from the shared free list under four threads, and with leak
+ * detection, against allocating a direct ByteBuffer and a heap array of the same size for every response.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BufferPoolBenchmark {
+    private static final int SIZE = 16384;
+
+    private final BufferPool pool = new BufferPool();
+    private final BufferPool trackingPool = new BufferPool();
+    private final byte[] head = new byte[256];
+
+    @Setup
+    public void setUp() {
+        trackingPool.setLeakDetection(true);
+    }
+
+    @Benchmark
+    public ByteBuffer pooled() {
+        BufferPool.PooledBuffer buffer = pool.acquire(SIZE);
+        ByteBuffer bytes = buffer.buffer().put(head);
+        buffer.release();
+        return bytes;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ByteBuffer pooledShared() {
+        // twelve buffers held at once overflow the thread-local cache of eight,
+        // so four of them go through the shared free list on every operation
+        BufferPool.PooledBuffer[] buffers = new BufferPool.PooledBuffer[12];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = pool.acquire(SIZE);
+        }
+        ByteBuffer bytes = buffers[0].buffer().put(head);
+        for (BufferPool.PooledBuffer buffer : buffers) {
+            buffer.release();
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public ByteBuffer pooledWithLeakDetection() {
+        BufferPool.PooledBuffer buffer = trackingPool.acquire(SIZE);
+        ByteBuffer bytes = buffer.buffer().put(head);
+        buffer.release();
+        return bytes;
+    }
+
+    @Benchmark
+    public ByteBuffer allocateDirect() {
+        return ByteBuffer.allocateDirect(SIZE).put(head);
+    }
+
+    @Benchmark
+    public void allocateHeap(Blackhole blackhole) {
+        byte[] bytes = new byte[SIZE];
+        System.arraycopy(head, 0, bytes, 0, head.length);
+        blackhole.consume(bytes);
+    }
+}
@@ -0,0 +1,63 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.ConfigReaderBenchmark class measures the src.ConfigReader getters called for every request:
+ * getImageExtensions, which splits the configured string on every call, against getPort, a plain lookup,
+ * and the same two settings read from a src.Config snapshot, which parsed them once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConfigReaderBenchmark {
+    private ConfigReader configReader;
+    private Config snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        Path config = Files.createTempFile("bench-config-", ".ini");
+        Files.write(config, List.of("[src.Server]", "port=8080", "imageExtensions=jpg,bmp,png,gif"));
+        configReader = new ConfigReader(config.toString());
+        snapshot = new Config(configReader);
+        Files.delete(config);
+    }
+
+    @Benchmark
+    public String[] getImageExtensions() {
+        return configReader.getImageExtensions();
+    }
+
+    @Benchmark
+    public String getPort() {
+        return configReader.getPort();
+    }
+
+    @Benchmark
+    public String[] snapshotGetImageExtensions() {
+        return snapshot.getImageExtensions();
+    }
+
+    @Benchmark
+    public int snapshotGetPort() {
+        return snapshot.getPort();
+    }
+}
@@ -0,0 +1,130 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The src.Json class is the minimal JSON support of the benchmark tools, which have no dependencies besides JMH:
+ * it parses JMH result files and request logs, and quotes strings for the result files the tools write.
+ * Objects become LinkedHashMaps, arrays Lists, numbers Doubles (the string "NaN" too, as JMH writes it),
+ * and strings Strings.
+ */
+class Json {
+    private final String text;
+    private int position = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Parses one JSON value.
+     *
+     * @param text the JSON text
+     * @return the value
+     * @throws IllegalArgumentException if the text is not valid JSON
+     */
+    static Object parse(String text) {
+        try {
+            return new Json(text).parseValue();
+        } catch (IndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("invalid JSON: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Quotes a string as a JSON string literal.
+     *
+     * @param value the string
+     * @return the literal, with quotes
+     */
+    static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private Object parseValue() {
+        skipWhitespace();
+        char c = text.charAt(position);
+        if (c == '{') {
+            Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            while (text.charAt(position) != '}') {
+                String key = (String) parseValue();
+                skipWhitespace();
+                position++; // ':'
+                object.put(key, parseValue());
+                skipWhitespace();
+                if (text.charAt(position) == ',') {
+                    position++;
+                    skipWhitespace();
+                }
+            }
+            position++;
+            return object;
+        }
+        if (c == '[') {
+            List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            while (text.charAt(position) != ']') {
+                array.add(parseValue());
+                skipWhitespace();
+                if (text.charAt(position) == ',') {
+                    position++;
+                    skipWhitespace();
+                }
+            }
+            position++;
+            return array;
+        }
+        if (c == '"') {
+            StringBuilder string = new StringBuilder();
+            position++;
+            while (text.charAt(position) != '"') {
+                char next = text.charAt(position++);
+                if (next == '\\') {
+                    char escaped = text.charAt(position++);
+                    if (escaped == 'u') {
+                        next = (char) Integer.parseInt(text.substring(position, position + 4), 16);
+                        position += 4;
+                    } else {
+                        next = escaped == 'n' ? '\n' : escaped == 't' ? '\t' : escaped == 'r' ? '\r' : escaped;
+                    }
+                }
+                string.append(next);
+            }
+            position++;
+            String value = string.toString();
+            return value.equals("NaN") ? (Object) Double.NaN : value;
+        }
+        int start = position;
+        while (position < text.length() && ",}] \t\r\n".indexOf(text.charAt(position)) < 0) {
+            position++;
+        }
+        String literal = text.substring(start, position);
+        if (literal.equals("true") || literal.equals("false")) {
+            return Boolean.valueOf(literal);
+        }
+        return literal.equals("null") ? null : Double.valueOf(literal);
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+}
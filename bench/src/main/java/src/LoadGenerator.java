@@ -0,0 +1,745 @@
+package src;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The src.LoadGenerator class drives the server end to end over loopback connections and reports its throughput,
+ * latency percentiles and errors. It starts src.Server in a child JVM for each requested server mode, with a
+ * generated config.ini serving www/lab/html on a free port (or drives an already running server with --target),
+ * and runs one of two kinds of load on a number of connections:
+ * closed loop, where each connection sends its next request as soon as the previous response is read, and
+ * open loop (--rate), where requests are sent at a constant total rate whether or not the server keeps up.
+ * Latencies are corrected for coordinated omission: in open loop they are measured from the time each request was
+ * meant to be sent, and in closed loop the requests held back by a slow response are accounted for with
+ * src.LatencyHistogram#recordWithExpectedInterval, the expected interval being the median latency of the warmup
+ * (or --expected-interval-us).
+ * The uncorrected service times are reported too. The requests follow a weighted mix of GET html, GET images,
+ * HEAD, TRACE and POST /params_info.html, or replay a recorded request log: a binary access log written by
+ * src.AccessLog, or JSON lines with "method" and "path" (and optionally "headers" and "body") fields.
+ * The results of all runs are saved as one JSON file, so that runs can be compared across server modes.
+ * Run it with load.sh; run it without arguments for the options.
+ */
+public class LoadGenerator {
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+    private static final int READ_TIMEOUT_MILLIS = 10_000;
+    private static final long SERVER_START_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(15);
+    private static final byte[] ACCESS_LOG_MAGIC = "HTTPACC1".getBytes(StandardCharsets.US_ASCII);
+    private static final String DEFAULT_MIX = "html:60,image:20,head:10,trace:5,post:5";
+    private static final String POST_BODY = "name=load&comment=open+loop%21";
+
+    private static final String USAGE = String.join("\n",
+            "usage: java -cp bench/target/benchmarks.jar src.LoadGenerator [options]",
+            "  --modes pool,virtual,nio   server modes to start and run in turn (default pool)",
+            "  --target host:port         drive a running server instead of starting one",
+            "  --connections N            concurrent connections (default 8)",
+            "  --duration S               measured seconds per run (default 10)",
+            "  --warmup S                 unmeasured seconds before each run (default 2)",
+            "  --rate R                   open loop at R requests per second in total (default: closed loop)",
+            "  --keep-alive true|false    reuse connections (default true)",
+            "  --expected-interval-us US  closed loop latency correction interval (default: warmup median)",
+            "  --mix " + DEFAULT_MIX + "   request weights (default)",
+            "  --replay FILE              replay an access log or JSON lines request log instead of the mix",
+            "  --root DIR                 document root of the started server (default www/lab/html)",
+            "  --java PATH                java executable of the started server (default: this one)",
+            "  --out FILE                 result file (default bench/target/load-<time>.json)");
+
+    private final Map<String, String> options;
+    private final List<RequestTemplate> templates;
+    private final int[] cumulativeWeights; // null when replaying the templates in order
+    private final String workload;
+
+    private LoadGenerator(Map<String, String> options, List<RequestTemplate> templates, int[] cumulativeWeights,
+                          String workload) {
+        this.options = options;
+        this.templates = templates;
+        this.cumulativeWeights = cumulativeWeights;
+        this.workload = workload;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options == null) {
+            System.err.println(USAGE);
+            System.exit(2);
+        }
+        boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keep-alive", "true"));
+        LoadGenerator generator;
+        if (options.containsKey("replay")) {
+            List<RequestTemplate> templates = readRequestLog(Path.of(options.get("replay")), keepAlive);
+            if (templates.isEmpty()) {
+                System.err.println("no replayable requests in " + options.get("replay")
+                        + " (expected an access log, or JSON lines with \"method\" and \"path\" fields)");
+                System.exit(1);
+            }
+            generator = new LoadGenerator(options, templates, null,
+                    "replay " + options.get("replay") + " (" + templates.size() + " requests)");
+        } else {
+            String mix = options.getOrDefault("mix", DEFAULT_MIX);
+            List<RequestTemplate> templates = new ArrayList<>();
+            List<Integer> weights = new ArrayList<>();
+            for (String entry : mix.split(",")) {
+                String[] parts = entry.trim().split(":");
+                templates.add(mixTemplate(parts[0], keepAlive));
+                weights.add(parts.length > 1 ? Integer.parseInt(parts[1]) : 1);
+            }
+            int[] cumulative = new int[weights.size()];
+            for (int i = 0, total = 0; i < cumulative.length; i++) {
+                total += weights.get(i);
+                cumulative[i] = total;
+            }
+            generator = new LoadGenerator(options, templates, cumulative, "mix " + mix);
+        }
+
+        List<String> runs = new ArrayList<>();
+        List<String> summaries = new ArrayList<>();
+        if (options.containsKey("target")) {
+            String[] target = options.get("target").split(":");
+            Result result = generator.run(new InetSocketAddress(target[0], Integer.parseInt(target[1])));
+            runs.add(result.toJson("external", options.get("target")));
+            summaries.add(result.summary("external"));
+        } else {
+            for (String mode : options.getOrDefault("modes", "pool").split(",")) {
+                int port = freePort();
+                Process server = startServer(mode.trim(), port, options);
+                try {
+                    Result result = generator.run(new InetSocketAddress("127.0.0.1", port));
+                    runs.add(result.toJson(mode.trim(), "127.0.0.1:" + port));
+                    summaries.add(result.summary(mode.trim()));
+                } finally {
+                    stopServer(server);
+                }
+            }
+        }
+
+        Path out = Path.of(options.getOrDefault("out", "bench/target/load-" + System.currentTimeMillis() + ".json"));
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        Files.writeString(out, "{\n  \"startedAt\": " + Json.quote(Instant.now().toString())
+                + ",\n  \"java\": " + Json.quote(System.getProperty("java.version"))
+                + ",\n  \"cores\": " + Runtime.getRuntime().availableProcessors()
+                + ",\n  \"runs\": [\n" + String.join(",\n", runs) + "\n  ]\n}\n");
+        System.out.printf("%n%-10s %12s %10s %10s %10s %10s %8s%n", "mode", "requests/s", "p50 us", "p99 us",
+                "p99.9 us", "max us", "errors");
+        summaries.forEach(System.out::println);
+        System.out.println("results saved to " + out);
+    }
+
+    /**
+     * Runs the warmup and the measured load against one server.
+     *
+     * @param address the address of the server
+     * @return the measurements
+     * @throws InterruptedException if interrupted while waiting for the connections
+     */
+    private Result run(InetSocketAddress address) throws InterruptedException {
+        int connections = Integer.parseInt(options.getOrDefault("connections", "8"));
+        double warmupSeconds = Double.parseDouble(options.getOrDefault("warmup", "2"));
+        double durationSeconds = Double.parseDouble(options.getOrDefault("duration", "10"));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        boolean keepAlive = Boolean.parseBoolean(options.getOrDefault("keep-alive", "true"));
+
+        long start = System.nanoTime();
+        Result result = new Result(connections, keepAlive, rate, durationSeconds, warmupSeconds,
+                start + (long) (warmupSeconds * 1e9), start + (long) ((warmupSeconds + durationSeconds) * 1e9));
+        System.out.println("driving " + address + " for " + warmupSeconds + " + " + durationSeconds + " s: "
+                + connections + " connections, " + (rate > 0 ? "open loop at " + rate + " requests/s" : "closed loop")
+                + ", keep-alive " + keepAlive + ", " + workload);
+        Worker[] workers = new Worker[connections];
+        for (int i = 0; i < connections; i++) {
+            workers[i] = new Worker(i, address, result, start);
+            workers[i].start();
+        }
+
+        long untilMeasurement = result.measureStart - System.nanoTime();
+        if (untilMeasurement > 0) {
+            TimeUnit.NANOSECONDS.sleep(untilMeasurement);
+        }
+        if (rate == 0) {
+            result.expectedIntervalNanos = options.containsKey("expected-interval-us")
+                    ? (long) (Double.parseDouble(options.get("expected-interval-us")) * 1000)
+                    : result.warmup.snapshot().valueAt(0.5);
+        }
+        result.measuring = true;
+        for (Worker worker : workers) {
+            worker.join();
+        }
+        return result;
+    }
+
+    /**
+     * Picks the next request of a connection: by weight from the mix, or the next one of the replayed log.
+     */
+    private RequestTemplate nextRequest(SplittableRandom random, long sequence) {
+        if (cumulativeWeights == null) {
+            return templates.get((int) (sequence % templates.size()));
+        }
+        int draw = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                return templates.get(i);
+            }
+        }
+        return templates.get(templates.size() - 1);
+    }
+
+    /**
+     * One client connection, sending requests and reading the responses on its own thread.
+     */
+    private class Worker extends Thread {
+        private final int index;
+        private final InetSocketAddress address;
+        private final Result result;
+        private final long start;
+        private final SplittableRandom random;
+        private final byte[] buffer = new byte[16 * 1024];
+        private int position = 0;
+        private int limit = 0;
+        private Socket socket;
+        private InputStream in;
+        private OutputStream out;
+        private boolean closeAfterResponse;
+
+        Worker(int index, InetSocketAddress address, Result result, long start) {
+            super("load-connection-" + index);
+            this.index = index;
+            this.address = address;
+            this.result = result;
+            this.start = start;
+            this.random = new SplittableRandom(index);
+        }
+
+        @Override
+        public void run() {
+            boolean openLoop = result.rate > 0;
+            long interval = openLoop ? (long) (result.connections * 1e9 / result.rate) : 0;
+            long nextIntended = start + (openLoop ? interval * index / result.connections : 0);
+            for (long sequence = index; ; sequence += result.connections) {
+                long intended = nextIntended;
+                if (openLoop) {
+                    nextIntended += interval;
+                    long wait = intended - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    }
+                    if (intended >= result.end) {
+                        break;
+                    }
+                }
+                long sent = System.nanoTime();
+                if (sent >= result.end) {
+                    break;
+                }
+                if (!openLoop) {
+                    intended = sent;
+                }
+                RequestTemplate request = nextRequest(random, sequence);
+                int status = send(request);
+                long done = System.nanoTime();
+                if (result.measuring && intended >= result.measureStart) {
+                    result.record(status, done - intended, done - sent);
+                } else if (status > 0) {
+                    result.warmup.record(done - sent);
+                }
+            }
+            closeConnection();
+        }
+
+        /**
+         * Sends one request and reads its response, connecting first if needed.
+         *
+         * @return the status code, or a negative error code
+         */
+        private int send(RequestTemplate request) {
+            try {
+                if (socket == null) {
+                    try {
+                        socket = new Socket();
+                        socket.setTcpNoDelay(true);
+                        socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                        socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                        in = socket.getInputStream();
+                        out = socket.getOutputStream();
+                    } catch (IOException e) {
+                        closeConnection();
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10)); // do not spin on a refused port
+                        return Result.CONNECT_ERROR;
+                    }
+                }
+                out.write(request.bytes);
+                out.flush();
+                int status = readResponse(request.head);
+                if (closeAfterResponse) {
+                    closeConnection();
+                }
+                return status;
+            } catch (SocketTimeoutException e) {
+                closeConnection();
+                return Result.TIMEOUT_ERROR;
+            } catch (IOException e) {
+                closeConnection();
+                return Result.IO_ERROR;
+            }
+        }
+
+        private void closeConnection() {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                    // the connection is dropped either way
+                }
+            }
+            socket = null;
+            position = 0;
+            limit = 0;
+        }
+
+        /**
+         * Reads a response, skipping its body by Content-Length, chunked framing or up to the end of the stream.
+         */
+        private int readResponse(boolean head) throws IOException {
+            String statusLine = readLine();
+            if (statusLine.length() < 12 || !statusLine.startsWith("HTTP/1.")) {
+                throw new IOException("invalid status line: " + statusLine);
+            }
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = -1;
+            boolean chunked = false;
+            closeAfterResponse = statusLine.startsWith("HTTP/1.0");
+            for (String line = readLine(); !line.isEmpty(); line = readLine()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = value.equalsIgnoreCase("chunked");
+                } else if (name.equalsIgnoreCase("Connection")) {
+                    closeAfterResponse |= value.equalsIgnoreCase("close");
+                }
+            }
+            if (head || status == 204 || status == 304 || status / 100 == 1) {
+                return status;
+            }
+            if (chunked) {
+                while (true) {
+                    String sizeLine = readLine();
+                    int extension = sizeLine.indexOf(';');
+                    long size = Long.parseLong((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+                    if (size == 0) {
+                        while (!readLine().isEmpty()) {
+                            // trailer fields
+                        }
+                        break;
+                    }
+                    skip(size);
+                    readLine();
+                }
+            } else if (contentLength >= 0) {
+                skip(contentLength);
+            } else {
+                while (fill()) {
+                    result.bytesReceived.add(limit - position);
+                    position = limit;
+                }
+                closeAfterResponse = true;
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                if (position == limit && !fill()) {
+                    throw new EOFException("connection closed by the server");
+                }
+                byte b = buffer[position++];
+                result.bytesReceived.increment();
+                if (b == '\n') {
+                    int length = line.length();
+                    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+                }
+                line.append((char) (b & 0xff));
+            }
+        }
+
+        private void skip(long count) throws IOException {
+            while (count > 0) {
+                if (position == limit && !fill()) {
+                    throw new EOFException("connection closed by the server");
+                }
+                int skipped = (int) Math.min(count, limit - position);
+                position += skipped;
+                count -= skipped;
+                result.bytesReceived.add(skipped);
+            }
+        }
+
+        private boolean fill() throws IOException {
+            position = 0;
+            limit = Math.max(0, in.read(buffer, 0, buffer.length));
+            return limit > 0;
+        }
+    }
+
+    /**
+     * The measurements of one run, shared by its connections.
+     */
+    private static class Result {
+        static final int CONNECT_ERROR = -1;
+        static final int TIMEOUT_ERROR = -2;
+        static final int IO_ERROR = -3;
+
+        final int connections;
+        final boolean keepAlive;
+        final double rate;
+        final double durationSeconds;
+        final double warmupSeconds;
+        final long measureStart;
+        final long end;
+        final LatencyHistogram latency = new LatencyHistogram(); // corrected for coordinated omission
+        final LatencyHistogram serviceTime = new LatencyHistogram(); // from the actual send
+        final LatencyHistogram warmup = new LatencyHistogram();
+        final LongAdder completed = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+        final Map<Integer, LongAdder> statusCounts = new ConcurrentHashMap<>();
+        volatile long expectedIntervalNanos;
+        volatile boolean measuring;
+
+        Result(int connections, boolean keepAlive, double rate, double durationSeconds, double warmupSeconds,
+               long measureStart, long end) {
+            this.connections = connections;
+            this.keepAlive = keepAlive;
+            this.rate = rate;
+            this.durationSeconds = durationSeconds;
+            this.warmupSeconds = warmupSeconds;
+            this.measureStart = measureStart;
+            this.end = end;
+        }
+
+        void record(int status, long latencyNanos, long serviceNanos) {
+            statusCounts.computeIfAbsent(status, key -> new LongAdder()).increment();
+            if (status < 0) {
+                return;
+            }
+            completed.increment();
+            latency.recordWithExpectedInterval(latencyNanos, expectedIntervalNanos);
+            serviceTime.record(serviceNanos);
+        }
+
+        long errors() {
+            long errors = 0;
+            for (Map.Entry<Integer, LongAdder> entry : statusCounts.entrySet()) {
+                if (entry.getKey() < 0 || entry.getKey() >= 400) {
+                    errors += entry.getValue().sum();
+                }
+            }
+            return errors;
+        }
+
+        String summary(String mode) {
+            LatencyHistogram.Snapshot snapshot = latency.snapshot();
+            return String.format("%-10s %12.0f %10d %10d %10d %10d %8d", mode, completed.sum() / durationSeconds,
+                    snapshot.valueAt(0.5) / 1000, snapshot.valueAt(0.99) / 1000, snapshot.valueAt(0.999) / 1000,
+                    snapshot.valueAt(1) / 1000, errors());
+        }
+
+        String toJson(String mode, String target) {
+            Map<String, Long> statuses = new TreeMap<>();
+            Map<String, Long> errorCounts = new LinkedHashMap<>();
+            errorCounts.put("connect", 0L);
+            errorCounts.put("timeout", 0L);
+            errorCounts.put("io", 0L);
+            errorCounts.put("http", 0L);
+            for (Map.Entry<Integer, LongAdder> entry : statusCounts.entrySet()) {
+                int status = entry.getKey();
+                long count = entry.getValue().sum();
+                if (status >= 0) {
+                    statuses.put(Integer.toString(status), count);
+                }
+                String error = status == CONNECT_ERROR ? "connect" : status == TIMEOUT_ERROR ? "timeout"
+                        : status == IO_ERROR ? "io" : status >= 400 ? "http" : null;
+                if (error != null) {
+                    errorCounts.merge(error, count, Long::sum);
+                }
+            }
+            return "    {\n"
+                    + "      \"mode\": " + Json.quote(mode) + ",\n"
+                    + "      \"target\": " + Json.quote(target) + ",\n"
+                    + "      \"loop\": " + Json.quote(rate > 0 ? "open" : "closed") + ",\n"
+                    + "      \"rate\": " + rate + ",\n"
+                    + "      \"connections\": " + connections + ",\n"
+                    + "      \"keepAlive\": " + keepAlive + ",\n"
+                    + "      \"warmupSeconds\": " + warmupSeconds + ",\n"
+                    + "      \"durationSeconds\": " + durationSeconds + ",\n"
+                    + "      \"requests\": " + completed.sum() + ",\n"
+                    + "      \"throughput\": " + String.format("%.1f", completed.sum() / durationSeconds) + ",\n"
+                    + "      \"bytesReceived\": " + bytesReceived.sum() + ",\n"
+                    + "      \"expectedIntervalMicros\": " + expectedIntervalNanos / 1000 + ",\n"
+                    + "      \"latencyMicros\": " + percentiles(latency) + ",\n"
+                    + "      \"serviceTimeMicros\": " + percentiles(serviceTime) + ",\n"
+                    + "      \"statusCounts\": " + counts(statuses) + ",\n"
+                    + "      \"errors\": " + counts(errorCounts) + "\n"
+                    + "    }";
+        }
+
+        private static String percentiles(LatencyHistogram histogram) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            double mean = snapshot.getCount() == 0 ? 0 : snapshot.getSum() / (double) snapshot.getCount() / 1000;
+            return String.format("{\"p50\": %d, \"p90\": %d, \"p99\": %d, \"p999\": %d, \"max\": %d, \"mean\": %.1f, \"count\": %d}",
+                    snapshot.valueAt(0.5) / 1000, snapshot.valueAt(0.9) / 1000, snapshot.valueAt(0.99) / 1000,
+                    snapshot.valueAt(0.999) / 1000, snapshot.valueAt(1) / 1000, mean, snapshot.getCount());
+        }
+
+        private static String counts(Map<String, Long> counts) {
+            List<String> fields = new ArrayList<>();
+            counts.forEach((name, count) -> fields.add(Json.quote(name) + ": " + count));
+            return "{" + String.join(", ", fields) + "}";
+        }
+    }
+
+    /**
+     * A request, encoded once and sent as is.
+     */
+    private static class RequestTemplate {
+        private final byte[] bytes;
+        private final boolean head;
+
+        RequestTemplate(String method, String path, Map<String, String> headers, String body, boolean keepAlive) {
+            StringBuilder request = new StringBuilder()
+                    .append(method).append(' ').append(path).append(" HTTP/1.1\r\n")
+                    .append("Host: localhost\r\n")
+                    .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n");
+            headers.forEach((name, value) -> {
+                if (!name.equalsIgnoreCase("Host") && !name.equalsIgnoreCase("Connection")
+                        && !name.equalsIgnoreCase("Content-Length") && !name.equalsIgnoreCase("Transfer-Encoding")) {
+                    request.append(name).append(": ").append(value).append("\r\n");
+                }
+            });
+            byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+            if (bodyBytes.length > 0 || method.equals("POST")) {
+                request.append("Content-Length: ").append(bodyBytes.length).append("\r\n");
+            }
+            request.append("\r\n");
+            byte[] headBytes = request.toString().getBytes(StandardCharsets.UTF_8);
+            bytes = Arrays.copyOf(headBytes, headBytes.length + bodyBytes.length);
+            System.arraycopy(bodyBytes, 0, bytes, headBytes.length, bodyBytes.length);
+            head = method.equals("HEAD");
+        }
+    }
+
+    /**
+     * Creates the request of a mix entry.
+     */
+    private static RequestTemplate mixTemplate(String name, boolean keepAlive) {
+        Map<String, String> browser = new LinkedHashMap<>();
+        browser.put("User-Agent", "java-http-server-load/1.0");
+        browser.put("Accept", "*/*");
+        switch (name) {
+            case "html":
+                return new RequestTemplate("GET", "/index.html", browser, "", keepAlive);
+            case "image":
+                return new RequestTemplate("GET", "/thug-giraffe.jpg", browser, "", keepAlive);
+            case "head":
+                return new RequestTemplate("HEAD", "/index.html", browser, "", keepAlive);
+            case "trace":
+                return new RequestTemplate("TRACE", "/index.html", browser, "", keepAlive);
+            case "post":
+                browser.put("Content-Type", "application/x-www-form-urlencoded");
+                return new RequestTemplate("POST", "/params_info.html", browser, POST_BODY, keepAlive);
+            default:
+                throw new IllegalArgumentException("unknown request type in the mix: " + name
+                        + " (expected html, image, head, trace or post)");
+        }
+    }
+
+    /**
+     * Reads the requests of a recorded log: a binary access log, or JSON lines with "method" and "path" fields.
+     * Lines that are not JSON objects with both fields are skipped.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<RequestTemplate> readRequestLog(Path file, boolean keepAlive) throws IOException {
+        List<RequestTemplate> templates = new ArrayList<>();
+        byte[] magic = new byte[ACCESS_LOG_MAGIC.length];
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            if (in.read(magic) == magic.length && Arrays.equals(magic, ACCESS_LOG_MAGIC)) {
+                readAccessLog(in, templates, keepAlive);
+                return templates;
+            }
+        }
+        int skipped = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Object parsed;
+                try {
+                    parsed = Json.parse(line);
+                } catch (IllegalArgumentException e) {
+                    skipped++;
+                    continue;
+                }
+                if (!(parsed instanceof Map) || !(((Map<String, Object>) parsed).get("method") instanceof String)
+                        || !(((Map<String, Object>) parsed).get("path") instanceof String)) {
+                    skipped++;
+                    continue;
+                }
+                Map<String, Object> entry = (Map<String, Object>) parsed;
+                Map<String, String> headers = new LinkedHashMap<>();
+                if (entry.get("headers") instanceof Map) {
+                    ((Map<String, Object>) entry.get("headers")).forEach((name, value) -> headers.put(name, String.valueOf(value)));
+                }
+                Object body = entry.get("body");
+                templates.add(new RequestTemplate((String) entry.get("method"), (String) entry.get("path"), headers,
+                        body instanceof String ? (String) body : "", keepAlive));
+            }
+        }
+        if (skipped > 0) {
+            System.out.println("skipped " + skipped + " lines of " + file + " without a \"method\" and a \"path\"");
+        }
+        return templates;
+    }
+
+    /**
+     * Reads the method and path of each record of an access log, in the format written by src.AccessLog.
+     */
+    private static void readAccessLog(DataInputStream in, List<RequestTemplate> templates, boolean keepAlive)
+            throws IOException {
+        while (true) {
+            try {
+                in.readLong(); // time
+            } catch (EOFException e) {
+                return;
+            }
+            in.readInt(); // latency
+            in.readUnsignedShort(); // status
+            in.readLong(); // bytes
+            byte[] method = new byte[in.readUnsignedByte()];
+            in.readFully(method);
+            byte[] path = new byte[in.readUnsignedShort()];
+            in.readFully(path);
+            if (method.length > 0 && path.length > 0) {
+                templates.add(new RequestTemplate(new String(method, StandardCharsets.US_ASCII),
+                        new String(path, StandardCharsets.UTF_8), Map.of(), "", keepAlive));
+            }
+        }
+    }
+
+    /**
+     * Starts src.Server in a child JVM, in a directory of its own holding a config.ini derived from the
+     * project's, and waits until it accepts connections.
+     */
+    private static Process startServer(String mode, int port, Map<String, String> options) throws IOException,
+            InterruptedException {
+        Path directory = Path.of("bench/target/load-server-" + mode).toAbsolutePath();
+        Files.createDirectories(directory);
+        Map<String, String> config = new LinkedHashMap<>();
+        Path projectConfig = Path.of("config.ini");
+        if (Files.exists(projectConfig)) {
+            for (String line : Files.readAllLines(projectConfig)) {
+                String[] parts = line.split("=", 2);
+                if (parts.length == 2) {
+                    config.put(parts[0], parts[1]);
+                }
+            }
+        }
+        config.putIfAbsent("imageExtensions", "jpg,bmp,png,gif");
+        config.putIfAbsent("defaultPage", "index.html");
+        config.putIfAbsent("maxThreads", "10");
+        config.put("port", Integer.toString(port));
+        config.put("root", Path.of(options.getOrDefault("root", "www/lab/html")).toAbsolutePath().toString());
+        config.put("serverMode", mode);
+        config.put("accessLog", "");
+        config.put("logSampleRates", "debug:0");
+        List<String> lines = new ArrayList<>();
+        lines.add("[src.Server]");
+        config.forEach((key, value) -> lines.add(key + "=" + value));
+        Files.write(directory.resolve("config.ini"), lines);
+
+        List<String> classPath = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            classPath.add(Path.of(entry).toAbsolutePath().toString());
+        }
+        String java = options.getOrDefault("java", Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        Process server = new ProcessBuilder(java, "-cp", String.join(File.pathSeparator, classPath), "src.Server")
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("server.log").toFile())
+                .start();
+        long deadline = System.nanoTime() + SERVER_START_TIMEOUT_NANOS;
+        while (System.nanoTime() < deadline && server.isAlive()) {
+            try (Socket probe = new Socket()) {
+                probe.connect(new InetSocketAddress("127.0.0.1", port), CONNECT_TIMEOUT_MILLIS);
+                System.out.println("started the server in " + mode + " mode on port " + port
+                        + " (log: " + directory.resolve("server.log") + ")");
+                return server;
+            } catch (IOException e) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+        }
+        server.destroyForcibly();
+        throw new IOException("the server did not start in " + mode + " mode, see " + directory.resolve("server.log"));
+    }
+
+    private static void stopServer(Process server) throws InterruptedException {
+        server.destroy();
+        if (!server.waitFor(5, TimeUnit.SECONDS)) {
+            server.destroyForcibly();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Parses "--name value" pairs.
+     *
+     * @return the options, or null if the arguments are not pairs of an option and its value
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        if (args.length % 2 != 0) {
+            return null;
+        }
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                return null;
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+}
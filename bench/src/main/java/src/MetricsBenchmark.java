@@ -0,0 +1,40 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.MetricsBenchmark class measures the recording src.RequestHandler does for src.Metrics on every
+ * request: the clock reads, the parse, lookup, write and request latencies, the bytes received
+ * and the request counter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetricsBenchmark {
+    @Benchmark
+    public void recordRequest() {
+        long parseStart = System.nanoTime();
+        Metrics.addBytesIn(412);
+        Metrics.PARSE.record(System.nanoTime() - parseStart);
+        long lookupStart = System.nanoTime();
+        long writeStart = System.nanoTime();
+        Metrics.LOOKUP.record(writeStart - lookupStart);
+        long endTime = System.nanoTime();
+        Metrics.WRITE.record(endTime - writeStart);
+        Metrics.REQUEST.record(endTime - parseStart);
+        Metrics.recordRequest("GET", 200, 2720);
+    }
+}
@@ -0,0 +1,89 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The src.ParserBenchmark class measures parsing a request head into an src.HTTPRequest the way
+ * a keep-alive connection does: one src.RequestParser is reused, and only the fields every request
+ * needs are read. The header sets are those of a browser loading an image, of curl, and of a form post.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ParserBenchmark {
+    private static final String[] IMAGE_EXTENSIONS = {"jpg", "bmp", "png", "gif"};
+
+    private static final String BROWSER =
+            "GET /thug-giraffe.jpg?size=large&lang=en HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Connection: keep-alive\r\n" +
+            "sec-ch-ua: \"Chromium\";v=\"118\"\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36\r\n" +
+            "Accept: image/avif,image/webp,image/apng,image/svg+xml,image/*,*/*;q=0.8\r\n" +
+            "Sec-Fetch-Site: same-origin\r\n" +
+            "Sec-Fetch-Mode: no-cors\r\n" +
+            "Referer: http://localhost:8080/\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Accept-Language: en-US,en;q=0.9\r\n" +
+            "If-None-Match: \"9ca7-18d9a\"\r\n" +
+            "If-Modified-Since: Wed, 14 Feb 2024 10:00:00 GMT\r\n" +
+            "\r\n";
+
+    private static final String CURL =
+            "GET / HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "User-Agent: curl/8.4.0\r\n" +
+            "Accept: */*\r\n" +
+            "\r\n";
+
+    private static final String FORM_POST =
+            "POST /params_info.html HTTP/1.1\r\n" +
+            "Host: localhost:8080\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Content-Length: 27\r\n" +
+            "Content-Type: application/x-www-form-urlencoded\r\n" +
+            "Origin: http://localhost:8080\r\n" +
+            "Referer: http://localhost:8080/index.html\r\n" +
+            "Accept-Encoding: gzip, deflate\r\n" +
+            "\r\n";
+
+    @Param({"browser", "curl", "form-post"})
+    private String headers;
+
+    private byte[] buffer;
+    private final RequestParser parser = new RequestParser();
+
+    @Setup
+    public void setUp() {
+        String request = headers.equals("browser") ? BROWSER : headers.equals("curl") ? CURL : FORM_POST;
+        buffer = request.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public void parse(Blackhole blackhole) {
+        parser.reset(0);
+        blackhole.consume(parser.parse(buffer, buffer.length));
+        HTTPRequest request = new HTTPRequest(parser, IMAGE_EXTENSIONS);
+        blackhole.consume(request.getRequestedPage());
+        blackhole.consume(request.getContentType());
+        blackhole.consume(request.isKeepAlive());
+        blackhole.consume(request.acceptsEncoding(ContentEncoder.GZIP));
+    }
+}
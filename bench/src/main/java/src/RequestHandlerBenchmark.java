@@ -0,0 +1,63 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.RequestHandlerBenchmark class measures the file path resolution of src.RequestHandler:
+ * normalizing a requested path, and reading a whole file as the TRACE and chunked responses do.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RequestHandlerBenchmark {
+    private Path file;
+
+    /**
+     * The requested paths: one already normalized, one with "." and ".." segments.
+     */
+    @State(Scope.Thread)
+    public static class RequestedPath {
+        @Param({"/index.html", "/images/../images/./thug-giraffe.jpg"})
+        private String path;
+    }
+
+    @Setup
+    public void setUp() throws IOException {
+        file = Files.createTempFile("bench-", ".html");
+        Files.write(file, new byte[2562]);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public String sanitizePath(RequestedPath requestedPath) {
+        return RequestHandler.sanitizePath(requestedPath.path);
+    }
+
+    @Benchmark
+    public byte[] readFileContent() {
+        return RequestHandler.readFileContent(file.toString());
+    }
+}
@@ -0,0 +1,92 @@
+package src;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.ResponseBenchmark class measures src.ResponseBuilder encoding responses into an output that discards
+ * them: a 200 response with a 2.5 KB body and an ETag, an empty 404, and a 20 KB chunked response
+ * streamed 1 KB at a time.
+ * The debug header dumps are turned off, as with logSampleRates=debug:0, so only the encoding is measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseBenchmark {
+    private final ResponseBuilder responseBuilder = new ResponseBuilder();
+    private final NullOutput output = new NullOutput();
+    private final byte[] body = new byte[2562];
+    private final byte[] chunkedBody = new byte[20 * 1024];
+
+    @Setup
+    public void setUp() {
+        Log.setSampleRate(Log.Level.DEBUG, 0);
+    }
+
+    @Benchmark
+    public long handleResponse200() throws Exception {
+        responseBuilder.setKeepAlive(true, 5, 99);
+        responseBuilder.addHeader("ETag", "\"a02-18d9a3c2e10\"");
+        responseBuilder.handleResponse(200, "html", body, "GET", output, null);
+        return output.bytes;
+    }
+
+    @Benchmark
+    public long handleResponse404() throws Exception {
+        responseBuilder.setKeepAlive(true, 5, 99);
+        responseBuilder.handleResponse(404, "default", new byte[0], "GET", output, null);
+        return output.bytes;
+    }
+
+    @Benchmark
+    public long handleChunkedResponse() throws Exception {
+        responseBuilder.setKeepAlive(true, 5, 99);
+        ChunkedOutput chunked = responseBuilder.startChunkedResponse(200, "html", output);
+        for (int i = 0; i < chunkedBody.length; i += 1024) { // produced 1 KB at a time
+            chunked.write(chunkedBody, i, 1024);
+        }
+        chunked.close();
+        return output.bytes;
+    }
+
+    /**
+     * A response output that counts the bytes it receives and discards them.
+     */
+    private static class NullOutput extends ResponseOutput {
+        private long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+
+        @Override
+        public void write(byte[] head, int headLength, byte[] body) {
+            bytes += headLength + body.length;
+        }
+
+        @Override
+        public void sendFile(Path file, long position, long count) {
+            bytes += count;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package src;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.RouterBenchmark class measures finding the handler of a request with src.Router, for an exact route
+ * and for a static file that falls through to the "/" prefix route, with the server's 4 routes and with 256,
+ * against a chain of String.equals checks over the same paths, as src.RequestHandler did before.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterBenchmark {
+    private static final Handler HANDLER = exchange -> Handler.DONE;
+    private static final Handler STATIC_FILES = exchange -> Handler.DONE;
+
+    @Param({"4", "256"})
+    public int routes;
+
+    private final String exactPath = "/params_info.html";
+    private final String filePath = "/images/logo.png";
+    private String[] paths;
+    private Router router;
+
+    @Setup
+    public void setUp() {
+        Router.Builder builder = new Router.Builder()
+                .route(Metrics.PATH, HANDLER, RequestType.GET, RequestType.HEAD)
+                .route(ConfigManager.PATH, HANDLER, RequestType.POST)
+                .prefix("/", STATIC_FILES, RequestType.GET, RequestType.HEAD, RequestType.POST, RequestType.TRACE);
+        paths = new String[routes - 1];
+        paths[0] = Metrics.PATH;
+        paths[1] = ConfigManager.PATH;
+        for (int i = 2; i < paths.length - 1; i++) {
+            paths[i] = "/api/v1/resource" + i;
+            builder.route(paths[i], HANDLER, RequestType.POST);
+        }
+        paths[paths.length - 1] = exactPath;
+        router = builder.route(exactPath, HANDLER, RequestType.POST).build();
+    }
+
+    @Benchmark
+    public Handler findExactRoute() {
+        return router.find(RequestType.POST, exactPath);
+    }
+
+    @Benchmark
+    public Handler findStaticFile() {
+        return router.find(RequestType.GET, filePath);
+    }
+
+    @Benchmark
+    public Handler ifChainStaticFile() {
+        for (String path : paths) {
+            if (filePath.equals(path)) {
+                return HANDLER;
+            }
+        }
+        return STATIC_FILES;
+    }
+}
@@ -0,0 +1,98 @@
+package src;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The src.TemplateBenchmark class measures rendering the params_info.html page for a form of 10 fields:
+ * the compiled src.Template rendered into an output that discards it, against the earlier approach of
+ * inserting each paragraph into a StringBuilder of the page and encoding the result, without the re-reading
+ * of the file that the earlier approach also did for every request.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TemplateBenchmark {
+    private static final byte[] PARAGRAPH_START = "<p>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARAGRAPH_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARAGRAPH_END = "</p>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final Map<String, String> params = new LinkedHashMap<>();
+    private final NullStream output = new NullStream();
+    private String page;
+    private Template template;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] source = Files.readAllBytes(Paths.get("www/lab/html/params_info.html"));
+        page = new String(source, StandardCharsets.UTF_8).replace("<!--{{params}}-->", "");
+        template = Template.compile(source);
+        for (int i = 0; i < 10; i++) {
+            params.put("field" + i, "value of field " + i);
+        }
+    }
+
+    @Benchmark
+    public long renderTemplate() throws IOException {
+        template.render(output, (slot, out) -> {
+            for (Map.Entry<String, String> entry : params.entrySet()) {
+                out.write(PARAGRAPH_START);
+                Template.writeEscaped(out, entry.getKey());
+                out.write(PARAGRAPH_SEPARATOR);
+                Template.writeEscaped(out, entry.getValue());
+                out.write(PARAGRAPH_END);
+            }
+        });
+        return output.bytes;
+    }
+
+    @Benchmark
+    public long insertIntoPage() {
+        StringBuilder html = new StringBuilder(page);
+        int bodyIndex = html.indexOf("<body>") + "<body>".length();
+        for (Map.Entry<String, String> entry : params.entrySet()) {
+            String pElement = "<p>" + entry.getKey() + ": " + entry.getValue() + "</p>\n";
+            html.insert(bodyIndex, pElement);
+            bodyIndex += pElement.length();
+        }
+        output.bytes += html.toString().getBytes().length;
+        return output.bytes;
+    }
+
+    /**
+     * A stream that counts the bytes it receives and discards them.
+     */
+    private static class NullStream extends OutputStream {
+        private long bytes = 0;
+
+        @Override
+        public void write(int b) {
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bytes += len;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+#!/bin/bash
+# Builds the server and the benchmark tools, then drives the server over loopback with src.LoadGenerator
+# and saves the throughput, latency percentiles and errors of each run as JSON in bench/target.
+# usage: ./load.sh [--modes pool,virtual,nio] [--connections N] [--duration S] [--rate R] [--replay FILE] ...
+cd "$(dirname "$0")" || exit 1
+mvn -B -q install -DskipTests || exit 1
+mvn -B -q -f bench/pom.xml package || exit 1
+java -cp bench/target/benchmarks.jar src.LoadGenerator "$@"
@@ -0,0 +1,181 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The src.AccessLog class writes one compact binary record per handled request to a file that is rotated
+ * by size: when it would grow past maxBytes it is renamed to file.1 (file.1 to file.2, and so on, keeping
+ * maxFiles old files) and a new file is started. It is only used by the writer thread of src.Log.
+ * A file starts with the magic "HTTPACC1"; each record holds the time in epoch milliseconds (long),
+ * the latency in microseconds (int), the status code (short), the body bytes sent (long), the method
+ * (a length byte and ASCII bytes) and the path (a length short and UTF-8 bytes, at most 1024 bytes).
+ * Run the class to print a log file as text: java src.AccessLog access.log
+ */
+public class AccessLog {
+    private static final byte[] MAGIC = "HTTPACC1".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_PATH_BYTES = 1024;
+
+    private final String fileName;
+    private final long maxBytes;
+    private final int maxFiles;
+    private DataOutputStream out;
+    private long written;
+
+    /**
+     * Constructs a src.AccessLog object appending to the given file.
+     *
+     * @param fileName the path of the log file
+     * @param maxBytes the size at which the file is rotated
+     * @param maxFiles the number of rotated files kept
+     * @throws IOException if the file cannot be opened
+     */
+    public AccessLog(String fileName, long maxBytes, int maxFiles) throws IOException {
+        this.fileName = fileName;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        open();
+    }
+
+    private void open() throws IOException {
+        File file = new File(fileName);
+        written = file.length();
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16));
+        if (written == 0) {
+            out.write(MAGIC);
+            written = MAGIC.length;
+        }
+    }
+
+    /**
+     * Appends one record, rotating the file first if the record would not fit.
+     *
+     * @param timestamp the time the request was handled, in epoch milliseconds
+     * @param method the request method, or null
+     * @param path the requested path, or null
+     * @param status the status code of the response
+     * @param bytes the number of body bytes sent
+     * @param latencyNanos the time taken to handle the request
+     */
+    public void write(long timestamp, String method, String path, int status, long bytes, long latencyNanos) {
+        if (out == null) {
+            return;
+        }
+        byte[] methodBytes = method == null ? new byte[0] : method.getBytes(StandardCharsets.US_ASCII);
+        byte[] pathBytes = path == null ? new byte[0] : path.getBytes(StandardCharsets.UTF_8);
+        int methodLength = Math.min(methodBytes.length, 255);
+        int pathLength = Math.min(pathBytes.length, MAX_PATH_BYTES);
+        int recordLength = 8 + 4 + 2 + 8 + 1 + methodLength + 2 + pathLength;
+        try {
+            if (written + recordLength > maxBytes && written > MAGIC.length) {
+                rotate();
+            }
+            out.writeLong(timestamp);
+            out.writeInt((int) Math.min(latencyNanos / 1000, Integer.MAX_VALUE));
+            out.writeShort(status);
+            out.writeLong(bytes);
+            out.writeByte(methodLength);
+            out.write(methodBytes, 0, methodLength);
+            out.writeShort(pathLength);
+            out.write(pathBytes, 0, pathLength);
+            written += recordLength;
+        } catch (IOException e) {
+            System.err.println("access log disabled, failed to write " + fileName + " : " + e);
+            close();
+        }
+    }
+
+    /**
+     * Shifts the rotated files by one, renames the current file to file.1 and starts a new file.
+     */
+    private void rotate() throws IOException {
+        out.close();
+        new File(fileName + "." + maxFiles).delete();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            new File(fileName + "." + i).renameTo(new File(fileName + "." + (i + 1)));
+        }
+        if (maxFiles > 0) {
+            new File(fileName).renameTo(new File(fileName + ".1"));
+        } else {
+            new File(fileName).delete();
+        }
+        open();
+    }
+
+    /**
+     * Flushes the buffered records to the file; called once per batch.
+     */
+    public void flush() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("failed to flush access log " + fileName + " : " + e);
+        }
+    }
+
+    /**
+     * Flushes and closes the file.
+     */
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("failed to close access log " + fileName + " : " + e);
+        }
+        out = null;
+    }
+
+    /**
+     * Prints the records of an access log file as text, one line per request:
+     * time, method, path, status, bytes and latency in microseconds.
+     *
+     * @param args the path of the file
+     * @throws IOException if the file cannot be read or is not an access log
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: java src.AccessLog <access log file>");
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0])))) {
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException(args[0] + " is not an access log");
+            }
+            while (true) {
+                long timestamp;
+                try {
+                    timestamp = in.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                int latencyMicros = in.readInt();
+                int status = in.readUnsignedShort();
+                long bytes = in.readLong();
+                byte[] method = new byte[in.readUnsignedByte()];
+                in.readFully(method);
+                byte[] path = new byte[in.readUnsignedShort()];
+                in.readFully(path);
+                System.out.println(Instant.ofEpochMilli(timestamp) + " "
+                        + (method.length == 0 ? "-" : new String(method, StandardCharsets.US_ASCII)) + " "
+                        + (path.length == 0 ? "-" : new String(path, StandardCharsets.UTF_8)) + " "
+                        + status + " " + bytes + " " + latencyMicros + "us");
+            }
+        }
+    }
+}
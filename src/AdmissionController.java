@@ -0,0 +1,126 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The src.AdmissionController class decides whether the server takes on an accepted connection or sheds it:
+ * answers it at once with a pre-encoded 503 Service Unavailable and Retry-After, and closes it.
+ * Under overload the connections that are admitted are then served with a bounded delay, instead of every
+ * client waiting in the accept backlog until it times out.
+ * A connection is shed when it arrives over capacity (no connection permit is free), or when it waited too
+ * long for a worker. Queue delays are checked the way CoDel checks them: the time each connection waited before a
+ * worker picked it up (its sojourn time) is compared with a target, and once sojourn times have stayed above the
+ * target for a whole interval, the queue is a standing queue rather than a burst being absorbed, so connections
+ * are shed until one is picked up within the target again. A gap of an interval without connections means the
+ * queue ran empty and starts the check over.
+ */
+public class AdmissionController {
+    private static final int DISCARD_BUFFER_SIZE = 4096;
+    private static final ThreadLocal<ByteBuffer> DISCARD_BUFFERS =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DISCARD_BUFFER_SIZE));
+
+    private final boolean enabled;
+    private volatile long targetNanos;
+    private volatile long intervalNanos;
+    private volatile byte[] response;
+    // CoDel state, guarded by this
+    private boolean aboveTarget = false;
+    private long aboveTargetSince;
+    private long lastSojournTime;
+    private boolean dropping = false;
+
+    /**
+     * Constructs a src.AdmissionController object with the queue delay target, interval and Retry-After
+     * from the configuration.
+     *
+     * @param config the configuration
+     */
+    public AdmissionController(Config config) {
+        enabled = config.isAdmissionControl();
+        reconfigure(config);
+    }
+
+    /**
+     * Applies the queue delay target, interval and Retry-After of a new configuration.
+     * Whether admission control is enabled only changes with a restart.
+     *
+     * @param config the configuration
+     */
+    public void reconfigure(Config config) {
+        targetNanos = config.getAdmissionTargetMillis() * 1_000_000L;
+        intervalNanos = config.getAdmissionIntervalMillis() * 1_000_000L;
+        response = ResponseHead.encodeServiceUnavailable(config.getRetryAfter());
+    }
+
+    /**
+     * Returns whether admission control is enabled; when it is not, every connection is admitted
+     * and the acceptors wait for a free permit before accepting, as before.
+     *
+     * @return whether admission control is enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records how long a connection waited for a worker and decides whether to serve it.
+     *
+     * @param sojournNanos the time from accepting the connection until a worker picked it up
+     * @return whether to serve the connection; if not, it should be shed
+     */
+    public boolean admit(long sojournNanos) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        synchronized (this) {
+            boolean idle = now - lastSojournTime > intervalNanos;
+            lastSojournTime = now;
+            if (sojournNanos <= targetNanos) {
+                aboveTarget = false;
+                dropping = false;
+            } else if (!aboveTarget || idle) {
+                aboveTarget = true;
+                aboveTargetSince = now;
+                dropping = false;
+            } else if (now - aboveTargetSince >= intervalNanos) {
+                dropping = true;
+            }
+            return !dropping;
+        }
+    }
+
+    /**
+     * Sheds a connection: discards what the client has sent so far, so that closing does not reset the
+     * connection before the client reads the response, writes the 503 response and closes the connection.
+     * Nothing waits for the client, so shedding costs a few system calls.
+     *
+     * @param channel the client channel
+     * @param reason {@link Metrics#SHED_CAPACITY} or {@link Metrics#SHED_QUEUE_DELAY}
+     */
+    public void shed(SocketChannel channel, int reason) {
+        Metrics.connectionShed(reason);
+        try (channel) {
+            channel.configureBlocking(false);
+            ByteBuffer discard = DISCARD_BUFFERS.get();
+            discard.clear();
+            channel.read(discard);
+            channel.write(ByteBuffer.wrap(response));
+            channel.shutdownOutput();
+        } catch (IOException e) {
+            Log.debug("failed to shed client connection : " + e);
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the connections shed so far.
+     *
+     * @return the admission control statistics
+     */
+    public String getStatistics() {
+        return "admission control: shed capacity=" + Metrics.shedConnections(Metrics.SHED_CAPACITY)
+                + " queueDelay=" + Metrics.shedConnections(Metrics.SHED_QUEUE_DELAY);
+    }
+}
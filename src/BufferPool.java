@@ -0,0 +1,332 @@
+package src;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The src.BufferPool class lends direct ByteBuffers to the socket write paths. Responses are collected in native
+ * memory, which a socket channel writes as it is, instead of in heap arrays that the JDK copies into a temporary
+ * direct buffer on every write, and a connection only holds a buffer while it has bytes to send, not for as long
+ * as it stays open.
+ * Buffers come in size classes of 8, 16 and 64 KB, and a request is served from the smallest class that fits;
+ * larger requests get an unpooled buffer that is dropped when it is released. Each platform thread keeps a few
+ * buffers of each class in a thread-local cache, so a thread that borrows and releases a buffer for every response
+ * touches no shared state; beyond that, buffers go to a lock-free free list per class, a ConcurrentLinkedQueue
+ * bounded to {@link #MAX_SHARED_IDLE} buffers, past which released buffers are left to the garbage collector.
+ * Virtual threads, which live for one connection, skip the thread-local cache.
+ * With leak detection (bufferLeakDetection=true, a debugging aid) every buffer lent out records the stack trace of
+ * its borrower, and a buffer that becomes unreachable without having been released is logged with that trace and
+ * its memory taken back into the pool.
+ */
+public class BufferPool {
+    static final int[] SIZE_CLASSES = {8192, 16384, 65536};
+    private static final int THREAD_CACHE_SIZE = 8; // per size class
+    static final int MAX_SHARED_IDLE = 256; // per size class
+    private static final BufferPool SHARED = new BufferPool();
+    private static final ThreadCache NO_CACHE = new ThreadCache();
+
+    private final SizeClass[] sizeClasses = new SizeClass[SIZE_CLASSES.length];
+    private final ThreadLocal<ThreadCache> threadCaches =
+            ThreadLocal.withInitial(() -> isVirtual(Thread.currentThread()) ? NO_CACHE : new ThreadCache());
+    private final LongAdder unpooled = new LongAdder(); // buffers larger than every size class
+    private final ReferenceQueue<PooledBuffer> unreachable = new ReferenceQueue<>();
+    private final Map<Leak, Boolean> tracked = new ConcurrentHashMap<>(); // the buffers lent out under leak detection
+    private final LongAdder leaks = new LongAdder();
+    private volatile boolean leakDetection;
+
+    /**
+     * Constructs an empty src.BufferPool object.
+     */
+    public BufferPool() {
+        for (int i = 0; i < sizeClasses.length; i++) {
+            sizeClasses[i] = new SizeClass(SIZE_CLASSES[i]);
+        }
+    }
+
+    /**
+     * Returns the pool shared by the whole server.
+     *
+     * @return the shared pool
+     */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Turns leak detection on or off. Only buffers borrowed while it is on are tracked.
+     *
+     * @param leakDetection whether to record the borrowers and report the buffers that are never released
+     */
+    public void setLeakDetection(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+    }
+
+    /**
+     * Borrows a cleared buffer of at least the given capacity. It must be released exactly once, after which
+     * neither it nor its ByteBuffer may be used.
+     *
+     * @param capacity the smallest capacity needed
+     * @return the buffer
+     */
+    public PooledBuffer acquire(int capacity) {
+        if (leakDetection) {
+            reportLeaks(); // the buffers found leaked can serve this request
+        }
+        int index = sizeClassIndex(capacity);
+        if (index < 0) {
+            unpooled.increment();
+            PooledBuffer buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(capacity), -1);
+            buffer.inUse = true;
+            return buffer;
+        }
+        SizeClass sizeClass = sizeClasses[index];
+        PooledBuffer buffer = threadCaches.get().poll(index);
+        if (buffer == null) {
+            buffer = sizeClass.shared.poll();
+            if (buffer == null) {
+                buffer = new PooledBuffer(this, ByteBuffer.allocateDirect(sizeClass.size), index);
+                sizeClass.allocated.incrementAndGet();
+            } else {
+                sizeClass.sharedIdle.decrementAndGet();
+            }
+        }
+        buffer.inUse = true;
+        buffer.buffer.clear();
+        sizeClass.inUse.increment();
+        if (leakDetection) {
+            return track(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Takes a released buffer back, into the thread's cache if it has room, or else into the shared free list.
+     */
+    private void release(PooledBuffer buffer) {
+        if (!buffer.inUse) {
+            throw new IllegalStateException("buffer released twice");
+        }
+        buffer.inUse = false;
+        Leak leak = buffer.tracker;
+        if (leak != null) { // a handle lent out under leak detection, which stands for the pooled buffer
+            buffer.tracker = null;
+            tracked.remove(leak);
+            leak.clear();
+            buffer = leak.pooled;
+            buffer.inUse = false;
+        }
+        if (buffer.sizeClass < 0) {
+            return;
+        }
+        SizeClass sizeClass = sizeClasses[buffer.sizeClass];
+        sizeClass.inUse.decrement();
+        if (threadCaches.get().offer(buffer)) {
+            return;
+        }
+        if (sizeClass.sharedIdle.incrementAndGet() <= MAX_SHARED_IDLE) {
+            sizeClass.shared.offer(buffer);
+        } else {
+            sizeClass.sharedIdle.decrementAndGet();
+            sizeClass.allocated.decrementAndGet(); // left to the garbage collector, which frees its memory
+        }
+    }
+
+    /**
+     * Lends a buffer under leak detection: the borrower gets a handle of its own, whose reachability is watched,
+     * while the pool keeps the buffer itself.
+     */
+    private PooledBuffer track(PooledBuffer pooled) {
+        PooledBuffer handle = new PooledBuffer(this, pooled.buffer, pooled.sizeClass);
+        handle.inUse = true;
+        Leak leak = new Leak(handle, pooled, unreachable);
+        handle.tracker = leak;
+        tracked.put(leak, Boolean.TRUE);
+        return handle;
+    }
+
+    /**
+     * Logs the buffers whose handles were collected without being released, and takes them back.
+     */
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> reference;
+        while ((reference = unreachable.poll()) != null) {
+            Leak leak = (Leak) reference;
+            if (tracked.remove(leak) != null) {
+                leaks.increment();
+                Log.error("a buffer of " + leak.pooled.buffer.capacity() + " bytes was not released", leak.borrower);
+                release(leak.pooled);
+            }
+        }
+    }
+
+    private static int sizeClassIndex(int capacity) {
+        for (int i = 0; i < SIZE_CLASSES.length; i++) {
+            if (capacity <= SIZE_CLASSES[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the bytes of the pooled buffers currently lent out.
+     *
+     * @return the bytes in use
+     */
+    public long getUsedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += sizeClass.inUse.sum() * sizeClass.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the bytes of all the pooled buffers, lent out or idle in a cache or free list.
+     *
+     * @return the bytes allocated
+     */
+    public long getAllocatedBytes() {
+        long bytes = 0;
+        for (SizeClass sizeClass : sizeClasses) {
+            bytes += (long) sizeClass.allocated.get() * sizeClass.size;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the number of buffers that were never released, as found by leak detection.
+     *
+     * @return the number of leaks
+     */
+    public long getLeaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * Returns a one-line summary of the occupancy of each size class.
+     *
+     * @return the statistics
+     */
+    public String getStatistics() {
+        StringBuilder statistics = new StringBuilder("buffer pool:");
+        for (SizeClass sizeClass : sizeClasses) {
+            statistics.append(' ').append(sizeClass.size / 1024).append("KB in use=").append(sizeClass.inUse.sum())
+                    .append(" allocated=").append(sizeClass.allocated.get())
+                    .append(" shared idle=").append(sizeClass.sharedIdle.get()).append(';');
+        }
+        return statistics.append(" unpooled=").append(unpooled.sum()).append(" leaks=").append(leaks.sum()).toString();
+    }
+
+    /**
+     * Returns whether a thread is a virtual thread. Virtual threads are only available from Java 21, so the
+     * method is looked up reflectively to keep the sources compiling on older JDKs.
+     */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            Method isVirtual = Thread.class.getMethod("isVirtual");
+            return (Boolean) isVirtual.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A buffer lent out by the pool. The borrower keeps this object, not only its ByteBuffer, until it releases it,
+     * since leak detection watches this object.
+     */
+    public static final class PooledBuffer {
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private final int sizeClass; // -1 for an unpooled buffer
+        private boolean inUse;
+        private Leak tracker; // set on the handle of a buffer lent out under leak detection
+
+        private PooledBuffer(BufferPool pool, ByteBuffer buffer, int sizeClass) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.sizeClass = sizeClass;
+        }
+
+        /**
+         * Returns the direct ByteBuffer, cleared when the buffer was borrowed.
+         *
+         * @return the ByteBuffer
+         */
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Returns the buffer to its pool.
+         *
+         * @throws IllegalStateException if it was already released
+         */
+        public void release() {
+            pool.release(this);
+        }
+    }
+
+    /**
+     * The buffers of one size class that are not lent out, and their counts.
+     */
+    private static final class SizeClass {
+        private final int size;
+        private final Queue<PooledBuffer> shared = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger sharedIdle = new AtomicInteger(); // the size of the shared queue
+        private final AtomicInteger allocated = new AtomicInteger(); // lent out, cached or idle in the shared queue
+        private final LongAdder inUse = new LongAdder();
+
+        SizeClass(int size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * The buffers a platform thread keeps for itself, a small stack per size class.
+     */
+    private static final class ThreadCache {
+        private final PooledBuffer[][] stacks = new PooledBuffer[SIZE_CLASSES.length][THREAD_CACHE_SIZE];
+        private final int[] counts = new int[SIZE_CLASSES.length];
+
+        PooledBuffer poll(int sizeClass) {
+            if (this == NO_CACHE || counts[sizeClass] == 0) {
+                return null;
+            }
+            PooledBuffer buffer = stacks[sizeClass][--counts[sizeClass]];
+            stacks[sizeClass][counts[sizeClass]] = null;
+            return buffer;
+        }
+
+        boolean offer(PooledBuffer buffer) {
+            if (this == NO_CACHE || counts[buffer.sizeClass] == THREAD_CACHE_SIZE) {
+                return false;
+            }
+            stacks[buffer.sizeClass][counts[buffer.sizeClass]++] = buffer;
+            return true;
+        }
+    }
+
+    /**
+     * Watches the handle of a buffer lent out under leak detection, and keeps the buffer itself and the
+     * stack trace of the borrower for the report.
+     */
+    private static final class Leak extends PhantomReference<PooledBuffer> {
+        private final PooledBuffer pooled;
+        private final Throwable borrower = new Throwable("borrowed here");
+
+        Leak(PooledBuffer handle, PooledBuffer pooled, ReferenceQueue<PooledBuffer> queue) {
+            super(handle, queue);
+            this.pooled = pooled;
+        }
+    }
+}
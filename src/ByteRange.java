@@ -0,0 +1,125 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The src.ByteRange class is one range of a Range request header, resolved against the size of a file.
+ * Both ends are inclusive, as in the Content-Range header.
+ */
+public class ByteRange {
+    // More ranges than this are not worth the multipart overhead and may be an attempt to amplify the response
+    private static final int MAX_RANGES = 16;
+
+    private final long start;
+    private final long end;
+
+    public ByteRange(long start, long end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a Range header such as "bytes=0-499", "bytes=500-", "bytes=-500" or "bytes=0-0,-1".
+     *
+     * @param header the value of the Range header
+     * @param size the size of the file in bytes
+     * @return the satisfiable ranges, an empty list if none of the ranges is satisfiable,
+     * or null if the header is malformed and should be ignored
+     */
+    public static List<ByteRange> parse(String header, long size) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+        String[] specs = header.substring("bytes=".length()).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>();
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) { // suffix range: the last N bytes
+                long suffixLength = parsePosition(last);
+                if (suffixLength < 0) {
+                    return null;
+                }
+                if (suffixLength > 0 && size > 0) {
+                    ranges.add(new ByteRange(Math.max(0, size - suffixLength), size - 1));
+                }
+                continue;
+            }
+            long start = parsePosition(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : parsePosition(last);
+            if (start < 0 || end < start) {
+                return null;
+            }
+            if (start < size) {
+                ranges.add(new ByteRange(start, Math.min(end, size - 1)));
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Parses a byte position, which is digits only: Long.parseLong would also take a sign.
+     *
+     * @return the position, or -1 if it is not a number that fits in a long
+     */
+    private static long parsePosition(String text) {
+        if (text.isEmpty() || text.length() > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the offset of the first byte of the range.
+     *
+     * @return the first byte
+     */
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Returns the offset of the last byte of the range.
+     *
+     * @return the last byte
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns the number of bytes in the range.
+     *
+     * @return the length of the range
+     */
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Returns the value of the Content-Range header for this range.
+     *
+     * @param size the size of the file in bytes
+     * @return the Content-Range value, e.g. "bytes 0-499/1234"
+     */
+    public String toContentRange(long size) {
+        return "bytes " + start + "-" + end + "/" + size;
+    }
+}
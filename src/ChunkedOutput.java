@@ -0,0 +1,192 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The src.ChunkedOutput class streams a response body with "Transfer-Encoding: chunked", so the body does not
+ * have to be produced, read or even sized before the head and its first bytes go out.
+ * Bytes written to it are collected into a chunk, which is sent once it reaches the current chunk size.
+ * The first chunk is small and is flushed to the client at once; every following chunk doubles in size up to
+ * {@link #MAX_CHUNK_SIZE}, so a short body leaves quickly and a long one carries little framing. A write at
+ * least as large as the current chunk size becomes a chunk of its own without being copied, and files are sent
+ * in chunks with src.ResponseOutput#sendFile, so they never pass through the heap.
+ * One src.ChunkedOutput is reused by src.ResponseBuilder for every chunked response of a connection.
+ */
+public class ChunkedOutput extends ResponseOutput {
+    static final int FIRST_CHUNK_SIZE = 1024;
+    static final int MAX_CHUNK_SIZE = 16384;
+    private static final long MAX_FILE_CHUNK_SIZE = 1 << 20;
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+    private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+    private final byte[] sizeLine = new byte[Long.BYTES * 2 + CRLF.length];
+    private ResponseOutput out;
+    private int buffered;
+    private int chunkSize;
+    private boolean firstChunk;
+    private long bodyBytes;
+
+    /**
+     * Starts the body of a new response, whose head has already been written to the output.
+     *
+     * @param out the output of the response
+     * @return this output
+     */
+    ChunkedOutput start(ResponseOutput out) {
+        this.out = out;
+        buffered = 0;
+        chunkSize = FIRST_CHUNK_SIZE;
+        firstChunk = true;
+        bodyBytes = 0;
+        return this;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[buffered++] = (byte) b;
+        bodyBytes++;
+        if (buffered >= chunkSize) {
+            writeBuffered();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        bodyBytes += len;
+        while (len > 0) {
+            if (buffered == 0 && len >= chunkSize) {
+                writeChunk(b, off, len);
+                return;
+            }
+            int length = Math.min(len, chunkSize - buffered);
+            System.arraycopy(b, off, buffer, buffered, length);
+            buffered += length;
+            off += length;
+            len -= length;
+            if (buffered >= chunkSize) {
+                writeBuffered();
+            }
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        bodyBytes += src.remaining();
+        while (src.hasRemaining()) {
+            if (buffered == 0 && src.remaining() >= chunkSize) {
+                writeSizeLine(src.remaining());
+                out.write(src);
+                chunkWritten();
+                return;
+            }
+            int length = Math.min(src.remaining(), chunkSize - buffered);
+            src.get(buffer, buffered, length);
+            buffered += length;
+            if (buffered >= chunkSize) {
+                writeBuffered();
+            }
+        }
+    }
+
+    /**
+     * Sends a region of a file as chunks of up to 1 MB, each sent with src.ResponseOutput#sendFile
+     * after its size line.
+     *
+     * @param file the file to send
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void sendFile(Path file, long position, long count) throws IOException {
+        writeBuffered();
+        bodyBytes += count;
+        while (count > 0) {
+            long length = Math.min(count, MAX_FILE_CHUNK_SIZE);
+            writeSizeLine(length);
+            out.sendFile(file, position, length);
+            chunkWritten();
+            position += length;
+            count -= length;
+        }
+    }
+
+    /**
+     * Sends the bytes collected so far as a chunk, however small, and flushes the output,
+     * for a producer that wants the client to see what it has so far.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffered();
+        out.flush();
+    }
+
+    /**
+     * Ends the body: sends the bytes collected so far and the last chunk. The output is neither flushed
+     * nor closed, as the connection may carry further responses.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        writeBuffered();
+        out.write(LAST_CHUNK);
+    }
+
+    /**
+     * Returns the number of body bytes written so far, without the chunk framing.
+     *
+     * @return the body length in bytes
+     */
+    public long getBodyBytes() {
+        return bodyBytes;
+    }
+
+    private void writeBuffered() throws IOException {
+        if (buffered > 0) {
+            writeChunk(buffer, 0, buffered);
+            buffered = 0;
+        }
+    }
+
+    private void writeChunk(byte[] b, int off, int len) throws IOException {
+        writeSizeLine(len);
+        out.write(b, off, len);
+        chunkWritten();
+    }
+
+    /**
+     * Ends the chunk just written and grows the size of the next one.
+     * The first chunk is flushed, so the client receives the head and the start of the body
+     * while the rest is still being produced.
+     */
+    private void chunkWritten() throws IOException {
+        out.write(CRLF);
+        if (firstChunk) {
+            firstChunk = false;
+            out.flush();
+        }
+        chunkSize = Math.min(chunkSize * 2, MAX_CHUNK_SIZE);
+    }
+
+    /**
+     * Writes the size line of a chunk, in hexadecimal followed by CRLF.
+     *
+     * @param length the size of the chunk
+     */
+    private void writeSizeLine(long length) throws IOException {
+        int digits = Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(length) + 3) / 4);
+        for (int i = digits - 1; i >= 0; i--) {
+            sizeLine[i] = (byte) Character.forDigit((int) (length & 0xf), 16);
+            length >>>= 4;
+        }
+        sizeLine[digits] = '\r';
+        sizeLine[digits + 1] = '\n';
+        out.write(sizeLine, 0, digits + 2);
+    }
+}
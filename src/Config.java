@@ -0,0 +1,490 @@
+package src;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The src.Config class is an immutable, typed snapshot of the server configuration.
+ * It is parsed once from a src.ConfigReader, with the defaults of the reader, so the request path reads plain
+ * fields instead of parsing numbers or splitting the image extensions on every access; a value that does not
+ * parse makes the whole snapshot invalid, so a broken file is rejected as a whole rather than half applied.
+ * src.ConfigManager swaps in a new snapshot when config.ini changes. Components read the current snapshot when
+ * they start a request, so a request sees one consistent configuration from start to end.
+ */
+public final class Config {
+    /**
+     * The settings that only take effect when the server is restarted, because they decide the sockets,
+     * threads or files that the server opened when it started.
+     */
+    public static final Set<String> RESTART_REQUIRED = Set.of("port", "serverMode", "acceptorThreads",
+            "eventLoopThreads", "admissionControl", "accessLog", "accessLogMaxBytes", "accessLogMaxFiles");
+
+    private final Map<String, String> properties;
+    private final int port;
+    private final String rootDirectory;
+    private final String defaultPage;
+    private final int maxThreads;
+    private final String[] imageExtensions;
+    private final String serverMode;
+    private final int eventLoopThreads;
+    private final int acceptorThreads;
+    private final int maxConnections;
+    private final boolean admissionControl;
+    private final int admissionQueueSize;
+    private final long admissionTargetMillis;
+    private final long admissionIntervalMillis;
+    private final int retryAfter;
+    private final int keepAliveTimeout;
+    private final long headerTimeoutMillis;
+    private final long bodyTimeoutMillis;
+    private final long writeTimeoutMillis;
+    private final int maxRequestLineSize;
+    private final int maxHeaderSize;
+    private final int maxKeepAliveRequests;
+    private final long heapCacheBytes;
+    private final long heapCacheMaxFileSize;
+    private final long offHeapCacheBytes;
+    private final long offHeapCacheMaxFileSize;
+    private final int compressionLevel;
+    private final int compressionMinSize;
+    private final int bodySpillThreshold;
+    private final long maxBodySize;
+    private final String logSampleRates;
+    private final String accessLogFile;
+    private final long accessLogMaxBytes;
+    private final int accessLogMaxFiles;
+    private final boolean bufferLeakDetection;
+    private final boolean http2;
+    private final int http2MaxConcurrentStreams;
+
+    /**
+     * Constructs a src.Config object from the settings read by a src.ConfigReader.
+     *
+     * @param configReader the src.ConfigReader object
+     * used to read the server configuration from a file
+     * @throws IllegalArgumentException if a setting is missing or not valid
+     */
+    public Config(ConfigReader configReader) {
+        properties = new HashMap<>(configReader.getProperties());
+        port = intValue("port", configReader.getPort(), 1);
+        rootDirectory = required("root", configReader.getRootDirectory());
+        defaultPage = required("defaultPage", configReader.getDefaultPage());
+        maxThreads = intValue("maxThreads", configReader.getMaxThreads(), 1);
+        required("imageExtensions", properties.get("imageExtensions"));
+        imageExtensions = configReader.getImageExtensions();
+        serverMode = configReader.getServerMode();
+        eventLoopThreads = intValue("eventLoopThreads", configReader.getEventLoopThreads(), 1);
+        acceptorThreads = intValue("acceptorThreads", configReader.getAcceptorThreads(), 1);
+        maxConnections = intValue("maxConnections", configReader.getMaxConnections(), 1);
+        admissionControl = Boolean.parseBoolean(configReader.getAdmissionControl());
+        admissionQueueSize = intValue("admissionQueueSize", configReader.getAdmissionQueueSize(), 0);
+        admissionTargetMillis = longValue("admissionTargetMillis", configReader.getAdmissionTargetMillis(), 0);
+        admissionIntervalMillis = longValue("admissionIntervalMillis", configReader.getAdmissionIntervalMillis(), 1);
+        retryAfter = intValue("retryAfter", configReader.getRetryAfter(), 0);
+        keepAliveTimeout = intValue("keepAliveTimeout", configReader.getKeepAliveTimeout(), 0);
+        headerTimeoutMillis = longValue("headerTimeoutMillis", configReader.getHeaderTimeoutMillis(), 1);
+        bodyTimeoutMillis = longValue("bodyTimeoutMillis", configReader.getBodyTimeoutMillis(), 1);
+        writeTimeoutMillis = longValue("writeTimeoutMillis", configReader.getWriteTimeoutMillis(), 1);
+        maxRequestLineSize = intValue("maxRequestLineSize", configReader.getMaxRequestLineSize(), 1);
+        maxHeaderSize = intValue("maxHeaderSize", configReader.getMaxHeaderSize(), 1);
+        maxKeepAliveRequests = intValue("maxKeepAliveRequests", configReader.getMaxKeepAliveRequests(), 1);
+        heapCacheBytes = longValue("heapCacheBytes", configReader.getHeapCacheBytes(), 0);
+        // a cached file is held in one array or buffer, which an int indexes
+        heapCacheMaxFileSize = longValue("heapCacheMaxFileSize", configReader.getHeapCacheMaxFileSize(), 0,
+                Integer.MAX_VALUE);
+        offHeapCacheBytes = longValue("offHeapCacheBytes", configReader.getOffHeapCacheBytes(), 0);
+        offHeapCacheMaxFileSize = longValue("offHeapCacheMaxFileSize", configReader.getOffHeapCacheMaxFileSize(), 0,
+                Integer.MAX_VALUE);
+        // Deflater takes levels 0 (stored) to 9
+        compressionLevel = (int) longValue("compressionLevel", configReader.getCompressionLevel(), 0, 9);
+        compressionMinSize = intValue("compressionMinSize", configReader.getCompressionMinSize(), 0);
+        bodySpillThreshold = intValue("bodySpillThreshold", configReader.getBodySpillThreshold(), 0);
+        maxBodySize = longValue("maxBodySize", configReader.getMaxBodySize(), 0);
+        logSampleRates = configReader.getLogSampleRates();
+        accessLogFile = configReader.getAccessLogFile();
+        accessLogMaxBytes = longValue("accessLogMaxBytes", configReader.getAccessLogMaxBytes(), 1);
+        accessLogMaxFiles = intValue("accessLogMaxFiles", configReader.getAccessLogMaxFiles(), 1);
+        bufferLeakDetection = Boolean.parseBoolean(configReader.getBufferLeakDetection());
+        http2 = Boolean.parseBoolean(configReader.getHttp2());
+        http2MaxConcurrentStreams = intValue("http2MaxConcurrentStreams",
+                configReader.getHttp2MaxConcurrentStreams(), 1);
+    }
+
+    private static String required(String key, String value) {
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + key);
+        }
+        return value;
+    }
+
+    private static int intValue(String key, String value, int min) {
+        return (int) longValue(key, value, min, Integer.MAX_VALUE);
+    }
+
+    private static long longValue(String key, String value, long min) {
+        return longValue(key, value, min, Long.MAX_VALUE);
+    }
+
+    private static long longValue(String key, String value, long min, long max) {
+        long parsed;
+        try {
+            parsed = Long.parseLong(required(key, value).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + key + ": " + value);
+        }
+        if (parsed < min || parsed > max) {
+            throw new IllegalArgumentException("invalid " + key + ": " + value + " (must be between "
+                    + min + " and " + max + ")");
+        }
+        return parsed;
+    }
+
+    /**
+     * Returns the names of the settings whose values differ from those of another snapshot.
+     *
+     * @param other the other snapshot
+     * @return the names of the changed settings, sorted
+     */
+    public Set<String> changedKeys(Config other) {
+        Set<String> changed = new TreeSet<>();
+        for (String key : properties.keySet()) {
+            if (!Objects.equals(properties.get(key), other.properties.get(key))) {
+                changed.add(key);
+            }
+        }
+        for (String key : other.properties.keySet()) {
+            if (!properties.containsKey(key)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Returns the server port.
+     *
+     * @return the server port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the root directory.
+     *
+     * @return the root directory
+     */
+    public String getRootDirectory() {
+        return rootDirectory;
+    }
+
+    /**
+     * Returns the default page.
+     *
+     * @return the default page
+     */
+    public String getDefaultPage() {
+        return defaultPage;
+    }
+
+    /**
+     * Returns the maximum number of threads.
+     *
+     * @return the maximum number of threads
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    /**
+     * Returns the image extensions, split once when the snapshot was parsed.
+     * The array is shared by every request and must not be modified.
+     *
+     * @return the image extensions
+     */
+    public String[] getImageExtensions() {
+        return imageExtensions;
+    }
+
+    /**
+     * Returns the server mode: "pool", "virtual" or "nio".
+     *
+     * @return the server mode
+     */
+    public String getServerMode() {
+        return serverMode;
+    }
+
+    /**
+     * Returns the number of event loop threads of the nio mode.
+     *
+     * @return the number of event loops
+     */
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    /**
+     * Returns the number of acceptor threads.
+     *
+     * @return the number of acceptors
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * Returns the maximum number of concurrent connections of the virtual and nio modes.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Returns whether admission control is enabled.
+     *
+     * @return whether admission control is enabled
+     */
+    public boolean isAdmissionControl() {
+        return admissionControl;
+    }
+
+    /**
+     * Returns the number of connections that may wait for a thread with admission control.
+     *
+     * @return the admission queue size
+     */
+    public int getAdmissionQueueSize() {
+        return admissionQueueSize;
+    }
+
+    /**
+     * Returns the queue delay target of admission control.
+     *
+     * @return the target in milliseconds
+     */
+    public long getAdmissionTargetMillis() {
+        return admissionTargetMillis;
+    }
+
+    /**
+     * Returns the interval of admission control.
+     *
+     * @return the interval in milliseconds
+     */
+    public long getAdmissionIntervalMillis() {
+        return admissionIntervalMillis;
+    }
+
+    /**
+     * Returns the Retry-After of the responses of shed connections.
+     *
+     * @return the delay in seconds
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+
+    /**
+     * Returns the idle timeout of persistent connections.
+     *
+     * @return the timeout in seconds
+     */
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    /**
+     * Returns the time allowed to receive a request head from its first byte.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getHeaderTimeoutMillis() {
+        return headerTimeoutMillis;
+    }
+
+    /**
+     * Returns the time a request body may stall.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getBodyTimeoutMillis() {
+        return bodyTimeoutMillis;
+    }
+
+    /**
+     * Returns the time a response may wait for the client to read it.
+     *
+     * @return the timeout in milliseconds
+     */
+    public long getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * Returns the largest request line accepted.
+     *
+     * @return the size in bytes
+     */
+    public int getMaxRequestLineSize() {
+        return maxRequestLineSize;
+    }
+
+    /**
+     * Returns the largest request head accepted.
+     *
+     * @return the size in bytes
+     */
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    /**
+     * Returns the maximum number of requests served on one persistent connection.
+     *
+     * @return the maximum number of requests
+     */
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    /**
+     * Returns the byte budget of the on-heap content cache tier.
+     *
+     * @return the budget in bytes
+     */
+    public long getHeapCacheBytes() {
+        return heapCacheBytes;
+    }
+
+    /**
+     * Returns the largest file kept in the on-heap content cache tier.
+     *
+     * @return the size in bytes
+     */
+    public long getHeapCacheMaxFileSize() {
+        return heapCacheMaxFileSize;
+    }
+
+    /**
+     * Returns the byte budget of the off-heap content cache tier.
+     *
+     * @return the budget in bytes
+     */
+    public long getOffHeapCacheBytes() {
+        return offHeapCacheBytes;
+    }
+
+    /**
+     * Returns the largest file kept in the off-heap content cache tier.
+     *
+     * @return the size in bytes
+     */
+    public long getOffHeapCacheMaxFileSize() {
+        return offHeapCacheMaxFileSize;
+    }
+
+    /**
+     * Returns the gzip/deflate compression level.
+     *
+     * @return the compression level
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Returns the smallest body compressed on the fly.
+     *
+     * @return the size in bytes
+     */
+    public int getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    /**
+     * Returns the largest request body kept in memory.
+     *
+     * @return the size in bytes
+     */
+    public int getBodySpillThreshold() {
+        return bodySpillThreshold;
+    }
+
+    /**
+     * Returns the largest request body accepted.
+     *
+     * @return the size in bytes
+     */
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    /**
+     * Returns the sample rates of the log levels, e.g. "debug:0,info:1".
+     *
+     * @return the log sample rates
+     */
+    public String getLogSampleRates() {
+        return logSampleRates;
+    }
+
+    /**
+     * Returns the access log file, empty when there is none.
+     *
+     * @return the access log file
+     */
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    /**
+     * Returns the size at which the access log is rotated.
+     *
+     * @return the size in bytes
+     */
+    public long getAccessLogMaxBytes() {
+        return accessLogMaxBytes;
+    }
+
+    /**
+     * Returns the number of rotated access log files kept.
+     *
+     * @return the number of files
+     */
+    public int getAccessLogMaxFiles() {
+        return accessLogMaxFiles;
+    }
+
+    /**
+     * Returns whether the buffer pool detects buffers that are never released.
+     *
+     * @return whether buffer leak detection is enabled
+     */
+    public boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    /**
+     * Returns whether clients may switch their connections to cleartext HTTP/2.
+     *
+     * @return whether h2c is enabled
+     */
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    /**
+     * Returns the number of streams an HTTP/2 client may have open at once on one connection.
+     *
+     * @return the maximum number of concurrent streams
+     */
+    public int getHttp2MaxConcurrentStreams() {
+        return http2MaxConcurrentStreams;
+    }
+}
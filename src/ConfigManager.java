@@ -0,0 +1,153 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * The src.ConfigManager class holds the current src.Config snapshot and replaces it, without restarting the
+ * server, when config.ini changes: a WatchService on the directory of the file notices it being saved, and a
+ * POST to /__reload from the server's own host asks for it explicitly.
+ * A reload reads and parses the whole file first; a file that does not parse is rejected and the running
+ * snapshot is kept. A valid one is swapped in atomically and handed to the listeners, which resize what they
+ * derived from the previous one (thread pools, connection permits, cache budgets, the watched root). Requests
+ * already being served keep the snapshot they started with, so nothing in flight is interrupted.
+ */
+public class ConfigManager {
+    public static final String PATH = "/__reload";
+    private static final long SETTLE_MILLIS = 100; // lets a save that is still being written finish
+
+    private final Path file;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Config config;
+
+    /**
+     * Constructs a src.ConfigManager object and reads the first snapshot.
+     *
+     * @param filePath the path to the configuration file
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a setting is missing or not valid
+     */
+    public ConfigManager(String filePath) throws IOException {
+        file = Paths.get(filePath).toAbsolutePath().normalize();
+        config = new Config(new ConfigReader(file.toString()));
+    }
+
+    /**
+     * Returns the current snapshot.
+     *
+     * @return the current configuration
+     */
+    public Config get() {
+        return config;
+    }
+
+    /**
+     * Adds a listener that is told about every new snapshot, after it has been swapped in.
+     *
+     * @param listener the listener
+     */
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Reads the file again and swaps in the new snapshot if any setting changed.
+     * Settings of {@link Config#RESTART_REQUIRED} are stored but only take effect on the next restart,
+     * which is logged.
+     *
+     * @return a one-line description of the outcome
+     * @throws IOException if the file cannot be read
+     * @throws IllegalArgumentException if a setting is missing or not valid
+     */
+    public synchronized String reload() throws IOException {
+        Config previous = config;
+        Config current = new Config(new ConfigReader(file.toString()));
+        Set<String> changed = previous.changedKeys(current);
+        if (changed.isEmpty()) {
+            return "configuration unchanged";
+        }
+        config = current;
+        for (Listener listener : listeners) {
+            try {
+                listener.configChanged(previous, current);
+            } catch (RuntimeException e) {
+                Log.error("failed to apply the new configuration", e);
+            }
+        }
+        Set<String> restartRequired = new TreeSet<>(changed);
+        restartRequired.retainAll(Config.RESTART_REQUIRED);
+        String outcome = "configuration reloaded, changed " + changed;
+        if (!restartRequired.isEmpty()) {
+            outcome += ", restart required for " + restartRequired;
+            Log.warn("configuration changes that need a restart: " + restartRequired);
+        }
+        Log.info(outcome);
+        return outcome;
+    }
+
+    /**
+     * Starts a daemon thread that reloads the configuration whenever the file is saved.
+     * The whole directory is watched, since editors often save by replacing the file;
+     * events for other files are ignored.
+     */
+    public void watch() {
+        WatchService watchService;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+        } catch (IOException e) {
+            Log.warn("can't watch " + file + ", the configuration is only reloaded through /__reload : " + e);
+            return;
+        }
+        Thread watcher = new Thread(() -> processWatchEvents(watchService), "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void processWatchEvents(WatchService watchService) {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            boolean changed = false;
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                changed |= event.kind() == OVERFLOW || file.getFileName().equals(event.context());
+            }
+            watchKey.reset();
+            if (changed) {
+                try {
+                    Thread.sleep(SETTLE_MILLIS);
+                    reload(); // a save that produced several events is only applied once, as the rest change nothing
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | IllegalArgumentException e) {
+                    Log.warn("keeping the running configuration, " + file + " is not valid : " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Told about every new snapshot.
+     */
+    public interface Listener {
+        void configChanged(Config previous, Config current);
+    }
+}
@@ -3,6 +3,7 @@ package src;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,6 +40,15 @@ public class ConfigReader {
         reader.close();
     }
 
+    /**
+     * Returns every setting of the file as it was read, before defaults are applied.
+     *
+     * @return the settings by name, unmodifiable
+     */
+    public Map<String, String> getProperties() {
+        return Collections.unmodifiableMap(properties);
+    }
+
     /**
      * Returns the server port.
      *
@@ -83,4 +93,301 @@ public class ConfigReader {
     public String[] getImageExtensions() {
         return properties.get("imageExtensions").split(",");
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the server mode: "pool" for the blocking thread-pool engine,
+     * "virtual" for a virtual thread per connection,
+     * or "nio" for the selector-based event loop engine.
+     *
+     * @return the server mode
+     */
+    public String getServerMode() {
+        return properties.getOrDefault("serverMode", "pool");
+    }
+
+    /**
+     * Returns the number of event loop threads used by the "nio" server mode.
+     *
+     * @return the number of event loop threads
+     */
+    public String getEventLoopThreads() {
+        return properties.getOrDefault("eventLoopThreads",
+                String.valueOf(Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Returns the number of acceptor threads, each accepting connections on its own listening socket
+     * and handing them to its own share of the worker threads or event loops.
+     *
+     * @return the number of acceptor threads
+     */
+    public String getAcceptorThreads() {
+        return properties.getOrDefault("acceptorThreads", "1");
+    }
+
+    /**
+     * Returns the maximum number of concurrent connections used by the "virtual" server mode,
+     * where the number of threads is no longer the limiting factor.
+     *
+     * @return the maximum number of concurrent connections
+     */
+    public String getMaxConnections() {
+        return properties.getOrDefault("maxConnections", "1000");
+    }
+
+    /**
+     * Returns whether admission control is enabled: connections over capacity, or that waited too long
+     * for a worker, are answered with 503 Service Unavailable instead of being queued.
+     *
+     * @return "true" to enable admission control
+     */
+    public String getAdmissionControl() {
+        return properties.getOrDefault("admissionControl", "false");
+    }
+
+    /**
+     * Returns the number of accepted connections that may wait for a thread of the "pool" server mode
+     * when admission control is enabled, beyond the maxThreads being served.
+     *
+     * @return the number of connections that may wait
+     */
+    public String getAdmissionQueueSize() {
+        return properties.getOrDefault("admissionQueueSize", "10");
+    }
+
+    /**
+     * Returns the target queue delay of admission control, in milliseconds: while connections wait
+     * longer than this for a whole interval, those that waited longer are shed.
+     *
+     * @return the target queue delay in milliseconds
+     */
+    public String getAdmissionTargetMillis() {
+        return properties.getOrDefault("admissionTargetMillis", "5");
+    }
+
+    /**
+     * Returns the interval over which admission control looks at the smallest queue delay, in milliseconds.
+     *
+     * @return the interval in milliseconds
+     */
+    public String getAdmissionIntervalMillis() {
+        return properties.getOrDefault("admissionIntervalMillis", "100");
+    }
+
+    /**
+     * Returns the value of the Retry-After header of the 503 responses of shed connections, in seconds.
+     *
+     * @return the delay in seconds
+     */
+    public String getRetryAfter() {
+        return properties.getOrDefault("retryAfter", "1");
+    }
+
+    /**
+     * Returns how long, in seconds, an idle persistent connection is kept open.
+     *
+     * @return the keep-alive timeout in seconds
+     */
+    public String getKeepAliveTimeout() {
+        return properties.getOrDefault("keepAliveTimeout", "5");
+    }
+
+    /**
+     * Returns how long, in milliseconds, a client may take to send a whole request head once its first byte
+     * has arrived, before it is answered with 408 Request Timeout.
+     *
+     * @return the header timeout in milliseconds
+     */
+    public String getHeaderTimeoutMillis() {
+        return properties.getOrDefault("headerTimeoutMillis", "10000");
+    }
+
+    /**
+     * Returns how long, in milliseconds, the body of a request may go without receiving a byte,
+     * before the request is answered with 408 Request Timeout.
+     *
+     * @return the body timeout in milliseconds
+     */
+    public String getBodyTimeoutMillis() {
+        return properties.getOrDefault("bodyTimeoutMillis", "30000");
+    }
+
+    /**
+     * Returns how long, in milliseconds, a response may go without any of its bytes being accepted
+     * by the client, before the connection is closed.
+     *
+     * @return the write timeout in milliseconds
+     */
+    public String getWriteTimeoutMillis() {
+        return properties.getOrDefault("writeTimeoutMillis", "30000");
+    }
+
+    /**
+     * Returns the maximum size of a request line in bytes; longer ones are answered with 414 URI Too Long.
+     *
+     * @return the maximum request line size
+     */
+    public String getMaxRequestLineSize() {
+        return properties.getOrDefault("maxRequestLineSize", "8192");
+    }
+
+    /**
+     * Returns the maximum size of a request head in bytes, request line and header fields;
+     * larger ones are answered with 431 Request Header Fields Too Large.
+     *
+     * @return the maximum request head size
+     */
+    public String getMaxHeaderSize() {
+        return properties.getOrDefault("maxHeaderSize", "65536");
+    }
+
+    /**
+     * Returns the maximum number of requests served on one persistent connection.
+     *
+     * @return the maximum number of requests per connection
+     */
+    public String getMaxKeepAliveRequests() {
+        return properties.getOrDefault("maxKeepAliveRequests", "100");
+    }
+
+    /**
+     * Returns the byte budget of the on-heap content cache tier.
+     *
+     * @return the on-heap cache budget in bytes
+     */
+    public String getHeapCacheBytes() {
+        return properties.getOrDefault("heapCacheBytes", "16777216");
+    }
+
+    /**
+     * Returns the size of the largest file kept in the on-heap content cache tier.
+     *
+     * @return the largest on-heap cached file in bytes
+     */
+    public String getHeapCacheMaxFileSize() {
+        return properties.getOrDefault("heapCacheMaxFileSize", "65536");
+    }
+
+    /**
+     * Returns the byte budget of the off-heap (direct buffer) content cache tier.
+     *
+     * @return the off-heap cache budget in bytes
+     */
+    public String getOffHeapCacheBytes() {
+        return properties.getOrDefault("offHeapCacheBytes", "67108864");
+    }
+
+    /**
+     * Returns the size of the largest file kept in the off-heap content cache tier.
+     * Larger files are not cached and are sent from disk.
+     *
+     * @return the largest off-heap cached file in bytes
+     */
+    public String getOffHeapCacheMaxFileSize() {
+        return properties.getOrDefault("offHeapCacheMaxFileSize", "4194304");
+    }
+
+    /**
+     * Returns the compression level (0-9, 0 storing without compressing) used for responses compressed on the fly.
+     *
+     * @return the compression level
+     */
+    public String getCompressionLevel() {
+        return properties.getOrDefault("compressionLevel", "6");
+    }
+
+    /**
+     * Returns the size of the smallest body compressed on the fly; smaller bodies are sent as they are.
+     *
+     * @return the minimum size in bytes
+     */
+    public String getCompressionMinSize() {
+        return properties.getOrDefault("compressionMinSize", "256");
+    }
+
+    /**
+     * Returns the size of the largest request body kept in memory; larger bodies are spilled to a temporary file.
+     *
+     * @return the spill threshold in bytes
+     */
+    public String getBodySpillThreshold() {
+        return properties.getOrDefault("bodySpillThreshold", "65536");
+    }
+
+    /**
+     * Returns the size of the largest request body accepted, after any chunked framing is removed.
+     *
+     * @return the maximum body size in bytes
+     */
+    public String getMaxBodySize() {
+        return properties.getOrDefault("maxBodySize", "104857600");
+    }
+
+    /**
+     * Returns the sample rate of each log level, as comma separated level:rate pairs;
+     * a rate of 0 turns a level off. Debug is off by default, since its request and response header dumps
+     * would write every Cookie and Authorization header to the log; "debug:1" turns them on.
+     *
+     * @return the log sample rates
+     */
+    public String getLogSampleRates() {
+        return properties.getOrDefault("logSampleRates", "debug:0,info:1,warn:1,error:1");
+    }
+
+    /**
+     * Returns the path of the binary access log; empty when no access log is written.
+     *
+     * @return the access log file
+     */
+    public String getAccessLogFile() {
+        return properties.getOrDefault("accessLog", "");
+    }
+
+    /**
+     * Returns the size at which the access log file is rotated.
+     *
+     * @return the maximum access log file size in bytes
+     */
+    public String getAccessLogMaxBytes() {
+        return properties.getOrDefault("accessLogMaxBytes", "67108864");
+    }
+
+    /**
+     * Returns the number of rotated access log files kept.
+     *
+     * @return the number of old access log files
+     */
+    public String getAccessLogMaxFiles() {
+        return properties.getOrDefault("accessLogMaxFiles", "5");
+    }
+
+    /**
+     * Returns whether the buffer pool records who borrowed each buffer and reports the buffers never released,
+     * a debugging aid that costs a stack trace per borrowed buffer.
+     *
+     * @return "true" to detect buffer leaks
+     */
+    public String getBufferLeakDetection() {
+        return properties.getOrDefault("bufferLeakDetection", "false");
+    }
+
+    /**
+     * Returns whether clients may switch to cleartext HTTP/2, with the HTTP/2 preface or an
+     * "Upgrade: h2c" request.
+     *
+     * @return "true" to enable h2c
+     */
+    public String getHttp2() {
+        return properties.getOrDefault("http2", "true");
+    }
+
+    /**
+     * Returns the number of streams an HTTP/2 client may have open at once on one connection,
+     * announced in SETTINGS_MAX_CONCURRENT_STREAMS; further streams are refused.
+     *
+     * @return the maximum number of concurrent streams
+     */
+    public String getHttp2MaxConcurrentStreams() {
+        return properties.getOrDefault("http2MaxConcurrentStreams", "100");
+    }
+}
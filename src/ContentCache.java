@@ -0,0 +1,570 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * The src.ContentCache class keeps the content of static files in memory, in front of the disk.
+ * Small files are kept in an on-heap tier and larger ones in an off-heap tier of direct buffers;
+ * files larger than the off-heap limit are not cached and are sent from disk with zero copy.
+ * Each tier has a byte budget and evicts its least recently used files when the budget is exceeded.
+ * Compressed variants of cached files are held on the heap, as entries of the heap tier charged to its budget.
+ * Entries are invalidated when a WatchService reports a change under the root directory,
+ * and concurrent misses on the same file are coalesced into a single disk read.
+ * The budgets, size limits and root directory follow configuration reloads: a smaller budget evicts at once,
+ * and a new root is watched instead of the old one, whose files are dropped.
+ */
+public class ContentCache {
+    private static final int MAX_ABSENT_FILES = 10000;
+    private static final String[] ENCODINGS = {null, ContentEncoder.GZIP, ContentEncoder.DEFLATE}; // null: identity
+
+    private final Tier heapTier;
+    private final Tier offHeapTier;
+    private volatile long heapMaxFileSize;
+    private volatile long offHeapMaxFileSize;
+    private final Map<Path, CompletableFuture<CachedFile>> loading = new ConcurrentHashMap<>();
+    private final Set<Path> absentFiles = ConcurrentHashMap.newKeySet();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalescedMisses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final AtomicLong generation = new AtomicLong();
+    private WatchService watchService;
+    private String rootDirectory;
+
+    /**
+     * Constructs a src.ContentCache object with the budgets from the server configuration
+     * and starts watching the root directory for changes.
+     *
+     * @param config the configuration
+     */
+    public ContentCache(Config config) {
+        heapTier = new Tier("heap", config.getHeapCacheBytes());
+        offHeapTier = new Tier("off-heap", config.getOffHeapCacheBytes());
+        heapMaxFileSize = config.getHeapCacheMaxFileSize();
+        offHeapMaxFileSize = config.getOffHeapCacheMaxFileSize();
+        rootDirectory = config.getRootDirectory();
+        watchService = watch(Paths.get(rootDirectory));
+    }
+
+    /**
+     * Applies the budgets, size limits and root directory of a new configuration. Files larger than the new
+     * limits stay cached until they are evicted or change; when the root directory changed, it is watched
+     * instead of the old one and every cached file is dropped.
+     *
+     * @param config the configuration
+     */
+    public synchronized void reconfigure(Config config) {
+        heapMaxFileSize = config.getHeapCacheMaxFileSize();
+        offHeapMaxFileSize = config.getOffHeapCacheMaxFileSize();
+        heapTier.setBudget(config.getHeapCacheBytes());
+        offHeapTier.setBudget(config.getOffHeapCacheBytes());
+        if (!config.getRootDirectory().equals(rootDirectory)) {
+            rootDirectory = config.getRootDirectory();
+            WatchService previous = watchService;
+            watchService = watch(Paths.get(rootDirectory));
+            if (previous != null) {
+                try {
+                    previous.close(); // ends the thread watching the old root
+                } catch (IOException e) {
+                    Log.warn("failed to stop watching the previous root directory : " + e);
+                }
+            }
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Returns the cached content of a file, loading it on a miss.
+     *
+     * @param file the path of the file
+     * @return the cached file, or null if the file does not exist, is not a regular file,
+     * or is too large to be cached
+     * @throws IOException if the file cannot be read
+     */
+    public CachedFile get(Path file) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        CachedFile cached = heapTier.get(new Key(key, null));
+        if (cached == null) {
+            cached = offHeapTier.get(new Key(key, null));
+        }
+        if (cached != null || absentFiles.contains(key)) {
+            return cached;
+        }
+
+        misses.increment();
+        CompletableFuture<CachedFile> load = new CompletableFuture<>();
+        CompletableFuture<CachedFile> inFlight = loading.putIfAbsent(key, load);
+        if (inFlight != null) { // another thread is already reading this file
+            coalescedMisses.increment();
+            try {
+                return inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            }
+        }
+        try {
+            cached = load(key);
+            load.complete(cached);
+            return cached;
+        } catch (IOException | RuntimeException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+        }
+    }
+
+    /**
+     * Reads a file from disk into the tier that fits its size.
+     *
+     * @param key the absolute, normalized path of the file
+     * @return the cached file, or null if it is missing or not cacheable
+     * @throws IOException if the file cannot be read
+     */
+    private CachedFile load(Path key) throws IOException {
+        long loadGeneration = generation.get();
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            rememberAbsent(key, loadGeneration);
+            return null;
+        }
+        long size = attributes.size();
+        if (!attributes.isRegularFile() || size > offHeapMaxFileSize) {
+            return null;
+        }
+        long lastModified = attributes.lastModifiedTime().toMillis();
+
+        if (size <= heapMaxFileSize) {
+            CachedFile cached = new CachedFile(Files.readAllBytes(key), lastModified);
+            if (generation.get() == loadGeneration) { // not invalidated while it was being read
+                heapTier.put(new Key(key, null), cached);
+            }
+            return cached;
+        }
+
+        ByteBuffer content = ByteBuffer.allocateDirect((int) size);
+        try (FileChannel channel = FileChannel.open(key, StandardOpenOption.READ)) {
+            while (content.hasRemaining() && channel.read(content) >= 0) {
+                // keep reading until the buffer is full or the file ends
+            }
+        }
+        content.flip();
+        CachedFile cached = new CachedFile(content, lastModified);
+        if (generation.get() == loadGeneration) { // not invalidated while it was being read
+            offHeapTier.put(new Key(key, null), cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Returns the content of a cached file compressed with a content coding, compressing it on a miss.
+     * The variant is kept in the heap tier, charged to its budget and evicted like any file, and is dropped
+     * with the file when it changes. Two threads may both compress a file on a miss, to the same result.
+     *
+     * @param file the path of the file
+     * @param cachedFile the cached content of the file
+     * @param encoding the content coding, gzip or deflate
+     * @param contentEncoder the encoder that compresses the content
+     * @return the compressed content
+     * @throws IOException if the content cannot be compressed
+     */
+    public byte[] getEncoded(Path file, CachedFile cachedFile, String encoding, ContentEncoder contentEncoder)
+            throws IOException {
+        Key key = new Key(file.toAbsolutePath().normalize(), encoding);
+        CachedFile variant = heapTier.get(key);
+        if (variant != null && variant.getLastModified() == cachedFile.getLastModified()) {
+            return variant.bytes;
+        }
+        long encodeGeneration = generation.get();
+        byte[] encoded = contentEncoder.encode(cachedFile::copyTo, encoding);
+        if (generation.get() == encodeGeneration) { // the file did not change while it was compressed
+            heapTier.put(key, new CachedFile(encoded, cachedFile.getLastModified()));
+        }
+        return encoded;
+    }
+
+    /**
+     * Returns whether a file exists and is a regular file. Files known to be missing are answered
+     * from memory, which makes repeated lookups of optional files (such as .gz sidecars) cheap.
+     *
+     * @param file the path of the file
+     * @return whether the file is an existing regular file
+     */
+    public boolean exists(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        if (absentFiles.contains(key)) {
+            return false;
+        }
+        long existsGeneration = generation.get();
+        if (Files.isRegularFile(key)) {
+            return true;
+        }
+        rememberAbsent(key, existsGeneration);
+        return false;
+    }
+
+    /**
+     * Remembers that a file is missing, unless something under the root changed since it was looked up.
+     * The set is cleared when it grows too large, so that probing random paths cannot exhaust memory.
+     *
+     * @param key the absolute, normalized path of the file
+     * @param lookupGeneration the invalidation generation at the time of the lookup
+     */
+    private void rememberAbsent(Path key, long lookupGeneration) {
+        if (absentFiles.size() >= MAX_ABSENT_FILES) {
+            absentFiles.clear();
+        }
+        if (generation.get() == lookupGeneration) {
+            absentFiles.add(key);
+        }
+    }
+
+    /**
+     * Removes a file from both tiers.
+     *
+     * @param file the path of the file
+     */
+    public void invalidate(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        generation.incrementAndGet();
+        for (String encoding : ENCODINGS) {
+            heapTier.remove(new Key(key, encoding));
+        }
+        offHeapTier.remove(new Key(key, null));
+        absentFiles.remove(key);
+        invalidations.increment();
+    }
+
+    /**
+     * Removes every file from both tiers.
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        heapTier.clear();
+        offHeapTier.clear();
+        absentFiles.clear();
+        invalidations.increment();
+    }
+
+    /**
+     * Registers the root directory and its subdirectories with a new WatchService
+     * and starts a daemon thread that invalidates changed files until the service is closed.
+     *
+     * @param root the root directory
+     * @return the WatchService, or null if the root cannot be watched
+     */
+    private WatchService watch(Path root) {
+        WatchService service;
+        try {
+            service = FileSystems.getDefault().newWatchService();
+            registerTree(service, root);
+        } catch (IOException e) {
+            Log.warn("content cache can't watch " + root + ", cached files will not be refreshed : " + e);
+            return null;
+        }
+        Thread watcher = new Thread(() -> processWatchEvents(service), "content-cache-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        return service;
+    }
+
+    private static void registerTree(WatchService service, Path directory) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processWatchEvents(WatchService service) {
+        while (true) {
+            WatchKey watchKey;
+            try {
+                watchKey = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) watchKey.watchable();
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == OVERFLOW) { // events were lost, nothing cached can be trusted
+                    invalidateAll();
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                invalidate(changed);
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed)) {
+                    try {
+                        registerTree(service, changed);
+                    } catch (IOException e) {
+                        Log.warn("content cache can't watch " + changed + " : " + e);
+                    }
+                }
+            }
+            watchKey.reset();
+        }
+    }
+
+    /**
+     * Returns a one-line summary of the cache counters, used to size the budgets.
+     *
+     * @return the cache statistics
+     */
+    public String getStatistics() {
+        return "content cache: " + heapTier.getStatistics() + "; " + offHeapTier.getStatistics()
+                + "; misses=" + misses.sum()
+                + " coalesced=" + coalescedMisses.sum()
+                + " invalidations=" + invalidations.sum();
+    }
+
+    /**
+     * Returns the number of lookups served from the cache.
+     *
+     * @return the number of hits
+     */
+    public long getHits() {
+        return heapTier.hits.sum() + offHeapTier.hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups that had to go to disk.
+     *
+     * @return the number of misses
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of files evicted to stay within the byte budgets.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return heapTier.evictions.sum() + offHeapTier.evictions.sum();
+    }
+
+    /**
+     * A cached file: its content, either on-heap or in a direct buffer, and its metadata.
+     */
+    public static class CachedFile {
+        private volatile Template template; // compiled on first use
+        private final byte[] bytes;
+        private final ByteBuffer buffer;
+        private final long size;
+        private final long lastModified;
+
+        CachedFile(byte[] bytes, long lastModified) {
+            this.bytes = bytes;
+            this.buffer = null;
+            this.size = bytes.length;
+            this.lastModified = lastModified;
+        }
+
+        CachedFile(ByteBuffer buffer, long lastModified) {
+            this.bytes = null;
+            this.buffer = buffer;
+            this.size = buffer.remaining();
+            this.lastModified = lastModified;
+        }
+
+        /**
+         * Writes the content of the file to a response output.
+         *
+         * @param output the output to write to
+         * @throws IOException if an I/O error occurs
+         */
+        public void writeTo(ResponseOutput output) throws IOException {
+            if (bytes != null) {
+                output.write(bytes);
+            } else {
+                output.write(buffer.duplicate()); // every writer gets its own position
+            }
+        }
+
+        /**
+         * Writes a region of the content of the file to a response output.
+         *
+         * @param output the output to write to
+         * @param position the offset of the first byte to write
+         * @param count the number of bytes to write
+         * @throws IOException if an I/O error occurs
+         */
+        public void writeTo(ResponseOutput output, long position, long count) throws IOException {
+            if (bytes != null) {
+                output.write(bytes, (int) position, (int) count);
+            } else {
+                ByteBuffer region = buffer.duplicate();
+                region.position((int) position).limit((int) (position + count));
+                output.write(region.slice());
+            }
+        }
+
+        /**
+         * Returns the content compiled as a src.Template, compiling it on first use. The compiled template
+         * is dropped together with the entry when the file changes.
+         *
+         * @return the compiled template
+         * @throws IOException if the content cannot be copied
+         */
+        public Template getTemplate() throws IOException {
+            Template compiled = template;
+            if (compiled == null) { // two threads may both compile it, to the same result
+                ByteArrayOutputStream source = new ByteArrayOutputStream((int) size);
+                copyTo(source);
+                compiled = Template.compile(source.toByteArray());
+                template = compiled;
+            }
+            return compiled;
+        }
+
+        /**
+         * Copies the content of the file to a stream.
+         *
+         * @param out the stream to copy to
+         * @throws IOException if an I/O error occurs
+         */
+        private void copyTo(OutputStream out) throws IOException {
+            if (bytes != null) {
+                out.write(bytes);
+                return;
+            }
+            ByteBuffer content = buffer.duplicate();
+            byte[] chunk = new byte[8192];
+            while (content.hasRemaining()) {
+                int length = Math.min(chunk.length, content.remaining());
+                content.get(chunk, 0, length);
+                out.write(chunk, 0, length);
+            }
+        }
+
+        /**
+         * Returns the size of the file in bytes.
+         *
+         * @return the size of the file
+         */
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * Returns the last modification time of the file, in milliseconds since the epoch.
+         *
+         * @return the last modification time
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+    /**
+     * The key of a cache entry: the file, and the content coding of a compressed variant, or null for the content.
+     */
+    private record Key(Path file, String encoding) {
+    }
+
+    /**
+     * One tier of the cache: an access-ordered map, so that iteration starts with the least
+     * recently used file, and a byte budget enforced on every insertion.
+     */
+    private static class Tier {
+        private final String name;
+        private long budget;
+        private final LinkedHashMap<Key, CachedFile> files = new LinkedHashMap<>(16, 0.75f, true);
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+        private long usedBytes = 0;
+
+        Tier(String name, long budget) {
+            this.name = name;
+            this.budget = budget;
+        }
+
+        synchronized void setBudget(long budget) {
+            this.budget = budget;
+            evict();
+        }
+
+        synchronized CachedFile get(Key key) {
+            CachedFile cached = files.get(key);
+            if (cached != null && key.encoding() == null) { // a variant is looked up after its file was a hit
+                hits.increment();
+            }
+            return cached;
+        }
+
+        synchronized void put(Key key, CachedFile cached) {
+            if (cached.getSize() > budget) {
+                return;
+            }
+            CachedFile previous = files.put(key, cached);
+            if (previous != null) {
+                usedBytes -= previous.getSize();
+            }
+            usedBytes += cached.getSize();
+            evict();
+        }
+
+        private void evict() {
+            Iterator<CachedFile> leastRecentlyUsed = files.values().iterator();
+            while (usedBytes > budget && leastRecentlyUsed.hasNext()) {
+                CachedFile evicted = leastRecentlyUsed.next();
+                leastRecentlyUsed.remove();
+                usedBytes -= evicted.getSize();
+                evictions.increment();
+            }
+        }
+
+        synchronized void remove(Key key) {
+            CachedFile removed = files.remove(key);
+            if (removed != null) {
+                usedBytes -= removed.getSize();
+            }
+        }
+
+        synchronized void clear() {
+            files.clear();
+            usedBytes = 0;
+        }
+
+        synchronized String getStatistics() {
+            return name + " files=" + files.size()
+                    + " bytes=" + usedBytes + "/" + budget
+                    + " hits=" + hits.sum()
+                    + " evictions=" + evictions.sum();
+        }
+    }
+}
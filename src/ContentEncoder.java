@@ -0,0 +1,119 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The src.ContentEncoder class compresses response bodies with gzip or deflate.
+ * It decides which content types are worth compressing, picks the coding the client prefers
+ * from its Accept-Encoding header, and compresses with the level set in the configuration.
+ */
+public class ContentEncoder {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    // Content types (as used by src.HTTPRequest) that are text and compress well;
+    // images are already compressed
+    private static final Set<String> COMPRESSIBLE_TYPES = Set.of("html", "message/http");
+
+    private volatile int level;
+    private volatile int minSize;
+
+    /**
+     * Constructs a src.ContentEncoder object with the compression level and minimum size from the configuration.
+     *
+     * @param config the configuration
+     */
+    public ContentEncoder(Config config) {
+        reconfigure(config);
+    }
+
+    /**
+     * Applies the compression level and minimum size of a new configuration. Compressed variants already
+     * cached by src.ContentCache keep the level they were compressed with.
+     *
+     * @param config the configuration
+     */
+    public void reconfigure(Config config) {
+        level = config.getCompressionLevel();
+        minSize = config.getCompressionMinSize();
+    }
+
+    /**
+     * Returns whether a content type is worth compressing.
+     *
+     * @param contentType the content type of the response
+     * @return whether the content type is compressible
+     */
+    public boolean isCompressible(String contentType) {
+        return COMPRESSIBLE_TYPES.contains(contentType);
+    }
+
+    /**
+     * Picks the coding for a body of the given type and size, preferring gzip over deflate.
+     *
+     * @param request the HTTP request, whose Accept-Encoding header lists the codings the client accepts
+     * @param contentType the content type of the response
+     * @param size the size of the uncompressed body in bytes
+     * @return the coding to use, or null to send the body uncompressed
+     */
+    public String negotiate(HTTPRequest request, String contentType, long size) {
+        if (!isCompressible(contentType) || size < minSize) {
+            return null;
+        }
+        if (request.acceptsEncoding(GZIP)) {
+            return GZIP;
+        }
+        if (request.acceptsEncoding(DEFLATE)) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * Compresses a body.
+     *
+     * @param content the body, written to the given stream by the caller
+     * @param encoding the coding, gzip or deflate
+     * @return the compressed body
+     * @throws IOException if the body cannot be written
+     */
+    public byte[] encode(ContentWriter content, String encoding) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        if (GZIP.equals(encoding)) {
+            try (OutputStream out = new LeveledGZIPOutputStream(encoded, level)) {
+                content.writeTo(out);
+            }
+        } else {
+            Deflater deflater = new Deflater(level);
+            try (OutputStream out = new DeflaterOutputStream(encoded, deflater)) {
+                content.writeTo(out);
+            } finally {
+                deflater.end();
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    /**
+     * Writes an uncompressed body to a stream.
+     */
+    public interface ContentWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * A GZIPOutputStream with a configurable compression level.
+     */
+    private static class LeveledGZIPOutputStream extends GZIPOutputStream {
+        LeveledGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out);
+            def.setLevel(level);
+        }
+    }
+}
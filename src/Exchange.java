@@ -0,0 +1,141 @@
+package src;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+/**
+ * The src.Exchange class is what a src.Handler sees of a request being served: the parsed request, the
+ * src.ResponseBuilder and src.ResponseOutput to answer it with, the configuration snapshot the request started
+ * with and the address of the client.
+ * One src.Exchange is reused by a src.RequestHandler for every request of its connection, so a handler must
+ * not keep it once the response has been written.
+ */
+public class Exchange {
+    private static final byte[] EMPTY_BODY = new byte[0];
+
+    private final ResponseBuilder response;
+    private final InetAddress clientAddress;
+    private HTTPRequest request;
+    private ResponseOutput output;
+    private Config config;
+    private String requestHeaders;
+    private long writeStart;
+
+    /**
+     * Constructs a src.Exchange object for the requests of one connection.
+     *
+     * @param response the response builder of the connection
+     * @param clientAddress the address of the client, or null if unknown
+     */
+    Exchange(ResponseBuilder response, InetAddress clientAddress) {
+        this.response = response;
+        this.clientAddress = clientAddress;
+    }
+
+    /**
+     * Starts the exchange of a new request.
+     *
+     * @param request the parsed request
+     * @param output the output to write the response to
+     * @param config the configuration snapshot of the request
+     * @param requestHeaders the raw header echoed by a TRACE response, or null
+     * @param startTime the System.nanoTime() at which the request started to be processed
+     */
+    void start(HTTPRequest request, ResponseOutput output, Config config, String requestHeaders, long startTime) {
+        this.request = request;
+        this.output = output;
+        this.config = config;
+        this.requestHeaders = requestHeaders;
+        writeStart = startTime;
+    }
+
+    /**
+     * Answers the request with a response whose body is held in memory, or no body.
+     *
+     * @param statusCode the status code
+     * @param contentType the content type as used by src.HTTPRequest, e.g. "html"
+     * @param body the body, or an empty array
+     * @throws IOException if an I/O error occurs
+     */
+    public void respond(int statusCode, String contentType, byte[] body) throws IOException {
+        response.handleResponse(statusCode, contentType, body, request.getType(), output, requestHeaders);
+    }
+
+    /**
+     * Answers the request with a response without a body, such as 404 Not Found.
+     *
+     * @param statusCode the status code
+     * @param contentType the content type as used by src.HTTPRequest, e.g. "default"
+     * @throws IOException if an I/O error occurs
+     */
+    public void respond(int statusCode, String contentType) throws IOException {
+        respond(statusCode, contentType, EMPTY_BODY);
+    }
+
+    /**
+     * Marks the end of the lookups of the handler and the start of the response, for the write latency
+     * recorded by src.Metrics. Until it is called, the whole request counts as writing.
+     */
+    public void startWrite() {
+        writeStart = System.nanoTime();
+    }
+
+    /**
+     * Returns the request being served.
+     *
+     * @return the request
+     */
+    public HTTPRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * Returns the method of the request.
+     *
+     * @return the method
+     */
+    public RequestType getMethod() {
+        return request.getMethod();
+    }
+
+    /**
+     * Returns the response builder, for the responses other than {@link #respond(int, String, byte[])},
+     * such as files, ranges and generated content, and for extra headers.
+     *
+     * @return the response builder
+     */
+    public ResponseBuilder getResponse() {
+        return response;
+    }
+
+    /**
+     * Returns the output the response is written to.
+     *
+     * @return the output
+     */
+    public ResponseOutput getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the configuration snapshot the request started with.
+     *
+     * @return the configuration
+     */
+    public Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Returns the address of the client.
+     *
+     * @return the address, or null if unknown
+     */
+    public InetAddress getClientAddress() {
+        return clientAddress;
+    }
+
+    long getWriteStart() {
+        return writeStart;
+    }
+}
@@ -0,0 +1,131 @@
+package src;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The src.FormFieldIterator class decodes "application/x-www-form-urlencoded" data, as sent in query strings
+ * and form bodies, one field at a time while reading it from a stream. Only the field being decoded is held
+ * in memory, so a large form body is never turned into one String.
+ * Names and values are percent-decoded as UTF-8, with "+" standing for a space; a field without "=" has an
+ * empty value and fields with an empty name are skipped. The stream is closed once it is exhausted.
+ */
+public class FormFieldIterator implements Iterator<Map.Entry<String, String>> {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private final byte[] readBuffer;
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean endOfStream = false;
+    private byte[] field = new byte[64];
+    private Map.Entry<String, String> next;
+
+    /**
+     * Constructs a src.FormFieldIterator object reading from a stream.
+     *
+     * @param in the url-encoded data
+     */
+    public FormFieldIterator(InputStream in) {
+        this.in = in;
+        readBuffer = new byte[READ_BUFFER_SIZE];
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            while (next == null && !endOfStream) {
+                next = readField();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return next != null;
+    }
+
+    @Override
+    public Map.Entry<String, String> next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<String, String> field = next;
+        next = null;
+        return field;
+    }
+
+    /**
+     * Reads the bytes up to the next "&amp;" or the end of the stream and decodes them.
+     *
+     * @return the field, or null if it has no name
+     */
+    private Map.Entry<String, String> readField() throws IOException {
+        int length = 0;
+        int separator = -1;
+        int b;
+        while ((b = read()) >= 0 && b != '&') {
+            if (b == '=' && separator < 0) {
+                separator = length;
+            }
+            if (length == field.length) {
+                field = Arrays.copyOf(field, length * 2);
+            }
+            field[length++] = (byte) b;
+        }
+        int nameEnd = separator < 0 ? length : separator;
+        if (nameEnd == 0) {
+            return null;
+        }
+        String name = decodeComponent(field, 0, nameEnd);
+        String value = separator < 0 ? "" : decodeComponent(field, separator + 1, length);
+        return new AbstractMap.SimpleImmutableEntry<>(name, value);
+    }
+
+    private int read() throws IOException {
+        if (readPosition == readLimit) {
+            if (endOfStream) {
+                return -1;
+            }
+            readLimit = in.read(readBuffer, 0, readBuffer.length);
+            readPosition = 0;
+            if (readLimit <= 0) {
+                readLimit = 0;
+                endOfStream = true;
+                in.close();
+                return -1;
+            }
+        }
+        return readBuffer[readPosition++] & 0xff;
+    }
+
+    /**
+     * Decodes one percent-encoded name or value in place, where "+" stands for a space, as UTF-8.
+     * A "%" that is not followed by two hex digits is kept as it is.
+     *
+     * @param bytes the encoded bytes, overwritten by the decoded ones
+     * @param start the offset of the first byte
+     * @param end the offset just past the last byte
+     * @return the decoded String
+     */
+    static String decodeComponent(byte[] bytes, int start, int end) {
+        int length = start;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b == '+') {
+                b = ' ';
+            } else if (b == '%' && i + 2 < end
+                    && Character.digit(bytes[i + 1], 16) >= 0 && Character.digit(bytes[i + 2], 16) >= 0) {
+                b = (byte) (Character.digit(bytes[i + 1], 16) << 4 | Character.digit(bytes[i + 2], 16));
+                i += 2;
+            }
+            bytes[length++] = b;
+        }
+        return new String(bytes, start, length - start, StandardCharsets.UTF_8);
+    }
+}
@@ -1,63 +1,285 @@
 package src;
 
-import java.net.URLDecoder;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Paths;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * The src.HTTPRequest class is responsible for parsing an HTTP request header.
+ * The src.HTTPRequest class is responsible for interpreting an HTTP request header.
  * It extracts the request type, requested page, whether the requested page is an image,
  * content length, referer, user agent, and parameters from the request header.
+ * The header is parsed by a src.RequestParser, which only records offsets into the connection's buffer;
+ * the fields every request needs are read from the bytes once, while the other headers, the query string
+ * and the form body are only turned into Strings when asked for. Those lazy accessors read the
+ * connection's buffer, so they must only be used while the request is being processed.
  */
 public class HTTPRequest {
+    // the methods the server knows, so that a known method never allocates a String,
+    // in the order of src.RequestType
+    private static final RequestType[] KNOWN_TYPES = RequestType.values();
+    private static final String[] KNOWN_METHODS = {
+            RequestType.GET.toString(),
+            RequestType.POST.toString(),
+            RequestType.HEAD.toString(),
+            RequestType.TRACE.toString(),
+            RequestType.PUT.toString(),
+            RequestType.DELETE.toString(),
+            RequestType.OPTION.toString() + "S",
+    };
+    private static final HTTPVersion[] KNOWN_VERSIONS = HTTPVersion.values();
+    private static final String DEFAULT_PAGE = "/index.html";
+
     private final String[] imageExtensions;
+    private final RequestParser parser;
     private String type;
+    private RequestType method; // null for a method the server does not know
     private String requestedPage;
     private String contentType;
-    private String referer;
-    private String userAgent;
+    private String httpVersion;
+    private String rawHeader;
     private boolean chunked;
+    private boolean chunkedBody;
+    private boolean keepAlive;
     private boolean isValid;
+    private int errorStatus = 400; // the status an invalid request is answered with
     private boolean unsupportedHttpVersion = false;
     private int contentLength;
-    private Map<String, String> parameters;
-    private Map<String, String> requestBody;
+    private int queryStart = -1;
+    private int queryEnd;
+    private RequestBody body = RequestBody.empty();
+    private Map<String, List<String>> parameters;
+    private Map<String, List<String>> requestBody;
 
     /**
-     * Constructs a src.HTTPRequest object and parses the provided request header.
+     * Constructs a src.HTTPRequest object from a request header the parser has just parsed.
      *
-     * @param requestHeader the HTTP request header to parse
+     * @param parser the parser holding the offsets of the request line and header fields
+     * @param imgExtensions the extensions of the files served as images
      */
-    public HTTPRequest(String requestHeader, String[] imgExtensions, String body) {
-        parameters = new HashMap<>();
-        requestBody = new HashMap<>();
-        String[] lines = requestHeader.split("\n");
+    public HTTPRequest(RequestParser parser, String[] imgExtensions) {
+        this.parser = parser;
         imageExtensions = imgExtensions;
         isValid = true; // assume the request is valid until proven otherwise
-        unsupportedHttpVersion = false;
+        parseType();
+        parseVersion();
+        if (!isValid || unsupportedHttpVersion) {
+            return;
+        }
+        parseTarget();
+        parseContentLength();
+        determineContentType();
+        parseConnection();
+        parseTransferEncoding();
+        int chunkedHeader = parser.indexOfHeader("chunked");
+        chunked = chunkedHeader >= 0 && parser.headerValueEqualsIgnoreCase(chunkedHeader, "yes");
+        if (!isValid) {
+            Log.debug("Error parsing request header, Returning 400 Bad Request");
+        }
+    }
+
+    private HTTPRequest(String[] imgExtensions, int errorStatus) {
+        parser = null;
+        imageExtensions = imgExtensions;
+        isValid = false;
+        this.errorStatus = errorStatus;
+        rawHeader = "";
+    }
+
+    /**
+     * Creates the request that stands for bytes the parser rejected, answered with 400 Bad Request.
+     *
+     * @param imgExtensions the extensions of the files served as images
+     * @return an invalid request
+     */
+    public static HTTPRequest invalid(String[] imgExtensions) {
+        return invalid(imgExtensions, 400);
+    }
+
+    /**
+     * Creates the request that stands for a request that was rejected without being served,
+     * such as one over a size limit (413, 414, 431) or one that did not arrive in time (408).
+     *
+     * @param imgExtensions the extensions of the files served as images
+     * @param errorStatus the status code of the response
+     * @return an invalid request
+     */
+    public static HTTPRequest invalid(String[] imgExtensions, int errorStatus) {
+        Log.debug("Error reading request, Returning " + errorStatus);
+        return new HTTPRequest(imgExtensions, errorStatus);
+    }
+
+    /**
+     * Parses the request type, reusing the constant of a known method.
+     */
+    private void parseType() {
+        for (int i = 0; i < KNOWN_METHODS.length; i++) {
+            if (parser.methodEquals(KNOWN_METHODS[i])) {
+                type = KNOWN_METHODS[i];
+                method = KNOWN_TYPES[i];
+                return;
+            }
+        }
+        type = parser.method(); // answered with 501 Not Implemented
+    }
 
-        if (requestHeader.isEmpty() || lines.length == 0) { // handle empty request
-            System.out.println("Empty request, Returning 400 Bad Request");
+    /**
+     * Parses the HTTP version, which must look like "HTTP/x.y" and be one the server knows.
+     */
+    private void parseVersion() {
+        if (!parser.versionStartsWith("HTTP/")) {
             isValid = false;
             return;
         }
+        for (HTTPVersion version : KNOWN_VERSIONS) {
+            if (parser.versionStartsWith(version.getVersion())) {
+                httpVersion = version.getVersion();
+                return;
+            }
+        }
+        httpVersion = parser.version();
+        unsupportedHttpVersion = true;
+    }
 
-        try {
-            for (String line : lines) {
-                parseTypeAndRequestedPage(line);
-                parseContentLength(line);
-                parseReferer(line);
-                parseUserAgent(line);
-                parseChunked(line);
+    /**
+     * Splits the request target into the requested page and the query string.
+     * The query string is only decoded when the parameters are asked for.
+     */
+    private void parseTarget() {
+        byte[] buffer = parser.buffer();
+        int start = parser.targetStart();
+        int end = parser.targetEnd();
+        int pathEnd = start;
+        while (pathEnd < end && buffer[pathEnd] != '?') {
+            pathEnd++;
+        }
+        if (pathEnd < end) {
+            queryStart = pathEnd + 1;
+            queryEnd = end;
+        }
+
+        if (pathEnd - start == 1 && buffer[start] == '/') { // handle default page
+            requestedPage = DEFAULT_PAGE;
+            return;
+        }
+        String path = new String(buffer, start, pathEnd - start, StandardCharsets.ISO_8859_1);
+        requestedPage = isNormalized(buffer, start, pathEnd) ? path : sanitizePath(path);
+    }
+
+    /**
+     * Returns whether a path is already in the form Path.normalize() would produce:
+     * absolute, without empty, "." or ".." segments and without a trailing slash.
+     * Paths that are not, which browsers never send, take the slow path through java.nio.file.
+     */
+    private static boolean isNormalized(byte[] buffer, int start, int end) {
+        if (buffer[start] != '/' || buffer[end - 1] == '/') {
+            return false;
+        }
+        for (int i = start; i < end - 1; i++) {
+            if (buffer[i] == '/' && (buffer[i + 1] == '/' || buffer[i + 1] == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the Content-Length header. A value that is not a number makes the request invalid,
+     * since the end of the body, and so the start of the next request, would be unknown.
+     * The header may be sent in several fields, or as a comma-separated list, only if every value is the same
+     * (RFC 9112 section 6.3): a proxy in front of the server may frame the body by another of the values,
+     * so conflicting lengths could smuggle a request past it.
+     */
+    private void parseContentLength() {
+        long length = -1;
+        for (int index = parser.indexOfHeader("content-length"); index >= 0;
+                index = parser.indexOfHeader("content-length", index + 1)) {
+            long value = parser.headerValueAsLong(index);
+            if (value < 0) {
+                value = parseContentLengthList(parser.headerValue(index));
             }
-            determineContentType();
-            parseBody(body);
-        } catch (Exception e) {
-            System.out.println("Error parsing request header, Returning 400 Bad Request");
+            if (value < 0 || length >= 0 && value != length) {
+                isValid = false;
+                return;
+            }
+            length = value;
+        }
+        if (length > Integer.MAX_VALUE) {
             isValid = false;
+            return;
+        }
+        contentLength = (int) Math.max(length, 0);
+    }
+
+    /**
+     * Parses a Content-Length value that lists the same length several times, such as "5, 5".
+     *
+     * @return the length, or -1 if an element is not a number or the elements differ
+     */
+    private static long parseContentLengthList(String value) {
+        long length = -1;
+        for (String element : value.split(",", -1)) {
+            element = element.trim();
+            if (element.isEmpty() || element.length() > 18) {
+                return -1;
+            }
+            for (int i = 0; i < element.length(); i++) {
+                if (element.charAt(i) < '0' || element.charAt(i) > '9') {
+                    return -1;
+                }
+            }
+            long elementLength = Long.parseLong(element);
+            if (length >= 0 && elementLength != length) {
+                return -1;
+            }
+            length = elementLength;
+        }
+        return length;
+    }
+
+    /**
+     * Determines whether the connection stays open after the response.
+     * HTTP/1.1 connections are persistent unless the client sends "Connection: close",
+     * while older versions are only persistent when the client sends "Connection: keep-alive".
+     */
+    private void parseConnection() {
+        int index = parser.indexOfHeader("connection");
+        if (HTTPVersion.HTTP_1_1.getVersion().equals(httpVersion)) {
+            keepAlive = index < 0 || !parser.headerValueContainsToken(index, "close");
+        } else {
+            keepAlive = index >= 0 && parser.headerValueContainsToken(index, "keep-alive");
+        }
+    }
+
+    /**
+     * Parses the Transfer-Encoding header. The chunked coding on its own is the only one supported;
+     * with any other coding the end of the body is unknown and the request is invalid. A chunked body overrides
+     * Content-Length; since a client sending both may be trying to smuggle a request past a proxy,
+     * the connection is closed after the response. A second Transfer-Encoding field, which could only add
+     * a coding after chunked, makes the request invalid as well.
+     */
+    private void parseTransferEncoding() {
+        int index = parser.indexOfHeader("transfer-encoding");
+        if (index < 0) {
+            return;
+        }
+        if (!parser.headerValueEqualsIgnoreCase(index, "chunked")
+                || parser.indexOfHeader("transfer-encoding", index + 1) >= 0) {
+            isValid = false;
+            return;
+        }
+        chunkedBody = true;
+        if (parser.indexOfHeader("content-length") >= 0) {
+            contentLength = 0;
+            keepAlive = false;
         }
     }
 
@@ -66,27 +288,25 @@ public class HTTPRequest {
      * The content type is determined by the extension of the requested page.
      */
     private void determineContentType() {
-        String[] parts = requestedPage.split("\\.");
-        String extension = parts[parts.length - 1];
-
-        if (type.equals(RequestType.TRACE.toString())) {
+        if (method == RequestType.TRACE) {
             contentType = "message/http";
             return;
         }
 
+        int extensionStart = requestedPage.lastIndexOf('.') + 1;
         for (String imageExtension : imageExtensions) {
-            if (imageExtension.equals(extension)) {
+            if (hasExtension(extensionStart, imageExtension)) {
                 contentType = "image";
                 return;
             }
         }
 
-        if (extension.equals("html")) {
+        if (hasExtension(extensionStart, "html")) {
             contentType = "html";
             return;
         }
 
-        if (extension.equals("ico")) {
+        if (hasExtension(extensionStart, "ico")) {
             contentType = "icon";
             return;
         }
@@ -94,131 +314,60 @@ public class HTTPRequest {
         contentType = "default";
     }
 
-    /**
-     * Parses the request type and requested page from a line of the request header.
-     *
-     * @param line a line of the request header
-     */
-    private void parseTypeAndRequestedPage(String line) {
-        if (line.startsWith(RequestType.GET.toString()) ||
-                line.startsWith(RequestType.POST.toString()) ||
-                line.startsWith(RequestType.HEAD.toString()) ||
-                line.startsWith(RequestType.TRACE.toString()) ||
-                line.startsWith(RequestType.PUT.toString()) ||
-                line.startsWith(RequestType.DELETE.toString()) ||
-                line.startsWith(RequestType.OPTION.toString())) {
-            String[] parts = line.split(" ");
-            if (parts.length >= 3) {
-                type = parts[0];
-                requestedPage = sanitizePath(parts[1]);
-                // Check if HTTP version is present
-                if (!parts[2].startsWith("HTTP/")) {
-                    isValid = false;
-                    return;
-                }
-
-                // Check if HTTP version is supported
-                if (!parts[2].startsWith(HTTPVersion.HTTP_1_0.getVersion()) &&
-                        !parts[2].startsWith(HTTPVersion.HTTP_1_1.getVersion()) &&
-                        !parts[2].startsWith(HTTPVersion.HTTP_0_9.getVersion()) &&
-                        !parts[2].startsWith(HTTPVersion.HTTP_2_0.getVersion()) &&
-                        !parts[2].startsWith(HTTPVersion.HTTP_3_0.getVersion())) {
-                    unsupportedHttpVersion = true;
-                    return;
-                }
-
-                parseParameters(requestedPage);
-                // normalize the requested path to handle default page
-
-                if (this.requestedPage.equals("/")) { // handle default page
-                    requestedPage = "/index.html";
-                }
-            } else {
-                isValid = false;
-            }
-        }
-    }
-
-    /**
-     * Parses the parameters from the requested page.
-     *
-     * @param requestedPage the requested page
-     */
-    private void parseParameters(String requestedPage) {
-        if (requestedPage.contains("?")) {
-            String[] pageParts = requestedPage.split("\\?");
-            this.requestedPage = pageParts[0];
-            String[] paramParts = pageParts[1].split("&");
-            for (String param : paramParts) {
-                String[] keyValue = param.split("=");
-                if (keyValue.length >= 2) {
-                    parameters.put(keyValue[0], keyValue[1]);
-                }
-            }
-        }
+    private boolean hasExtension(int extensionStart, String extension) {
+        return requestedPage.length() - extensionStart == extension.length()
+                && requestedPage.regionMatches(extensionStart, extension, 0, extension.length());
     }
 
     /**
-     * Parses the content length from a line of the request header.
+     * Returns whether the request carries a body, of Content-Length bytes or chunked.
      *
-     * @param line a line of the request header
-     */
-    private void parseContentLength(String line) {
-        if (line.startsWith("Content-Length: ")) {
-            try {
-                contentLength = Integer.parseInt(line.split(": ")[1]);
-            } catch (NumberFormatException e) {
-                contentLength = 0;
-            }
-        }
+     * @return whether the request has a body
+     */
+    public boolean hasBody() {
+        return chunkedBody || contentLength > 0;
     }
 
     /**
-     * Parses the referer from a line of the request header.
+     * Returns whether the body is sent with "Transfer-Encoding: chunked".
      *
-     * @param line a line of the request header
+     * @return whether the body is chunked
      */
-    private void parseReferer(String line) {
-        if (line.startsWith("Referer: ")) {
-            referer = line.split(": ", 2)[1];
-        }
+    public boolean isChunkedBody() {
+        return chunkedBody;
     }
 
     /**
-     * Parses the user agent from a line of the request header.
+     * Sets the body of the request, once all of it has been received.
      *
-     * @param line a line of the request header
+     * @param body the body
      */
-    private void parseUserAgent(String line) {
-        if (line.startsWith("User-Agent: ")) {
-            userAgent = line.split(": ", 2)[1];
-        }
+    public void setBody(RequestBody body) {
+        this.body = body;
     }
 
     /**
-     * Parses the chunked from a line of the request header.
+     * Returns the body of the request, empty if it has none.
      *
-     * @param line a line of the request header
+     * @return the body
      */
-    private void parseChunked(String line) {
-        if (line.toLowerCase().startsWith("chunked: ")) {
-            chunked = "yes".equals(line.split(": ")[1].trim().toLowerCase());
-        }
+    public RequestBody getBody() {
+        return body;
     }
 
     /**
-     * Parses the body from a line of the request header.
+     * Decodes url-encoded fields into a map from each name to its values in the order they appear.
      *
-     * @param body a line of the request header
+     * @param fields the fields
+     * @return the decoded names and values
      */
-    private void parseBody(String body) {
-        String[] pairs = body.split("&");
-        for (String pair : pairs) {
-            String[] parts = pair.split("=");
-            String name = parts[0];
-            String value = parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "";
-            requestBody.put(name, value);
+    private static Map<String, List<String>> collectFields(Iterator<Map.Entry<String, String>> fields) {
+        Map<String, List<String>> values = new LinkedHashMap<>();
+        while (fields.hasNext()) {
+            Map.Entry<String, String> field = fields.next();
+            values.computeIfAbsent(field.getKey(), key -> new ArrayList<>(1)).add(field.getValue());
         }
+        return values;
     }
 
     /**
@@ -230,12 +379,27 @@ public class HTTPRequest {
      */
     private String sanitizePath(String path) {
         try {
-            return Paths.get(path).normalize().toString();
+            String normalized = Paths.get(path).normalize().toString();
+            return normalized.equals("/") ? DEFAULT_PAGE : normalized;
         } catch (InvalidPathException e) {
             return "";
         }
     }
 
+    /**
+     * Returns the value of a header, looked up case-insensitively.
+     *
+     * @param name the header name in lower case
+     * @return the header value, or null if the header is missing
+     */
+    public String getHeader(String name) {
+        if (parser == null) {
+            return null;
+        }
+        int index = parser.indexOfHeader(name);
+        return index < 0 ? null : parser.headerValue(index);
+    }
+
     // Getters
 
     /**
@@ -247,6 +411,15 @@ public class HTTPRequest {
         return type;
     }
 
+    /**
+     * Returns the method of the request, to be dispatched on with a switch or by its ordinal.
+     *
+     * @return the method, or null if the server does not know it or the request is invalid
+     */
+    public RequestType getMethod() {
+        return method;
+    }
+
     /**
      * Returns the requested page.
      *
@@ -280,7 +453,7 @@ public class HTTPRequest {
      * @return the referer
      */
     public String getReferer() {
-        return referer;
+        return getHeader("referer");
     }
 
     /**
@@ -289,7 +462,18 @@ public class HTTPRequest {
      * @return the user agent
      */
     public String getUserAgent() {
-        return userAgent;
+        return getHeader("user-agent");
+    }
+
+    /**
+     * Returns the request line and header fields as they were received, without the final blank line.
+     * @return the raw request header
+     */
+    public String getRawHeader() {
+        if (rawHeader == null) {
+            rawHeader = parser.rawHead();
+        }
+        return rawHeader;
     }
 
     /**
@@ -301,10 +485,39 @@ public class HTTPRequest {
     }
 
     /**
-     * Returns the parameters.
+     * Returns the status code an invalid request is answered with.
+     *
+     * @return 400, or the status of the limit or timeout the request was rejected for
+     */
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    /**
+     * Returns the parameters of the query string, with the first value of each parameter.
+     * The query string is decoded on the first call.
      * @return the parameters
      */
     public Map<String, String> getParameters() {
+        return firstValues(getParameterMap());
+    }
+
+    /**
+     * Returns all the values of a parameter of the query string, e.g. ["a", "b"] for "?x=a&amp;x=b".
+     * @param name the name of the parameter
+     * @return the values of the parameter, empty if it is missing
+     */
+    public List<String> getParameterValues(String name) {
+        return getParameterMap().getOrDefault(name, Collections.emptyList());
+    }
+
+    private Map<String, List<String>> getParameterMap() {
+        if (parameters == null) {
+            parameters = queryStart < 0
+                    ? Collections.emptyMap()
+                    : collectFields(new FormFieldIterator(
+                            new ByteArrayInputStream(parser.buffer(), queryStart, queryEnd - queryStart)));
+        }
         return parameters;
     }
 
@@ -317,13 +530,41 @@ public class HTTPRequest {
     }
 
     /**
-     * Returns the request body.
+     * Returns the fields of the url-encoded request body, with the first value of each field.
+     * The body is decoded on the first call; handlers that expect large forms iterate
+     * over {@link RequestBody#formFields()} instead.
      * @return the request body
+     * @throws IOException if a body spilled to disk cannot be read
+     */
+    public Map<String, String> getRequestFormBody() throws IOException {
+        return firstValues(getFormMap());
+    }
+
+    /**
+     * Returns all the values of a field of the url-encoded request body.
+     * @param name the name of the field
+     * @return the values of the field, empty if it is missing
+     * @throws IOException if a body spilled to disk cannot be read
      */
-    public Map<String, String> getRequestFormBody() {
+    public List<String> getFormValues(String name) throws IOException {
+        return getFormMap().getOrDefault(name, Collections.emptyList());
+    }
+
+    private Map<String, List<String>> getFormMap() throws IOException {
+        if (requestBody == null) {
+            requestBody = collectFields(body.formFields());
+        }
         return requestBody;
     }
 
+    private static Map<String, String> firstValues(Map<String, List<String>> values) {
+        Map<String, String> first = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> entry : values.entrySet()) {
+            first.put(entry.getKey(), entry.getValue().get(0));
+        }
+        return first;
+    }
+
     /**
      * Returns whether the HTTP version is unsupported.
      * @return whether the HTTP version is unsupported
@@ -331,4 +572,133 @@ public class HTTPRequest {
     public boolean isUnsupportedHttpVersion() {
         return unsupportedHttpVersion;
     }
+
+    /**
+     * Returns the HTTP version from the request line, e.g. "HTTP/1.1".
+     * @return the HTTP version
+     */
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * Returns whether the response may be sent with chunked transfer encoding, which only HTTP/1.1
+     * clients understand; an HTTP/1.0 client gets a Content-Length instead.
+     * @return whether the client accepts a chunked response
+     */
+    public boolean acceptsChunkedResponse() {
+        return HTTPVersion.HTTP_1_1.getVersion().equals(httpVersion);
+    }
+
+    /**
+     * Returns whether the request is the first line of the HTTP/2 client preface, "PRI * HTTP/2.0",
+     * sent by a client that knows the server speaks HTTP/2 in cleartext.
+     * @return whether the request starts an HTTP/2 connection
+     */
+    public boolean isHttp2Preface() {
+        return parser != null && Http2Connection.PREFACE_METHOD.equals(type) && "*".equals(requestedPage)
+                && HTTPVersion.HTTP_2_0.getVersion().equals(httpVersion) && parser.headerCount() == 0;
+    }
+
+    /**
+     * Returns whether an HTTP/1.1 request asks to upgrade the connection to cleartext HTTP/2, with
+     * "Upgrade: h2c", "Connection: Upgrade, HTTP2-Settings" and a valid HTTP2-Settings header.
+     * @return whether the connection may be switched to HTTP/2
+     */
+    public boolean isHttp2Upgrade() {
+        if (parser == null || !HTTPVersion.HTTP_1_1.getVersion().equals(httpVersion)) {
+            return false;
+        }
+        int upgrade = parser.indexOfHeader("upgrade");
+        int connection = parser.indexOfHeader("connection");
+        return upgrade >= 0 && parser.headerValueContainsToken(upgrade, "h2c")
+                && connection >= 0 && parser.headerValueContainsToken(connection, "upgrade")
+                && parser.headerValueContainsToken(connection, "http2-settings")
+                && getHttp2Settings() != null;
+    }
+
+    /**
+     * Returns the HTTP/2 settings of an upgrade request, decoded from its base64url HTTP2-Settings header.
+     * @return the payload of a SETTINGS frame, or null if the header is missing or not valid
+     */
+    public byte[] getHttp2Settings() {
+        String settings = getHeader("http2-settings");
+        if (settings == null) {
+            return null;
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(settings);
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Moves a request that upgraded its connection to HTTP/2, which is answered on the first stream, to that
+     * version, so that its response is framed by the stream rather than chunked.
+     */
+    void useHttp2() {
+        httpVersion = HTTPVersion.HTTP_2_0.getVersion();
+    }
+
+    /**
+     * Returns whether the client wants the connection to stay open after the response.
+     * HTTP/1.1 connections are persistent unless the client sends "Connection: close",
+     * while older versions are only persistent when the client sends "Connection: keep-alive".
+     * @return whether the connection should be kept alive
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * Returns whether the client accepts a content coding, according to its Accept-Encoding header.
+     * A coding is accepted when it is listed, or covered by "*", with a non-zero quality value.
+     * @param coding the content coding, e.g. "gzip"
+     * @return whether the coding is accepted
+     */
+    public boolean acceptsEncoding(String coding) {
+        int index = parser == null ? -1 : parser.indexOfHeader("accept-encoding");
+        if (index < 0) {
+            return false;
+        }
+        int quality = parser.tokenQuality(index, coding);
+        if (quality < 0) { // an explicit entry overrides "*"
+            quality = parser.tokenQuality(index, "*");
+        }
+        return quality > 0;
+    }
+
+    /**
+     * Returns the entity tags of the If-None-Match header, as sent.
+     * @return the If-None-Match header, or null if it is missing
+     */
+    public String getIfNoneMatch() {
+        return getHeader("if-none-match");
+    }
+
+    /**
+     * Returns the date of the If-Modified-Since header, as sent.
+     * @return the If-Modified-Since header, or null if it is missing
+     */
+    public String getIfModifiedSince() {
+        return getHeader("if-modified-since");
+    }
+
+    /**
+     * Returns the Range header, e.g. "bytes=0-499", as sent.
+     * @return the Range header, or null if it is missing
+     */
+    public String getRange() {
+        return getHeader("range");
+    }
+
+    /**
+     * Returns the If-Range header, an entity tag or a date, as sent.
+     * @return the If-Range header, or null if it is missing
+     */
+    public String getIfRange() {
+        return getHeader("if-range");
+    }
 }
@@ -0,0 +1,31 @@
+package src;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The src.Handler interface is implemented by everything that answers requests: static files, the dynamic pages
+ * and the server's own endpoints. src.Router dispatches every request to one handler by its path and method,
+ * and the handler writes the response through the src.Exchange of the request.
+ * A handler that has written its response returns {@link #DONE}. One that waits for something else returns a
+ * stage instead and writes the response, from any thread, before completing it; until then the connection
+ * neither reads nor writes, and it goes on with its next request once the stage completes. A stage completed
+ * exceptionally is answered with 500 Internal Server Error and closes the connection, as a thrown exception is.
+ */
+@FunctionalInterface
+public interface Handler {
+    /**
+     * The stage returned by a handler that has already written its response.
+     */
+    CompletionStage<Void> DONE = CompletableFuture.completedStage(null);
+
+    /**
+     * Answers a request.
+     *
+     * @param exchange the request and the response being written
+     * @return {@link #DONE}, or a stage that completes once the response has been written
+     * @throws IOException if an I/O error occurs
+     */
+    CompletionStage<Void> handle(Exchange exchange) throws IOException;
+}
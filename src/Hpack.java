@@ -0,0 +1,314 @@
+package src;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The src.Hpack class holds what the HPACK header compression of HTTP/2 (RFC 7541) shares between src.HpackEncoder
+ * and src.HpackDecoder: the static table, the Huffman code, the dynamic table and the coding of prefixed integers.
+ * Names and values are handled as ISO-8859-1 strings, one char per octet, the way src.RequestParser reads them,
+ * so the size of a table entry is the length of its name and value plus 32.
+ */
+public final class Hpack {
+    /**
+     * The size of the dynamic tables until a peer asks for another, the default of SETTINGS_HEADER_TABLE_SIZE.
+     */
+    static final int DEFAULT_TABLE_SIZE = 4096;
+    static final int ENTRY_OVERHEAD = 32;
+
+    // the static table, indexed from 1; entries without a value have an empty one
+    static final String[] STATIC_NAMES = {null,
+            ":authority", ":method", ":method", ":path", ":path", ":scheme", ":scheme", ":status", ":status",
+            ":status", ":status", ":status", ":status", ":status", "accept-charset", "accept-encoding",
+            "accept-language", "accept-ranges", "accept", "access-control-allow-origin", "age", "allow",
+            "authorization", "cache-control", "content-disposition", "content-encoding", "content-language",
+            "content-length", "content-location", "content-range", "content-type", "cookie", "date", "etag",
+            "expect", "expires", "from", "host", "if-match", "if-modified-since", "if-none-match", "if-range",
+            "if-unmodified-since", "last-modified", "link", "location", "max-forwards", "proxy-authenticate",
+            "proxy-authorization", "range", "referer", "refresh", "retry-after", "server", "set-cookie",
+            "strict-transport-security", "transfer-encoding", "user-agent", "vary", "via", "www-authenticate"};
+    static final String[] STATIC_VALUES = new String[STATIC_NAMES.length];
+    static final int STATIC_TABLE_LENGTH = STATIC_NAMES.length - 1;
+    // the first static index of each name, and the static index of each name and value pair that has a value
+    static final Map<String, Integer> STATIC_NAME_INDEX = new HashMap<>();
+    static final Map<String, Integer> STATIC_FIELD_INDEX = new HashMap<>();
+
+    // the Huffman code of each octet and of EOS (256), right-aligned, and its length in bits
+    static final int[] HUFFMAN_CODES = {
+            0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+            0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+            0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+            0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+            0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+            0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+            0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+            0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+            0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+            0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+            0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+            0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+            0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+            0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+            0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+            0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+            0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+            0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+            0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+            0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+            0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+            0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+            0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+            0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+            0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+            0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+            0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+            0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+            0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+            0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+            0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+            0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+            0x3fffffff,
+    };
+    static final byte[] HUFFMAN_LENGTHS = {
+            13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28,
+            28, 28, 28, 28, 28, 28, 28, 28, 6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+            5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10, 13, 6, 7, 7, 7, 7, 7, 7,
+            7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+            15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7,
+            7, 7, 7, 15, 11, 14, 13, 28, 20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+            24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24, 22, 21, 20, 22, 22, 23, 23, 21,
+            23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+            26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24,
+            21, 21, 26, 26, 28, 27, 27, 27, 20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+            26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26, 30,
+    };
+    private static final int EOS = 256;
+    // the decoding tree: the children of node n are at 2n (bit 0) and 2n + 1 (bit 1), each the index of
+    // another node or, for a leaf, the complement of its symbol
+    private static final int[] HUFFMAN_TREE = new int[2 * EOS + 2];
+
+    static {
+        String[] values = {":method", "GET", ":method", "POST", ":path", "/", ":path", "/index.html",
+                ":scheme", "http", ":scheme", "https", ":status", "200", ":status", "204", ":status", "206",
+                ":status", "304", ":status", "400", ":status", "404", ":status", "500",
+                "accept-encoding", "gzip, deflate"};
+        for (int index = 1, v = 0; index <= STATIC_TABLE_LENGTH; index++) {
+            String name = STATIC_NAMES[index];
+            STATIC_NAME_INDEX.putIfAbsent(name, index);
+            if (v < values.length && values[v].equals(name)) {
+                STATIC_VALUES[index] = values[v + 1];
+                STATIC_FIELD_INDEX.put(name + ":" + values[v + 1], index);
+                v += 2;
+            } else {
+                STATIC_VALUES[index] = "";
+            }
+        }
+        int nodes = 1;
+        for (int symbol = 0; symbol <= EOS; symbol++) {
+            int node = 0;
+            for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit--) {
+                int child = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+                if (HUFFMAN_TREE[child] == 0) {
+                    HUFFMAN_TREE[child] = nodes++;
+                }
+                node = HUFFMAN_TREE[child];
+            }
+            HUFFMAN_TREE[2 * node + (HUFFMAN_CODES[symbol] & 1)] = ~symbol;
+        }
+    }
+
+    private Hpack() {
+    }
+
+    /**
+     * Decodes a Huffman-coded string.
+     *
+     * @param bytes the array holding the string
+     * @param offset the offset of its first octet
+     * @param length the number of octets
+     * @return the decoded string
+     * @throws IOException if the string is not a valid Huffman coding, padded with at most 7 bits of EOS
+     */
+    static String huffmanDecode(byte[] bytes, int offset, int length) throws IOException {
+        char[] decoded = new char[length * 8 / 5 + 1]; // the shortest code is 5 bits long
+        int count = 0;
+        int node = 0;
+        int pendingBits = 0; // the bits read since the last symbol
+        boolean pendingOnes = true; // whether they are all 1, a prefix of EOS and so valid padding
+        for (int i = offset; i < offset + length; i++) {
+            for (int bit = 7; bit >= 0; bit--) {
+                int value = (bytes[i] >>> bit) & 1;
+                int next = HUFFMAN_TREE[2 * node + value];
+                if (next < 0) {
+                    if (~next == EOS) {
+                        throw new IOException("EOS in a Huffman-coded string");
+                    }
+                    decoded[count++] = (char) ~next;
+                    node = 0;
+                    pendingBits = 0;
+                    pendingOnes = true;
+                } else {
+                    node = next;
+                    pendingBits++;
+                    pendingOnes &= value == 1;
+                }
+            }
+        }
+        if (pendingBits > 7 || !pendingOnes) {
+            throw new IOException("invalid padding of a Huffman-coded string");
+        }
+        return new String(decoded, 0, count);
+    }
+
+    /**
+     * Returns the length of a string once Huffman-coded.
+     *
+     * @param text the string, of ISO-8859-1 chars
+     * @return the length in octets
+     */
+    static int huffmanLength(String text) {
+        long bits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            bits += HUFFMAN_LENGTHS[text.charAt(i) & 0xff];
+        }
+        return (int) ((bits + 7) / 8);
+    }
+
+    /**
+     * Huffman-codes a string, padding the last octet with the most significant bits of EOS.
+     *
+     * @param text the string, of ISO-8859-1 chars
+     * @param bytes the array to write to, with room for {@link #huffmanLength(String)} octets
+     * @param offset the offset to write at
+     * @return the offset after the coded string
+     */
+    static int huffmanEncode(String text, byte[] bytes, int offset) {
+        long pending = 0; // bits not yet written, right-aligned
+        int pendingBits = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int symbol = text.charAt(i) & 0xff;
+            pending = (pending << HUFFMAN_LENGTHS[symbol]) | HUFFMAN_CODES[symbol];
+            pendingBits += HUFFMAN_LENGTHS[symbol];
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                bytes[offset++] = (byte) (pending >>> pendingBits);
+            }
+        }
+        if (pendingBits > 0) {
+            bytes[offset++] = (byte) ((pending << (8 - pendingBits)) | (0xff >>> pendingBits));
+        }
+        return offset;
+    }
+
+    /**
+     * The dynamic table of one direction of a connection: the fields most recently added, newest first,
+     * evicted oldest first once their total size would exceed the maximum size.
+     */
+    static final class DynamicTable {
+        private String[] names = new String[16];
+        private String[] values = new String[16];
+        private int newest; // the slot of the newest entry; the older ones follow it, wrapping around
+        private int count;
+        private int size;
+        private int maxSize;
+
+        DynamicTable(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Returns the number of entries.
+         */
+        int length() {
+            return count;
+        }
+
+        /**
+         * Returns the name of an entry, 0 being the newest.
+         */
+        String name(int index) {
+            return names[(newest + index) & (names.length - 1)];
+        }
+
+        /**
+         * Returns the value of an entry, 0 being the newest.
+         */
+        String value(int index) {
+            return values[(newest + index) & (values.length - 1)];
+        }
+
+        /**
+         * Returns the index of an entry with the given name and value, or, if there is none and a name match is
+         * enough, the complement of the index of an entry with that name; -1 if nothing matches.
+         */
+        int indexOf(String name, String value) {
+            int nameMatch = -1;
+            for (int i = 0; i < count; i++) {
+                if (name(i).equals(name)) {
+                    if (value(i).equals(value)) {
+                        return i;
+                    }
+                    if (nameMatch == -1) {
+                        nameMatch = ~i;
+                    }
+                }
+            }
+            return nameMatch;
+        }
+
+        /**
+         * Adds an entry, evicting the oldest ones to make room. An entry larger than the maximum size
+         * empties the table and is not added.
+         */
+        void add(String name, String value) {
+            int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+            evict(maxSize - entrySize);
+            if (entrySize > maxSize) {
+                return;
+            }
+            if (count == names.length) {
+                grow();
+            }
+            newest = (newest - 1) & (names.length - 1);
+            names[newest] = name;
+            values[newest] = value;
+            count++;
+            size += entrySize;
+        }
+
+        /**
+         * Changes the maximum size, evicting the oldest entries that no longer fit.
+         */
+        void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
+            evict(maxSize);
+        }
+
+        int getMaxSize() {
+            return maxSize;
+        }
+
+        private void evict(int targetSize) {
+            while (count > 0 && size > Math.max(targetSize, 0)) {
+                int oldest = (newest + count - 1) & (names.length - 1);
+                size -= names[oldest].length() + values[oldest].length() + ENTRY_OVERHEAD;
+                names[oldest] = null;
+                values[oldest] = null;
+                count--;
+            }
+        }
+
+        private void grow() {
+            String[] grownNames = new String[names.length * 2];
+            String[] grownValues = new String[values.length * 2];
+            for (int i = 0; i < count; i++) {
+                grownNames[i] = name(i);
+                grownValues[i] = value(i);
+            }
+            names = grownNames;
+            values = grownValues;
+            newest = 0;
+        }
+    }
+}
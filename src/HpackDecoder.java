@@ -0,0 +1,143 @@
+package src;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * The src.HpackDecoder class decodes the header blocks a client sends on an HTTP/2 connection (RFC 7541).
+ * There is one decoder per connection, since every block may add to the dynamic table the next ones refer to;
+ * blocks must therefore be decoded in the order they arrive, whichever stream they belong to.
+ * The dynamic table is kept within the default 4096 bytes, the size the server announces, so a client
+ * cannot make it hold more memory than that.
+ */
+public class HpackDecoder {
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private byte[] block;
+    private int position;
+    private int limit;
+
+    /**
+     * Decodes a complete header block into names and values, in the order they were sent.
+     * The whole block is always decoded, so that the dynamic table stays in step with the client's,
+     * but fields past the given list size are dropped: a block of a few bytes that refers to large table
+     * entries over and over cannot make the server build an unbounded list.
+     *
+     * @param block the array holding the block
+     * @param length the length of the block
+     * @param fields the list to add each name and the value that follows it to
+     * @param maxListSize the largest header list size to collect
+     * @return the size of the header list, the length of every name and value plus 32 per field,
+     * larger than maxListSize if fields were dropped
+     * @throws IOException if the block is not valid HPACK, which is a connection error
+     */
+    public long decode(byte[] block, int length, List<String> fields, int maxListSize) throws IOException {
+        this.block = block;
+        position = 0;
+        limit = length;
+        long listSize = 0;
+        boolean fieldSeen = false;
+        while (position < limit) {
+            int b = block[position] & 0xff;
+            String name;
+            String value;
+            if ((b & 0x80) != 0) { // indexed field
+                int index = readInteger(7);
+                name = name(index);
+                value = value(index);
+            } else if ((b & 0xe0) == 0x20) { // dynamic table size update
+                if (fieldSeen) {
+                    throw new IOException("table size update after a header field");
+                }
+                int size = readInteger(5);
+                if (size > Hpack.DEFAULT_TABLE_SIZE) {
+                    throw new IOException("table size update to " + size + " bytes, over the announced size");
+                }
+                table.setMaxSize(size);
+                continue;
+            } else { // literal field, with incremental indexing (01), without indexing (0000) or never indexed (0001)
+                boolean indexing = (b & 0x40) != 0;
+                int index = readInteger(indexing ? 6 : 4);
+                name = index == 0 ? readString() : name(index);
+                value = readString();
+                if (indexing) {
+                    table.add(name, value);
+                }
+            }
+            fieldSeen = true;
+            listSize += name.length() + value.length() + Hpack.ENTRY_OVERHEAD;
+            if (listSize <= maxListSize) {
+                fields.add(name);
+                fields.add(value);
+            }
+        }
+        this.block = null;
+        return listSize;
+    }
+
+    private String name(int index) throws IOException {
+        if (index > 0 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_NAMES[index];
+        }
+        return table.name(dynamicIndex(index));
+    }
+
+    private String value(int index) throws IOException {
+        if (index > 0 && index <= Hpack.STATIC_TABLE_LENGTH) {
+            return Hpack.STATIC_VALUES[index];
+        }
+        return table.value(dynamicIndex(index));
+    }
+
+    private int dynamicIndex(int index) throws IOException {
+        int dynamicIndex = index - Hpack.STATIC_TABLE_LENGTH - 1;
+        if (index == 0 || dynamicIndex >= table.length()) {
+            throw new IOException("invalid table index " + index);
+        }
+        return dynamicIndex;
+    }
+
+    /**
+     * Reads an integer whose first octet holds it in its low prefixBits bits, continued over the following
+     * octets seven bits at a time when the prefix is full.
+     */
+    private int readInteger(int prefixBits) throws IOException {
+        int mask = (1 << prefixBits) - 1;
+        int value = block[position++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        for (int shift = 0; ; shift += 7) {
+            if (position == limit) {
+                throw new IOException("truncated integer");
+            }
+            if (shift > 21) { // more than 28 bits, beyond any size the server accepts
+                throw new IOException("integer too large");
+            }
+            int b = block[position++];
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Reads a string literal, Huffman-coded or not, as ISO-8859-1 chars.
+     */
+    private String readString() throws IOException {
+        if (position == limit) {
+            throw new IOException("truncated string");
+        }
+        boolean huffman = (block[position] & 0x80) != 0;
+        int length = readInteger(7);
+        if (length > limit - position) {
+            throw new IOException("truncated string");
+        }
+        int start = position;
+        position += length;
+        return huffman
+                ? Hpack.huffmanDecode(block, start, length)
+                : new String(block, start, length, StandardCharsets.ISO_8859_1);
+    }
+}
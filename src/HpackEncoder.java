@@ -0,0 +1,149 @@
+package src;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The src.HpackEncoder class encodes the response headers of an HTTP/2 connection (RFC 7541).
+ * A field found in the static or dynamic table is sent as its index, one or two octets; any other field is sent
+ * as a literal and added to the dynamic table, so that the headers every response repeats, such as the server's
+ * content types, Vary or Cache-Control, cost a few octets from the second response on. Fields whose value
+ * changes from one response to the next (Content-Length, ETag, Last-Modified, Content-Range) are sent without
+ * indexing, so they do not push the useful entries out of the table. Strings are Huffman-coded when that is
+ * shorter. Blocks are encoded into an array reused for the whole connection, in the order they are sent.
+ */
+public class HpackEncoder {
+    private static final List<String> NOT_INDEXED = Arrays.asList(
+            "content-length", "etag", "last-modified", "content-range");
+
+    private final Hpack.DynamicTable table = new Hpack.DynamicTable(Hpack.DEFAULT_TABLE_SIZE);
+    private int smallestPendingSize = -1; // the smallest table size since the last block, to be signalled first
+    private int pendingSize = -1;
+    private byte[] bytes = new byte[512];
+    private int length;
+
+    /**
+     * Takes the table size a client allows in its SETTINGS_HEADER_TABLE_SIZE. The table is kept within
+     * the default 4096 bytes even when a client allows more; the change is signalled at the start of the next block.
+     *
+     * @param size the largest size of the table the client allows
+     */
+    public void setMaxTableSize(int size) {
+        size = Math.min(size, Hpack.DEFAULT_TABLE_SIZE);
+        if (size == table.getMaxSize() && pendingSize < 0) {
+            return;
+        }
+        smallestPendingSize = smallestPendingSize < 0 ? size : Math.min(smallestPendingSize, size);
+        pendingSize = size;
+    }
+
+    /**
+     * Encodes the header block of a response.
+     *
+     * @param status the status code, sent as the :status pseudo-header
+     * @param fields the names, in lower case, each followed by its value
+     */
+    public void encode(int status, List<String> fields) {
+        length = 0;
+        if (pendingSize >= 0) {
+            if (smallestPendingSize < pendingSize) {
+                writeInteger(0x20, 5, smallestPendingSize);
+                table.setMaxSize(smallestPendingSize);
+            }
+            writeInteger(0x20, 5, pendingSize);
+            table.setMaxSize(pendingSize);
+            smallestPendingSize = -1;
+            pendingSize = -1;
+        }
+        encodeField(":status", Integer.toString(status));
+        for (int i = 0; i < fields.size(); i += 2) {
+            encodeField(fields.get(i), fields.get(i + 1));
+        }
+    }
+
+    /**
+     * Returns the array holding the last block encoded.
+     *
+     * @return the array
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * Returns the length of the last block encoded.
+     *
+     * @return the length in octets
+     */
+    public int length() {
+        return length;
+    }
+
+    private void encodeField(String name, String value) {
+        Integer staticIndex = Hpack.STATIC_FIELD_INDEX.get(name + ":" + value);
+        if (staticIndex != null) {
+            writeInteger(0x80, 7, staticIndex);
+            return;
+        }
+        int dynamicIndex = table.indexOf(name, value);
+        if (dynamicIndex >= 0) {
+            writeInteger(0x80, 7, Hpack.STATIC_TABLE_LENGTH + 1 + dynamicIndex);
+            return;
+        }
+        Integer nameIndex = Hpack.STATIC_NAME_INDEX.get(name);
+        if (nameIndex == null) {
+            nameIndex = dynamicIndex == -1 ? 0 : Hpack.STATIC_TABLE_LENGTH + 1 + ~dynamicIndex;
+        }
+        if (NOT_INDEXED.contains(name)) {
+            writeInteger(0x00, 4, nameIndex);
+        } else {
+            writeInteger(0x40, 6, nameIndex);
+            table.add(name, value);
+        }
+        if (nameIndex == 0) {
+            writeString(name);
+        }
+        writeString(value);
+    }
+
+    /**
+     * Writes an integer in the low prefixBits bits of an octet whose high bits are given, continued over the
+     * following octets seven bits at a time when it does not fit in the prefix.
+     */
+    private void writeInteger(int highBits, int prefixBits, int value) {
+        ensureCapacity(6);
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            bytes[length++] = (byte) (highBits | value);
+            return;
+        }
+        bytes[length++] = (byte) (highBits | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            bytes[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        bytes[length++] = (byte) value;
+    }
+
+    private void writeString(String text) {
+        int huffmanLength = Hpack.huffmanLength(text);
+        if (huffmanLength < text.length()) {
+            writeInteger(0x80, 7, huffmanLength);
+            ensureCapacity(huffmanLength);
+            length = Hpack.huffmanEncode(text, bytes, length);
+            return;
+        }
+        writeInteger(0x00, 7, text.length());
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            bytes[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void ensureCapacity(int needed) {
+        if (length + needed > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + needed));
+        }
+    }
+}
@@ -0,0 +1,1424 @@
+package src;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The src.Http2Connection class serves a cleartext HTTP/2 (h2c) connection, started with prior knowledge, the
+ * client sending the HTTP/2 preface straight away, or by upgrading an HTTP/1.1 request that asked for h2c.
+ * The thread that serves the connection reads its frames and decodes the header blocks with src.HpackDecoder;
+ * each request becomes a stream, which is handed to the stream executor and answered by a src.RequestHandler
+ * of its own, so the requests of one connection are served at the same time instead of one after the other.
+ * A request is rebuilt as an HTTP/1.1-style head and parsed by src.RequestParser, so handlers see the same
+ * src.HTTPRequest as on any other connection, and each stream writes to a src.Http2Connection.StreamOutput,
+ * which turns the head src.ResponseBuilder writes into a HEADERS frame encoded by src.HpackEncoder, and the
+ * body into DATA frames.
+ * At most {@link #MAX_RUNNING_STREAMS} streams of a connection run in the executor at once; the others wait
+ * in the connection's queue, and a stream that ends hands the next one to the back of the executor's queue,
+ * so a connection with many streams does not keep the workers from the other connections.
+ * Frames are written under a fair lock, one frame per hold, so the DATA frames of concurrent streams interleave
+ * on the wire. The server honours the flow-control windows of the client, waiting for WINDOW_UPDATE frames
+ * before sending more DATA, and opens a 1 MB receive window per stream and for the connection, replenished as
+ * request bodies arrive. Server push and stream priorities are not implemented.
+ */
+public class Http2Connection {
+    /**
+     * The method of the first line of the client preface, which src.RequestParser reads as a request.
+     */
+    static final String PREFACE_METHOD = "PRI";
+    private static final byte[] PREFACE_END = "SM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SWITCHING_PROTOCOLS =
+            "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                    .getBytes(StandardCharsets.US_ASCII);
+
+    private static final int FRAME_HEADER_LENGTH = 9;
+    private static final int MAX_FRAME_SIZE = 16384; // the default SETTINGS_MAX_FRAME_SIZE of both sides
+    private static final int DEFAULT_WINDOW_SIZE = 65535;
+    private static final int RECEIVE_WINDOW_SIZE = 1 << 20;
+    private static final int MAX_RUNNING_STREAMS = 8; // per connection
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int END_STREAM = 0x1;
+    private static final int ACK = 0x1;
+    private static final int END_HEADERS = 0x4;
+    private static final int PADDED = 0x8;
+    private static final int PRIORITY_FLAG = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int NO_ERROR = 0x0;
+    private static final int PROTOCOL_ERROR = 0x1;
+    private static final int INTERNAL_ERROR = 0x2;
+    private static final int FLOW_CONTROL_ERROR = 0x3;
+    private static final int FRAME_SIZE_ERROR = 0x6;
+    private static final int REFUSED_STREAM = 0x7;
+    private static final int COMPRESSION_ERROR = 0x9;
+    private static final int ENHANCE_YOUR_CALM = 0xb;
+
+    // connection-specific response headers, which HTTP/2 does not carry
+    private static final List<String> HOP_BY_HOP_HEADERS = Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    private final Socket socket;
+    private final ConfigManager configs;
+    private Config config; // the snapshot of the streams being opened
+    private final Router router;
+    private final Executor streamExecutor;
+    private final TimerWheel timers;
+    private final DataInputStream in;
+    private final SocketResponseOutput output;
+    private final byte[] frameHeader = new byte[FRAME_HEADER_LENGTH]; // read by the connection thread
+    private final byte[] payload = new byte[MAX_FRAME_SIZE];
+    private final byte[] outboundHeader = new byte[FRAME_HEADER_LENGTH]; // written under the lock
+    private final HpackDecoder decoder = new HpackDecoder();
+    private final HpackEncoder encoder = new HpackEncoder(); // used under the lock, in the order blocks are sent
+    private final List<String> fields = new ArrayList<>();
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+    private final Queue<Stream> waitingStreams = new ArrayDeque<>(); // also the monitor of runningStreams
+    private int runningStreams;
+    private final Queue<RequestHandler> handlers = new ConcurrentLinkedQueue<>(); // idle, one per running stream
+    private final TimerWheel.Timeout idleTimeout = new TimerWheel.Timeout(this::onIdleTimeout);
+    private final TimerWheel.Timeout writeTimeout = new TimerWheel.Timeout(this::onWriteTimeout);
+    private volatile boolean writeTimedOut;
+
+    // read and written by the connection thread only
+    private int lastStreamId;
+    private boolean settingsReceived;
+    private byte[] headerBlock = new byte[MAX_FRAME_SIZE];
+    private int headerBlockLength;
+    private int headerBlockStream; // the stream whose header block continues in CONTINUATION frames, or 0
+    private boolean headerBlockEndsStream;
+    private int receivedUnacknowledged; // DATA bytes received on the connection since the last WINDOW_UPDATE
+    private boolean goingAway; // whether the client sent GOAWAY, after which it opens no streams
+    private final AtomicInteger queuedWriters = new AtomicInteger(); // threads waiting for the lock to write
+
+    // guarded by the lock
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition windowUpdated = lock.newCondition();
+    private int sendWindow = DEFAULT_WINDOW_SIZE;
+    private int initialStreamWindow = DEFAULT_WINDOW_SIZE;
+    private int writers; // threads in a write section, while the write timeout is armed
+    private boolean goAwaySent;
+    private volatile boolean closed; // set under the lock, once the connection can no longer be written
+
+    /**
+     * Constructs a src.Http2Connection object for a socket whose HTTP/1.1 request started HTTP/2.
+     *
+     * @param socket the client socket, in blocking mode
+     * @param received the bytes already read from the socket after that request
+     * @param configs the holder of the current configuration, read again for every stream
+     * @param router the router of the handlers that answer the streams
+     * @param streamExecutor the executor the streams are served on
+     * @param timers the timer wheel that enforces the idle and write timeouts of the connection
+     * @throws IOException if the streams of the socket cannot be obtained
+     */
+    public Http2Connection(Socket socket, byte[] received, ConfigManager configs, Router router,
+                           Executor streamExecutor, TimerWheel timers) throws IOException {
+        this.socket = socket;
+        this.configs = configs;
+        this.router = router;
+        this.streamExecutor = streamExecutor;
+        this.timers = timers;
+        config = configs.get();
+        in = new DataInputStream(new BufferedInputStream(new SequenceInputStream(
+                new ByteArrayInputStream(received), socket.getInputStream()), MAX_FRAME_SIZE));
+        output = new SocketResponseOutput(socket, () -> timers.schedule(writeTimeout, config.getWriteTimeoutMillis()));
+    }
+
+    /**
+     * Serves the connection until the client closes it, it stays without streams for keepAliveTimeout seconds,
+     * or a protocol error ends it with a GOAWAY frame. The socket is closed by the caller.
+     *
+     * @param upgradeRequest the HTTP/1.1 request that asked for the upgrade, answered on stream 1 once the
+     * connection is switched to HTTP/2, or null for a connection that started with the HTTP/2 preface
+     */
+    public void serve(HTTPRequest upgradeRequest) {
+        boolean graceful = false;
+        try {
+            lockForWrite();
+            try {
+                if (upgradeRequest != null) {
+                    writeBytes(SWITCHING_PROTOCOLS, 0, SWITCHING_PROTOCOLS.length);
+                }
+                writeSettings();
+            } finally {
+                unlockAfterWrite();
+            }
+            if (upgradeRequest != null) {
+                byte[] settings = upgradeRequest.getHttp2Settings();
+                applySettings(settings, settings.length);
+                upgradeRequest.useHttp2();
+                lastStreamId = 1;
+                Stream stream = new Stream(1, upgradeRequest, initialStreamWindow);
+                stream.remoteClosed = true; // the request, and its body, came with the upgrade
+                streams.put(1, stream);
+                dispatch(stream);
+                readPreface(PREFACE);
+            } else {
+                readPreface(PREFACE_END);
+                armIdleTimeout();
+            }
+            readFrames();
+        } catch (ConnectionError e) {
+            Log.debug("HTTP/2 connection error " + e.errorCode + ": " + e.getMessage());
+            goAway(e.errorCode);
+        } catch (EOFException e) {
+            graceful = true; // the client closed the connection, or it was idle for keepAliveTimeout seconds
+        } catch (IOException e) {
+            if (writeTimedOut) {
+                Log.debug("response not read for " + config.getWriteTimeoutMillis() + " ms, closing the connection");
+            } else {
+                Log.warn("connection closed : " + e);
+            }
+        } finally {
+            end(graceful);
+        }
+    }
+
+    /**
+     * Reads the client preface, or its end when its first line was already read as an HTTP/1.1 request.
+     */
+    private void readPreface(byte[] expected) throws IOException {
+        byte[] preface = new byte[expected.length];
+        in.readFully(preface);
+        if (!Arrays.equals(preface, expected)) {
+            throw new ConnectionError(PROTOCOL_ERROR, "invalid connection preface");
+        }
+    }
+
+    /**
+     * Reads and handles frames until the client closes the connection.
+     */
+    private void readFrames() throws IOException {
+        while (true) {
+            in.readFully(frameHeader);
+            int length = (frameHeader[0] & 0xff) << 16 | (frameHeader[1] & 0xff) << 8 | frameHeader[2] & 0xff;
+            int type = frameHeader[3] & 0xff;
+            int flags = frameHeader[4] & 0xff;
+            int streamId = readInt(frameHeader, 5) & 0x7fffffff;
+            if (length > MAX_FRAME_SIZE) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "frame of " + length + " bytes");
+            }
+            in.readFully(payload, 0, length);
+            Metrics.addBytesIn(FRAME_HEADER_LENGTH + length);
+            if (!settingsReceived && type != SETTINGS) {
+                throw new ConnectionError(PROTOCOL_ERROR, "the preface must be followed by SETTINGS");
+            }
+            if (headerBlockStream != 0 && (type != CONTINUATION || streamId != headerBlockStream)) {
+                throw new ConnectionError(PROTOCOL_ERROR, "header block interrupted");
+            }
+            switch (type) {
+                case DATA:
+                    onData(streamId, flags, length);
+                    break;
+                case HEADERS:
+                    onHeaders(streamId, flags, length);
+                    break;
+                case CONTINUATION:
+                    if (headerBlockStream == 0) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "CONTINUATION without HEADERS");
+                    }
+                    appendHeaderBlock(0, length);
+                    if ((flags & END_HEADERS) != 0) {
+                        headerBlockStream = 0;
+                        onHeaderBlock(streamId, headerBlockEndsStream);
+                    }
+                    break;
+                case PRIORITY:
+                    if (length != 5) {
+                        throw new ConnectionError(FRAME_SIZE_ERROR, "PRIORITY of " + length + " bytes");
+                    }
+                    break; // priorities are not implemented
+                case RST_STREAM:
+                    onResetStream(streamId, length);
+                    break;
+                case SETTINGS:
+                    onSettings(streamId, flags, length);
+                    break;
+                case PUSH_PROMISE:
+                    throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+                case PING:
+                    if (length != 8 || streamId != 0) {
+                        throw new ConnectionError(length != 8 ? FRAME_SIZE_ERROR : PROTOCOL_ERROR, "invalid PING");
+                    }
+                    if ((flags & ACK) == 0) {
+                        writeFrame(PING, ACK, 0, payload, 8);
+                    }
+                    break;
+                case GOAWAY:
+                    if (streamId != 0) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY on a stream");
+                    }
+                    goingAway = true;
+                    break;
+                case WINDOW_UPDATE:
+                    onWindowUpdate(streamId, length);
+                    break;
+                default:
+                    break; // unknown frame types are ignored
+            }
+        }
+    }
+
+    private void onData(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        int start = 0;
+        int end = length;
+        if ((flags & PADDED) != 0) {
+            end -= length > 0 ? (payload[0] & 0xff) + 1 : 1;
+            start = 1;
+            if (end < 0) {
+                throw new ConnectionError(PROTOCOL_ERROR, "padding longer than the frame");
+            }
+        }
+        // the whole frame counts against the windows, padding included, even for a stream that is gone
+        receivedUnacknowledged += length;
+        if (receivedUnacknowledged > RECEIVE_WINDOW_SIZE) {
+            throw new ConnectionError(FLOW_CONTROL_ERROR, "connection receive window exceeded");
+        }
+        if (receivedUnacknowledged >= RECEIVE_WINDOW_SIZE / 2) {
+            writeWindowUpdate(0, receivedUnacknowledged);
+            receivedUnacknowledged = 0;
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.remoteClosed) {
+            if (streamId > lastStreamId) {
+                throw new ConnectionError(PROTOCOL_ERROR, "DATA on idle stream " + streamId);
+            }
+            return; // a stream already answered or reset, whose frames may still be on their way
+        }
+        stream.receivedUnacknowledged += length;
+        if (stream.receivedUnacknowledged > RECEIVE_WINDOW_SIZE) {
+            resetStream(stream, FLOW_CONTROL_ERROR);
+            return;
+        }
+        boolean endStream = (flags & END_STREAM) != 0;
+        if (stream.body != null) {
+            if (stream.body.getLength() + end - start > config.getMaxBodySize()) { // answered before the body ends
+                stream.body.close();
+                stream.body = null;
+                stream.request = HTTPRequest.invalid(config.getImageExtensions(), 413);
+                dispatch(stream);
+            } else {
+                stream.body.append(payload, start, end - start);
+            }
+        }
+        if (endStream) {
+            stream.remoteClosed = true;
+            if (stream.body != null) {
+                endRequestBody(stream);
+            }
+        } else if (stream.receivedUnacknowledged >= RECEIVE_WINDOW_SIZE / 2) {
+            writeWindowUpdate(streamId, stream.receivedUnacknowledged);
+            stream.receivedUnacknowledged = 0;
+        }
+    }
+
+    private void onHeaders(int streamId, int flags, int length) throws IOException {
+        if (streamId == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        int start = 0;
+        int end = length;
+        if ((flags & PADDED) != 0) {
+            end -= length > 0 ? (payload[0] & 0xff) + 1 : 1;
+            start = 1;
+        }
+        if ((flags & PRIORITY_FLAG) != 0) {
+            start += 5; // the stream dependency and weight, ignored
+        }
+        if (end < start) {
+            throw new ConnectionError(PROTOCOL_ERROR, "padding longer than the frame");
+        }
+        headerBlockLength = 0;
+        appendHeaderBlock(start, end - start);
+        headerBlockEndsStream = (flags & END_STREAM) != 0;
+        if ((flags & END_HEADERS) != 0) {
+            onHeaderBlock(streamId, headerBlockEndsStream);
+        } else {
+            headerBlockStream = streamId;
+        }
+    }
+
+    /**
+     * Collects a fragment of a header block. Blocks are limited to maxHeaderSize bytes, and since they must be
+     * decoded in full to keep the compression state, a larger one ends the connection.
+     */
+    private void appendHeaderBlock(int start, int length) throws IOException {
+        int maxHeaderSize = Math.max(config.getMaxHeaderSize(), MAX_FRAME_SIZE);
+        if (headerBlockLength + length > maxHeaderSize) {
+            throw new ConnectionError(ENHANCE_YOUR_CALM, "header block over " + maxHeaderSize + " bytes");
+        }
+        if (headerBlockLength + length > headerBlock.length) {
+            headerBlock = Arrays.copyOf(headerBlock, Math.min(maxHeaderSize, headerBlock.length * 2 + length));
+        }
+        System.arraycopy(payload, start, headerBlock, headerBlockLength, length);
+        headerBlockLength += length;
+    }
+
+    /**
+     * Decodes a complete header block, which opens a stream, or holds the trailers of a request body.
+     */
+    private void onHeaderBlock(int streamId, boolean endStream) throws IOException {
+        fields.clear();
+        long listSize;
+        try {
+            listSize = decoder.decode(headerBlock, headerBlockLength, fields, config.getMaxHeaderSize());
+        } catch (IOException e) {
+            throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+        }
+        Stream stream = streams.get(streamId);
+        if (stream != null) { // trailers, which are not passed on
+            if (stream.remoteClosed || stream.body == null) {
+                stream.remoteClosed = true;
+                return; // the request was already answered
+            }
+            if (!endStream) {
+                resetStream(stream, PROTOCOL_ERROR);
+                return;
+            }
+            stream.remoteClosed = true;
+            endRequestBody(stream);
+            return;
+        }
+        if (streamId % 2 == 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "stream " + streamId + " opened by the client");
+        }
+        if (streamId <= lastStreamId) {
+            return; // trailers of a stream already answered or reset
+        }
+        lastStreamId = streamId;
+        config = configs.get();
+        if (goingAway) {
+            return;
+        }
+        if (streams.size() >= config.getHttp2MaxConcurrentStreams()) {
+            writeResetStream(streamId, REFUSED_STREAM);
+            return;
+        }
+        HTTPRequest request = listSize > config.getMaxHeaderSize()
+                ? HTTPRequest.invalid(config.getImageExtensions(), 431)
+                : createRequest();
+        if (request == null) { // a malformed request
+            writeResetStream(streamId, PROTOCOL_ERROR);
+            return;
+        }
+        stream = new Stream(streamId, request, initialStreamWindow);
+        synchronized (waitingStreams) {
+            streams.put(streamId, stream);
+            timers.cancel(idleTimeout);
+        }
+        stream.remoteClosed = endStream;
+        if (endStream || !request.isValid()) {
+            dispatch(stream);
+        } else {
+            stream.body = new RequestBody(config.getBodySpillThreshold());
+        }
+    }
+
+    /**
+     * Completes the body of a request once the client ended its stream, and dispatches the request.
+     */
+    private void endRequestBody(Stream stream) throws IOException {
+        RequestBody body = stream.body;
+        stream.body = null;
+        String contentLength = stream.request.getHeader("content-length");
+        if (contentLength != null && body.getLength() != stream.request.getContentLength()) {
+            body.close(); // a body that does not match its Content-Length makes the request malformed
+            resetStream(stream, PROTOCOL_ERROR);
+            return;
+        }
+        body.finish();
+        stream.request.setBody(body);
+        dispatch(stream);
+    }
+
+    /**
+     * Builds the request of a stream from its decoded header fields, as an HTTP/1.1-style head parsed by
+     * src.RequestParser under the configured size limits. The pseudo-headers must come first, and the request is
+     * malformed without :method, :scheme and :path, with upper-case or connection-specific header names, or
+     * with CR, LF or NUL in a value. Cookie fields, which HTTP/2 allows to be split, are joined again.
+     *
+     * @return the request, invalid if the parser rejects it, or null if it is malformed
+     */
+    private HTTPRequest createRequest() {
+        String method = null;
+        String scheme = null;
+        String path = null;
+        String authority = null;
+        boolean hasHost = false;
+        StringBuilder headers = new StringBuilder();
+        StringBuilder cookies = null;
+        for (int i = 0; i < fields.size(); i += 2) {
+            String name = fields.get(i);
+            String value = fields.get(i + 1);
+            if (!isValidValue(value)) {
+                return null;
+            }
+            if (name.startsWith(":")) {
+                if (headers.length() > 0 || cookies != null) {
+                    return null; // a pseudo-header after a regular one
+                }
+                switch (name) {
+                    case ":method":
+                        if (method != null) {
+                            return null;
+                        }
+                        method = value;
+                        break;
+                    case ":scheme":
+                        if (scheme != null) {
+                            return null;
+                        }
+                        scheme = value;
+                        break;
+                    case ":path":
+                        if (path != null || value.isEmpty()) {
+                            return null;
+                        }
+                        path = value;
+                        break;
+                    case ":authority":
+                        if (authority != null) {
+                            return null;
+                        }
+                        authority = value;
+                        break;
+                    default:
+                        return null;
+                }
+                continue;
+            }
+            if (!isValidName(name) || HOP_BY_HOP_HEADERS.contains(name)
+                    || name.equals("te") && !value.equals("trailers")) {
+                return null;
+            }
+            if (name.equals("cookie")) {
+                cookies = cookies == null ? new StringBuilder(value) : cookies.append("; ").append(value);
+                continue;
+            }
+            hasHost |= name.equals("host");
+            headers.append(name).append(": ").append(value).append("\r\n");
+        }
+        if (method == null || scheme == null || path == null) {
+            return null;
+        }
+        StringBuilder head = new StringBuilder(method.length() + path.length() + headers.length() + 64);
+        head.append(method).append(' ').append(path).append(' ').append(HTTPVersion.HTTP_2_0.getVersion())
+                .append("\r\n");
+        if (authority != null && !hasHost) {
+            head.append("host: ").append(authority).append("\r\n");
+        }
+        head.append(headers);
+        if (cookies != null) {
+            head.append("cookie: ").append(cookies).append("\r\n");
+        }
+        head.append("\r\n");
+        byte[] bytes = head.toString().getBytes(StandardCharsets.ISO_8859_1);
+        RequestParser parser = new RequestParser();
+        parser.setLimits(config.getMaxRequestLineSize(), config.getMaxHeaderSize());
+        parser.reset(0);
+        int headEnd = parser.parse(bytes, bytes.length);
+        if (headEnd < 0) {
+            return HTTPRequest.invalid(config.getImageExtensions(), RequestHandler.errorStatus(headEnd));
+        }
+        return new HTTPRequest(parser, config.getImageExtensions());
+    }
+
+    /**
+     * Returns whether a header name is a non-empty token in lower case, as HTTP/2 requires.
+     */
+    private static boolean isValidName(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c <= ' ' || c >= 0x7f || c >= 'A' && c <= 'Z' || c == ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isValidValue(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\r' || c == '\n' || c == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void onResetStream(int streamId, int length) throws IOException {
+        if (length != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "RST_STREAM of " + length + " bytes");
+        }
+        if (streamId == 0 || streamId > lastStreamId) {
+            throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM on idle stream " + streamId);
+        }
+        Stream stream = streams.get(streamId);
+        if (stream != null) {
+            markReset(stream);
+        }
+    }
+
+    private void onSettings(int streamId, int flags, int length) throws IOException {
+        if (streamId != 0) {
+            throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & ACK) != 0) {
+            if (length != 0) {
+                throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS acknowledgement with a payload");
+            }
+            return;
+        }
+        if (length % 6 != 0) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS of " + length + " bytes");
+        }
+        settingsReceived = true;
+        applySettings(payload, length);
+        writeFrame(SETTINGS, ACK, 0, payload, 0);
+    }
+
+    /**
+     * Applies the settings of the client, from a SETTINGS frame or the HTTP2-Settings header of an upgrade.
+     * A new initial window size changes the send window of every open stream by the difference.
+     */
+    private void applySettings(byte[] settings, int length) throws IOException {
+        lock.lock();
+        try {
+            for (int i = 0; i < length; i += 6) {
+                int id = (settings[i] & 0xff) << 8 | settings[i + 1] & 0xff;
+                int value = readInt(settings, i + 2);
+                switch (id) {
+                    case SETTINGS_HEADER_TABLE_SIZE:
+                        encoder.setMaxTableSize(value < 0 ? Integer.MAX_VALUE : value);
+                        break;
+                    case SETTINGS_ENABLE_PUSH:
+                        if (value != 0 && value != 1) {
+                            throw new ConnectionError(PROTOCOL_ERROR, "invalid SETTINGS_ENABLE_PUSH");
+                        }
+                        break;
+                    case SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value < 0) {
+                            throw new ConnectionError(FLOW_CONTROL_ERROR, "initial window size over 2^31-1");
+                        }
+                        int delta = value - initialStreamWindow;
+                        initialStreamWindow = value;
+                        for (Stream stream : streams.values()) {
+                            if ((long) stream.sendWindow + delta > Integer.MAX_VALUE) {
+                                throw new ConnectionError(FLOW_CONTROL_ERROR, "stream window over 2^31-1");
+                            }
+                            stream.sendWindow += delta;
+                        }
+                        windowUpdated.signalAll();
+                        break;
+                    case SETTINGS_MAX_FRAME_SIZE:
+                        if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+                            throw new ConnectionError(PROTOCOL_ERROR, "invalid SETTINGS_MAX_FRAME_SIZE");
+                        }
+                        break; // frames are never larger than the default, which every client accepts
+                    default:
+                        break; // the other settings do not bind a server, and unknown ones are ignored
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void onWindowUpdate(int streamId, int length) throws IOException {
+        if (length != 4) {
+            throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + length + " bytes");
+        }
+        int increment = readInt(payload, 0) & 0x7fffffff;
+        Stream stream = null;
+        lock.lock();
+        try {
+            if (streamId == 0) {
+                if (increment == 0 || (long) sendWindow + increment > Integer.MAX_VALUE) {
+                    throw new ConnectionError(increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR,
+                            "invalid connection WINDOW_UPDATE");
+                }
+                sendWindow += increment;
+            } else {
+                stream = streams.get(streamId);
+                if (stream == null) {
+                    if (streamId > lastStreamId) {
+                        throw new ConnectionError(PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream " + streamId);
+                    }
+                    return;
+                }
+                if (increment == 0 || (long) stream.sendWindow + increment > Integer.MAX_VALUE) {
+                    stream.reset = true; // reset below, outside of the lock
+                } else {
+                    stream.sendWindow += increment;
+                    stream = null;
+                }
+            }
+            windowUpdated.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (stream != null) {
+            resetStream(stream, increment == 0 ? PROTOCOL_ERROR : FLOW_CONTROL_ERROR);
+        }
+    }
+
+    /**
+     * Hands a stream whose request is complete to the stream executor, or queues it behind the streams
+     * of the connection already running.
+     */
+    private void dispatch(Stream stream) {
+        stream.dispatched = true;
+        synchronized (waitingStreams) {
+            if (runningStreams == MAX_RUNNING_STREAMS) {
+                waitingStreams.add(stream);
+                return;
+            }
+            runningStreams++;
+        }
+        streamExecutor.execute(() -> runStream(stream));
+    }
+
+    /**
+     * Serves a stream on the stream executor, then submits the next waiting stream of the connection.
+     */
+    private void runStream(Stream stream) {
+        RequestHandler handler = handlers.poll();
+        if (handler == null) {
+            handler = new RequestHandler(configs, router, socket.getInetAddress());
+        }
+        StreamOutput streamOutput = new StreamOutput(stream);
+        try {
+            if (!stream.reset && !closed) {
+                handler.useCurrentConfig();
+                handler.processRequest(stream.request, streamOutput).join();
+                streamOutput.finish();
+            } else {
+                stream.request.getBody().close();
+            }
+        } catch (IOException e) {
+            Log.debug("stream " + stream.id + " ended : " + e);
+        } finally {
+            streamOutput.close();
+            handlers.offer(handler);
+            closeStream(stream);
+            runNextStream();
+        }
+    }
+
+    /**
+     * Submits the next waiting stream in place of one that ended, to the back of the executor's queue,
+     * behind the streams of the other connections.
+     */
+    private void runNextStream() {
+        Stream next;
+        synchronized (waitingStreams) {
+            next = waitingStreams.poll();
+            if (next == null) {
+                runningStreams--;
+                return;
+            }
+        }
+        streamExecutor.execute(() -> runStream(next));
+    }
+
+    /**
+     * Forgets a stream that has been answered. If the client has not ended its side, as when a request was
+     * answered before its body arrived, the stream is reset so that it stops sending. A connection left without
+     * streams starts its idle timeout.
+     */
+    private void closeStream(Stream stream) {
+        if (!stream.remoteClosed && !stream.reset) {
+            try {
+                writeResetStream(stream.id, NO_ERROR);
+            } catch (IOException e) {
+                Log.debug("failed to reset stream " + stream.id + " : " + e);
+            }
+        }
+        synchronized (waitingStreams) {
+            streams.remove(stream.id);
+            if (streams.isEmpty()) {
+                armIdleTimeout();
+                waitingStreams.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Resets a stream from the connection thread, dropping the body it was receiving if it was not dispatched.
+     */
+    private void resetStream(Stream stream, int errorCode) throws IOException {
+        writeResetStream(stream.id, errorCode);
+        markReset(stream);
+    }
+
+    private void markReset(Stream stream) {
+        lock.lock();
+        try {
+            stream.reset = true;
+            windowUpdated.signalAll(); // a stream waiting for its window gives up
+        } finally {
+            lock.unlock();
+        }
+        if (!stream.dispatched) {
+            if (stream.body != null) {
+                stream.body.close();
+                stream.body = null;
+            }
+            stream.request.getBody().close();
+            closeStream(stream);
+        }
+    }
+
+    private void armIdleTimeout() {
+        if (!closed) {
+            timers.schedule(idleTimeout, configs.get().getKeepAliveTimeout() * 1000L);
+        }
+    }
+
+    /**
+     * Runs on the timer thread when the connection has had no stream for keepAliveTimeout seconds. Shutting down
+     * the input ends the read of the connection thread, which says goodbye with a GOAWAY frame.
+     */
+    private void onIdleTimeout() {
+        try {
+            socket.shutdownInput();
+        } catch (IOException e) {
+            Log.debug("failed to end an idle connection : " + e);
+        }
+    }
+
+    /**
+     * Runs on the timer thread when no frame could be written for writeTimeoutMillis, either because the client
+     * stopped reading or because it left the streams without window. A blocked write can only be ended by
+     * shutting down the output and closing the socket.
+     */
+    private void onWriteTimeout() {
+        writeTimedOut = true;
+        try {
+            socket.shutdownOutput();
+            socket.close();
+        } catch (IOException e) {
+            Log.debug("failed to end a timed out connection : " + e);
+        }
+    }
+
+    /**
+     * Ends the connection. After the client closed its side, the streams already received are still answered
+     * before the connection is closed; after an error, they are abandoned.
+     */
+    private void end(boolean graceful) {
+        timers.cancel(idleTimeout);
+        goAway(NO_ERROR);
+        for (Stream stream : streams.values()) {
+            if (!stream.dispatched) { // the rest of its body will never come
+                markReset(stream);
+            }
+        }
+        if (graceful) {
+            synchronized (waitingStreams) {
+                while (!streams.isEmpty() && !closed) {
+                    try {
+                        waitingStreams.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+        }
+        lock.lock();
+        try {
+            closed = true;
+            windowUpdated.signalAll();
+            output.close();
+        } finally {
+            lock.unlock();
+        }
+        timers.cancel(writeTimeout);
+        timers.cancel(idleTimeout);
+    }
+
+    /**
+     * Sends GOAWAY, with the last stream the server will answer, unless it was sent already.
+     */
+    private void goAway(int errorCode) {
+        byte[] goAway = new byte[8];
+        writeInt(goAway, 0, lastStreamId);
+        writeInt(goAway, 4, errorCode);
+        try {
+            lockForWrite();
+            try {
+                if (!goAwaySent && !closed) {
+                    goAwaySent = true;
+                    writeFrameHeader(goAway.length, GOAWAY, 0, 0);
+                    writeBytes(goAway, 0, goAway.length);
+                }
+            } finally {
+                unlockAfterWrite();
+            }
+        } catch (IOException e) {
+            Log.debug("failed to send GOAWAY : " + e);
+        }
+    }
+
+    /**
+     * Writes the settings of the server, followed by the update that opens the connection receive window.
+     */
+    private void writeSettings() throws IOException {
+        byte[] settings = new byte[18];
+        writeSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, config.getHttp2MaxConcurrentStreams());
+        writeSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW_SIZE);
+        writeSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, config.getMaxHeaderSize());
+        writeFrameHeader(settings.length, SETTINGS, 0, 0);
+        writeBytes(settings, 0, settings.length);
+        byte[] increment = new byte[4];
+        writeInt(increment, 0, RECEIVE_WINDOW_SIZE - DEFAULT_WINDOW_SIZE);
+        writeFrameHeader(increment.length, WINDOW_UPDATE, 0, 0);
+        writeBytes(increment, 0, increment.length);
+    }
+
+    private static void writeSetting(byte[] settings, int offset, int id, int value) {
+        settings[offset] = (byte) (id >>> 8);
+        settings[offset + 1] = (byte) id;
+        writeInt(settings, offset + 2, value);
+    }
+
+    private void writeWindowUpdate(int streamId, int increment) throws IOException {
+        byte[] frame = new byte[4];
+        writeInt(frame, 0, increment);
+        writeFrame(WINDOW_UPDATE, 0, streamId, frame, frame.length);
+    }
+
+    private void writeResetStream(int streamId, int errorCode) throws IOException {
+        byte[] frame = new byte[4];
+        writeInt(frame, 0, errorCode);
+        writeFrame(RST_STREAM, 0, streamId, frame, frame.length);
+    }
+
+    /**
+     * Writes a control frame. Once the connection is closed, frames are dropped.
+     */
+    private void writeFrame(int type, int flags, int streamId, byte[] frame, int length) throws IOException {
+        lockForWrite();
+        try {
+            if (!closed) {
+                writeFrameHeader(length, type, flags, streamId);
+                writeBytes(frame, 0, length);
+            }
+        } finally {
+            unlockAfterWrite();
+        }
+    }
+
+    /**
+     * Takes the write lock and arms the write timeout, which stays armed while any thread writes or waits
+     * for a window, and is pushed back by every frame written.
+     */
+    private void lockForWrite() {
+        queuedWriters.incrementAndGet();
+        lock.lock();
+        queuedWriters.decrementAndGet();
+        writers++;
+        timers.schedule(writeTimeout, config.getWriteTimeoutMillis());
+    }
+
+    /**
+     * Releases the write lock. The frames written so far are flushed to the socket, unless another writer is
+     * about to add its own frames, so that the frames of concurrent streams leave in as few writes as possible.
+     * Threads that take the lock without writing, such as the connection thread applying a WINDOW_UPDATE,
+     * do not count: the frames would wait in the buffer behind them until the next write.
+     */
+    private void unlockAfterWrite() throws IOException {
+        try {
+            if (!closed && queuedWriters.get() == 0) {
+                flushOutput();
+            }
+        } finally {
+            if (--writers == 0) {
+                timers.cancel(writeTimeout);
+            }
+            lock.unlock();
+        }
+    }
+
+    private void writeFrameHeader(int length, int type, int flags, int streamId) throws IOException {
+        outboundHeader[0] = (byte) (length >>> 16);
+        outboundHeader[1] = (byte) (length >>> 8);
+        outboundHeader[2] = (byte) length;
+        outboundHeader[3] = (byte) type;
+        outboundHeader[4] = (byte) flags;
+        writeInt(outboundHeader, 5, streamId);
+        writeBytes(outboundHeader, 0, FRAME_HEADER_LENGTH);
+    }
+
+    /**
+     * Writes bytes to the socket under the lock. A failed write closes the connection for every stream.
+     */
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        try {
+            output.write(bytes, offset, length);
+        } catch (IOException e) {
+            failWrites();
+            throw e;
+        }
+    }
+
+    private void writeBytes(ByteBuffer bytes) throws IOException {
+        try {
+            output.write(bytes);
+        } catch (IOException e) {
+            failWrites();
+            throw e;
+        }
+    }
+
+    private void flushOutput() throws IOException {
+        try {
+            output.flush();
+        } catch (IOException e) {
+            failWrites();
+            throw e;
+        }
+    }
+
+    private void failWrites() {
+        closed = true;
+        windowUpdated.signalAll();
+    }
+
+    /**
+     * Throws if a stream can no longer be written to, under the lock.
+     */
+    private void checkWritable(Stream stream) throws IOException {
+        if (closed) {
+            throw new IOException("connection closed");
+        }
+        if (stream.reset) {
+            throw new IOException("stream reset");
+        }
+    }
+
+    /**
+     * Takes as much of the connection and stream send windows as can be used for a DATA frame, under the lock,
+     * waiting for the client to open them when either is exhausted.
+     *
+     * @param stream the stream to send on
+     * @param wanted the number of bytes to send
+     * @return the number of bytes that may be sent, at least 1
+     */
+    private int reserve(Stream stream, int wanted) throws IOException {
+        while (true) {
+            checkWritable(stream);
+            int window = Math.min(sendWindow, stream.sendWindow);
+            if (window > 0) {
+                int length = Math.min(Math.min(wanted, window), MAX_FRAME_SIZE);
+                sendWindow -= length;
+                stream.sendWindow -= length;
+                return length;
+            }
+            flushOutput(); // the frames already written may be what the client needs to open the window
+            try {
+                windowUpdated.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a window");
+            }
+        }
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16
+                | (bytes[offset + 2] & 0xff) << 8 | bytes[offset + 3] & 0xff;
+    }
+
+    private static void writeInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * A request stream of the connection.
+     */
+    private static final class Stream {
+        private final int id;
+        private HTTPRequest request;
+        private RequestBody body; // the body being received, owned by the connection thread until dispatched
+        private int receivedUnacknowledged; // DATA bytes received since the last WINDOW_UPDATE of the stream
+        private int sendWindow; // guarded by the lock
+        private boolean dispatched; // whether the request was handed to the executor
+        private volatile boolean remoteClosed; // whether the client ended its side of the stream
+        private volatile boolean reset; // set under the lock
+
+        Stream(int id, HTTPRequest request, int sendWindow) {
+            this.id = id;
+            this.request = request;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    /**
+     * The response output of a stream. The head written by src.ResponseBuilder is collected until its blank line,
+     * its status and fields are taken from it, without the connection-specific ones, and it is sent as a HEADERS
+     * frame; the body is collected in a pooled buffer and sent as DATA frames of up to 16 KB. The stream ends
+     * with the frame that completes the Content-Length of the response, or with the head of a response without
+     * a body, or when the handler is done.
+     */
+    private final class StreamOutput extends ResponseOutput {
+        private static final int BUFFER_SIZE = MAX_FRAME_SIZE;
+
+        private final Stream stream;
+        private byte[] head = new byte[512];
+        private int headLength;
+        private final List<String> headFields = new ArrayList<>();
+        private boolean headersSent;
+        private long remaining = -1; // the body bytes still to be written, or -1 without a Content-Length
+        private boolean ended;
+        private BufferPool.PooledBuffer pooledBuffer; // borrowed while body bytes are collected
+        private ByteBuffer data; // the ByteBuffer of pooledBuffer, or null
+
+        StreamOutput(Stream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!headersSent) {
+                int consumed = appendHead(b, off, len);
+                off += consumed;
+                len -= consumed;
+            }
+            if (len > 0) {
+                writeBody(ByteBuffer.wrap(b, off, len));
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            if (!headersSent) {
+                super.write(src);
+                return;
+            }
+            writeBody(src);
+        }
+
+        @Override
+        public void sendFile(Path file, long position, long count) throws IOException {
+            checkBodyLength(count);
+            try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long end = position + count;
+                while (position < end) {
+                    ByteBuffer buffer = buffer();
+                    if (!buffer.hasRemaining()) {
+                        sendData(false);
+                        continue;
+                    }
+                    int limit = buffer.limit();
+                    buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), end - position));
+                    int read = fileChannel.read(buffer, position);
+                    buffer.limit(limit);
+                    if (read < 0) {
+                        throw new EOFException("file truncated while sending: " + file);
+                    }
+                    position += read;
+                }
+            }
+            bodyWritten(count);
+        }
+
+        /**
+         * Sends the body bytes collected so far, without ending the stream.
+         */
+        @Override
+        public void flush() throws IOException {
+            if (headersSent && !ended && data != null && data.position() > 0) {
+                sendData(false);
+            }
+        }
+
+        /**
+         * Drops a response whose head has not been sent yet. Once the head is on its way, the response cannot be
+         * replaced, and the stream is reset instead.
+         */
+        @Override
+        public boolean discardResponse() throws IOException {
+            if (!headersSent) {
+                headLength = 0;
+                return true;
+            }
+            if (!ended && !stream.reset) {
+                writeResetStream(stream.id, INTERNAL_ERROR);
+                stream.reset = true;
+            }
+            ended = true;
+            return false;
+        }
+
+        /**
+         * Ends the stream once the handler is done, with the body bytes still collected.
+         *
+         * @throws IOException if no complete head was written, or the stream cannot be written to
+         */
+        void finish() throws IOException {
+            if (!headersSent) {
+                throw new IOException("response without a complete head");
+            }
+            if (!ended) {
+                sendData(true);
+            }
+        }
+
+        /**
+         * Returns the buffer to the pool.
+         */
+        @Override
+        public void close() {
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+                pooledBuffer = null;
+                data = null;
+            }
+        }
+
+        /**
+         * Collects bytes of the head until its blank line, then sends it.
+         *
+         * @return the number of bytes that belong to the head
+         */
+        private int appendHead(byte[] b, int off, int len) throws IOException {
+            if (headLength + len > head.length) {
+                head = Arrays.copyOf(head, Math.max(head.length * 2, headLength + len));
+            }
+            System.arraycopy(b, off, head, headLength, len);
+            for (int i = Math.max(headLength - 3, 0); i + 3 < headLength + len; i++) {
+                if (head[i] == '\r' && head[i + 1] == '\n' && head[i + 2] == '\r' && head[i + 3] == '\n') {
+                    int consumed = i + 4 - headLength;
+                    headLength = i + 4;
+                    sendHeaders();
+                    return consumed;
+                }
+            }
+            headLength += len;
+            return len;
+        }
+
+        /**
+         * Sends the collected head as a HEADERS frame, split into CONTINUATION frames past 16 KB.
+         */
+        private void sendHeaders() throws IOException {
+            int status = parseHead();
+            if (stream.request.getMethod() == RequestType.HEAD || status == 204 || status == 304) {
+                remaining = 0;
+            }
+            headersSent = true;
+            ended = remaining == 0;
+            lockForWrite();
+            try {
+                checkWritable(stream); // before encoding, since a block that is not sent would break the table
+                encoder.encode(status, headFields);
+                byte[] block = encoder.array();
+                int length = encoder.length();
+                int offset = 0;
+                int type = HEADERS;
+                do {
+                    int fragment = Math.min(length - offset, MAX_FRAME_SIZE);
+                    int flags = (type == HEADERS && ended ? END_STREAM : 0)
+                            | (offset + fragment == length ? END_HEADERS : 0);
+                    writeFrameHeader(fragment, type, flags, stream.id);
+                    writeBytes(block, offset, fragment);
+                    offset += fragment;
+                    type = CONTINUATION;
+                } while (offset < length);
+            } finally {
+                unlockAfterWrite();
+            }
+        }
+
+        /**
+         * Takes the status and the fields of the HTTP/1.1 head, with their names in lower case.
+         *
+         * @return the status code
+         */
+        private int parseHead() throws IOException {
+            if (headLength < 16 || head[8] != ' ') {
+                throw new IOException("invalid response head");
+            }
+            int status = (head[9] - '0') * 100 + (head[10] - '0') * 10 + (head[11] - '0');
+            headFields.clear();
+            int lineStart = indexOfLineEnd(0) + 2;
+            while (lineStart < headLength - 2) {
+                int lineEnd = indexOfLineEnd(lineStart);
+                int colon = lineStart;
+                while (colon < lineEnd && head[colon] != ':') {
+                    colon++;
+                }
+                int valueStart = colon + 1;
+                while (valueStart < lineEnd && head[valueStart] == ' ') {
+                    valueStart++;
+                }
+                String name = new String(head, lineStart, colon - lineStart, StandardCharsets.ISO_8859_1)
+                        .toLowerCase(Locale.ROOT);
+                String value = new String(head, valueStart, lineEnd - valueStart, StandardCharsets.ISO_8859_1);
+                if (name.equals("content-length")) {
+                    remaining = Long.parseLong(value);
+                }
+                if (!HOP_BY_HOP_HEADERS.contains(name)) {
+                    headFields.add(name);
+                    headFields.add(value);
+                }
+                lineStart = lineEnd + 2;
+            }
+            return status;
+        }
+
+        private int indexOfLineEnd(int from) {
+            int i = from;
+            while (head[i] != '\r' || head[i + 1] != '\n') {
+                i++;
+            }
+            return i;
+        }
+
+        private void writeBody(ByteBuffer src) throws IOException {
+            int length = src.remaining();
+            checkBodyLength(length);
+            while (src.hasRemaining()) {
+                ByteBuffer buffer = buffer();
+                if (!buffer.hasRemaining()) {
+                    sendData(false);
+                    continue;
+                }
+                int limit = src.limit();
+                src.limit(src.position() + Math.min(src.remaining(), buffer.remaining()));
+                buffer.put(src);
+                src.limit(limit);
+            }
+            bodyWritten(length);
+        }
+
+        private void checkBodyLength(long length) throws IOException {
+            if (!headersSent) {
+                throw new IOException("response body before its head");
+            }
+            if (length > 0 && (ended || remaining >= 0 && length > remaining)) {
+                throw new IOException("response body longer than its Content-Length");
+            }
+        }
+
+        /**
+         * Counts body bytes against the Content-Length, ending the stream with the last of them.
+         */
+        private void bodyWritten(long length) throws IOException {
+            if (remaining > 0) {
+                remaining -= length;
+                if (remaining == 0) {
+                    sendData(true);
+                }
+            }
+        }
+
+        private ByteBuffer buffer() {
+            if (data == null) {
+                pooledBuffer = BufferPool.shared().acquire(BUFFER_SIZE);
+                data = pooledBuffer.buffer();
+            }
+            return data;
+        }
+
+        /**
+         * Sends the collected body bytes as DATA frames, as far as the windows allow, waiting for them to open.
+         * Each frame is written under its own hold of the lock, so other streams get their turn in between.
+         */
+        private void sendData(boolean endStream) throws IOException {
+            ByteBuffer buffer = data != null ? data.flip() : ByteBuffer.allocate(0);
+            do {
+                lockForWrite();
+                try {
+                    int length = buffer.hasRemaining() ? reserve(stream, buffer.remaining()) : 0;
+                    checkWritable(stream);
+                    boolean last = endStream && length == buffer.remaining();
+                    writeFrameHeader(length, DATA, last ? END_STREAM : 0, stream.id);
+                    int limit = buffer.limit();
+                    buffer.limit(buffer.position() + length);
+                    writeBytes(buffer);
+                    buffer.limit(limit);
+                } finally {
+                    unlockAfterWrite();
+                }
+            } while (buffer.hasRemaining());
+            if (endStream) {
+                ended = true;
+                close();
+            } else {
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * An error that ends the whole connection, with the error code sent in its GOAWAY frame.
+     */
+    private static final class ConnectionError extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final int errorCode;
+
+        ConnectionError(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package src;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * The src.HttpDate class formats and parses the dates used in HTTP headers
+ * (Last-Modified, If-Modified-Since), e.g. "Sun, 06 Nov 1994 08:49:37 GMT".
+ */
+public final class HttpDate {
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME;
+
+    private HttpDate() {
+    }
+
+    /**
+     * Formats a time as an HTTP date.
+     *
+     * @param millis the time in milliseconds since the epoch
+     * @return the HTTP date
+     */
+    public static String format(long millis) {
+        return FORMAT.format(ZonedDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC));
+    }
+
+    /**
+     * Parses an HTTP date.
+     *
+     * @param date the HTTP date
+     * @return the time in milliseconds since the epoch, or -1 if the date is malformed
+     */
+    public static long parse(String date) {
+        try {
+            return ZonedDateTime.parse(date.trim(), FORMAT).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package src;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The src.LatencyHistogram class records durations in nanoseconds in a fixed set of buckets laid out like
+ * an HdrHistogram: values below 64 ns have a bucket each, and every power of two above that is split into
+ * 32 linear sub-buckets, so a recorded value is off by at most 1/32 (about 3%) of itself. Values up to
+ * about 18 minutes fit in 1152 buckets, allocated once; recording is an index computation and one atomic
+ * increment, without locks or allocation. Quantiles are read from the counts at scrape time.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS; // linear buckets per power of two
+    private static final int MAX_VALUE_BITS = 40; // 2^40 ns, about 18 minutes
+    private static final int BUCKETS = (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records one duration; longer values are recorded as the largest value tracked.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+    }
+
+    /**
+     * Records one duration measured by a client that waits for each response before sending the next request,
+     * correcting for coordinated omission: a response that took longer than the interval at which requests were
+     * meant to be sent held back the requests that would have been sent meanwhile, so their latencies
+     * (the duration minus one interval, minus two intervals, ...) are recorded too, as an HdrHistogram does.
+     *
+     * @param nanos the duration in nanoseconds
+     * @param expectedIntervalNanos the expected interval between requests, or 0 for no correction
+     */
+    public void recordWithExpectedInterval(long nanos, long expectedIntervalNanos) {
+        record(nanos);
+        if (expectedIntervalNanos <= 0) {
+            return;
+        }
+        for (long missing = nanos - expectedIntervalNanos; missing >= expectedIntervalNanos; missing -= expectedIntervalNanos) {
+            record(missing);
+        }
+    }
+
+    /**
+     * Returns the bucket a value is counted in.
+     *
+     * @param value the value, between 0 and MAX_VALUE
+     * @return the index of the bucket
+     */
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest value counted in a bucket.
+     *
+     * @param index the index of the bucket
+     * @return the upper bound of the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Takes a copy of the counts, so that the quantiles, count and sum reported together are consistent
+     * with each other while values keep being recorded.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum());
+    }
+
+    /**
+     * The counts of a histogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        private Snapshot(long[] counts, long count, long sum) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        /**
+         * Returns the number of recorded values.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the sum of the recorded values; it may include values recorded after the counts were copied.
+         *
+         * @return the sum in nanoseconds
+         */
+        public long getSum() {
+            return sum;
+        }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values fall,
+         * as the upper bound of its bucket.
+         *
+         * @param quantile the fraction, between 0 and 1
+         * @return the value in nanoseconds, 0 if nothing was recorded
+         */
+        public long valueAt(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return MAX_VALUE;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package src;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The src.Log class takes console messages and access log records off the request path.
+ * Callers only claim a slot in a bounded ring buffer with a compare-and-set and fill it in;
+ * a background writer thread drains everything published since its last pass, writes the batch
+ * to the console (and the access records to src.AccessLog) and flushes once per batch.
+ * The slots are allocated once and reused, so logging an access record allocates nothing.
+ * When the ring is full the message is dropped and counted rather than blocking the caller,
+ * and the writer reports how many were dropped.
+ * Each level has a sample rate between 0 and 1: at 0 the level is off, and callers that build
+ * an expensive message, such as a header dump, check {@link #isEnabled(Level)} first.
+ */
+public final class Log {
+    /**
+     * The severity of a console message.
+     */
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    private static final int RING_SIZE = 8192; // a power of two
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+
+    private static final Event[] ring = new Event[RING_SIZE];
+    // the sequence number each slot was last published with; a slot is readable when it holds the reader's sequence
+    private static final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private static final AtomicLong claimed = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static volatile long consumed = 0;
+    private static final double[] sampleRates = {0, 1, 1, 1}; // debug off until logSampleRates says otherwise
+    private static final PrintStream console = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+    private static volatile AccessLog accessLog;
+    private static volatile boolean closed = false;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = new Event();
+            published.set(i, -1);
+        }
+        writer = new Thread(Log::drainLoop, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private Log() {
+    }
+
+    /**
+     * Applies the logging settings of the configuration: the sample rate of each level
+     * and the access log file.
+     *
+     * @param config the configuration
+     * @throws IOException if the access log cannot be opened
+     */
+    public static void configure(Config config) throws IOException {
+        setSampleRates(config.getLogSampleRates());
+        String accessLogFile = config.getAccessLogFile();
+        if (!accessLogFile.isEmpty()) {
+            accessLog = new AccessLog(accessLogFile, config.getAccessLogMaxBytes(), config.getAccessLogMaxFiles());
+        }
+    }
+
+    /**
+     * Sets the sample rates of the levels listed, e.g. "debug:0,info:1"; the other levels keep theirs.
+     * Unlike the access log, the rates can be changed while the server runs.
+     *
+     * @param rates the levels and their rates, separated by commas
+     */
+    public static void setSampleRates(String rates) {
+        for (String rate : rates.split(",")) {
+            String[] parts = rate.split(":");
+            if (parts.length == 2) {
+                setSampleRate(Level.valueOf(parts[0].trim().toUpperCase()), Double.parseDouble(parts[1].trim()));
+            }
+        }
+    }
+
+    /**
+     * Sets the fraction of the messages of a level that are logged.
+     *
+     * @param level the level
+     * @param rate 0 to turn the level off, 1 to log every message
+     */
+    public static void setSampleRate(Level level, double rate) {
+        sampleRates[level.ordinal()] = rate;
+    }
+
+    /**
+     * Returns whether a message of the given level should be logged, drawing the sample.
+     * Callers check it before building an expensive message.
+     *
+     * @param level the level
+     * @return whether to log the message
+     */
+    public static boolean isEnabled(Level level) {
+        double rate = sampleRates[level.ordinal()];
+        return rate >= 1 || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * Logs a debug message, subject to sampling.
+     *
+     * @param message the message
+     */
+    public static void debug(String message) {
+        log(Level.DEBUG, message, null);
+    }
+
+    /**
+     * Logs an informational message, subject to sampling.
+     *
+     * @param message the message
+     */
+    public static void info(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    /**
+     * Logs a warning, subject to sampling.
+     *
+     * @param message the message
+     */
+    public static void warn(String message) {
+        log(Level.WARN, message, null);
+    }
+
+    /**
+     * Logs an error with the stack trace of its cause, subject to sampling.
+     *
+     * @param message the message
+     * @param cause the exception, or null
+     */
+    public static void error(String message, Throwable cause) {
+        log(Level.ERROR, message, cause);
+    }
+
+    private static void log(Level level, String message, Throwable cause) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        Event event = ring[(int) (sequence & (RING_SIZE - 1))];
+        event.level = level;
+        event.message = message;
+        event.cause = cause;
+        published.lazySet((int) (sequence & (RING_SIZE - 1)), sequence);
+    }
+
+    /**
+     * Records a handled request in the access log, if one is configured.
+     *
+     * @param method the request method, or null for a request that could not be parsed
+     * @param path the requested path, or null
+     * @param status the status code of the response
+     * @param bytes the number of body bytes sent
+     * @param latencyNanos the time from the parsed request to the written response
+     */
+    public static void access(String method, String path, int status, long bytes, long latencyNanos) {
+        if (accessLog == null) {
+            return;
+        }
+        long sequence = claim();
+        if (sequence < 0) {
+            return;
+        }
+        Event event = ring[(int) (sequence & (RING_SIZE - 1))];
+        event.level = null;
+        event.timestamp = System.currentTimeMillis();
+        event.method = method;
+        event.path = path;
+        event.status = status;
+        event.bytes = bytes;
+        event.latencyNanos = latencyNanos;
+        published.lazySet((int) (sequence & (RING_SIZE - 1)), sequence);
+    }
+
+    /**
+     * Claims the next slot of the ring.
+     *
+     * @return the sequence number of the slot, or -1 if the ring is full
+     */
+    private static long claim() {
+        while (true) {
+            long sequence = claimed.get();
+            if (sequence - consumed >= RING_SIZE || closed) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            if (claimed.compareAndSet(sequence, sequence + 1)) {
+                return sequence;
+            }
+        }
+    }
+
+    /**
+     * Writes the remaining messages and closes the access log; later messages are dropped.
+     * Called when the server shuts down.
+     */
+    public static void close() {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The body of the writer thread: drains batches until the log is closed and the ring is empty.
+     */
+    private static void drainLoop() {
+        while (true) {
+            boolean wasClosed = closed;
+            int drained = drainBatch();
+            if (drained == 0) {
+                if (wasClosed && claimed.get() == consumed) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        console.flush();
+        AccessLog log = accessLog;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Writes every event published since the last batch and flushes the outputs once.
+     *
+     * @return the number of events written
+     */
+    private static int drainBatch() {
+        long sequence = consumed;
+        int count = 0;
+        while (published.get((int) (sequence & (RING_SIZE - 1))) == sequence) {
+            Event event = ring[(int) (sequence & (RING_SIZE - 1))];
+            write(event);
+            event.clear();
+            sequence++;
+            count++;
+            consumed = sequence; // frees the slot for the producers
+        }
+        long droppedMessages = dropped.getAndSet(0);
+        if (droppedMessages > 0) {
+            console.println("[WARN] log buffer full, " + droppedMessages + " messages dropped");
+        }
+        if (count > 0 || droppedMessages > 0) {
+            console.flush();
+            AccessLog log = accessLog;
+            if (log != null) {
+                log.flush();
+            }
+        }
+        return count;
+    }
+
+    private static void write(Event event) {
+        if (event.level == null) {
+            AccessLog log = accessLog;
+            if (log != null) {
+                log.write(event.timestamp, event.method, event.path, event.status, event.bytes, event.latencyNanos);
+            }
+            return;
+        }
+        if (event.level == Level.DEBUG || event.level == Level.INFO) {
+            console.println(event.message);
+        } else {
+            console.println("[" + event.level + "] " + event.message);
+        }
+        if (event.cause != null) {
+            event.cause.printStackTrace(console);
+        }
+    }
+
+    /**
+     * A slot of the ring: a console message or an access log record.
+     */
+    private static final class Event {
+        private Level level; // null for an access log record
+        private String message;
+        private Throwable cause;
+        private long timestamp;
+        private String method;
+        private String path;
+        private int status;
+        private long bytes;
+        private long latencyNanos;
+
+        private void clear() {
+            message = null;
+            cause = null;
+            method = null;
+            path = null;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package src;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * The src.Metrics class collects the server's counters and latency histograms and renders them in the
+ * Prometheus text exposition format, served on {@link #PATH}. Counters are LongAdders, which spread
+ * concurrent increments over per-thread cells instead of contending on one value; latencies go to
+ * fixed-size src.LatencyHistogram instances, one per phase of a request. Gauges, such as the free
+ * permits of the connection semaphore, are read from their source when the metrics are scraped.
+ */
+public final class Metrics {
+    /**
+     * The reserved path the metrics are served on.
+     */
+    public static final String PATH = "/__metrics";
+
+    /**
+     * Time from accepting a connection until a handler thread or event loop starts serving it.
+     */
+    public static final LatencyHistogram ACCEPT = new LatencyHistogram();
+    /**
+     * Time spent parsing a request head, not counting the wait for its bytes.
+     */
+    public static final LatencyHistogram PARSE = new LatencyHistogram();
+    /**
+     * Time spent looking up the requested file in the content cache or on disk.
+     */
+    public static final LatencyHistogram LOOKUP = new LatencyHistogram();
+    /**
+     * Time spent building the response and handing it to the output.
+     */
+    public static final LatencyHistogram WRITE = new LatencyHistogram();
+    /**
+     * Time from the parsed request to the written response.
+     */
+    public static final LatencyHistogram REQUEST = new LatencyHistogram();
+
+    /**
+     * Reason for shedding a connection: no connection permit was free when it was accepted.
+     */
+    public static final int SHED_CAPACITY = 0;
+    /**
+     * Reason for shedding a connection: it waited for a worker longer than the queue delay target.
+     */
+    public static final int SHED_QUEUE_DELAY = 1;
+
+    private static final String[] SHED_REASONS = {"capacity", "queue_delay"};
+    private static final String[] METHODS = {"GET", "POST", "HEAD", "TRACE", "OPTIONS"};
+    private static final String OTHER_METHOD = "other"; // unknown methods and requests that could not be parsed
+    private static final int MAX_STATUS = 600;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    // one counter per method and status, created when first used
+    private static final AtomicReferenceArray<LongAdder> requests =
+            new AtomicReferenceArray<>((METHODS.length + 1) * MAX_STATUS);
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder activeConnections = new LongAdder();
+    private static final LongAdder connections = new LongAdder();
+    private static final LongAdder[] shedConnections = {new LongAdder(), new LongAdder()};
+    private static final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Counts a handled request.
+     *
+     * @param method the request method, or null for a request that could not be parsed
+     * @param statusCode the status code of the response
+     * @param responseBytes the bytes of the response head and body
+     */
+    public static void recordRequest(String method, int statusCode, long responseBytes) {
+        int index = methodIndex(method) * MAX_STATUS + (statusCode >= 0 && statusCode < MAX_STATUS ? statusCode : 0);
+        LongAdder counter = requests.get(index);
+        if (counter == null) {
+            requests.compareAndSet(index, null, new LongAdder());
+            counter = requests.get(index);
+        }
+        counter.increment();
+        bytesOut.add(responseBytes);
+    }
+
+    private static int methodIndex(String method) {
+        for (int i = 0; i < METHODS.length; i++) {
+            if (METHODS[i].equals(method)) {
+                return i;
+            }
+        }
+        return METHODS.length;
+    }
+
+    /**
+     * Counts bytes received from clients.
+     *
+     * @param count the number of bytes
+     */
+    public static void addBytesIn(long count) {
+        bytesIn.add(count);
+    }
+
+    /**
+     * Counts a connection that is opened.
+     */
+    public static void connectionOpened() {
+        connections.increment();
+        activeConnections.increment();
+    }
+
+    /**
+     * Counts a connection that is closed.
+     */
+    public static void connectionClosed() {
+        activeConnections.decrement();
+    }
+
+    /**
+     * Counts a connection that is answered with 503 and closed instead of being served.
+     *
+     * @param reason {@link #SHED_CAPACITY} or {@link #SHED_QUEUE_DELAY}
+     */
+    public static void connectionShed(int reason) {
+        shedConnections[reason].increment();
+    }
+
+    /**
+     * Returns the number of connections shed so far for a reason.
+     *
+     * @param reason {@link #SHED_CAPACITY} or {@link #SHED_QUEUE_DELAY}
+     * @return the number of connections
+     */
+    public static long shedConnections(int reason) {
+        return shedConnections[reason].sum();
+    }
+
+    /**
+     * Registers a value that is read each time the metrics are rendered.
+     *
+     * @param name the metric name
+     * @param help the description of the metric
+     * @param value the source of the value
+     */
+    public static void gauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /**
+     * Renders every metric in the Prometheus text format, version 0.0.4.
+     *
+     * @return the metrics
+     */
+    public static String render() {
+        StringBuilder out = new StringBuilder(4096);
+        header(out, "http_requests_total", "counter", "Requests handled, by method and status code.");
+        for (int i = 0; i < requests.length(); i++) {
+            LongAdder counter = requests.get(i);
+            if (counter != null) {
+                int method = i / MAX_STATUS;
+                out.append("http_requests_total{method=\"")
+                        .append(method < METHODS.length ? METHODS[method] : OTHER_METHOD)
+                        .append("\",status=\"").append(i % MAX_STATUS).append("\"} ")
+                        .append(counter.sum()).append('\n');
+            }
+        }
+        counter(out, "http_received_bytes_total", "Bytes received from clients.", bytesIn.sum());
+        counter(out, "http_sent_bytes_total", "Bytes of response heads and bodies sent, without chunk framing.", bytesOut.sum());
+        counter(out, "http_connections_total", "Connections accepted.", connections.sum());
+        header(out, "http_shed_connections_total", "counter",
+                "Connections answered with 503 and closed by admission control, by reason.");
+        for (int i = 0; i < SHED_REASONS.length; i++) {
+            out.append("http_shed_connections_total{reason=\"").append(SHED_REASONS[i]).append("\"} ")
+                    .append(shedConnections[i].sum()).append('\n');
+        }
+        header(out, "http_active_connections", "gauge", "Connections currently open.");
+        out.append("http_active_connections ").append(activeConnections.sum()).append('\n');
+        for (Gauge gauge : gauges) {
+            header(out, gauge.name, "gauge", gauge.help);
+            out.append(gauge.name).append(' ').append(gauge.value.getAsLong()).append('\n');
+        }
+
+        header(out, "http_phase_duration_seconds", "summary",
+                "Time spent in each phase of a connection or request: accept, parse, lookup, write.");
+        summary(out, "http_phase_duration_seconds", "phase=\"accept\",", ACCEPT);
+        summary(out, "http_phase_duration_seconds", "phase=\"parse\",", PARSE);
+        summary(out, "http_phase_duration_seconds", "phase=\"lookup\",", LOOKUP);
+        summary(out, "http_phase_duration_seconds", "phase=\"write\",", WRITE);
+        header(out, "http_request_duration_seconds", "summary", "Time from the parsed request to the written response.");
+        summary(out, "http_request_duration_seconds", "", REQUEST);
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        for (double quantile : QUANTILES) {
+            out.append(name).append('{').append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(snapshot.valueAt(quantile))).append('\n');
+        }
+        String sumLabels = labels.isEmpty() ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        out.append(name).append("_sum").append(sumLabels).append(' ').append(seconds(snapshot.getSum())).append('\n');
+        out.append(name).append("_count").append(sumLabels).append(' ').append(snapshot.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * A value read from its source when the metrics are rendered.
+     */
+    private static final class Gauge {
+        private final String name;
+        private final String help;
+        private final LongSupplier value;
+
+        Gauge(String name, String help, LongSupplier value) {
+            this.name = name;
+            this.help = help;
+            this.value = value;
+        }
+    }
+}
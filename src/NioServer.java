@@ -0,0 +1,897 @@
+package src;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The src.NioServer class is a non-blocking alternative to the thread-pool engine in src.Server.
+ * An acceptor thread accepts connections on a ServerSocketChannel and hands them
+ * round-robin to a small, fixed set of event loops. Each event loop owns a Selector and
+ * reads, parses and writes on readiness, so an idle or slow client costs a registered key
+ * instead of a pinned thread. With several acceptors, each listens on its own SO_REUSEPORT socket
+ * and owns a disjoint subset of the event loops, so a connection stays with the threads that accepted it.
+ * With admission control, connections beyond maxConnections, or that waited too long for their event loop
+ * to register them, are shed by src.AdmissionController.
+ * Responses are collected in direct buffers borrowed from src.BufferPool and queued as they are, so a
+ * connection only holds output memory while it has bytes waiting to be written.
+ * A request whose src.Handler completes asynchronously pauses its connection, which neither reads nor writes
+ * until the handler's stage completes; the connection then goes on from its event loop.
+ * A connection that switches to HTTP/2 leaves its event loop: its channel is put back in blocking mode and
+ * served by a src.Http2Connection on a thread of its own, whose streams run on the stream executor.
+ */
+public class NioServer {
+    private static final int READ_BUFFER_SIZE = 8192;
+    private static final int MAX_GATHERED_BUFFERS = 16;
+    // bodies at least this large are queued as they are instead of being copied behind their head
+    private static final int MIN_UNCOPIED_BODY_SIZE = 4096;
+    private static final int OUTPUT_BUFFER_SIZE = 16384;
+
+    private final ConfigManager configs;
+    private final Router router;
+    private final AdmissionController admissionController;
+    private final AtomicInteger openConnections = new AtomicInteger(); // accepted and not yet closed
+    private final BufferPool bufferPool = BufferPool.shared();
+    private final ServerSocketChannel[] serverChannels;
+    private final EventLoop[] eventLoops;
+    private final Executor streamExecutor;
+    private final ExecutorService http2Connections = Executors.newCachedThreadPool(); // a thread per connection
+
+    /**
+     * Constructs a src.NioServer object and binds the listening channels.
+     *
+     * @param configs the holder of the current configuration, whose limits and timeouts apply
+     * from the next request on when it is reloaded
+     * @param router the router of the handlers that answer requests
+     * @param admissionController the admission control that sheds connections under overload
+     * @param port the port to listen on
+     * @param eventLoopThreads the number of event loop threads, raised to one per acceptor if lower
+     * @param acceptorThreads the number of acceptor threads
+     * @param streamExecutor the executor that serves the streams of the connections switched to HTTP/2
+     * @throws IOException if a channel cannot be opened or bound
+     */
+    public NioServer(ConfigManager configs, Router router, AdmissionController admissionController, int port,
+                     int eventLoopThreads, int acceptorThreads, Executor streamExecutor)
+            throws IOException {
+        this.configs = configs;
+        this.router = router;
+        this.admissionController = admissionController;
+        this.streamExecutor = streamExecutor;
+        serverChannels = Server.openServerChannels(port, Math.max(1, acceptorThreads));
+        eventLoops = new EventLoop[Math.max(serverChannels.length, eventLoopThreads)];
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+        }
+    }
+
+    /**
+     * Starts the event loops and the acceptors. The first acceptor runs on the calling thread
+     * and the others on threads of their own.
+     */
+    public void start() {
+        for (EventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+        for (int i = 1; i < serverChannels.length; i++) {
+            int acceptor = i;
+            new Thread(() -> accept(acceptor), "nio-acceptor-" + i).start();
+        }
+        accept(0);
+    }
+
+    /**
+     * Accepts incoming connections on the listening channel of an acceptor.
+     * Each accepted connection is switched to non-blocking mode and registered with the next
+     * of the acceptor's event loops: those whose index equals the acceptor's modulo the number of acceptors.
+     * With admission control, connections beyond maxConnections are shed instead.
+     *
+     * @param acceptor the index of the acceptor
+     */
+    private void accept(int acceptor) {
+        ServerSocketChannel serverChannel = serverChannels[acceptor];
+        int nextEventLoop = acceptor;
+        while (serverChannel.isOpen()) {
+            try {
+                SocketChannel clientChannel = serverChannel.accept();
+                long acceptTime = System.nanoTime();
+                if (admissionController.isEnabled() && openConnections.get() >= configs.get().getMaxConnections()) {
+                    admissionController.shed(clientChannel, Metrics.SHED_CAPACITY);
+                    continue;
+                }
+                openConnections.incrementAndGet();
+                clientChannel.configureBlocking(false);
+                eventLoops[nextEventLoop].register(clientChannel, acceptTime);
+                nextEventLoop += serverChannels.length;
+                if (nextEventLoop >= eventLoops.length) {
+                    nextEventLoop = acceptor;
+                }
+            } catch (IOException e) {
+                Log.warn("failed to accept incoming client connection : " + e);
+            }
+        }
+    }
+
+    /**
+     * An event loop thread that owns a Selector and the connections registered with it,
+     * and a timer wheel for their timeouts, advanced between selects.
+     */
+    private class EventLoop extends Thread {
+        private static final long TIMER_TICK_MILLIS = 100;
+        private static final int TIMER_SLOTS = 1024;
+        private static final int IDLE = 1;
+        private static final int HEADER = 2;
+        private static final int BODY = 3;
+        private static final int WRITE = 4;
+
+        private final Selector selector;
+        private final TimerWheel timers = new TimerWheel(TIMER_TICK_MILLIS, TIMER_SLOTS);
+        private final Queue<AcceptedChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>(); // run on the loop, e.g. resumed requests
+        private final Queue<Runnable> afterSelect = new ArrayDeque<>(); // loop thread only, run after the next select
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+        EventLoop(int index) throws IOException {
+            super("nio-event-loop-" + index);
+            selector = Selector.open();
+        }
+
+        /**
+         * Queues a newly accepted channel for registration on this loop's selector.
+         * Registration happens on the loop thread itself to avoid blocking on the selector lock.
+         *
+         * @param channel the accepted client channel
+         * @param acceptTime the System.nanoTime() at which the channel was accepted
+         */
+        void register(SocketChannel channel, long acceptTime) {
+            pendingChannels.add(new AcceptedChannel(channel, acceptTime));
+            selector.wakeup();
+        }
+
+        /**
+         * Runs a task on this loop's thread, such as the continuation of a request whose handler completed
+         * on another thread.
+         *
+         * @param task the task
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    if (afterSelect.isEmpty()) {
+                        selector.select(TIMER_TICK_MILLIS);
+                    } else {
+                        selector.selectNow(); // deregisters the channels of the keys cancelled since the last select
+                        runAfterSelectTasks();
+                    }
+                    registerPendingChannels();
+                    runTasks();
+                    timers.advance(System.currentTimeMillis());
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                connection.onReadable();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (IOException e) {
+                            connection.close();
+                        } catch (RuntimeException e) {
+                            connection.fail(e);
+                        }
+                    }
+                } catch (ClosedSelectorException e) {
+                    return;
+                } catch (IOException e) {
+                    Log.error("event loop error", e);
+                }
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                runTask(task);
+            }
+        }
+
+        /**
+         * Runs the tasks queued by {@link #runAfterSelect(Runnable)} before the last select. The tasks they queue
+         * in turn wait for the next select.
+         */
+        private void runAfterSelectTasks() {
+            for (int count = afterSelect.size(); count > 0; count--) {
+                runTask(afterSelect.poll());
+            }
+        }
+
+        /**
+         * Runs a task on this loop's thread once the selector has been selected again, which is when the channels
+         * of the keys cancelled meanwhile are deregistered. Must be called on the loop thread.
+         *
+         * @param task the task
+         */
+        private void runAfterSelect(Runnable task) {
+            afterSelect.add(task);
+        }
+
+        private void runTask(Runnable task) {
+            try {
+                task.run();
+            } catch (RuntimeException e) { // a failed task must not stop the loop and its other connections
+                Log.error("event loop task failed", e);
+            }
+        }
+
+        private void registerPendingChannels() {
+            AcceptedChannel accepted;
+            while ((accepted = pendingChannels.poll()) != null) {
+                long sojournNanos = System.nanoTime() - accepted.acceptTime;
+                Metrics.ACCEPT.record(sojournNanos);
+                if (!admissionController.admit(sojournNanos)) {
+                    openConnections.decrementAndGet();
+                    admissionController.shed(accepted.channel, Metrics.SHED_QUEUE_DELAY);
+                    continue;
+                }
+                try {
+                    SelectionKey key = accepted.channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(accepted.channel, key));
+                } catch (IOException e) {
+                    openConnections.decrementAndGet();
+                    Log.warn("failed to register client connection : " + e);
+                }
+            }
+        }
+
+        /**
+         * The per-connection state: bytes read so far and responses waiting to be written.
+         */
+        private class Connection {
+            private final SocketChannel channel;
+            private final SelectionKey key;
+            private final RequestHandler requestHandler;
+            private final RequestParser requestParser = new RequestParser();
+            private HTTPRequest request; // the request whose body is being received, if any
+            private RequestBodyDecoder bodyDecoder;
+            private int headerEnd;
+            private int bodyPosition;
+            private long parseNanos; // time spent parsing the current header so far
+            private final Queue<PendingWrite> pendingWrites = new ArrayDeque<>();
+            private final ConnectionOutput output = new ConnectionOutput();
+            private byte[] inbound = new byte[READ_BUFFER_SIZE];
+            private int inboundLength = 0;
+            private boolean closeAfterWrite = false;
+            private boolean closed = false;
+            private boolean responding = false; // whether a handler that completes asynchronously is still running
+            private final TimerWheel.Timeout timeout = new TimerWheel.Timeout(this::onTimeout);
+            private int phase; // what the connection waits for, which decides what a timeout does
+            private Config config; // the snapshot of the request being received
+
+            Connection(SocketChannel channel, SelectionKey key) {
+                this.channel = channel;
+                this.key = key;
+                this.requestHandler = new RequestHandler(configs, router, channel.socket().getInetAddress());
+                useCurrentConfig();
+                Metrics.connectionOpened();
+                arm(IDLE, config.getKeepAliveTimeout() * 1000L);
+            }
+
+            /**
+             * Takes the current configuration snapshot for the next request, here and in the request handler.
+             */
+            private void useCurrentConfig() {
+                config = configs.get();
+                requestParser.setLimits(config.getMaxRequestLineSize(), config.getMaxHeaderSize());
+                requestHandler.useCurrentConfig();
+            }
+
+            void onReadable() throws IOException {
+                readBuffer.clear();
+                int read = channel.read(readBuffer);
+                if (read < 0) {
+                    close();
+                    return;
+                }
+                Metrics.addBytesIn(read);
+                readBuffer.flip();
+                ensureCapacity(inboundLength + read);
+                readBuffer.get(inbound, inboundLength, read);
+                inboundLength += read;
+                processInbound();
+                updateTimeout();
+            }
+
+            void onWritable() throws IOException {
+                writePending();
+                updateTimeout();
+            }
+
+            /**
+             * Arms the timeout of what the connection waits for now: the client to read the pending responses
+             * (re-armed on every write, so only a stalled client times out), the rest of a body (re-armed on
+             * every read), the rest of a head (armed once, at its first byte, so that dripping bytes does not
+             * extend it) or the next request.
+             */
+            private void updateTimeout() {
+                if (closed || responding) {
+                    return;
+                }
+                if (!pendingWrites.isEmpty()) {
+                    arm(WRITE, config.getWriteTimeoutMillis());
+                } else if (request != null) {
+                    arm(BODY, config.getBodyTimeoutMillis());
+                } else if (inboundLength > 0) {
+                    if (phase != HEADER) {
+                        arm(HEADER, config.getHeaderTimeoutMillis());
+                    }
+                } else {
+                    arm(IDLE, config.getKeepAliveTimeout() * 1000L);
+                }
+            }
+
+            private void arm(int phase, long delayMillis) {
+                this.phase = phase;
+                timers.schedule(timeout, delayMillis);
+            }
+
+            /**
+             * Runs on the event loop when the armed timeout expires. A request whose head or body stalled
+             * is answered with 408 Request Timeout; an idle connection, or one whose client stopped reading,
+             * is closed.
+             */
+            private void onTimeout() {
+                if (closed) {
+                    return;
+                }
+                if ((phase != HEADER && phase != BODY) || !pendingWrites.isEmpty()) {
+                    close();
+                    return;
+                }
+                if (request != null) {
+                    request.getBody().close();
+                    request = null;
+                    bodyDecoder = null;
+                }
+                inboundLength = 0;
+                try {
+                    respond(HTTPRequest.invalid(config.getImageExtensions(), 408));
+                    flushOutput();
+                    updateTimeout();
+                } catch (IOException e) {
+                    close();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+
+            /**
+             * Writes the pending responses for as long as the socket accepts them, then reads on.
+             */
+            private void writePending() throws IOException {
+                while (!pendingWrites.isEmpty()) {
+                    if (pendingWrites.peek() instanceof BufferWrite) {
+                        if (!writeBuffers()) {
+                            return; // socket buffer is full, wait for the next OP_WRITE
+                        }
+                        continue;
+                    }
+                    if (!pendingWrites.peek().writeTo(channel)) {
+                        return; // socket buffer is full, wait for the next OP_WRITE
+                    }
+                    pendingWrites.poll().release();
+                }
+                output.close(); // a connection waiting for its next request holds no buffer
+                if (closeAfterWrite) {
+                    close();
+                } else {
+                    key.interestOps(SelectionKey.OP_READ);
+                    processInbound(); // a further request may already be buffered
+                }
+            }
+
+            /**
+             * Writes the in-memory buffers at the front of the queue, such as a head and its body,
+             * with one gathering write.
+             *
+             * @return whether all of them have been written
+             * @throws IOException if an I/O error occurs
+             */
+            private boolean writeBuffers() throws IOException {
+                int count = 0;
+                for (PendingWrite pendingWrite : pendingWrites) {
+                    if (!(pendingWrite instanceof BufferWrite) || count == gatherBuffers.length) {
+                        break;
+                    }
+                    gatherBuffers[count++] = ((BufferWrite) pendingWrite).buffer;
+                }
+                channel.write(gatherBuffers, 0, count);
+                boolean written = true;
+                for (int i = 0; i < count; i++) {
+                    if (gatherBuffers[i].hasRemaining()) {
+                        written = false;
+                        break;
+                    }
+                    pendingWrites.poll().release();
+                }
+                Arrays.fill(gatherBuffers, 0, count, null);
+                return written;
+            }
+
+            /**
+             * Parses every complete request in the inbound buffer, which may hold several
+             * pipelined requests, and queues their responses in order. Consecutive header and
+             * content bytes are coalesced into one write; files are queued as file regions.
+             */
+            private void processInbound() throws IOException {
+                if (!pendingWrites.isEmpty() || responding) {
+                    return; // resume once the previous responses have been written
+                }
+                while (!closeAfterWrite) {
+                    if (request == null && !readHeader()) {
+                        break;
+                    }
+                    if (bodyDecoder != null) {
+                        int decoded = bodyDecoder.decode(inbound, bodyPosition, inboundLength, request.getBody());
+                        if (decoded < 0) {
+                            inboundLength = 0;
+                            request.getBody().close();
+                            request = null;
+                            respond(HTTPRequest.invalid(config.getImageExtensions(),
+                                    RequestHandler.errorStatus(decoded)));
+                            break;
+                        }
+                        if (!bodyDecoder.isComplete()) {
+                            // the decoded bytes are in the body; keep only the header in the buffer
+                            inboundLength = headerEnd;
+                            bodyPosition = headerEnd;
+                            break; // wait for the rest of the body
+                        }
+                        bodyPosition = decoded;
+                    }
+                    if (config.isHttp2() && request.isValid() && (request.isHttp2Preface() || request.isHttp2Upgrade())
+                            && output.isEmpty()) {
+                        switchToHttp2(request.isHttp2Preface() ? null : request);
+                        return;
+                    }
+                    respond(request); // the request reads its fields from the buffer, so it is consumed afterwards
+                    if (responding) {
+                        return; // resumed by resume() once the handler completes
+                    }
+                    endRequest();
+                }
+                flushOutput();
+            }
+
+            /**
+             * Hands the connection over to a src.Http2Connection, with the bytes received after the request that
+             * switched it. The connection leaves the event loop first: its key is cancelled, and once the next select
+             * has deregistered the channel, the channel is put back in blocking mode and served on a thread of its
+             * own, which closes it at the end. Until then, a blocking mode switch would throw
+             * IllegalBlockingModeException.
+             *
+             * @param upgradeRequest the HTTP/1.1 request that asked for h2c, or null after the HTTP/2 preface
+             */
+            private void switchToHttp2(HTTPRequest upgradeRequest) {
+                byte[] received = Arrays.copyOfRange(inbound, bodyPosition, inboundLength);
+                closed = true;
+                timers.cancel(timeout);
+                key.cancel();
+                output.close();
+                runAfterSelect(() -> {
+                    try {
+                        channel.configureBlocking(true);
+                        http2Connections.execute(() -> {
+                            try {
+                                new Http2Connection(channel.socket(), received, configs, router, streamExecutor,
+                                        timers).serve(upgradeRequest);
+                            } catch (IOException e) {
+                                Log.warn("connection closed : " + e);
+                            } finally {
+                                closeChannel();
+                            }
+                        });
+                    } catch (IOException e) {
+                        Log.warn("failed to switch a connection to HTTP/2 : " + e);
+                        closeChannel();
+                    }
+                });
+            }
+
+            /**
+             * Closes the channel of a connection that left its event loop for HTTP/2.
+             */
+            private void closeChannel() {
+                openConnections.decrementAndGet();
+                Metrics.connectionClosed();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.warn("failed to close client connection : " + e);
+                }
+            }
+
+            /**
+             * Drops a handled request and prepares the parsing of the next one.
+             */
+            private void endRequest() {
+                consumeInbound(bodyPosition);
+                request = null;
+                bodyDecoder = null;
+                requestParser.reset(0);
+                useCurrentConfig();
+            }
+
+            /**
+             * Queues the collected response bytes and writes what the socket accepts,
+             * waiting for OP_WRITE for the rest.
+             */
+            private void flushOutput() throws IOException {
+                output.queueBytes();
+                if (!pendingWrites.isEmpty()) {
+                    writePending();
+                    if (key.isValid() && !pendingWrites.isEmpty()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                    }
+                }
+            }
+
+            /**
+             * Parses the header of the next request in the inbound buffer and prepares the decoding of its body.
+             * Requests the parser rejects are answered with 400, or 414 and 431 for a request line or head over
+             * its size limit.
+             *
+             * @return whether a request header was parsed
+             */
+            private boolean readHeader() {
+                long parseStart = System.nanoTime();
+                headerEnd = requestParser.parse(inbound, inboundLength);
+                parseNanos += System.nanoTime() - parseStart;
+                if (headerEnd == RequestParser.NEED_MORE && inboundLength <= RequestParser.MAX_REQUEST_SIZE) {
+                    return false; // wait for the rest of the header
+                }
+                if (headerEnd < 0) { // malformed or too large
+                    parseNanos = 0;
+                    inboundLength = 0;
+                    respond(HTTPRequest.invalid(config.getImageExtensions(),
+                            RequestHandler.errorStatus(headerEnd)));
+                    return false;
+                }
+                parseStart = System.nanoTime();
+                request = new HTTPRequest(requestParser, config.getImageExtensions());
+                Metrics.PARSE.record(parseNanos + System.nanoTime() - parseStart);
+                parseNanos = 0;
+                bodyPosition = headerEnd;
+                if (request.isValid() && request.hasBody()) {
+                    request.setBody(requestHandler.createRequestBody());
+                    bodyDecoder = requestHandler.createBodyDecoder(request);
+                }
+                return true;
+            }
+
+            /**
+             * Answers a request. If its handler completes asynchronously, the connection stops reading and
+             * timing out, leaving the output to the handler, until the handler completes and the connection
+             * is resumed on this event loop.
+             */
+            private void respond(HTTPRequest httpRequest) {
+                CompletableFuture<Boolean> keepAlive = requestHandler.processRequest(httpRequest, output);
+                if (keepAlive.isDone()) {
+                    closeAfterWrite = !keepAlive.join();
+                    return;
+                }
+                responding = true;
+                key.interestOps(0);
+                timers.cancel(timeout);
+                keepAlive.whenComplete((result, failure) -> execute(() -> resume(Boolean.TRUE.equals(result))));
+            }
+
+            /**
+             * Goes on with a connection whose handler completed asynchronously: sends its response and
+             * processes the requests that arrived meanwhile.
+             *
+             * @param keepAlive whether the connection is kept open for another request
+             */
+            private void resume(boolean keepAlive) {
+                responding = false;
+                if (closed) {
+                    return;
+                }
+                closeAfterWrite = !keepAlive;
+                endRequest();
+                try {
+                    key.interestOps(SelectionKey.OP_READ);
+                    processInbound();
+                    updateTimeout();
+                } catch (IOException e) {
+                    close();
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+
+            /**
+             * Drops a handled request from the front of the inbound buffer,
+             * keeping any bytes of the next request that already arrived.
+             *
+             * @param length the number of bytes the handled request occupied
+             */
+            private void consumeInbound(int length) {
+                System.arraycopy(inbound, length, inbound, 0, inboundLength - length);
+                inboundLength -= length;
+            }
+
+            private void ensureCapacity(int capacity) {
+                if (capacity > inbound.length) {
+                    byte[] grown = new byte[Math.max(capacity, inbound.length * 2)];
+                    System.arraycopy(inbound, 0, grown, 0, inboundLength);
+                    inbound = grown;
+                }
+            }
+
+            /**
+             * Closes the connection after a bug surfaced while serving it, leaving the loop's other connections be.
+             *
+             * @param e the unexpected exception
+             */
+            void fail(RuntimeException e) {
+                Log.error("failed to serve a client connection", e);
+                close();
+            }
+
+            void close() {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                timers.cancel(timeout);
+                openConnections.decrementAndGet();
+                Metrics.connectionClosed();
+                key.cancel();
+                if (request != null) { // the client left in the middle of a body
+                    request.getBody().close();
+                    request = null;
+                }
+                PendingWrite pendingWrite;
+                while ((pendingWrite = pendingWrites.poll()) != null) {
+                    pendingWrite.release();
+                }
+                output.close();
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    Log.warn("failed to close client connection : " + e);
+                }
+            }
+
+            /**
+             * The response output of the connection. Bytes written to it are collected until a file
+             * is sent or the batch of responses is complete, and are then queued as one buffer.
+             */
+            private class ConnectionOutput extends ResponseOutput {
+                private BufferPool.PooledBuffer pooledBuffer; // borrowed while bytes are being collected
+                private ByteBuffer bytes; // the ByteBuffer of pooledBuffer, or null
+
+                @Override
+                public void write(int b) {
+                    if (bytes == null || !bytes.hasRemaining()) {
+                        nextBuffer();
+                    }
+                    bytes.put((byte) b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    while (len > 0) {
+                        if (bytes == null || !bytes.hasRemaining()) {
+                            nextBuffer();
+                        }
+                        int length = Math.min(len, bytes.remaining());
+                        bytes.put(b, off, length);
+                        off += length;
+                        len -= length;
+                    }
+                }
+
+                @Override
+                public void write(byte[] head, int headLength, byte[] body) {
+                    write(head, 0, headLength);
+                    if (body.length < MIN_UNCOPIED_BODY_SIZE) {
+                        write(body, 0, body.length);
+                        return;
+                    }
+                    queueBytes(); // the head and the body are written together by one gathering write
+                    pendingWrites.add(new BufferWrite(ByteBuffer.wrap(body), null));
+                }
+
+                @Override
+                public void write(ByteBuffer buffer) {
+                    queueBytes();
+                    pendingWrites.add(new BufferWrite(buffer, null));
+                }
+
+                @Override
+                public void sendFile(Path file, long position, long count) {
+                    queueBytes();
+                    pendingWrites.add(new FileWrite(file, position, count));
+                }
+
+                /**
+                 * Queues the bytes collected so far, keeping them ahead of anything queued later.
+                 * The buffer they were collected in is queued as it is and returned to the pool once written.
+                 */
+                void queueBytes() {
+                    if (bytes != null && bytes.position() > 0) {
+                        bytes.flip();
+                        pendingWrites.add(new BufferWrite(bytes, pooledBuffer));
+                        pooledBuffer = null;
+                        bytes = null;
+                    }
+                }
+
+                /**
+                 * Returns whether no bytes are being collected, so that no response is waiting to be queued.
+                 *
+                 * @return whether the output is empty
+                 */
+                boolean isEmpty() {
+                    return bytes == null || bytes.position() == 0;
+                }
+
+                /**
+                 * Queues a full buffer and borrows the next one.
+                 */
+                private void nextBuffer() {
+                    queueBytes();
+                    pooledBuffer = bufferPool.acquire(OUTPUT_BUFFER_SIZE);
+                    bytes = pooledBuffer.buffer();
+                }
+
+                /**
+                 * Returns the buffer being filled to the pool, once the batch of responses is written
+                 * or the connection closes.
+                 */
+                @Override
+                public void close() {
+                    if (pooledBuffer != null) {
+                        pooledBuffer.release();
+                        pooledBuffer = null;
+                        bytes = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A part of a response waiting to be written to a non-blocking channel.
+     */
+    private interface PendingWrite {
+        /**
+         * Writes as much as the channel accepts.
+         *
+         * @param channel the client channel
+         * @return whether everything has been written
+         * @throws IOException if an I/O error occurs
+         */
+        boolean writeTo(SocketChannel channel) throws IOException;
+
+        /**
+         * Releases the resources held by this write, once written or when the connection closes.
+         */
+        void release();
+    }
+
+    /**
+     * Response bytes held in memory, such as headers and generated content.
+     */
+    private static class BufferWrite implements PendingWrite {
+        private final ByteBuffer buffer;
+        private BufferPool.PooledBuffer pooledBuffer; // the pool's buffer behind it, or null
+
+        BufferWrite(ByteBuffer buffer, BufferPool.PooledBuffer pooledBuffer) {
+            this.buffer = buffer;
+            this.pooledBuffer = pooledBuffer;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            channel.write(buffer);
+            return !buffer.hasRemaining();
+        }
+
+        @Override
+        public void release() {
+            if (pooledBuffer != null) {
+                pooledBuffer.release();
+                pooledBuffer = null;
+            }
+        }
+    }
+
+    /**
+     * A region of a file, transferred to the channel with FileChannel.transferTo (sendfile)
+     * so the file bytes never pass through the Java heap. The file is opened on the first write.
+     */
+    private static class FileWrite implements PendingWrite {
+        private final Path file;
+        private long position;
+        private final long end;
+        private FileChannel fileChannel;
+
+        FileWrite(Path file, long position, long count) {
+            this.file = file;
+            this.position = position;
+            this.end = position + count;
+        }
+
+        @Override
+        public boolean writeTo(SocketChannel channel) throws IOException {
+            if (fileChannel == null) {
+                fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+            }
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, channel);
+                if (transferred <= 0) {
+                    if (position >= fileChannel.size()) {
+                        throw new EOFException("file truncated while sending: " + file);
+                    }
+                    return false;
+                }
+                position += transferred;
+            }
+            return true;
+        }
+
+        @Override
+        public void release() {
+            if (fileChannel != null) {
+                try {
+                    fileChannel.close();
+                } catch (IOException e) {
+                    Log.warn("failed to close file " + file + " : " + e);
+                }
+            }
+        }
+    }
+
+    /**
+     * An accepted channel waiting to be registered with an event loop, with the time it was accepted.
+     */
+    private static class AcceptedChannel {
+        private final SocketChannel channel;
+        private final long acceptTime;
+
+        AcceptedChannel(SocketChannel channel, long acceptTime) {
+            this.channel = channel;
+            this.acceptTime = acceptTime;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package src;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The src.RequestBody class holds the body of a request once src.RequestBodyDecoder has removed its framing.
+ * Bodies up to spillThreshold bytes are kept on the heap; a larger body is moved to a temporary file
+ * as soon as it crosses the threshold, so a large upload costs disk space instead of heap.
+ * Handlers read the body as an InputStream or field by field as a url-encoded form.
+ * The temporary file is deleted when the body is closed, after the request has been handled.
+ */
+public class RequestBody implements Closeable {
+    private static final RequestBody EMPTY = new RequestBody(0);
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int spillThreshold;
+    private byte[] bytes = new byte[0];
+    private long length = 0;
+    private Path file;
+    private OutputStream fileOutput;
+
+    /**
+     * Constructs an empty src.RequestBody object that bytes are appended to.
+     *
+     * @param spillThreshold the largest body kept on the heap, in bytes
+     */
+    public RequestBody(int spillThreshold) {
+        this.spillThreshold = spillThreshold;
+    }
+
+    /**
+     * Returns the body of a request that has none.
+     *
+     * @return an empty body
+     */
+    public static RequestBody empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Appends decoded body bytes, moving the body to a temporary file when it grows past the threshold.
+     *
+     * @param buffer the buffer holding the bytes
+     * @param offset the offset of the first byte
+     * @param count the number of bytes
+     * @throws IOException if the temporary file cannot be written
+     */
+    public void append(byte[] buffer, int offset, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        if (fileOutput == null && length + count > spillThreshold) {
+            spill();
+        }
+        if (fileOutput != null) {
+            fileOutput.write(buffer, offset, count);
+        } else {
+            if (length + count > bytes.length) {
+                int capacity = (int) Math.min(spillThreshold, Math.max(length + count, Math.max(INITIAL_CAPACITY, bytes.length * 2L)));
+                bytes = Arrays.copyOf(bytes, capacity);
+            }
+            System.arraycopy(buffer, offset, bytes, (int) length, count);
+        }
+        length += count;
+    }
+
+    /**
+     * Moves the bytes received so far to a new temporary file, which receives the rest of the body.
+     */
+    private void spill() throws IOException {
+        file = Files.createTempFile("request-body-", ".tmp");
+        fileOutput = Files.newOutputStream(file);
+        fileOutput.write(bytes, 0, (int) length);
+        bytes = null;
+        Log.debug("request body larger than " + spillThreshold + " bytes, spilling it to " + file);
+    }
+
+    /**
+     * Completes the body once the decoder has seen its last byte, so that it can be read.
+     *
+     * @throws IOException if the temporary file cannot be written
+     */
+    public void finish() throws IOException {
+        if (fileOutput != null) {
+            fileOutput.close();
+            fileOutput = null;
+        }
+    }
+
+    /**
+     * Returns the length of the body, after any chunked framing has been removed.
+     *
+     * @return the length in bytes
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns whether the body was moved to a temporary file.
+     *
+     * @return whether the body is on disk
+     */
+    public boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Returns a stream over the body, from its first byte. Each call returns a new stream.
+     *
+     * @return the body as an InputStream
+     * @throws IOException if the temporary file cannot be opened
+     */
+    public InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return Files.newInputStream(file);
+        }
+        return new ByteArrayInputStream(bytes, 0, (int) length);
+    }
+
+    /**
+     * Returns the fields of a url-encoded form body ("application/x-www-form-urlencoded"),
+     * decoded one by one as they are read from the body.
+     *
+     * @return an iterator over the names and values of the fields, in the order they were sent
+     * @throws IOException if the temporary file cannot be opened
+     */
+    public Iterator<Map.Entry<String, String>> formFields() throws IOException {
+        return new FormFieldIterator(getInputStream());
+    }
+
+    /**
+     * Deletes the temporary file, if the body was spilled to one.
+     */
+    @Override
+    public void close() {
+        try {
+            if (fileOutput != null) {
+                fileOutput.close();
+                fileOutput = null;
+            }
+            if (file != null) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            Log.warn("failed to delete request body file " + file + " : " + e);
+        }
+    }
+}
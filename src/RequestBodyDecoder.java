@@ -0,0 +1,205 @@
+package src;
+
+import java.io.IOException;
+
+/**
+ * The src.RequestBodyDecoder class removes the framing of a request body as its bytes arrive:
+ * it passes on exactly Content-Length bytes, or decodes "Transfer-Encoding: chunked" (chunk sizes,
+ * chunk extensions and trailer fields are dropped). Decoding is resumable, like src.RequestParser,
+ * so the blocking and the non-blocking engines can both feed it whatever bytes they have; the bytes
+ * that follow the body, such as a pipelined request, are left untouched.
+ */
+public class RequestBodyDecoder {
+    public static final int MALFORMED = RequestParser.MALFORMED;
+    public static final int TOO_LARGE = -3;
+
+    private static final int FIXED = 0;
+    private static final int CHUNK_SIZE = 1;
+    private static final int CHUNK_EXTENSION = 2;
+    private static final int CHUNK_SIZE_LF = 3;
+    private static final int CHUNK_DATA = 4;
+    private static final int CHUNK_DATA_CR = 5;
+    private static final int CHUNK_DATA_LF = 6;
+    private static final int TRAILER_LINE_START = 7;
+    private static final int TRAILER_LINE = 8;
+    private static final int TRAILER_LF = 9;
+    private static final int FINAL_LF = 10;
+    private static final int COMPLETE = 11;
+
+    private final long maxBodySize;
+    private int state;
+    private long remaining; // bytes left in the body or in the current chunk
+    private long decoded = 0;
+    private int chunkSizeDigits;
+
+    private RequestBodyDecoder(int state, long remaining, long maxBodySize) {
+        this.state = state;
+        this.remaining = remaining;
+        this.maxBodySize = maxBodySize;
+    }
+
+    /**
+     * Creates a decoder for a body of Content-Length bytes.
+     *
+     * @param contentLength the length of the body
+     * @param maxBodySize the largest body accepted, in bytes
+     * @return the decoder
+     */
+    public static RequestBodyDecoder forContentLength(long contentLength, long maxBodySize) {
+        return new RequestBodyDecoder(contentLength == 0 ? COMPLETE : FIXED, contentLength, maxBodySize);
+    }
+
+    /**
+     * Creates a decoder for a body sent with "Transfer-Encoding: chunked".
+     *
+     * @param maxBodySize the largest body accepted, after decoding, in bytes
+     * @return the decoder
+     */
+    public static RequestBodyDecoder forChunked(long maxBodySize) {
+        return new RequestBodyDecoder(CHUNK_SIZE, 0, maxBodySize);
+    }
+
+    /**
+     * Decodes the given bytes and appends the body bytes among them to the body.
+     *
+     * @param buffer the buffer holding the received bytes
+     * @param start the offset of the first byte not decoded yet
+     * @param limit the offset just past the last received byte
+     * @param body the body to append to
+     * @return the offset just past the last byte of the body once it is complete, otherwise limit;
+     * or {@link #MALFORMED} if the framing is invalid, or {@link #TOO_LARGE} if the body exceeds the maximum size
+     * @throws IOException if the body cannot be stored
+     */
+    public int decode(byte[] buffer, int start, int limit, RequestBody body) throws IOException {
+        if (state == FIXED && remaining > maxBodySize) {
+            return TOO_LARGE;
+        }
+        int position = start;
+        while (position < limit && state != COMPLETE) {
+            if (state == FIXED || state == CHUNK_DATA) {
+                int count = (int) Math.min(remaining, limit - position);
+                body.append(buffer, position, count);
+                position += count;
+                remaining -= count;
+                if (remaining == 0) {
+                    state = state == FIXED ? COMPLETE : CHUNK_DATA_CR;
+                }
+                continue;
+            }
+            byte b = buffer[position++];
+            switch (state) {
+                case CHUNK_SIZE:
+                    int digit = Character.digit(b, 16);
+                    if (digit >= 0) {
+                        if (++chunkSizeDigits > 15) { // would overflow a long
+                            return TOO_LARGE;
+                        }
+                        remaining = remaining * 16 + digit;
+                    } else if (chunkSizeDigits == 0) {
+                        return MALFORMED;
+                    } else if (b == ';' || b == ' ' || b == '\t') {
+                        state = CHUNK_EXTENSION;
+                    } else if (b == '\r') {
+                        state = CHUNK_SIZE_LF;
+                    } else if (b == '\n') {
+                        if (!startChunk()) {
+                            return TOO_LARGE;
+                        }
+                    } else {
+                        return MALFORMED;
+                    }
+                    break;
+                case CHUNK_EXTENSION:
+                    if (b == '\r') {
+                        state = CHUNK_SIZE_LF;
+                    } else if (b == '\n') {
+                        if (!startChunk()) {
+                            return TOO_LARGE;
+                        }
+                    }
+                    break;
+                case CHUNK_SIZE_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    if (!startChunk()) {
+                        return TOO_LARGE;
+                    }
+                    break;
+                case CHUNK_DATA_CR:
+                    if (b == '\r') {
+                        state = CHUNK_DATA_LF;
+                    } else if (b == '\n') {
+                        state = CHUNK_SIZE;
+                    } else {
+                        return MALFORMED;
+                    }
+                    break;
+                case CHUNK_DATA_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    state = CHUNK_SIZE;
+                    break;
+                case TRAILER_LINE_START:
+                    if (b == '\r') {
+                        state = FINAL_LF;
+                    } else if (b == '\n') {
+                        state = COMPLETE;
+                    } else {
+                        state = TRAILER_LINE;
+                    }
+                    break;
+                case TRAILER_LINE:
+                    if (b == '\r') {
+                        state = TRAILER_LF;
+                    } else if (b == '\n') {
+                        state = TRAILER_LINE_START;
+                    }
+                    break;
+                case TRAILER_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    state = TRAILER_LINE_START;
+                    break;
+                case FINAL_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    state = COMPLETE;
+                    break;
+                default:
+                    return MALFORMED;
+            }
+        }
+        if (state == COMPLETE) {
+            body.finish();
+        }
+        return position;
+    }
+
+    /**
+     * Starts the chunk whose size has just been read; the last chunk, of size 0, is followed by the trailer.
+     *
+     * @return whether the body still fits in the maximum size
+     */
+    private boolean startChunk() {
+        chunkSizeDigits = 0;
+        decoded += remaining;
+        if (decoded > maxBodySize) {
+            return false;
+        }
+        state = remaining == 0 ? TRAILER_LINE_START : CHUNK_DATA;
+        return true;
+    }
+
+    /**
+     * Returns whether the last byte of the body has been decoded.
+     *
+     * @return whether the body is complete
+     */
+    public boolean isComplete() {
+        return state == COMPLETE;
+    }
+}
@@ -1,149 +1,400 @@
 package src;
 
 import java.io.*;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
 
 public class RequestHandler {
-    private ConfigReader configReader;
+    private final ConfigManager configs;
+    private Config config; // the snapshot of the request being served
+    private final Router router;
     private HTTPRequest httpRequest;
     private ResponseBuilder responseBuilder;
+    private final Exchange exchange;
     private Socket clientSocket;
-    private String requestHeaders;
+    private final RequestParser requestParser = new RequestParser();
+    private byte[] buffer = new byte[READ_BUFFER_SIZE];
+    private int bufferLength = 0;
+    private int requestStart = 0;
+    private int requestsHandled = 0;
+    private final TimerWheel timers; // null for the non-blocking engine, which enforces its own timeouts
+    private final Executor streamExecutor; // serves the streams of a connection switched to HTTP/2
+    private final TimerWheel.Timeout timeout = new TimerWheel.Timeout(this::onTimeout);
+    private volatile int phase = IDLE; // what the connection is waiting for, which decides what a timeout does
+    private volatile int expiredPhase = 0; // the phase whose timeout expired, if any
+    private static final int IDLE = 1;
+    private static final int HEADER = 2;
+    private static final int BODY = 3;
+    private static final int WRITE = 4;
+    private static final int READ_BUFFER_SIZE = 8192;
     private static final String DEFAULT_CONTENT_TYPE = "default";
-    private static final String HTTP_GET = "GET";
-    private static final String HTTP_POST = "POST";
-    private static final String HTTP_HEAD = "HEAD";
-    private static final String HTTP_TRACE = "TRACE";
+    private static final String METRICS_CONTENT_TYPE = "metrics";
+    private static final String TEXT_CONTENT_TYPE = "text";
+    private static final String FORM_PAGE_PATH = "/params_info.html";
+    private static final CompletableFuture<Boolean> KEEP_ALIVE = CompletableFuture.completedFuture(true);
+    private static final CompletableFuture<Boolean> CLOSE = CompletableFuture.completedFuture(false);
+    private static final String PARAMS_SLOT = "params";
+    private static final byte[] PARAGRAPH_START = "<p>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARAGRAPH_SEPARATOR = ": ".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PARAGRAPH_END = "</p>\n".getBytes(StandardCharsets.US_ASCII);
 
     /**
      * Constructs a src.RequestHandler object.
      *
      * @param clientSocket the client socket
-     * @param configReader the src.ConfigReader object
-     * used to read the server configuration from a file
+     * @param configs the holder of the current configuration, read again for every request
+     * @param router the router of the handlers shared by all connections
+     * @param timers the timer wheel shared by all connections, which enforces their timeouts
+     * @param streamExecutor the executor that serves the streams of the connection if it switches to HTTP/2
      */
-    public RequestHandler(Socket clientSocket, ConfigReader configReader) {
+    public RequestHandler(Socket clientSocket, ConfigManager configs, Router router, TimerWheel timers,
+                          Executor streamExecutor) {
+        this(clientSocket, clientSocket.getInetAddress(), configs, router, timers, streamExecutor);
+    }
+
+    /**
+     * Constructs a src.RequestHandler object that is not bound to a socket.
+     * Used by the non-blocking engine, which reads the request itself and
+     * passes it to {@link #processRequest(HTTPRequest, ResponseOutput)}.
+     *
+     * @param configs the holder of the current configuration, read again for every request
+     * @param router the router of the handlers shared by all connections
+     * @param clientAddress the address of the client
+     */
+    public RequestHandler(ConfigManager configs, Router router, InetAddress clientAddress) {
+        this(null, clientAddress, configs, router, null, null);
+    }
+
+    private RequestHandler(Socket clientSocket, InetAddress clientAddress, ConfigManager configs, Router router,
+                           TimerWheel timers, Executor streamExecutor) {
         this.clientSocket = clientSocket;
-        this.configReader = configReader;
+        this.timers = timers;
+        this.streamExecutor = streamExecutor;
+        this.configs = configs;
+        this.router = router;
         responseBuilder = new ResponseBuilder();
+        exchange = new Exchange(responseBuilder, clientAddress);
+        useCurrentConfig();
+    }
+
+    /**
+     * Takes the current configuration snapshot for the next request, so that a reload applies from the next
+     * request on while the request being served keeps the settings it started with.
+     * The non-blocking engine calls it between the requests of a connection.
+     */
+    void useCurrentConfig() {
+        config = configs.get();
+        requestParser.setLimits(config.getMaxRequestLineSize(), config.getMaxHeaderSize());
     }
 
     /**
-     * Handles the HTTP request.
-     * Reads the request header, parses it, and sends the appropriate response.
+     * Handles the HTTP requests of the connection.
+     * Reads each request header, parses it, and sends the appropriate response.
+     * Requests are served one after the other for as long as the connection is kept alive,
+     * including requests the client pipelined without waiting for the previous response;
+     * the connection is closed when the client asks for it, after maxKeepAliveRequests requests,
+     * or when no request arrives within keepAliveTimeout seconds.
+     * Every wait of the connection is bounded by a timeout on the shared timer wheel, so a client that sends
+     * nothing, or a byte now and then, cannot hold the thread: a request head must arrive within
+     * headerTimeoutMillis of its first byte and a body may not stall for bodyTimeoutMillis (both answered with
+     * 408 Request Timeout), and a response that the client does not read for writeTimeoutMillis is abandoned.
+     * A client that sends the HTTP/2 preface, or asks to upgrade to h2c, has the rest of the connection served
+     * by a src.Http2Connection.
      */
     public void handleRequest() {
+        Metrics.connectionOpened();
+        SocketResponseOutput outputStream = null;
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            OutputStream outputStream = clientSocket.getOutputStream();
+            InputStream in = clientSocket.getInputStream();
+            outputStream = new SocketResponseOutput(clientSocket,
+                    () -> timers.schedule(timeout, config.getWriteTimeoutMillis()));
 
-            httpRequest = readRequestAndCreateHttpRequestInstance(in);
+            boolean keepAlive = true;
+            while (keepAlive) {
+                useCurrentConfig();
+                arm(IDLE, config.getKeepAliveTimeout() * 1000L);
+                HTTPRequest request = readRequestAndCreateHttpRequestInstance(in);
+                if (request == null) { // client closed the connection
+                    if (expiredPhase == IDLE) {
+                        Log.debug("connection idle for " + config.getKeepAliveTimeout() + " seconds, closing it");
+                    }
+                    break;
+                }
+                if (config.isHttp2() && request.isValid() && (request.isHttp2Preface() || request.isHttp2Upgrade())) {
+                    outputStream.flush(); // the responses to the requests pipelined before it
+                    timers.cancel(timeout);
+                    new Http2Connection(clientSocket, Arrays.copyOfRange(buffer, requestStart, bufferLength),
+                            configs, router, streamExecutor, timers)
+                            .serve(request.isHttp2Preface() ? null : request);
+                    return;
+                }
+                arm(WRITE, config.getWriteTimeoutMillis());
+                keepAlive = processRequest(request, outputStream).join(); // waits for a handler that completes asynchronously
+                // while pipelined requests are already waiting, keep buffering their responses
+                // so that the whole batch goes out in as few writes as possible
+                if (!keepAlive || (requestStart == bufferLength && in.available() == 0)) {
+                    outputStream.flush();
+                }
+            }
+            outputStream.flush();
+        } catch (IOException e) {
+            if (expiredPhase == WRITE) {
+                Log.debug("response not read for " + config.getWriteTimeoutMillis() + " ms, closing the connection");
+            } else {
+                Log.warn("connection closed : " + e);
+            }
+        } finally {
+            timers.cancel(timeout);
+            if (outputStream != null) {
+                outputStream.close(); // returns a buffer still held after a failed write to the pool
+            }
+            closeClientSocket();
+            Metrics.connectionClosed();
+        }
+    }
 
-            if (!httpRequest.isValid()) {  // handle invalid request
+    /**
+     * Sets what the connection waits for and arms its timeout.
+     *
+     * @param phase IDLE, HEADER, BODY or WRITE
+     * @param delayMillis the timeout
+     */
+    private void arm(int phase, long delayMillis) {
+        this.phase = phase;
+        timers.schedule(timeout, delayMillis);
+    }
 
-                responseBuilder.handleResponse(
-                        400,
-                        DEFAULT_CONTENT_TYPE,
-                        new byte[0],
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
-                return;
+    /**
+     * Runs on the timer thread when the armed timeout expires. A blocked read is ended by shutting down
+     * the input, so that the handler thread sees the end of the stream and, for a request that was being
+     * received, still answers 408; a blocked write can only be ended by shutting down the output and
+     * closing the socket.
+     */
+    private void onTimeout() {
+        expiredPhase = phase;
+        try {
+            if (phase == WRITE) {
+                clientSocket.shutdownOutput(); // wakes a transferTo blocked in sendfile, which close alone does not
+                clientSocket.close();
+            } else {
+                clientSocket.shutdownInput();
             }
+        } catch (IOException e) {
+            Log.debug("failed to end a timed out connection : " + e);
+        }
+    }
 
-            // handle unsupported HTTP version
-            if (httpRequest.isUnsupportedHttpVersion()) {
-                responseBuilder.handleResponse(
-                        505,
-                        DEFAULT_CONTENT_TYPE,
-                        new byte[0],
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
-                return;
-            }
+    /**
+     * Closes the client socket once the last response has been sent,
+     * as announced by the "Connection: close" response header.
+     */
+    private void closeClientSocket() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            Log.warn("failed to close client connection : " + e);
+        }
+    }
 
-            String method = httpRequest.getType();
-            if (!method.equals(HTTP_GET) && !method.equals(HTTP_POST) &&
-                    !method.equals(HTTP_HEAD) && !method.equals(HTTP_TRACE)) { // handle not implemented request
-                responseBuilder.handleResponse(
-                        501,
-                        DEFAULT_CONTENT_TYPE,
-                        new byte[0],
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
-                return;
-            }
+    /**
+     * Creates the router of the server's handlers: the metrics and reload endpoints, the page rendered for a
+     * POST to /params_info.html, and the static files, which are served for every other path.
+     *
+     * @param configs the holder of the current configuration, reloaded by a POST to /__reload
+     * @param contentCache the cache of static file contents shared by all connections
+     * @param contentEncoder the encoder used to compress responses
+     * @return the router
+     */
+    public static Router createRouter(ConfigManager configs, ContentCache contentCache,
+                                      ContentEncoder contentEncoder) {
+        return new Router.Builder()
+                .route(Metrics.PATH, RequestHandler::handleMetrics, RequestType.GET, RequestType.HEAD)
+                .route(ConfigManager.PATH, exchange -> handleReload(exchange, configs), RequestType.POST)
+                .route(FORM_PAGE_PATH, exchange -> handleFormPage(exchange, contentCache), RequestType.POST)
+                .prefix("/", new StaticFileHandler(contentCache, contentEncoder),
+                        RequestType.GET, RequestType.HEAD, RequestType.POST, RequestType.TRACE)
+                .build();
+    }
 
-            if (method.equals(HTTP_POST) && httpRequest.getRequestedPage().equals("/params_info.html")) { // handle params_info.html POST request
-                String content = handleParamsInfoPostRequest();
-                responseBuilder.handleResponse(
-                        200,
-                        httpRequest.getContentType(),
-                        content.getBytes(),
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
-                return;
-            }
+    /**
+     * Processes an already parsed HTTP request and writes the response to the output stream.
+     * Invalid requests and unsupported versions are answered here; every other request is dispatched by the
+     * router to its handler. A handler that completes asynchronously leaves the returned future incomplete
+     * until it has written its response.
+     *
+     * @param request the parsed HTTP request
+     * @param outputStream the output to write the response to
+     * @return a future of whether the connection should be kept open for another request,
+     * already completed unless the handler completes asynchronously
+     */
+    public CompletableFuture<Boolean> processRequest(HTTPRequest request, ResponseOutput outputStream) {
+        long startTime = System.nanoTime();
+        httpRequest = request;
+        // the raw header is only decoded when it is echoed back for a TRACE request or dumped to the log
+        String requestHeaders = request.getMethod() == RequestType.TRACE ? request.getRawHeader() : null;
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(request.getRawHeader() + "\n"); // print the request header
+        }
+        requestsHandled++;
+        int maxKeepAliveRequests = config.getMaxKeepAliveRequests();
+        boolean keepAlive = request.isValid() && request.isKeepAlive() && requestsHandled < maxKeepAliveRequests;
+        responseBuilder.setKeepAlive(keepAlive, config.getKeepAliveTimeout(), maxKeepAliveRequests - requestsHandled);
+        exchange.start(request, outputStream, config, requestHeaders, startTime);
+        CompletionStage<Void> stage;
+        try {
+            stage = dispatch();
+        } catch (Exception e) {
+            return completeRequest(keepAlive, startTime, e) ? KEEP_ALIVE : CLOSE;
+        }
+        if (stage == Handler.DONE) {
+            return completeRequest(keepAlive, startTime, null) ? KEEP_ALIVE : CLOSE;
+        }
+        return stage.handle((result, failure) -> completeRequest(keepAlive, startTime, failure)).toCompletableFuture();
+    }
 
-            String filePath = configReader.getRootDirectory() + sanitizePath(httpRequest.getRequestedPage());
-            if (!Files.exists(Paths.get(filePath))) { // handle not found request
-                responseBuilder.handleResponse(
-                        404,
-                        DEFAULT_CONTENT_TYPE,
-                        new byte[0],
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
-                return;
-            }
+    /**
+     * Answers an invalid request or an unsupported version, or finds the handler of the request and calls it.
+     *
+     * @return the stage returned by the handler, or {@link Handler#DONE}
+     * @throws IOException if an I/O error occurs
+     */
+    private CompletionStage<Void> dispatch() throws IOException {
+        if (!httpRequest.isValid()) {  // handle invalid, oversized or timed out request
+            exchange.respond(httpRequest.getErrorStatus(), DEFAULT_CONTENT_TYPE);
+            return Handler.DONE;
+        }
 
-            byte[] fileContent = readFileContent(filePath);
-            if (httpRequest.isChunked()) { // handle chunked response
-                responseBuilder.handleChunkedResponse(
-                        200,
-                        httpRequest.getContentType(),
-                        fileContent,
-                        outputStream
-                );
-            } else { // handle normal response
-                responseBuilder.handleResponse(
-                        200,
-                        httpRequest.getContentType(),
-                        fileContent,
-                        httpRequest.getType(),
-                        outputStream,
-                        requestHeaders
-                );
+        if (httpRequest.isUnsupportedHttpVersion()) { // handle unsupported HTTP version
+            exchange.respond(505, DEFAULT_CONTENT_TYPE);
+            return Handler.DONE;
+        }
+
+        RequestType method = httpRequest.getMethod();
+        Handler handler = method == null ? null : router.find(method, httpRequest.getRequestedPage());
+        if (handler == null) { // handle not implemented request, or a path no route matches
+            exchange.respond(method != null && router.isRouted(method) ? 404 : 501, DEFAULT_CONTENT_TYPE);
+            return Handler.DONE;
+        }
+        return handler.handle(exchange);
+    }
+
+    /**
+     * Ends a request once its handler is done: a failed handler is answered with 500 Internal Server Error,
+     * the body of the request is deleted, and the request is recorded by src.Metrics and the access log.
+     *
+     * @param keepAlive whether the connection is kept open for another request
+     * @param startTime the System.nanoTime() at which the request started to be processed
+     * @param failure the exception of a failed handler, or null
+     * @return whether the connection should be kept open for another request
+     */
+    private boolean completeRequest(boolean keepAlive, long startTime, Throwable failure) {
+        if (failure instanceof CompletionException && failure.getCause() != null) {
+            failure = failure.getCause();
+        }
+        try {
+            if (failure != null) {
+                Log.error("failed to handle " + httpRequest.getType() + " " + httpRequest.getRequestedPage(), failure);
+                // part of the response may already be on the wire, so the connection cannot be reused
+                keepAlive = false;
+                responseBuilder.clearHeaders();
+                responseBuilder.setKeepAlive(false, config.getKeepAliveTimeout(), 0);
+                try {
+                    if (exchange.getOutput().discardResponse()) {
+                        exchange.respond(500, DEFAULT_CONTENT_TYPE);
+                    }
+                } catch (IOException ioException) {
+                    Log.error("failed to send 500 response", ioException);
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } finally {
+            httpRequest.getBody().close(); // deletes a body spilled to a temporary file
+            long endTime = System.nanoTime();
+            Metrics.WRITE.record(endTime - exchange.getWriteStart());
+            Metrics.REQUEST.record(endTime - startTime);
+            Metrics.recordRequest(httpRequest.getType(), responseBuilder.getStatusCode(),
+                    responseBuilder.getHeadBytes() + responseBuilder.getBodyBytes());
+            Log.access(httpRequest.getType(), httpRequest.getRequestedPage(), responseBuilder.getStatusCode(),
+                    responseBuilder.getBodyBytes(), endTime - startTime);
+        }
+        return keepAlive;
+    }
+
+    /**
+     * Serves the src.Metrics of the server in the Prometheus text format.
+     *
+     * @param exchange the request and the response being written
+     * @return {@link Handler#DONE}
+     * @throws IOException if an I/O error occurs
+     */
+    private static CompletionStage<Void> handleMetrics(Exchange exchange) throws IOException {
+        exchange.getResponse().addHeader("Cache-Control", "no-store");
+        exchange.respond(200, METRICS_CONTENT_TYPE, Metrics.render().getBytes(StandardCharsets.UTF_8));
+        return Handler.DONE;
+    }
+
+    /**
+     * Reloads the configuration, for a client on the server's own host only, and answers with the outcome.
+     *
+     * @param exchange the request and the response being written
+     * @param configs the holder of the current configuration
+     * @return {@link Handler#DONE}
+     * @throws IOException if an I/O error occurs
+     */
+    private static CompletionStage<Void> handleReload(Exchange exchange, ConfigManager configs) throws IOException {
+        InetAddress clientAddress = exchange.getClientAddress();
+        int status;
+        String outcome;
+        if (clientAddress == null || !clientAddress.isLoopbackAddress()) { // only from the server's own host
+            status = 403;
+            outcome = "configuration can only be reloaded from the server's host";
+        } else {
             try {
-                PrintWriter out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream()));
-                responseBuilder.handleResponse(
-                        500,
-                        DEFAULT_CONTENT_TYPE,
-                        new byte[0],
-                        httpRequest.getType(),
-                        clientSocket.getOutputStream(),
-                        requestHeaders
-                );
-                out.flush();
-            } catch (IOException ioException) {
-                ioException.printStackTrace();
+                status = 200;
+                outcome = configs.reload();
+            } catch (IOException | IllegalArgumentException e) {
+                status = 500;
+                outcome = "keeping the running configuration: " + e.getMessage();
             }
         }
+        exchange.getResponse().addHeader("Cache-Control", "no-store");
+        exchange.respond(status, TEXT_CONTENT_TYPE, (outcome + "\n").getBytes(StandardCharsets.UTF_8));
+        return Handler.DONE;
+    }
+
+    /**
+     * Renders params_info.html from the fields of the form posted to it.
+     *
+     * @param exchange the request and the response being written
+     * @param contentCache the cache that holds the compiled template
+     * @return {@link Handler#DONE}
+     * @throws IOException if an I/O error occurs
+     */
+    private static CompletionStage<Void> handleFormPage(Exchange exchange, ContentCache contentCache)
+            throws IOException {
+        HTTPRequest request = exchange.getRequest();
+        Map<String, String> params = request.getRequestFormBody(); // read before the response starts
+        Template template = getTemplate(contentCache,
+                Paths.get(exchange.getConfig().getRootDirectory(), FORM_PAGE_PATH.substring(1)));
+        exchange.getResponse().handleGeneratedResponse(
+                200,
+                request.getContentType(),
+                out -> template.render(out, (slot, slotOut) -> writeFormSlot(slot, params, slotOut)),
+                request.acceptsChunkedResponse(),
+                request.getType(),
+                exchange.getOutput()
+        );
+        return Handler.DONE;
     }
 
     /**
@@ -153,7 +404,7 @@ public class RequestHandler {
      * @param path the path of the requested page
      * @return the sanitized path
      */
-    private String sanitizePath(String path) {
+    static String sanitizePath(String path) {
         try {
             return Paths.get(path).normalize().toString();
         } catch (InvalidPathException e) {
@@ -167,91 +418,192 @@ public class RequestHandler {
      * @param filePath the path to the file
      * @return the content of the file
      */
-    private byte[] readFileContent(String filePath) {
+    static byte[] readFileContent(String filePath) {
         try {
             return Files.readAllBytes(Paths.get(filePath));
         } catch (IOException e) {
-            e.printStackTrace();
+            Log.error("failed to read " + filePath, e);
             return "".getBytes();
         }
     }
 
     /**
      * Reads the request header and creates an src.HTTPRequest instance.
+     * The bytes are read into the connection's buffer, which is reused for every request;
+     * the bytes of the previous request are dropped first, keeping those of a pipelined request
+     * that already arrived. The body, exactly Content-Length bytes or a chunked body, is decoded
+     * into a src.RequestBody as it arrives, so it never has to fit in the buffer.
+     * A request over a size limit, or one whose head or body timed out, is returned as an invalid request
+     * with the status to answer it with (413, 414, 431 or 408).
      *
-     * @param in the BufferedReader object used to read the request header
-     * @return the src.HTTPRequest instance
+     * @param in the input stream of the client socket
+     * @return the src.HTTPRequest instance, or null if the client closed the connection
      * @throws IOException if an I/O error occurs
      */
-    private HTTPRequest readRequestAndCreateHttpRequestInstance(BufferedReader in) throws IOException {
-        StringBuilder requestBuilder = new StringBuilder();
-        String line = in.readLine();
-
-        // check if null for when browser caches previous requests
-        if (line == null || line.isEmpty()) {
-            return new HTTPRequest("", configReader.getImageExtensions(), "");
+    private HTTPRequest readRequestAndCreateHttpRequestInstance(InputStream in) throws IOException {
+        if (requestStart > 0) {
+            System.arraycopy(buffer, requestStart, buffer, 0, bufferLength - requestStart);
+            bufferLength -= requestStart;
+            requestStart = 0;
         }
-
-        requestBuilder
-                .append(line)
-                .append("\r\n");
-
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            requestBuilder
-                    .append(line)
-                    .append("\r\n");
+        requestParser.reset(0);
+        int headerEnd;
+        long parseNanos = 0;
+        while (true) {
+            long parseStart = System.nanoTime();
+            headerEnd = requestParser.parse(buffer, bufferLength);
+            parseNanos += System.nanoTime() - parseStart;
+            if (headerEnd != RequestParser.NEED_MORE) {
+                break;
+            }
+            if (bufferLength == RequestParser.MAX_REQUEST_SIZE) {
+                break;
+            }
+            if (bufferLength > 0 && phase == IDLE) { // the head must be complete within the header timeout
+                arm(HEADER, config.getHeaderTimeoutMillis());
+            }
+            // the client closed the connection (e.g. a browser dropping an unused or idle keep-alive connection)
+            if (!readMore(in)) {
+                return expiredPhase == HEADER ? HTTPRequest.invalid(config.getImageExtensions(), 408) : null;
+            }
+        }
+        if (headerEnd < 0) { // malformed or too large
+            requestStart = bufferLength;
+            return HTTPRequest.invalid(config.getImageExtensions(), errorStatus(headerEnd));
         }
 
-        // add the body of the request
-        if (in.ready()) {
-            requestBuilder.append("\r\n");
-            while (in.ready()) {
-                requestBuilder.append((char) in.read());
+        long parseStart = System.nanoTime();
+        HTTPRequest request = new HTTPRequest(requestParser, config.getImageExtensions());
+        Metrics.PARSE.record(parseNanos + System.nanoTime() - parseStart);
+        requestStart = headerEnd;
+        if (request.isValid() && request.hasBody()) {
+            RequestBody body = createRequestBody();
+            RequestBodyDecoder decoder = createBodyDecoder(request);
+            // the body is decoded as it arrives; its bytes are dropped from the buffer once decoded,
+            // while the header stays in front of them for the lazy header accessors
+            while (true) {
+                int decoded = decoder.decode(buffer, requestStart, bufferLength, body);
+                if (decoded < 0) {
+                    body.close();
+                    requestStart = bufferLength;
+                    return HTTPRequest.invalid(config.getImageExtensions(), errorStatus(decoded));
+                }
+                if (decoder.isComplete()) {
+                    requestStart = decoded;
+                    break;
+                }
+                bufferLength = headerEnd;
+                requestStart = headerEnd;
+                arm(BODY, config.getBodyTimeoutMillis()); // re-armed for every read, so only a stalled body times out
+                if (!readMore(in)) {
+                    body.close();
+                    return expiredPhase == BODY ? HTTPRequest.invalid(config.getImageExtensions(), 408) : null;
+                }
             }
+            request.setBody(body);
         }
-        String request = requestBuilder.toString();
-        // print only the request header
-        this.requestHeaders = request
-                .split("\r\n\r\n").length > 0 ? request
-                .split("\r\n\r\n")[0] : "";
-        String body = request
-                .split("\r\n\r\n").length > 1 ? request
-                .split("\r\n\r\n")[1] : "";
-        System.out.println(this.requestHeaders + "\n"); // print the request header
-        return new HTTPRequest(request, configReader.getImageExtensions(), body);
+        return request; // the request is dropped from the buffer before the next one is read
     }
 
     /**
-     * Handles a POST request to the /params_info.html page.
-     * @return the content of the response
+     * Returns the status code a request rejected by src.RequestParser or src.RequestBodyDecoder is answered with.
+     *
+     * @param code the negative result of the parser or the decoder; {@link RequestParser#NEED_MORE}
+     * stands for a head that filled the largest buffer
+     * @return 414, 431, 413 or 400
      */
-    private String handleParamsInfoPostRequest() throws IOException {
-        Map<String, String> params = httpRequest.getRequestFormBody();
+    static int errorStatus(int code) {
+        switch (code) {
+            case RequestParser.URI_TOO_LONG:
+                return 414;
+            case RequestParser.HEADER_TOO_LARGE:
+            case RequestParser.NEED_MORE:
+                return 431;
+            case RequestBodyDecoder.TOO_LARGE:
+                return 413;
+            default:
+                return 400;
+        }
+    }
 
-        // read the params_info.html file into a string
-        StringBuilder html = new StringBuilder();
-        try (BufferedReader reader = new BufferedReader(
-                new FileReader(
-                        configReader.getRootDirectory() + "/params_info.html"
-                )
-        )) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                html.append(line)
-                    .append("\n");
-            }
+    /**
+     * Creates an empty body for a request, spilled to a temporary file past bodySpillThreshold bytes.
+     *
+     * @return the body
+     */
+    RequestBody createRequestBody() {
+        return new RequestBody(config.getBodySpillThreshold());
+    }
+
+    /**
+     * Creates the decoder for the body of a request, by Content-Length or chunked.
+     *
+     * @param request the request
+     * @return the decoder
+     */
+    RequestBodyDecoder createBodyDecoder(HTTPRequest request) {
+        return request.isChunkedBody()
+                ? RequestBodyDecoder.forChunked(config.getMaxBodySize())
+                : RequestBodyDecoder.forContentLength(request.getContentLength(), config.getMaxBodySize());
+    }
+
+    /**
+     * Reads more bytes from the client into the buffer, growing it when it is full.
+     *
+     * @param in the input stream of the client socket
+     * @return whether any bytes were read; false if the client closed the connection
+     * @throws IOException if an I/O error occurs
+     */
+    private boolean readMore(InputStream in) throws IOException {
+        if (bufferLength == buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, RequestParser.MAX_REQUEST_SIZE));
         }
+        int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+        if (read < 0) {
+            return false;
+        }
+        Metrics.addBytesIn(read);
+        bufferLength += read;
+        return true;
+    }
 
-        // find the <body> tag in the string (we assume it exists)
-        int bodyIndex = html.indexOf("<body>");
-        bodyIndex += "<body>".length(); // move the index to the end of the <body> tag
+    /**
+     * Returns the compiled template of a dynamic page, from the content cache, which compiles it once and
+     * again after the file changes. A file too large to cache is read and compiled for each request.
+     *
+     * @param path the path of the template file
+     * @return the compiled template
+     * @throws IOException if the file cannot be read
+     */
+    private static Template getTemplate(ContentCache contentCache, Path path) throws IOException {
+        ContentCache.CachedFile cachedFile = contentCache.get(path);
+        return cachedFile != null ? cachedFile.getTemplate() : Template.compile(Files.readAllBytes(path));
+    }
 
+    /**
+     * Writes a slot of a page rendered from the fields of a form, as for a POST to /params_info.html:
+     * the "params" slot lists every field as a paragraph, and any other slot is replaced by the value of
+     * the field of the same name, or nothing. Names and values are HTML-escaped.
+     *
+     * @param slot the name of the slot
+     * @param params the form fields of the request
+     * @param out the stream to write to
+     * @throws IOException if an I/O error occurs
+     */
+    private static void writeFormSlot(String slot, Map<String, String> params, OutputStream out) throws IOException {
+        if (!slot.equals(PARAMS_SLOT)) {
+            String value = params.get(slot);
+            if (value != null) {
+                Template.writeEscaped(out, value);
+            }
+            return;
+        }
         for (Map.Entry<String, String> entry : params.entrySet()) {
-            String pElement = "<p>" + entry.getKey() + ": " + entry.getValue() + "</p>\n";
-            html.insert(bodyIndex, pElement);
-            bodyIndex += pElement.length();
+            out.write(PARAGRAPH_START);
+            Template.writeEscaped(out, entry.getKey());
+            out.write(PARAGRAPH_SEPARATOR);
+            Template.writeEscaped(out, entry.getValue());
+            out.write(PARAGRAPH_END);
         }
-
-        return html.toString();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,516 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The src.RequestParser class parses the head of an HTTP request (request line and header fields)
+ * in a single pass over the raw bytes, without creating any objects.
+ * It only records where the method, target, version and every header name and value start and end
+ * in the caller's buffer; src.HTTPRequest reads the fields it needs from those offsets.
+ * Parsing can be resumed: when the head is not complete yet, {@link #parse(byte[], int)} returns
+ * {@link #NEED_MORE} and continues where it stopped once more bytes have been appended to the buffer.
+ * One parser is reused for all requests of a connection, so its offsets are only valid
+ * until the next request is parsed.
+ */
+public class RequestParser {
+    public static final int NEED_MORE = -1;
+    public static final int MALFORMED = -2;
+    public static final int URI_TOO_LONG = -4;
+    public static final int HEADER_TOO_LARGE = -5;
+    // the most bytes a request, head and body, may take in the connection's buffer
+    public static final int MAX_REQUEST_SIZE = 1024 * 1024;
+
+    private static final int MAX_HEADERS = 100;
+
+    private static final int START = 0;
+    private static final int METHOD = 1;
+    private static final int TARGET = 2;
+    private static final int VERSION = 3;
+    private static final int REQUEST_LINE_LF = 4;
+    private static final int LINE_START = 5;
+    private static final int HEADER_NAME = 6;
+    private static final int HEADER_VALUE_START = 7;
+    private static final int HEADER_VALUE = 8;
+    private static final int HEADER_LF = 9;
+    private static final int FINAL_LF = 10;
+    private static final int COMPLETE = 11;
+
+    private int maxRequestLineSize = MAX_REQUEST_SIZE;
+    private int maxHeaderSize = MAX_REQUEST_SIZE;
+    private byte[] buffer;
+    private int state;
+    private int position;
+    private int headStart;
+    private int methodStart;
+    private int methodEnd;
+    private int targetStart;
+    private int targetEnd;
+    private int versionStart;
+    private int versionEnd;
+    private int headerCount;
+    private final int[] nameStarts = new int[MAX_HEADERS];
+    private final int[] nameEnds = new int[MAX_HEADERS];
+    private final int[] valueStarts = new int[MAX_HEADERS];
+    private final int[] valueEnds = new int[MAX_HEADERS];
+
+    /**
+     * Prepares the parser for a new request whose bytes start at the given offset.
+     *
+     * @param start the offset of the first byte of the request in the buffer
+     */
+    public void reset(int start) {
+        state = START;
+        position = start;
+        headStart = start;
+        headerCount = 0;
+    }
+
+    /**
+     * Sets the size limits of the request line and of the whole head, checked as the bytes arrive,
+     * so that a client cannot hold a connection's buffer by sending an endless line.
+     *
+     * @param maxRequestLineSize the most bytes of the request line, without its line ending
+     * @param maxHeaderSize the most bytes of the head, request line and header fields
+     */
+    public void setLimits(int maxRequestLineSize, int maxHeaderSize) {
+        this.maxHeaderSize = Math.min(maxHeaderSize, MAX_REQUEST_SIZE - 1);
+        // a request line that does not fit in the head is too long, rather than the head too large
+        this.maxRequestLineSize = Math.min(maxRequestLineSize, this.maxHeaderSize);
+    }
+
+    /**
+     * Parses the bytes of the buffer that have not been parsed yet.
+     *
+     * @param buffer the buffer holding the request; it may be a grown copy of the previous one
+     * @param limit the offset just past the last valid byte in the buffer
+     * @return the offset just past the blank line that ends the head,
+     * {@link #NEED_MORE} if the head is not complete, {@link #MALFORMED}, or {@link #URI_TOO_LONG}
+     * or {@link #HEADER_TOO_LARGE} if the request line or the head is over its limit
+     */
+    public int parse(byte[] buffer, int limit) {
+        this.buffer = buffer;
+        if (state == COMPLETE) { // the bytes that follow the head belong to the body
+            return position;
+        }
+        int valueEnd = 0; // last non-whitespace byte of the current header value
+        if (state == HEADER_VALUE) { // HEADER_LF comes after headerCount moved on, and needs no value end
+            valueEnd = valueEnds[headerCount];
+        }
+        while (position < limit) {
+            byte b = buffer[position];
+            switch (state) {
+                case START: // tolerate empty lines before the request line
+                    if (b != '\r' && b != '\n') {
+                        if (!isTokenChar(b)) {
+                            return MALFORMED;
+                        }
+                        headStart = position;
+                        methodStart = position;
+                        state = METHOD;
+                    }
+                    break;
+                case METHOD:
+                    if (b == ' ') {
+                        methodEnd = position;
+                        targetStart = position + 1;
+                        state = TARGET;
+                    } else if (!isTokenChar(b)) {
+                        return MALFORMED;
+                    }
+                    break;
+                case TARGET:
+                    if (b == ' ') {
+                        targetEnd = position;
+                        versionStart = position + 1;
+                        state = VERSION;
+                    } else if (b == '\r' || b == '\n' || b < 0x20 || b == 0x7f) {
+                        return MALFORMED;
+                    }
+                    break;
+                case VERSION:
+                    if (b == '\r' || b == '\n') {
+                        versionEnd = position;
+                        if (versionEnd == versionStart || targetEnd == targetStart) {
+                            return MALFORMED;
+                        }
+                        if (versionEnd - headStart > maxRequestLineSize) {
+                            return URI_TOO_LONG;
+                        }
+                        state = b == '\r' ? REQUEST_LINE_LF : LINE_START;
+                    } else if (b == ' ' || b < 0x20) {
+                        return MALFORMED;
+                    }
+                    break;
+                case REQUEST_LINE_LF:
+                case HEADER_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    state = LINE_START;
+                    break;
+                case LINE_START:
+                    if (b == '\r') {
+                        state = FINAL_LF;
+                    } else if (b == '\n') {
+                        return finish(position + 1);
+                    } else if (isTokenChar(b)) {
+                        if (headerCount == MAX_HEADERS) {
+                            return HEADER_TOO_LARGE;
+                        }
+                        nameStarts[headerCount] = position;
+                        state = HEADER_NAME;
+                    } else { // including obsolete line folding
+                        return MALFORMED;
+                    }
+                    break;
+                case HEADER_NAME:
+                    if (b == ':') {
+                        nameEnds[headerCount] = position;
+                        state = HEADER_VALUE_START;
+                    } else if (!isTokenChar(b)) {
+                        return MALFORMED;
+                    }
+                    break;
+                case HEADER_VALUE_START:
+                    if (b == ' ' || b == '\t') {
+                        break;
+                    }
+                    valueStarts[headerCount] = position;
+                    valueEnd = position;
+                    state = HEADER_VALUE;
+                    continue; // the same byte again, as the first byte of the value
+                case HEADER_VALUE:
+                    if (b == '\r' || b == '\n') {
+                        valueEnds[headerCount] = valueEnd;
+                        headerCount++;
+                        state = b == '\r' ? HEADER_LF : LINE_START;
+                    } else if (b != ' ' && b != '\t') {
+                        valueEnd = position + 1;
+                        valueEnds[headerCount] = valueEnd; // saved in case the parse is resumed
+                    }
+                    break;
+                case FINAL_LF:
+                    if (b != '\n') {
+                        return MALFORMED;
+                    }
+                    return finish(position + 1);
+                default:
+                    return MALFORMED;
+            }
+            position++;
+        }
+        if (state <= VERSION && position - headStart > maxRequestLineSize) {
+            return URI_TOO_LONG;
+        }
+        return position - headStart > maxHeaderSize ? HEADER_TOO_LARGE : NEED_MORE;
+    }
+
+    private int finish(int headEnd) {
+        if (headEnd - headStart > maxHeaderSize) {
+            return HEADER_TOO_LARGE;
+        }
+        state = COMPLETE;
+        position = headEnd;
+        return headEnd;
+    }
+
+    /**
+     * Returns whether a byte may appear in a method or header name (an RFC 9110 token character).
+     */
+    private static boolean isTokenChar(byte b) {
+        if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9') {
+            return true;
+        }
+        switch (b) {
+            case '!': case '#': case '$': case '%': case '&': case '\'': case '*':
+            case '+': case '-': case '.': case '^': case '_': case '`': case '|': case '~':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns whether the method equals the given name.
+     *
+     * @param name the method name, e.g. "GET"
+     * @return whether the method matches
+     */
+    public boolean methodEquals(String name) {
+        return regionEquals(methodStart, methodEnd, name, false);
+    }
+
+    /**
+     * Returns whether the version equals the given name.
+     *
+     * @param name the version, e.g. "HTTP/1.1"
+     * @return whether the version matches
+     */
+    public boolean versionEquals(String name) {
+        return regionEquals(versionStart, versionEnd, name, false);
+    }
+
+    /**
+     * Returns whether the version starts with the given prefix.
+     *
+     * @param prefix the prefix, e.g. "HTTP/"
+     * @return whether the version starts with the prefix
+     */
+    public boolean versionStartsWith(String prefix) {
+        return versionEnd - versionStart >= prefix.length()
+                && regionEquals(versionStart, versionStart + prefix.length(), prefix, false);
+    }
+
+    /**
+     * Returns the index of a header, looked up case-insensitively.
+     *
+     * @param name the header name in lower case, e.g. "content-length"
+     * @return the index of the first header with that name, or -1 if there is none
+     */
+    public int indexOfHeader(String name) {
+        return indexOfHeader(name, 0);
+    }
+
+    /**
+     * Returns the index of the next header with the given name, looked up case-insensitively,
+     * so that the fields of a header sent more than once can all be checked.
+     *
+     * @param name the header name in lower case, e.g. "content-length"
+     * @param from the index to start looking at, e.g. one past the previous match
+     * @return the index of the first header with that name at or after from, or -1 if there is none
+     */
+    public int indexOfHeader(String name, int from) {
+        for (int i = from; i < headerCount; i++) {
+            if (regionEquals(nameStarts[i], nameEnds[i], name, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether the value of a header equals the given text, ignoring case.
+     *
+     * @param index the index of the header
+     * @param text the text in lower case
+     * @return whether the value matches
+     */
+    public boolean headerValueEqualsIgnoreCase(int index, String text) {
+        return regionEquals(valueStarts[index], valueEnds[index], text, true);
+    }
+
+    /**
+     * Returns whether a comma-separated header value lists the given token, ignoring case,
+     * e.g. "close" in "Connection: keep-alive, close".
+     *
+     * @param index the index of the header
+     * @param token the token in lower case
+     * @return whether the token is listed
+     */
+    public boolean headerValueContainsToken(int index, String token) {
+        return tokenQuality(index, token) >= 0;
+    }
+
+    /**
+     * Looks up a token in a comma-separated header value with quality values,
+     * e.g. "gzip" in "Accept-Encoding: gzip;q=0.8, br".
+     *
+     * @param index the index of the header
+     * @param token the token in lower case
+     * @return the quality of the token in thousandths (1000 when no "q" parameter is given),
+     * or -1 if the token is not listed
+     */
+    public int tokenQuality(int index, String token) {
+        int position = valueStarts[index];
+        int end = valueEnds[index];
+        while (position < end) {
+            while (position < end && (buffer[position] == ' ' || buffer[position] == '\t' || buffer[position] == ',')) {
+                position++;
+            }
+            int elementStart = position;
+            while (position < end && buffer[position] != ',' && buffer[position] != ';') {
+                position++;
+            }
+            int elementEnd = trimEnd(elementStart, position);
+            boolean matches = regionEquals(elementStart, elementEnd, token, true);
+            int quality = 1000;
+            while (position < end && buffer[position] == ';') { // parameters of the element
+                position++;
+                while (position < end && (buffer[position] == ' ' || buffer[position] == '\t')) {
+                    position++;
+                }
+                int parameterStart = position;
+                while (position < end && buffer[position] != ',' && buffer[position] != ';') {
+                    position++;
+                }
+                int parameterEnd = trimEnd(parameterStart, position);
+                if (parameterEnd - parameterStart >= 2 && (buffer[parameterStart] | 0x20) == 'q'
+                        && buffer[parameterStart + 1] == '=') {
+                    quality = parseQuality(parameterStart + 2, parameterEnd);
+                }
+            }
+            if (matches) {
+                return quality;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a quality value such as "0", "0.5" or "1.000" into thousandths; malformed values count as 0.
+     */
+    private int parseQuality(int start, int end) {
+        if (start == end || buffer[start] < '0' || buffer[start] > '1') {
+            return 0;
+        }
+        int quality = (buffer[start] - '0') * 1000;
+        if (start + 1 == end) {
+            return quality;
+        }
+        if (buffer[start + 1] != '.' || end - start > 5) {
+            return 0;
+        }
+        int scale = 100;
+        for (int i = start + 2; i < end; i++) {
+            if (buffer[i] < '0' || buffer[i] > '9') {
+                return 0;
+            }
+            quality += (buffer[i] - '0') * scale;
+            scale /= 10;
+        }
+        return Math.min(quality, 1000);
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && (buffer[end - 1] == ' ' || buffer[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Parses the value of a header as a non-negative decimal number.
+     *
+     * @param index the index of the header
+     * @return the number, or -1 if the value is not a valid number
+     */
+    public long headerValueAsLong(int index) {
+        int start = valueStarts[index];
+        int end = valueEnds[index];
+        if (start == end || end - start > 18) {
+            return -1;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            byte b = buffer[i];
+            if (b < '0' || b > '9') {
+                return -1;
+            }
+            value = value * 10 + (b - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value of a header as a String. This is the only accessor that allocates,
+     * so callers only use it for the headers they actually need.
+     *
+     * @param index the index of the header
+     * @return the header value
+     */
+    public String headerValue(int index) {
+        return new String(buffer, valueStarts[index], valueEnds[index] - valueStarts[index], StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the method as a String.
+     *
+     * @return the method
+     */
+    public String method() {
+        return new String(buffer, methodStart, methodEnd - methodStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the version as a String.
+     *
+     * @return the version
+     */
+    public String version() {
+        return new String(buffer, versionStart, versionEnd - versionStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the raw head of the request, without the blank line that ends it.
+     *
+     * @return the request line and header fields
+     */
+    public String rawHead() {
+        int end = position;
+        while (end > headStart && (buffer[end - 1] == '\r' || buffer[end - 1] == '\n')) {
+            end--;
+        }
+        return new String(buffer, headStart, end - headStart, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Returns the buffer holding the request.
+     *
+     * @return the buffer
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    /**
+     * Returns the offset of the first byte of the request target.
+     *
+     * @return the start of the target
+     */
+    public int targetStart() {
+        return targetStart;
+    }
+
+    /**
+     * Returns the offset just past the last byte of the request target.
+     *
+     * @return the end of the target
+     */
+    public int targetEnd() {
+        return targetEnd;
+    }
+
+    /**
+     * Returns the number of header fields.
+     *
+     * @return the number of headers
+     */
+    public int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * Compares a region of the buffer with a String of ASCII characters.
+     *
+     * @param start the start of the region
+     * @param end the end of the region
+     * @param text the text to compare with; in lower case when ignoring case
+     * @param ignoreCase whether to fold the buffer bytes to lower case first
+     * @return whether the region equals the text
+     */
+    private boolean regionEquals(int start, int end, String text, boolean ignoreCase) {
+        if (end - start != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            int b = buffer[start + i];
+            if (ignoreCase && b >= 'A' && b <= 'Z') {
+                b += 'a' - 'A';
+            }
+            if (b != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,43 +1,78 @@
 package src;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Map;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.nio.charset.StandardCharsets;
 
 /**
  * The src.ResponseBuilder class is responsible for building HTTP responses.
- * It uses predefined status codes and content types to construct the response.
+ * The status line and headers are encoded into a reusable src.ResponseHead from pre-encoded fragments,
+ * and each response is handed to the output as one head followed by its body, which the output
+ * sends with a single buffered or gathering write.
  */
 public class ResponseBuilder {
-    private static final String CRLF = "\r\n";
-    private static final String HTTP_VERSION = "HTTP/1.1";
-    private static final int CHUNK_SIZE = 1024;
-
-    // Map of status codes to their corresponding messages
-    private static final Map<Integer, String> STATUS_CODES = Map.of(
-            200, "OK",
-            404, "Not Found",
-            501, "Not Implemented",
-            400, "Bad Request",
-            500, "Internal src.Server Error",
-            505, "HTTP Version Not Supported"
-    );
-
-    // Map of content types to their corresponding values
-    private static final Map<String, String> CONTENT_TYPES = Map.of(
-            "html", "text/html",
-            "image", "image",
-            "icon", "icon",
-            "default", "application/octet-stream",
-            "message/http", "message/http"
-    );
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    private final ResponseHead head = new ResponseHead();
+    private String[] extraHeaders = new String[16]; // names and values, alternating
+    private int extraHeaderCount = 0;
+    private boolean keepAlive = false;
+    private int keepAliveTimeout;
+    private int keepAliveRemaining;
+    private long bodyBytes;
+    private ChunkedOutput chunkedOutput; // created for the first chunked response
+    private boolean chunkedResponse = false; // whether the last response is chunked
+
+    /**
+     * Adds a header to the next response only, e.g. Content-Encoding for a compressed body.
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public void addHeader(String name, String value) {
+        if (extraHeaderCount * 2 == extraHeaders.length) {
+            extraHeaders = Arrays.copyOf(extraHeaders, extraHeaders.length * 2);
+        }
+        extraHeaders[extraHeaderCount * 2] = name;
+        extraHeaders[extraHeaderCount * 2 + 1] = value;
+        extraHeaderCount++;
+    }
+
+    /**
+     * Forgets the headers added for the next response, e.g. when it is replaced by an error response.
+     */
+    public void clearHeaders() {
+        Arrays.fill(extraHeaders, 0, extraHeaderCount * 2, null);
+        extraHeaderCount = 0;
+    }
+
+    /**
+     * Sets whether the connection stays open after the next responses.
+     * When it does, the responses announce "Connection: keep-alive" together with a Keep-Alive header
+     * carrying the idle timeout and the number of requests still allowed on the connection;
+     * otherwise they announce "Connection: close".
+     *
+     * @param keepAlive whether the connection is kept open
+     * @param timeoutSeconds the idle timeout of the connection in seconds
+     * @param remainingRequests the number of requests still allowed on the connection
+     */
+    public void setKeepAlive(boolean keepAlive, int timeoutSeconds, int remainingRequests) {
+        this.keepAlive = keepAlive;
+        this.keepAliveTimeout = timeoutSeconds;
+        this.keepAliveRemaining = remainingRequests;
+    }
 
     /**
      * Handles the HTTP response.
      * Constructs the response headers and writes them to the output stream.
      * If the request type is not HEAD, it also writes the content bytes to the output stream.
      * If the request type is TRACE, it appends the request to the output stream.
+     * The output stream is not flushed, so that responses to pipelined requests can be sent together;
+     * the caller flushes it.
      *
      * @param statusCode the status code of the response
      * @param contentType the content type of the response
@@ -53,107 +88,343 @@ public class ResponseBuilder {
         requestType = requestType == null ? "" : requestType;
         request = request == null ? "" : request;
 
-        Boolean isHead = requestType.equals("HEAD");
-        Boolean isTrace = requestType.equals("TRACE");
-
-        // Build the header
-        StringBuilder responseHeaders = new StringBuilder();
-        responseHeaders
-                .append(HTTP_VERSION)
-                .append(" ")
-                .append(statusCode)
-                .append(" ")
-                .append(STATUS_CODES.get(statusCode))
-                .append(CRLF);
-        responseHeaders
-                .append("Content-Type: ")
-                .append(CONTENT_TYPES.getOrDefault(contentType, CONTENT_TYPES.get("default")))
-                .append(CRLF);
-        responseHeaders
-                .append("Content-Length: ")
-                .append(contentBytes.length)
-                .append(CRLF);
-        responseHeaders
-                .append("Connection: close")
-                .append(CRLF);
-        responseHeaders
-                .append(CRLF);
-
-        outputStream.write(responseHeaders.toString().getBytes(StandardCharsets.UTF_8));
-
-        System.out.println(responseHeaders.toString());
-
-        // Write body if not a HEAD request
-        if (!isHead) {
+        boolean isHead = requestType.equals("HEAD");
+        boolean isTrace = requestType.equals("TRACE");
+
+        // Special handling for TRACE: the request is echoed after the content and counted in Content-Length
+        if (isTrace) {
+            byte[] echo = ("\n" + request).getBytes(StandardCharsets.UTF_8);
+            byte[] traceBytes = new byte[contentBytes.length + echo.length];
+            System.arraycopy(contentBytes, 0, traceBytes, 0, contentBytes.length);
+            System.arraycopy(echo, 0, traceBytes, contentBytes.length, echo.length);
+            contentBytes = traceBytes;
+        }
+
+        // Build the header; error responses without a body start from a pre-encoded head
+        if (contentBytes.length > 0 || !head.startEmptyError(statusCode)) {
+            head.start(statusCode);
+            head.contentType(contentType);
+            head.contentLength(contentBytes.length);
+        }
+        endHead();
+        bodyBytes = isHead ? 0 : contentBytes.length;
+
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(head.toString());
+        }
+
+        // Write the header, and the body if not a HEAD request, as one write
+        if (!isHead && contentBytes.length > 0 && outputStream instanceof ResponseOutput) {
+            ((ResponseOutput) outputStream).write(head.array(), head.length(), contentBytes);
+            return;
+        }
+        outputStream.write(head.array(), 0, head.length());
+        if (!isHead && contentBytes.length > 0) {
             outputStream.write(contentBytes);
         }
+    }
 
-        // Special handling for TRACE
-        if (isTrace) {
-            outputStream.write(("\n" + request).getBytes(StandardCharsets.UTF_8));
+    /**
+     * Handles the HTTP response for a file.
+     * Constructs the response headers, with the Content-Length taken from the file size,
+     * and writes them to the output. If the request type is not HEAD, the file is then sent
+     * with src.ResponseOutput#sendFile, so its bytes never have to be loaded into the heap.
+     *
+     * @param statusCode the status code of the response
+     * @param contentType the content type of the response
+     * @param file the file to send
+     * @param fileSize the size of the file in bytes
+     * @param requestType the type of the HTTP request
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleFileResponse(int statusCode, String contentType, Path file, long fileSize,
+                                   String requestType, ResponseOutput output) throws IOException {
+        boolean isHead = "HEAD".equals(requestType);
+
+        writeFileHeaders(statusCode, contentType, fileSize, output);
+
+        // Send the file if not a HEAD request
+        if (!isHead && fileSize > 0) {
+            bodyBytes = fileSize;
+            output.sendFile(file, 0, fileSize);
         }
+    }
 
-        outputStream.flush();
+    /**
+     * Handles the HTTP response for a file held by the src.ContentCache.
+     * Constructs the response headers and writes them to the output.
+     * If the request type is not HEAD, the cached content is then written without touching the disk.
+     *
+     * @param statusCode the status code of the response
+     * @param contentType the content type of the response
+     * @param cachedFile the cached file to send
+     * @param requestType the type of the HTTP request
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleCachedFileResponse(int statusCode, String contentType, ContentCache.CachedFile cachedFile,
+                                         String requestType, ResponseOutput output) throws IOException {
+        boolean isHead = "HEAD".equals(requestType);
+
+        writeFileHeaders(statusCode, contentType, cachedFile.getSize(), output);
+
+        // Write the content if not a HEAD request
+        if (!isHead) {
+            bodyBytes = cachedFile.getSize();
+            cachedFile.writeTo(output);
+        }
     }
 
     /**
-     * Handles the HTTP response with chunked transfer encoding.
-     * Constructs the response headers and writes them to the output stream.
-     * Then writes the content bytes to the output stream in chunks.
+     * Constructs the headers of a file response and writes them to the output.
      *
      * @param statusCode the status code of the response
      * @param contentType the content type of the response
-     * @param contentBytes the content of the response in bytes
-     * @param outputStream the output stream to write the response to
+     * @param contentLength the size of the file in bytes
+     * @param output the output to write the headers to
      * @throws IOException if an I/O error occurs
      */
-    public void handleChunkedResponse(int statusCode, String contentType, byte[] contentBytes,
-                                      OutputStream outputStream) throws IOException {
-        StringBuilder responseHeaders = new StringBuilder();
-        responseHeaders
-                .append(HTTP_VERSION)
-                .append(" ")
-                .append(statusCode)
-                .append(" ")
-                .append(STATUS_CODES.get(statusCode))
-                .append(CRLF);
-        responseHeaders
-                .append("Content-Type: ")
-                .append(CONTENT_TYPES.getOrDefault(contentType, CONTENT_TYPES.get("default")))
-                .append(CRLF);
-        responseHeaders
-                .append("Transfer-Encoding: chunked")
-                .append(CRLF);
-        responseHeaders
-                .append("Connection: close")
-                .append(CRLF);
-        responseHeaders
-                .append(CRLF);
-
-        outputStream.write(responseHeaders.toString().getBytes(StandardCharsets.UTF_8));
-
-        System.out.println(responseHeaders.toString());
-
-        int index = 0;
-        while (index < contentBytes.length) {
-            int chunkSize = Math.min(CHUNK_SIZE, contentBytes.length - index);
-            byte[] chunk = new byte[chunkSize];
-            System.arraycopy(contentBytes, index, chunk, 0, chunkSize);
-
-            outputStream.write(Integer.toHexString(chunkSize).getBytes(StandardCharsets.UTF_8));
-            outputStream.write(CRLF.getBytes(StandardCharsets.UTF_8));
-
-            outputStream.write(chunk);
-            outputStream.write(CRLF.getBytes(StandardCharsets.UTF_8));
-
-            index += chunkSize;
-        }
-
-        // End of chunks
-        outputStream.write("0".getBytes(StandardCharsets.UTF_8));
-        outputStream.write(CRLF.getBytes(StandardCharsets.UTF_8));
-        outputStream.write(CRLF.getBytes(StandardCharsets.UTF_8));
-
-        outputStream.flush();
-    }
-}
\ No newline at end of file
+    private void writeFileHeaders(int statusCode, String contentType, long contentLength,
+                                  ResponseOutput output) throws IOException {
+        head.start(statusCode);
+        head.contentType(contentType);
+        head.contentLength(contentLength);
+        writeHead(output);
+    }
+
+    /**
+     * Handles a 206 Partial Content response to a Range request.
+     * A single range is sent as is, with a Content-Range header. Several ranges are sent as
+     * a multipart/byteranges body, with the Content-Type and Content-Range of each range in its part.
+     * The ranges are written from the cached content, or sent from the file at their offset,
+     * so a small range of a large file only costs the I/O of the range.
+     *
+     * @param contentType the content type of the file
+     * @param ranges the satisfiable ranges, at least one
+     * @param size the size of the file in bytes
+     * @param cachedFile the cached file, or null to send the ranges from the file
+     * @param file the path of the file
+     * @param requestType the type of the HTTP request
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleRangeResponse(String contentType, List<ByteRange> ranges, long size,
+                                    ContentCache.CachedFile cachedFile, Path file,
+                                    String requestType, ResponseOutput output) throws IOException {
+        boolean isHead = "HEAD".equals(requestType);
+
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            addHeader("Content-Range", range.toContentRange(size));
+            head.start(206);
+            head.contentType(contentType);
+            head.contentLength(range.getLength());
+            writeHead(output);
+            if (!isHead) {
+                bodyBytes = range.getLength();
+                writeRange(range, cachedFile, file, output);
+            }
+            return;
+        }
+
+        String mimeType = ResponseHead.mimeType(contentType);
+        String boundary = Long.toHexString(System.nanoTime()) + Long.toHexString(size);
+        byte[][] partHeaders = new byte[ranges.size()][];
+        long contentLength = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            partHeaders[i] = ("--" + boundary + "\r\n"
+                    + "Content-Type: " + mimeType + "\r\n"
+                    + "Content-Range: " + ranges.get(i).toContentRange(size) + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.UTF_8);
+            contentLength += partHeaders[i].length + ranges.get(i).getLength() + CRLF.length;
+        }
+        byte[] closingBoundary = ("--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        contentLength += closingBoundary.length;
+
+        head.start(206);
+        head.contentTypeValue("multipart/byteranges; boundary=" + boundary);
+        head.contentLength(contentLength);
+        writeHead(output);
+        if (isHead) {
+            return;
+        }
+        bodyBytes = contentLength;
+        for (int i = 0; i < ranges.size(); i++) {
+            output.write(partHeaders[i]);
+            writeRange(ranges.get(i), cachedFile, file, output);
+            output.write(CRLF);
+        }
+        output.write(closingBoundary);
+    }
+
+    /**
+     * Writes one range of a file, from the cache if it is cached and from the file otherwise.
+     */
+    private void writeRange(ByteRange range, ContentCache.CachedFile cachedFile, Path file,
+                            ResponseOutput output) throws IOException {
+        if (cachedFile != null) {
+            cachedFile.writeTo(output, range.getStart(), range.getLength());
+        } else {
+            output.sendFile(file, range.getStart(), range.getLength());
+        }
+    }
+
+    /**
+     * Handles a 304 Not Modified response to a conditional request.
+     * Only the headers are written: the validators added with {@link #addHeader(String, String)}
+     * and the connection headers. There is no body and no Content-Length.
+     *
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleNotModifiedResponse(ResponseOutput output) throws IOException {
+        head.start(304);
+        writeHead(output);
+    }
+
+    /**
+     * Starts a response whose body is streamed with chunked transfer encoding.
+     * Constructs the response headers and writes them to the output, and returns the src.ChunkedOutput the
+     * caller writes the body to, as it produces or reads it, and closes to end the body.
+     * Chunked responses may only be sent to HTTP/1.1 clients.
+     *
+     * @param statusCode the status code of the response
+     * @param contentType the content type of the response
+     * @param output the output to write the response to
+     * @return the output of the body
+     * @throws IOException if an I/O error occurs
+     */
+    public ChunkedOutput startChunkedResponse(int statusCode, String contentType,
+                                              ResponseOutput output) throws IOException {
+        head.start(statusCode);
+        head.contentType(contentType);
+        head.chunked();
+        writeHead(output);
+        if (chunkedOutput == null) {
+            chunkedOutput = new ChunkedOutput();
+        }
+        chunkedResponse = true;
+        return chunkedOutput.start(output);
+    }
+
+    /**
+     * Handles the HTTP response for a file with chunked transfer encoding.
+     * The cached content is written in chunks straight from the cache, and a file too large to cache
+     * is sent in chunks from the file, so neither is copied into a body array first.
+     * For a HEAD request only the headers are written.
+     *
+     * @param statusCode the status code of the response
+     * @param contentType the content type of the response
+     * @param cachedFile the cached file, or null to send the file from disk
+     * @param file the path of the file
+     * @param fileSize the size of the file in bytes
+     * @param requestType the type of the HTTP request
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleChunkedFileResponse(int statusCode, String contentType, ContentCache.CachedFile cachedFile,
+                                          Path file, long fileSize, String requestType,
+                                          ResponseOutput output) throws IOException {
+        ChunkedOutput body = startChunkedResponse(statusCode, contentType, output);
+        if ("HEAD".equals(requestType)) {
+            return;
+        }
+        if (cachedFile != null) {
+            cachedFile.writeTo(body);
+        } else {
+            body.sendFile(file, 0, fileSize);
+        }
+        body.close();
+    }
+
+    /**
+     * Handles the HTTP response for content generated by the caller.
+     * When the response may be chunked, the content is streamed with chunked transfer encoding as it is
+     * generated; otherwise, for HTTP/1.0 clients, it is generated into an array first and sent with
+     * a Content-Length.
+     *
+     * @param statusCode the status code of the response
+     * @param contentType the content type of the response
+     * @param content writes the content to the stream it is given
+     * @param chunked whether the response may be chunked
+     * @param requestType the type of the HTTP request
+     * @param output the output to write the response to
+     * @throws IOException if an I/O error occurs
+     */
+    public void handleGeneratedResponse(int statusCode, String contentType, ContentEncoder.ContentWriter content,
+                                        boolean chunked, String requestType,
+                                        ResponseOutput output) throws IOException {
+        if (!chunked) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            content.writeTo(bytes);
+            handleResponse(statusCode, contentType, bytes.toByteArray(), requestType, output, null);
+            return;
+        }
+        ChunkedOutput body = startChunkedResponse(statusCode, contentType, output);
+        if (!"HEAD".equals(requestType)) {
+            content.writeTo(body);
+            body.close();
+        }
+    }
+
+    /**
+     * Returns the status code of the last response written, for the access log.
+     *
+     * @return the status code
+     */
+    public int getStatusCode() {
+        return head.statusCode();
+    }
+
+    /**
+     * Returns the length of the head of the last response written.
+     *
+     * @return the head length in bytes
+     */
+    public int getHeadBytes() {
+        return head.length();
+    }
+
+    /**
+     * Returns the number of body bytes of the last response written, 0 for a HEAD request
+     * or a response without a body; the chunked framing is not counted.
+     *
+     * @return the body length in bytes
+     */
+    public long getBodyBytes() {
+        return chunkedResponse ? chunkedOutput.getBodyBytes() : bodyBytes;
+    }
+
+    /**
+     * Ends the head being built with the Date, connection and extra headers, and writes it to the output.
+     *
+     * @param output the output to write the head to
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeHead(OutputStream output) throws IOException {
+        endHead();
+        output.write(head.array(), 0, head.length());
+
+        if (Log.isEnabled(Log.Level.DEBUG)) {
+            Log.debug(head.toString());
+        }
+    }
+
+    /**
+     * Appends the Date header, the connection headers and the headers added with
+     * {@link #addHeader(String, String)}, which are then forgotten so they only apply to this response,
+     * and ends the head.
+     */
+    private void endHead() {
+        bodyBytes = 0;
+        chunkedResponse = false;
+        head.date();
+        head.connection(keepAlive, keepAliveTimeout, keepAliveRemaining);
+        for (int i = 0; i < extraHeaderCount; i++) {
+            head.header(extraHeaders[i * 2], extraHeaders[i * 2 + 1]);
+        }
+        clearHeaders();
+        head.end();
+    }
+}
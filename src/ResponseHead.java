@@ -0,0 +1,328 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The src.ResponseHead class encodes the status line and header fields of a response straight into
+ * a reusable byte array. Status lines, Content-Type lines, connection headers and the headers of
+ * empty error responses are encoded once, when the class is loaded, and the Date header once per second,
+ * so a typical response head is assembled by copying a few pre-encoded fragments and writing
+ * the Content-Length digits, without building or encoding any String.
+ */
+public class ResponseHead {
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final String HTTP_VERSION = "HTTP/1.1";
+
+    // Map of status codes to their corresponding messages
+    private static final Map<Integer, String> STATUS_CODES = Map.ofEntries(
+            Map.entry(200, "OK"),
+            Map.entry(206, "Partial Content"),
+            Map.entry(304, "Not Modified"),
+            Map.entry(403, "Forbidden"),
+            Map.entry(404, "Not Found"),
+            Map.entry(501, "Not Implemented"),
+            Map.entry(400, "Bad Request"),
+            Map.entry(408, "Request Timeout"),
+            Map.entry(413, "Content Too Large"),
+            Map.entry(414, "URI Too Long"),
+            Map.entry(431, "Request Header Fields Too Large"),
+            Map.entry(416, "Range Not Satisfiable"),
+            Map.entry(500, "Internal src.Server Error"),
+            Map.entry(503, "Service Unavailable"),
+            Map.entry(505, "HTTP Version Not Supported")
+    );
+
+    // Map of content types to their corresponding values
+    private static final Map<String, String> CONTENT_TYPES = Map.of(
+            "html", "text/html",
+            "image", "image",
+            "icon", "icon",
+            "default", "application/octet-stream",
+            "message/http", "message/http",
+            "metrics", "text/plain; version=0.0.4; charset=utf-8",
+            "text", "text/plain; charset=utf-8"
+    );
+
+    private static final byte[][] STATUS_LINES = new byte[600][];
+    // status line, Content-Type and "Content-Length: 0" of the error responses, which have no body
+    private static final byte[][] EMPTY_ERROR_RESPONSES = new byte[600][];
+    private static final Map<String, byte[]> CONTENT_TYPE_LINES;
+    private static final byte[] DEFAULT_CONTENT_TYPE_LINE;
+    private static final byte[] CONTENT_TYPE = encode("Content-Type: ");
+    private static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+    private static final byte[] CONNECTION_CLOSE = encode("Connection: close\r\n");
+    private static final byte[] CONNECTION_KEEP_ALIVE = encode("Connection: keep-alive\r\nKeep-Alive: timeout=");
+    private static final byte[] KEEP_ALIVE_MAX = encode(", max=");
+    private static final byte[] TRANSFER_ENCODING_CHUNKED = encode("Transfer-Encoding: chunked\r\n");
+    private static final byte[] HEADER_SEPARATOR = encode(": ");
+
+    static {
+        for (Map.Entry<Integer, String> status : STATUS_CODES.entrySet()) {
+            STATUS_LINES[status.getKey()] = encode(HTTP_VERSION + " " + status.getKey() + " " + status.getValue() + "\r\n");
+        }
+        Map<String, byte[]> contentTypeLines = new HashMap<>();
+        for (Map.Entry<String, String> contentType : CONTENT_TYPES.entrySet()) {
+            contentTypeLines.put(contentType.getKey(), encode("Content-Type: " + contentType.getValue() + "\r\n"));
+        }
+        CONTENT_TYPE_LINES = Map.copyOf(contentTypeLines);
+        DEFAULT_CONTENT_TYPE_LINE = CONTENT_TYPE_LINES.get("default");
+        for (int statusCode : new int[]{400, 404, 408, 413, 414, 416, 431, 500, 501, 503, 505}) {
+            EMPTY_ERROR_RESPONSES[statusCode] = concat(STATUS_LINES[statusCode], DEFAULT_CONTENT_TYPE_LINE,
+                    encode("Content-Length: 0\r\n"));
+        }
+    }
+
+    private static volatile DateLine dateLine = new DateLine(-1, new byte[0]);
+
+    private byte[] bytes = new byte[512];
+    private int length = 0;
+    private int statusCode;
+
+    /**
+     * Returns the value of the Content-Type header for a content type as used by src.HTTPRequest.
+     *
+     * @param contentType the content type, e.g. "html"
+     * @return the MIME type, application/octet-stream for unknown content types
+     */
+    public static String mimeType(String contentType) {
+        return CONTENT_TYPES.getOrDefault(contentType, CONTENT_TYPES.get("default"));
+    }
+
+    /**
+     * Starts a new response head with the status line.
+     *
+     * @param statusCode the status code of the response
+     */
+    public void start(int statusCode) {
+        this.statusCode = statusCode;
+        length = 0;
+        append(STATUS_LINES[statusCode]);
+    }
+
+    /**
+     * Starts a new response head for an error response without a body; the status line,
+     * Content-Type and Content-Length are copied from one pre-encoded array.
+     *
+     * @param statusCode the status code of the response
+     * @return whether the status has a pre-encoded empty response; if not, nothing was written
+     */
+    public boolean startEmptyError(int statusCode) {
+        byte[] response = EMPTY_ERROR_RESPONSES[statusCode];
+        if (response == null) {
+            return false;
+        }
+        this.statusCode = statusCode;
+        length = 0;
+        append(response);
+        return true;
+    }
+
+    /**
+     * Encodes a complete 503 Service Unavailable response that asks the client to retry later and closes the
+     * connection, for the connections src.AdmissionController sheds without reading their requests.
+     *
+     * @param retryAfterSeconds the value of the Retry-After header
+     * @return the response
+     */
+    public static byte[] encodeServiceUnavailable(int retryAfterSeconds) {
+        return concat(EMPTY_ERROR_RESPONSES[503], encode("Retry-After: " + retryAfterSeconds + "\r\n"),
+                CONNECTION_CLOSE, CRLF);
+    }
+
+    /**
+     * Appends the Content-Type header of a content type as used by src.HTTPRequest, e.g. "html".
+     *
+     * @param contentType the content type
+     */
+    public void contentType(String contentType) {
+        append(CONTENT_TYPE_LINES.getOrDefault(contentType, DEFAULT_CONTENT_TYPE_LINE));
+    }
+
+    /**
+     * Appends a Content-Type header with the given MIME type.
+     *
+     * @param mimeType the value of the header
+     */
+    public void contentTypeValue(String mimeType) {
+        append(CONTENT_TYPE);
+        append(mimeType);
+        append(CRLF);
+    }
+
+    /**
+     * Appends the Content-Length header.
+     *
+     * @param contentLength the length of the body in bytes
+     */
+    public void contentLength(long contentLength) {
+        append(CONTENT_LENGTH);
+        appendDecimal(contentLength);
+        append(CRLF);
+    }
+
+    /**
+     * Appends the "Transfer-Encoding: chunked" header.
+     */
+    public void chunked() {
+        append(TRANSFER_ENCODING_CHUNKED);
+    }
+
+    /**
+     * Appends the Connection header, and the Keep-Alive header for persistent connections.
+     *
+     * @param keepAlive whether the connection is kept open
+     * @param timeoutSeconds the idle timeout of the connection in seconds
+     * @param remainingRequests the number of requests still allowed on the connection
+     */
+    public void connection(boolean keepAlive, int timeoutSeconds, int remainingRequests) {
+        if (!keepAlive) {
+            append(CONNECTION_CLOSE);
+            return;
+        }
+        append(CONNECTION_KEEP_ALIVE);
+        appendDecimal(timeoutSeconds);
+        append(KEEP_ALIVE_MAX);
+        appendDecimal(remainingRequests);
+        append(CRLF);
+    }
+
+    /**
+     * Appends the Date header, which is encoded once per second and shared by all responses.
+     */
+    public void date() {
+        long second = System.currentTimeMillis() / 1000;
+        DateLine current = dateLine;
+        if (current.second != second) {
+            current = new DateLine(second, encode("Date: " + HttpDate.format(second * 1000) + "\r\n"));
+            dateLine = current;
+        }
+        append(current.bytes);
+    }
+
+    /**
+     * Appends a header field; the name and value must be ASCII (or ISO-8859-1).
+     *
+     * @param name the header name
+     * @param value the header value
+     */
+    public void header(String name, String value) {
+        append(name);
+        append(HEADER_SEPARATOR);
+        append(value);
+        append(CRLF);
+    }
+
+    /**
+     * Ends the head with the blank line.
+     */
+    public void end() {
+        append(CRLF);
+    }
+
+    /**
+     * Returns the status code of the head being built or last built.
+     *
+     * @return the status code
+     */
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Returns the array holding the encoded head, valid until the next response is started.
+     *
+     * @return the array, of which the first {@link #length()} bytes are used
+     */
+    public byte[] array() {
+        return bytes;
+    }
+
+    /**
+     * Returns the length of the encoded head.
+     *
+     * @return the length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the encoded head as text, for printing.
+     *
+     * @return the head
+     */
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private void append(byte[] fragment) {
+        ensureCapacity(fragment.length);
+        System.arraycopy(fragment, 0, bytes, length, fragment.length);
+        length += fragment.length;
+    }
+
+    private void append(String text) {
+        ensureCapacity(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            bytes[length++] = (byte) text.charAt(i);
+        }
+    }
+
+    private void appendDecimal(long value) {
+        ensureCapacity(20);
+        if (value == 0) {
+            bytes[length++] = '0';
+            return;
+        }
+        int digits = 0;
+        for (long rest = value; rest > 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = length + digits - 1; i >= length; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        length += digits;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(length + extra, bytes.length * 2));
+        }
+    }
+
+    private static byte[] encode(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static byte[] concat(byte[]... fragments) {
+        int total = 0;
+        for (byte[] fragment : fragments) {
+            total += fragment.length;
+        }
+        byte[] result = new byte[total];
+        int position = 0;
+        for (byte[] fragment : fragments) {
+            System.arraycopy(fragment, 0, result, position, fragment.length);
+            position += fragment.length;
+        }
+        return result;
+    }
+
+    /**
+     * The Date header of one second, encoded.
+     */
+    private static final class DateLine {
+        private final long second;
+        private final byte[] bytes;
+
+        DateLine(long second, byte[] bytes) {
+            this.second = second;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package src;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/**
+ * The src.ResponseOutput class is the destination of an HTTP response.
+ * Besides the usual OutputStream writes used for headers and generated content,
+ * it can send a region of a file, which implementations transfer to the socket
+ * without copying the file through the Java heap.
+ */
+public abstract class ResponseOutput extends OutputStream {
+
+    /**
+     * Sends a region of a file after everything written so far.
+     * The implementation opens and closes the file itself.
+     *
+     * @param file the file to send
+     * @param position the offset of the first byte to send
+     * @param count the number of bytes to send
+     * @throws IOException if an I/O error occurs
+     */
+    public abstract void sendFile(Path file, long position, long count) throws IOException;
+
+    /**
+     * Writes the remaining bytes of a buffer after everything written so far.
+     * This implementation copies the bytes through a small array; subclasses write
+     * direct buffers to the socket without the copy.
+     *
+     * @param buffer the buffer to write
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(ByteBuffer buffer) throws IOException {
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+        while (buffer.hasRemaining()) {
+            int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            write(chunk, 0, length);
+        }
+    }
+
+    /**
+     * Writes a response head followed by its body. This implementation writes them one after the other;
+     * subclasses hand both to the socket in one gathering write when the body is too large to be buffered.
+     *
+     * @param head the array holding the encoded head
+     * @param headLength the length of the head
+     * @param body the body
+     * @throws IOException if an I/O error occurs
+     */
+    public void write(byte[] head, int headLength, byte[] body) throws IOException {
+        write(head, 0, headLength);
+        write(body);
+    }
+
+    /**
+     * Drops the response a failed handler left unfinished, before an error response is written in its place.
+     * This implementation keeps what was written, since on a connection of its own the error response simply
+     * follows it and the connection is closed afterwards; a stream of a multiplexed connection must not mix
+     * the two on the wire.
+     *
+     * @return whether the error response may be written
+     * @throws IOException if an I/O error occurs
+     */
+    public boolean discardResponse() throws IOException {
+        return true;
+    }
+}
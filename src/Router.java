@@ -0,0 +1,180 @@
+package src;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The src.Router class dispatches requests to src.Handler objects by their path and method.
+ * A route matches one path exactly; a prefix route matches every path that starts with its prefix, such as "/"
+ * for the static files, and the longest matching prefix wins. An exact route wins over any prefix route, and a
+ * route only matches the methods it was added for, so a GET to a path with only a POST route falls through to
+ * the prefix routes.
+ * The routes are compiled by {@link Builder#build()} into a trie of the path characters whose nodes index their
+ * children by character and their handlers by the ordinal of the method, so finding the handler costs one array
+ * step per character of the path, whatever the number of routes, with no String comparison or allocation.
+ */
+public class Router {
+    private final Node root;
+    private final boolean[] routedMethods; // by ordinal, whether any route accepts the method
+
+    private Router(Node root, boolean[] routedMethods) {
+        this.root = root;
+        this.routedMethods = routedMethods;
+    }
+
+    /**
+     * Finds the handler of a request.
+     *
+     * @param method the method of the request
+     * @param path the requested path
+     * @return the handler, or null if no route matches
+     */
+    public Handler find(RequestType method, String path) {
+        int ordinal = method.ordinal();
+        Node node = root;
+        Handler match = node.prefixHandler(ordinal);
+        for (int i = 0; i < path.length(); i++) {
+            node = node.child(path.charAt(i));
+            if (node == null) {
+                return match;
+            }
+            Handler prefixHandler = node.prefixHandler(ordinal);
+            if (prefixHandler != null) {
+                match = prefixHandler;
+            }
+        }
+        Handler exactHandler = node.exactHandler(ordinal);
+        return exactHandler != null ? exactHandler : match;
+    }
+
+    /**
+     * Returns whether any route accepts a method, which tells a path that is not found (404)
+     * from a method that is not implemented (501).
+     *
+     * @param method the method
+     * @return whether the method is routed
+     */
+    public boolean isRouted(RequestType method) {
+        return routedMethods[method.ordinal()];
+    }
+
+    /**
+     * A compiled trie node. The children are indexed by their character minus that of the first child.
+     */
+    private static final class Node {
+        private final char first;
+        private final Node[] children;
+        private final Handler[] exactHandlers; // by method ordinal, for the routes that end here
+        private final Handler[] prefixHandlers; // by method ordinal, for the prefix routes that end here
+
+        Node(char first, Node[] children, Handler[] exactHandlers, Handler[] prefixHandlers) {
+            this.first = first;
+            this.children = children;
+            this.exactHandlers = exactHandlers;
+            this.prefixHandlers = prefixHandlers;
+        }
+
+        Node child(char c) {
+            int index = c - first;
+            return children != null && index >= 0 && index < children.length ? children[index] : null;
+        }
+
+        Handler exactHandler(int ordinal) {
+            return exactHandlers == null ? null : exactHandlers[ordinal];
+        }
+
+        Handler prefixHandler(int ordinal) {
+            return prefixHandlers == null ? null : prefixHandlers[ordinal];
+        }
+    }
+
+    /**
+     * Collects the routes of a src.Router and compiles them.
+     */
+    public static class Builder {
+        private final BuilderNode root = new BuilderNode();
+        private final boolean[] routedMethods = new boolean[RequestType.values().length];
+
+        /**
+         * Adds a route that matches one path exactly.
+         *
+         * @param path the path, e.g. "/__metrics"
+         * @param handler the handler
+         * @param methods the methods the route accepts
+         * @return this builder
+         * @throws IllegalArgumentException if the path already has a route for one of the methods
+         */
+        public Builder route(String path, Handler handler, RequestType... methods) {
+            BuilderNode node = root.descend(path);
+            node.exactHandlers = add(node.exactHandlers, path, handler, methods);
+            return this;
+        }
+
+        /**
+         * Adds a route that matches every path that starts with a prefix.
+         *
+         * @param prefix the prefix, e.g. "/" for every path
+         * @param handler the handler
+         * @param methods the methods the route accepts
+         * @return this builder
+         * @throws IllegalArgumentException if the prefix already has a route for one of the methods
+         */
+        public Builder prefix(String prefix, Handler handler, RequestType... methods) {
+            BuilderNode node = root.descend(prefix);
+            node.prefixHandlers = add(node.prefixHandlers, prefix, handler, methods);
+            return this;
+        }
+
+        /**
+         * Compiles the routes added so far.
+         *
+         * @return the router
+         */
+        public Router build() {
+            return new Router(root.compile(), routedMethods.clone());
+        }
+
+        private Handler[] add(Handler[] handlers, String path, Handler handler, RequestType[] methods) {
+            if (handlers == null) {
+                handlers = new Handler[routedMethods.length];
+            }
+            for (RequestType method : methods) {
+                if (handlers[method.ordinal()] != null) {
+                    throw new IllegalArgumentException("duplicate route " + method + " " + path);
+                }
+                handlers[method.ordinal()] = handler;
+                routedMethods[method.ordinal()] = true;
+            }
+            return handlers;
+        }
+    }
+
+    /**
+     * A trie node while routes are being added.
+     */
+    private static final class BuilderNode {
+        private final TreeMap<Character, BuilderNode> children = new TreeMap<>();
+        private Handler[] exactHandlers;
+        private Handler[] prefixHandlers;
+
+        BuilderNode descend(String path) {
+            BuilderNode node = this;
+            for (int i = 0; i < path.length(); i++) {
+                node = node.children.computeIfAbsent(path.charAt(i), c -> new BuilderNode());
+            }
+            return node;
+        }
+
+        Node compile() {
+            if (children.isEmpty()) {
+                return new Node((char) 0, null, exactHandlers, prefixHandlers);
+            }
+            char first = children.firstKey();
+            Node[] compiled = new Node[children.lastKey() - first + 1];
+            for (Map.Entry<Character, BuilderNode> entry : children.entrySet()) {
+                compiled[entry.getKey() - first] = entry.getValue().compile();
+            }
+            return new Node(first, compiled, exactHandlers, prefixHandlers);
+        }
+    }
+}
@@ -1,77 +1,408 @@
 package src;
 
 import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * The src.Server class represents a server that listens for incoming client connections
  * and handles them efficiently using a thread pool and a Semaphore to limit the number of concurrent connections.
+ * When config.ini sets serverMode=nio, connections are handled by the selector-based src.NioServer instead.
+ * When it sets serverMode=virtual, every connection runs on its own virtual thread and the Semaphore
+ * caps the number of concurrent connections at maxConnections instead of maxThreads.
+ * With acceptorThreads above 1, connections are accepted by that many acceptors, each listening on its own
+ * socket bound with SO_REUSEPORT so that the kernel spreads new connections across them, and each owning its
+ * share of the threads and connection permits, so that accepting is not serialized behind one thread.
+ * With admissionControl=true the acceptors no longer wait for a free permit before accepting: src.AdmissionController
+ * answers connections over capacity, or that waited too long for a thread, with an immediate 503.
+ * When config.ini is reloaded by src.ConfigManager, the thread pools and connection permits of the acceptors
+ * are resized to the new maxThreads or maxConnections without dropping a connection.
+ * The streams of the connections that switch to HTTP/2 are served by a stream executor shared by the whole server,
+ * a fixed pool of maxThreads threads, or a virtual thread per stream in virtual mode.
  */
 public class Server {
-    private ConfigReader configReader;
-    private ServerSocket serverSocket;
-    private ExecutorService executorService;
-    private Semaphore semaphore;
+    private static final String NIO_MODE = "nio";
+    private static final String VIRTUAL_MODE = "virtual";
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_SLOTS = 1024;
 
+    private ConfigManager configs;
+    private ContentCache contentCache;
+    private ContentEncoder contentEncoder;
+    private AdmissionController admissionController;
+    private Router router;
+    private NioServer nioServer;
+    private Acceptor[] acceptors;
+    private boolean virtual; // whether the acceptors run connections on virtual threads
+    private TimerWheel timers; // the timeouts of all connections of the thread-per-connection modes
+    private ExecutorService streamExecutor; // the streams of HTTP/2 connections
+
+    /**
+     * Starts the server, or exits with status 1 when it cannot start: with config.ini missing or invalid,
+     * or with the port already in use, the error is logged and the process ends instead of running without
+     * a listening socket.
+     *
+     * @param args unused
+     */
     public static void main(String[] args) {
-        Server server = new Server();
+        Server server;
+        try {
+            server = new Server();
+        } catch (IOException e) {
+            exitOnStartupError("server can't listening to port", e);
+            return;
+        } catch (IllegalArgumentException e) {
+            exitOnStartupError("invalid configuration in config.ini", e);
+            return;
+        }
         server.start();
     }
 
+    private static void exitOnStartupError(String message, Exception e) {
+        Log.error(message, e);
+        Log.close(); // the writer thread is a daemon, so the error is flushed before exiting
+        System.exit(1);
+    }
+
     /**
      * Initializes a new instance of the src.Server class.
-     * Sets up the server socket, thread pool, and semaphore.
+     * Sets up the server sockets, thread pools, and semaphores of the acceptors.
+     *
+     * @throws IOException if config.ini cannot be read or a listening socket cannot be opened
+     * @throws IllegalArgumentException if a setting in config.ini is missing or not valid
      */
-    public Server() {
+    public Server() throws IOException {
+        configs = new ConfigManager("config.ini");
+        Config config = configs.get();
+        Log.configure(config);
+        BufferPool.shared().setLeakDetection(config.isBufferLeakDetection());
+        registerBufferPoolGauges();
+        contentCache = new ContentCache(config);
+        contentEncoder = new ContentEncoder(config);
+        admissionController = new AdmissionController(config);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Log.info(contentCache.getStatistics());
+            Log.info(BufferPool.shared().getStatistics());
+            if (admissionController.isEnabled()) {
+                Log.info(admissionController.getStatistics());
+            }
+            Log.close();
+        }));
+        router = RequestHandler.createRouter(configs, contentCache, contentEncoder);
+        int port = config.getPort();
+        int acceptorThreads = config.getAcceptorThreads();
+        String serverMode = config.getServerMode();
+        virtual = VIRTUAL_MODE.equals(serverMode);
+        streamExecutor = virtual
+                ? newVirtualThreadExecutor()
+                : Executors.newFixedThreadPool(config.getMaxThreads());
+        if (NIO_MODE.equals(serverMode)) {
+            nioServer = new NioServer(configs, router, admissionController, port, config.getEventLoopThreads(),
+                    acceptorThreads, streamExecutor);
+        } else {
+            createAcceptors(port, acceptorThreads, config);
+            registerPoolGauges();
+            configs.addListener((previous, current) -> resizeAcceptors(current));
+        }
+        if (streamExecutor instanceof ThreadPoolExecutor) {
+            configs.addListener((previous, current) ->
+                    resizePool((ThreadPoolExecutor) streamExecutor, current.getMaxThreads()));
+        }
+        configs.addListener((previous, current) -> {
+            contentCache.reconfigure(current);
+            contentEncoder.reconfigure(current);
+            admissionController.reconfigure(current);
+            Log.setSampleRates(current.getLogSampleRates());
+            BufferPool.shared().setLeakDetection(current.isBufferLeakDetection());
+        });
+        configs.watch();
+        Log.info("server is listening on port " + port + " (" + serverMode + " mode, "
+                + acceptorThreads + " acceptor" + (acceptorThreads == 1 ? "" : "s") + ")");
+    }
+
+    /**
+     * Opens the listening sockets of the acceptors through ServerSocketChannels, so that accepted sockets
+     * expose a SocketChannel that files can be transferred to without copying.
+     * Several sockets are bound to the same port with SO_REUSEPORT, so that the kernel balances new connections
+     * across them; where the option is not supported, the acceptors share one socket instead.
+     *
+     * @param port the port to listen on
+     * @param count the number of acceptors
+     * @return the listening channel of each acceptor
+     * @throws IOException if a socket cannot be opened or bound
+     */
+    static ServerSocketChannel[] openServerChannels(int port, int count) throws IOException {
+        ServerSocketChannel[] channels = new ServerSocketChannel[count];
+        channels[0] = ServerSocketChannel.open();
+        boolean reusePort = count > 1
+                && channels[0].supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (count > 1 && !reusePort) {
+            Log.warn("SO_REUSEPORT is not supported, the " + count + " acceptors share one listening socket");
+        }
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                channels[i] = reusePort ? ServerSocketChannel.open() : channels[0];
+            }
+            if (reusePort) {
+                channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+            }
+            if (i == 0 || reusePort) {
+                channels[i].bind(new InetSocketAddress(port));
+            }
+        }
+        return channels;
+    }
+
+    /**
+     * Creates the acceptors of the thread-per-connection modes, splitting the connection limits between them.
+     *
+     * @param port the port to listen on
+     * @param count the number of acceptors
+     * @param config the configuration that sets the connection limits
+     * @throws IOException if a socket cannot be opened or bound
+     */
+    private void createAcceptors(int port, int count, Config config) throws IOException {
+        ServerSocketChannel[] channels = openServerChannels(port, count);
+        timers = new TimerWheel(TIMER_TICK_MILLIS, TIMER_SLOTS).start("connection-timer");
+        acceptors = new Acceptor[count];
+        for (int i = 0; i < count; i++) {
+            int threads = threadShare(config, count, i);
+            ExecutorService executor = virtual ? newVirtualThreadExecutor() : Executors.newFixedThreadPool(threads);
+            acceptors[i] = new Acceptor(i, channels[i].socket(), executor);
+            acceptors[i].resize(threads, queueShare(config, count, i));
+        }
+    }
+
+    /**
+     * Resizes the thread pools and connection permits of the acceptors to a new configuration.
+     * Connections being served keep their threads; a smaller pool lets its extra threads end once they are idle,
+     * and permits taken away are only missed by the connections accepted from now on.
+     *
+     * @param config the new configuration
+     */
+    private void resizeAcceptors(Config config) {
+        for (int i = 0; i < acceptors.length; i++) {
+            acceptors[i].resize(threadShare(config, acceptors.length, i), queueShare(config, acceptors.length, i));
+        }
+    }
+
+    /**
+     * Returns the connections an acceptor may serve at once: its share of maxThreads,
+     * or of maxConnections for virtual threads.
+     */
+    private int threadShare(Config config, int count, int index) {
+        int maxConnections = virtual ? config.getMaxConnections() : config.getMaxThreads();
+        return Math.max(1, maxConnections / count + (index < maxConnections % count ? 1 : 0));
+    }
+
+    /**
+     * Returns the further connections that may wait for a thread of an acceptor's fixed pool.
+     */
+    private int queueShare(Config config, int count, int index) {
+        int queueSize = admissionController.isEnabled() && !virtual ? config.getAdmissionQueueSize() : 0;
+        return queueSize / count + (index < queueSize % count ? 1 : 0);
+    }
+
+    /**
+     * Registers the gauges of the thread-per-connection modes with src.Metrics, summed over the acceptors:
+     * the free permits of the connection semaphores and, for the fixed pools, the tasks waiting for a thread.
+     */
+    private void registerPoolGauges() {
+        Metrics.gauge("http_connection_permits_available", "Connections that can still be accepted.", () -> {
+            long permits = 0;
+            for (Acceptor acceptor : acceptors) {
+                permits += acceptor.semaphore.availablePermits();
+            }
+            return permits;
+        });
+        if (acceptors[0].executorService instanceof ThreadPoolExecutor) {
+            Metrics.gauge("http_executor_queue_depth", "Accepted connections waiting for a thread.", () -> {
+                long queued = 0;
+                for (Acceptor acceptor : acceptors) {
+                    queued += ((ThreadPoolExecutor) acceptor.executorService).getQueue().size();
+                }
+                return queued;
+            });
+            Metrics.gauge("http_executor_active_threads", "Threads serving a connection.", () -> {
+                long active = 0;
+                for (Acceptor acceptor : acceptors) {
+                    active += ((ThreadPoolExecutor) acceptor.executorService).getActiveCount();
+                }
+                return active;
+            });
+        }
+    }
+
+    /**
+     * Registers the occupancy of the shared src.BufferPool with src.Metrics: the bytes of the buffers lent out,
+     * of all the buffers the pool holds, and the number of leaks found by leak detection.
+     */
+    private static void registerBufferPoolGauges() {
+        BufferPool pool = BufferPool.shared();
+        Metrics.gauge("http_buffer_pool_used_bytes", "Bytes of pooled buffers lent out.", pool::getUsedBytes);
+        Metrics.gauge("http_buffer_pool_allocated_bytes", "Bytes of pooled buffers, lent out or idle.",
+                pool::getAllocatedBytes);
+        Metrics.gauge("http_buffer_pool_leaks", "Buffers found unreleased by leak detection.", pool::getLeaks);
+    }
+
+    /**
+     * Sets the number of threads of a fixed pool. A pool is grown by raising its maximum size before its core
+     * size, and shrunk the other way around, since the core size may never exceed the maximum.
+     *
+     * @param pool the pool
+     * @param threads the new number of threads
+     */
+    private static void resizePool(ThreadPoolExecutor pool, int threads) {
+        if (threads > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(threads);
+            pool.setCorePoolSize(threads);
+        } else {
+            pool.setCorePoolSize(threads);
+            pool.setMaximumPoolSize(threads);
+        }
+    }
+
+    /**
+     * Creates an executor that starts a new virtual thread for each task.
+     * Virtual threads are only available from Java 21, so the factory method is looked up reflectively
+     * to keep the sources compiling on older JDKs; there the server falls back to a thread per connection.
+     *
+     * @return the executor used to run src.RequestHandler tasks
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
         try {
-            configReader = new ConfigReader("config.ini");
-            int port = Integer.parseInt(configReader.getPort());
-            int maxThreads = Integer.parseInt(configReader.getMaxThreads());
-            serverSocket = new ServerSocket(port);
-            executorService = Executors.newFixedThreadPool(maxThreads);
-            semaphore = new Semaphore(maxThreads);
-            System.out.println("server is listening on port " + port);
-        } catch (IOException e) {
-            System.out.println("server can't listening to port : " + e);
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Log.warn("virtual threads are not supported by this JVM, using a platform thread per connection");
+            return Executors.newCachedThreadPool();
         }
     }
 
     /**
      * Starts the server, listening for incoming client connections and handling them
      * using a thread pool with a fixed size of threads.
-     * The server will continuously accept incoming connections and assign a separate thread
-     * (src.RequestHandler) to handle each connection (until it gets to maximum thread number).
-     * If the maximum number of threads is reached, the server will wait until a thread is available.
+     * The first acceptor runs on the calling thread and the others on threads of their own.
+     * In nio mode the accept loops and event loops of src.NioServer are started instead.
      */
     public void start() {
-        while (true) {
-            try {
-                semaphore.acquire();
-                Socket clientSocket = serverSocket.accept();
-                CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
-                    try {
-                        new RequestHandler(clientSocket, configReader).handleRequest();
-                    } catch (Exception e) {
-                        System.out.println("Error handling request: " + e);
+        if (nioServer != null) {
+            nioServer.start();
+            return;
+        }
+        for (int i = 1; i < acceptors.length; i++) {
+            acceptors[i].start();
+        }
+        acceptors[0].run();
+    }
+
+    /**
+     * An accept loop with its own listening socket, thread pool and Semaphore.
+     */
+    private class Acceptor extends Thread {
+        private final ServerSocket serverSocket;
+        private final ExecutorService executorService;
+        private final ResizableSemaphore semaphore = new ResizableSemaphore();
+        private int permits; // the permits the semaphore was sized to, taken or not
+
+        Acceptor(int index, ServerSocket serverSocket, ExecutorService executorService) {
+            super("acceptor-" + index);
+            this.serverSocket = serverSocket;
+            this.executorService = executorService;
+        }
+
+        /**
+         * Sets the number of threads of the fixed pool, and the permits for the connections being served
+         * or waiting for a thread.
+         *
+         * @param threads the number of connections served at once
+         * @param queued the number of further connections that may wait for a thread
+         */
+        synchronized void resize(int threads, int queued) {
+            if (!virtual && executorService instanceof ThreadPoolExecutor) {
+                resizePool((ThreadPoolExecutor) executorService, threads);
+            }
+            int change = threads + queued - permits;
+            permits = threads + queued;
+            if (change > 0) {
+                semaphore.release(change);
+            } else if (change < 0) {
+                semaphore.reducePermits(-change);
+            }
+        }
+
+        /**
+         * Continuously accepts incoming connections and assigns a separate thread
+         * (src.RequestHandler) to handle each connection (until it gets to maximum thread number).
+         * If the maximum number of threads is reached, the acceptor will wait until a thread is available,
+         * or, with admission control, keep accepting and shed the connections that find no free permit.
+         */
+        @Override
+        public void run() {
+            boolean admissionControl = admissionController.isEnabled();
+            while (true) {
+                try {
+                    if (!admissionControl) {
+                        semaphore.acquire();
                     }
-                }, executorService);
-
-                future.thenRun(() -> {
-                    semaphore.release();
-                    System.out.println("client handled, releasing thread");
-                });
-            } catch (InterruptedException e) {
-                System.out.println("Thread interrupted: " + e);
-            } catch (IOException e) {
-                System.out.println("failed to starts the server and listening for incoming client connections : " + e);
-            } catch (Exception e) {
-                System.out.println("Error handling request: " + e);
+                    Socket clientSocket = serverSocket.accept();
+                    long acceptTime = System.nanoTime();
+                    if (admissionControl && !semaphore.tryAcquire()) {
+                        admissionController.shed(clientSocket.getChannel(), Metrics.SHED_CAPACITY);
+                        continue;
+                    }
+                    CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+                        long sojournNanos = System.nanoTime() - acceptTime;
+                        Metrics.ACCEPT.record(sojournNanos);
+                        if (!admissionController.admit(sojournNanos)) {
+                            admissionController.shed(clientSocket.getChannel(), Metrics.SHED_QUEUE_DELAY);
+                            return;
+                        }
+                        try {
+                            new RequestHandler(clientSocket, configs, router, timers, streamExecutor)
+                                    .handleRequest();
+                        } catch (Exception e) {
+                            Log.error("Error handling request", e);
+                        }
+                    }, executorService);
+
+                    future.thenRun(() -> {
+                        semaphore.release();
+                        Log.debug("client handled, releasing thread");
+                    });
+                } catch (InterruptedException e) {
+                    Log.warn("Thread interrupted: " + e);
+                } catch (IOException e) {
+                    Log.error("failed to starts the server and listening for incoming client connections", e);
+                } catch (Exception e) {
+                    Log.error("Error handling request", e);
+                }
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * A Semaphore whose permits can be taken away, even while they are held, when the pool shrinks.
+     */
+    private static class ResizableSemaphore extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        ResizableSemaphore() {
+            super(0);
+        }
+
+        @Override
+        protected void reducePermits(int reduction) {
+            super.reducePermits(reduction);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package src;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The src.SocketResponseOutput class writes responses to a blocking client socket.
+ * Headers and small bodies are buffered until the caller flushes. A body too large for the buffer is
+ * written together with the buffered bytes in one gathering write, so the head and the body of a
+ * response leave in a single system call, and files are sent with FileChannel.transferTo straight to
+ * the socket channel, which the kernel serves with sendfile. A progress callback runs after each part
+ * of a large write, so that a write timeout can be measured from the last progress rather than the start.
+ * The buffer is a direct ByteBuffer borrowed from src.BufferPool when the first byte is written and returned once
+ * the buffered bytes have been sent, so an idle connection holds none, and the socket channel writes it without
+ * first copying it out of the heap.
+ */
+public class SocketResponseOutput extends ResponseOutput {
+    private static final int BUFFER_SIZE = 8192;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final SocketChannel socketChannel; // null for sockets without a channel
+    private final Runnable onProgress;
+    private final BufferPool bufferPool = BufferPool.shared();
+    private BufferPool.PooledBuffer pooledBuffer; // borrowed while bytes are buffered
+    private ByteBuffer buffer; // the ByteBuffer of pooledBuffer, or null
+    private final ByteBuffer[] gather = new ByteBuffer[2];
+
+    /**
+     * Constructs a src.SocketResponseOutput object for a client socket.
+     * Sockets accepted from a ServerSocketChannel expose their channel; for other sockets
+     * the bytes are copied through a channel wrapping the socket's output stream.
+     *
+     * @param clientSocket the client socket
+     * @param onProgress called each time part of a large body or file has been written
+     * @throws IOException if the socket's output stream cannot be obtained
+     */
+    public SocketResponseOutput(Socket clientSocket, Runnable onProgress) throws IOException {
+        this.onProgress = onProgress;
+        out = clientSocket.getOutputStream();
+        socketChannel = clientSocket.getChannel();
+        channel = socketChannel != null ? socketChannel : Channels.newChannel(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (buffer != null && !buffer.hasRemaining()) {
+            flushBuffer();
+        }
+        buffer().put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= buffer().remaining()) {
+            buffer.put(b, off, len);
+            return;
+        }
+        writeGathering(ByteBuffer.wrap(b, off, len));
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Returns the buffered bytes to the pool without sending them, once the connection is done with the output.
+     * The socket itself is closed by its owner.
+     */
+    @Override
+    public void close() {
+        releaseBuffer();
+    }
+
+    /**
+     * Returns the buffer, borrowing one from the pool if none is held.
+     */
+    private ByteBuffer buffer() {
+        if (buffer == null) {
+            pooledBuffer = bufferPool.acquire(BUFFER_SIZE);
+            buffer = pooledBuffer.buffer();
+        }
+        return buffer;
+    }
+
+    private void releaseBuffer() {
+        if (pooledBuffer != null) {
+            pooledBuffer.release();
+            pooledBuffer = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes to the socket and returns the buffer to the pool.
+     */
+    private void flushBuffer() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        releaseBuffer();
+    }
+
+    /**
+     * Writes the buffered bytes followed by a buffer with one gathering write, repeated until both are sent.
+     * Without a socket channel, they are written one after the other.
+     *
+     * @param data the bytes that follow the buffered ones
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeGathering(ByteBuffer data) throws IOException {
+        if (socketChannel == null) {
+            flushBuffer();
+            while (data.hasRemaining()) {
+                channel.write(data);
+                onProgress.run();
+            }
+            return;
+        }
+        gather[0] = buffer != null ? buffer.flip() : EMPTY;
+        gather[1] = data;
+        while (data.hasRemaining()) {
+            socketChannel.write(gather);
+            onProgress.run();
+        }
+        gather[0] = null;
+        gather[1] = null;
+        releaseBuffer();
+    }
+
+    @Override
+    public void sendFile(Path file, long position, long count) throws IOException {
+        flushBuffer(); // the buffered headers must reach the socket before the file bytes
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = position + count;
+            while (position < end) {
+                long transferred = fileChannel.transferTo(position, end - position, channel);
+                if (transferred <= 0 && position >= fileChannel.size()) {
+                    throw new EOFException("file truncated while sending: " + file);
+                }
+                position += transferred;
+                onProgress.run();
+            }
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer src) throws IOException {
+        if (src.remaining() <= buffer().remaining()) {
+            buffer.put(src);
+            return;
+        }
+        writeGathering(src); // the buffered headers go out in the same write as the buffer
+    }
+}
@@ -0,0 +1,266 @@
+package src;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * The src.StaticFileHandler class serves the files under the root directory, the route of every path that no
+ * other handler claims. Files are looked up in src.ContentCache, compressed when the client accepts it, and
+ * sent with ETag and Last-Modified validators; a TRACE request for an existing file echoes the request.
+ * It keeps no state of its own, so one instance serves every connection.
+ */
+public class StaticFileHandler implements Handler {
+    private static final String DEFAULT_CONTENT_TYPE = "default";
+    private static final String GZIP_SIDECAR_EXTENSION = ".gz";
+
+    private final ContentCache contentCache;
+    private final ContentEncoder contentEncoder;
+
+    /**
+     * Constructs a src.StaticFileHandler object.
+     *
+     * @param contentCache the cache of static file contents shared by all connections
+     * @param contentEncoder the encoder used to compress responses
+     */
+    public StaticFileHandler(ContentCache contentCache, ContentEncoder contentEncoder) {
+        this.contentCache = contentCache;
+        this.contentEncoder = contentEncoder;
+    }
+
+    /**
+     * Looks up the requested file and answers with it, with 404 Not Found if it does not exist,
+     * or, for a TRACE request, with the request itself.
+     *
+     * @param exchange the request and the response being written
+     * @return {@link Handler#DONE}
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public CompletionStage<Void> handle(Exchange exchange) throws IOException {
+        HTTPRequest request = exchange.getRequest();
+        String filePath = exchange.getConfig().getRootDirectory()
+                + RequestHandler.sanitizePath(request.getRequestedPage());
+        Path path = Paths.get(filePath);
+        long lookupStart = System.nanoTime();
+        ContentCache.CachedFile cachedFile = contentCache.get(path);
+        boolean exists = cachedFile != null || contentCache.exists(path);
+        exchange.startWrite();
+        Metrics.LOOKUP.record(System.nanoTime() - lookupStart);
+        if (!exists) { // handle not found request
+            exchange.respond(404, DEFAULT_CONTENT_TYPE);
+        } else if (exchange.getMethod() == RequestType.TRACE) { // handle trace response, which echoes the request
+            exchange.respond(200, request.getContentType(), RequestHandler.readFileContent(filePath));
+        } else { // handle normal response
+            serveStaticFile(exchange, path, cachedFile);
+        }
+        return DONE;
+    }
+
+    /**
+     * Sends a static file, compressed when the client accepts it, with ETag and Last-Modified validators.
+     * Conditional requests for an unchanged file are answered with 304 Not Modified and no body,
+     * and Range requests with 206 Partial Content (or 416 when no range can be satisfied).
+     * A precompressed ".gz" sidecar next to the file is preferred; otherwise compressible content
+     * held by the content cache is compressed on the fly and the compressed variant is cached with it.
+     * Files too large to cache are sent uncompressed without reading them into memory.
+     *
+     * @param exchange the request and the response being written
+     * @param path the path of the file
+     * @param cachedFile the cached file, or null if the file is too large to cache
+     * @throws IOException if an I/O error occurs
+     */
+    private void serveStaticFile(Exchange exchange, Path path, ContentCache.CachedFile cachedFile)
+            throws IOException {
+        HTTPRequest request = exchange.getRequest();
+        ResponseBuilder response = exchange.getResponse();
+        ResponseOutput outputStream = exchange.getOutput();
+        String contentType = request.getContentType();
+        boolean compressible = contentEncoder.isCompressible(contentType);
+        Path sidecar = Paths.get(path + GZIP_SIDECAR_EXTENSION);
+        boolean acceptsGzip = request.acceptsEncoding(ContentEncoder.GZIP);
+        // the sidecar is looked for whatever the client accepts, so that every response for the URL has Vary
+        ContentCache.CachedFile cachedSidecar = acceptsGzip ? contentCache.get(sidecar) : null;
+        boolean hasSidecar = cachedSidecar != null || contentCache.exists(sidecar);
+        boolean sendSidecar = hasSidecar && acceptsGzip;
+        if (compressible || hasSidecar) {
+            response.addHeader("Vary", "Accept-Encoding");
+        }
+
+        String encoding = null; // the coding applied on the fly, if any
+        if (sendSidecar) { // handle precompressed response
+            response.addHeader("Content-Encoding", ContentEncoder.GZIP);
+            path = sidecar;
+            cachedFile = cachedSidecar;
+        } else if (cachedFile != null && !isRangeRequest(request)) { // ranges are served from the identity representation
+            encoding = contentEncoder.negotiate(request, contentType, cachedFile.getSize());
+        }
+
+        // the validators come from the cached metadata, or from a stat for files too large to cache,
+        // so answering a conditional request never reads the file
+        long size;
+        long lastModified;
+        if (cachedFile != null) {
+            size = cachedFile.getSize();
+            lastModified = cachedFile.getLastModified();
+        } else {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+        }
+        String entityTag = createEntityTag(size, lastModified, encoding);
+        response.addHeader("ETag", entityTag);
+        response.addHeader("Last-Modified", HttpDate.format(lastModified));
+
+        if (encoding == null) {
+            response.addHeader("Accept-Ranges", "bytes");
+        }
+
+        if (isNotModified(request, entityTag, lastModified)) { // handle conditional request for an unchanged file
+            response.handleNotModifiedResponse(outputStream);
+            return;
+        }
+
+        if (encoding == null && isRangeRequest(request) && isIfRangeMatching(request, entityTag, lastModified)) {
+            List<ByteRange> ranges = ByteRange.parse(request.getRange(), size);
+            if (ranges != null && ranges.isEmpty()) { // handle range request with no satisfiable range
+                response.addHeader("Content-Range", "bytes */" + size);
+                exchange.respond(416, DEFAULT_CONTENT_TYPE);
+                return;
+            }
+            if (ranges != null) { // handle range request
+                response.handleRangeResponse(
+                        contentType,
+                        ranges,
+                        size,
+                        cachedFile,
+                        path,
+                        request.getType(),
+                        outputStream
+                );
+                return;
+            }
+        }
+
+        if (encoding != null) { // handle response compressed on the fly
+            response.addHeader("Content-Encoding", encoding);
+            exchange.respond(200, contentType, contentCache.getEncoded(path, cachedFile, encoding, contentEncoder));
+        } else if (request.isChunked() && request.acceptsChunkedResponse()) { // handle chunked response
+            response.handleChunkedFileResponse(
+                    200,
+                    contentType,
+                    cachedFile,
+                    path,
+                    size,
+                    request.getType(),
+                    outputStream
+            );
+        } else if (cachedFile != null) { // handle response from the content cache
+            response.handleCachedFileResponse(
+                    200,
+                    contentType,
+                    cachedFile,
+                    request.getType(),
+                    outputStream
+            );
+        } else { // handle response for a file too large to cache, sending it without reading it into memory
+            response.handleFileResponse(
+                    200,
+                    contentType,
+                    path,
+                    size,
+                    request.getType(),
+                    outputStream
+            );
+        }
+    }
+
+    /**
+     * Creates the entity tag of a file from its size and modification time.
+     * Each content coding is a different representation, so it gets its own tag.
+     *
+     * @param size the size of the file in bytes
+     * @param lastModified the last modification time of the file in milliseconds
+     * @param encoding the content coding applied on the fly, or null
+     * @return the quoted entity tag
+     */
+    private static String createEntityTag(long size, long lastModified, String encoding) {
+        String tag = Long.toHexString(size) + "-" + Long.toHexString(lastModified);
+        return "\"" + (encoding == null ? tag : tag + "-" + encoding) + "\"";
+    }
+
+    /**
+     * Returns whether a GET or HEAD request is conditional on a file that did not change.
+     * If-None-Match takes precedence over If-Modified-Since and uses the weak comparison;
+     * If-Modified-Since compares whole seconds, the precision of HTTP dates.
+     *
+     * @param request the request
+     * @param entityTag the current entity tag of the file
+     * @param lastModified the last modification time of the file in milliseconds
+     * @return whether a 304 Not Modified response should be sent
+     */
+    private static boolean isNotModified(HTTPRequest request, String entityTag, long lastModified) {
+        RequestType method = request.getMethod();
+        if (method != RequestType.GET && method != RequestType.HEAD) {
+            return false;
+        }
+        String ifNoneMatch = request.getIfNoneMatch();
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.equals("*") || stripWeakPrefix(candidate).equals(entityTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = request.getIfModifiedSince();
+        if (ifModifiedSince != null) {
+            long since = HttpDate.parse(ifModifiedSince);
+            return since >= 0 && lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * Returns whether the request asks for byte ranges; the Range header is only honoured for GET.
+     *
+     * @param request the request
+     * @return whether the request is a range request
+     */
+    private static boolean isRangeRequest(HTTPRequest request) {
+        return request.getRange() != null && request.getMethod() == RequestType.GET;
+    }
+
+    /**
+     * Returns whether the If-Range condition, if any, holds, i.e. whether the client's partial copy
+     * is still current. An entity tag must match strongly; a date must equal the modification time.
+     * When the condition fails the whole file is sent instead of the ranges.
+     *
+     * @param request the request
+     * @param entityTag the current entity tag of the file
+     * @param lastModified the last modification time of the file in milliseconds
+     * @return whether the requested ranges may be sent
+     */
+    private static boolean isIfRangeMatching(HTTPRequest request, String entityTag, long lastModified) {
+        String ifRange = request.getIfRange();
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(entityTag);
+        }
+        if (ifRange.startsWith("W/")) {
+            return false;
+        }
+        return HttpDate.parse(ifRange) / 1000 == lastModified / 1000;
+    }
+
+    private static String stripWeakPrefix(String entityTag) {
+        return entityTag.startsWith("W/") ? entityTag.substring(2) : entityTag;
+    }
+}
@@ -0,0 +1,184 @@
+package src;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The src.Template class renders a dynamic page from a template file, such as params_info.html.
+ * A template is the file's bytes with named slots, written {{name}}, or &lt;!--{{name}}--&gt; so that the file
+ * still displays as a plain page when it is served as a static one. It is compiled once into the literal byte
+ * segments between the slots, which are written to the response as they are, with no re-reading, searching or
+ * re-encoding of the page; only the slot values are encoded, as UTF-8 and HTML-escaped, straight into the output.
+ * Compiled templates are cached with the file's content by src.ContentCache, so a changed file is compiled again.
+ */
+public class Template {
+    private static final byte[] SLOT_START = {'{', '{'};
+    private static final byte[] SLOT_END = {'}', '}'};
+    private static final byte[] COMMENT_START = {'<', '!', '-', '-'};
+    private static final byte[] COMMENT_END = {'-', '-', '>'};
+    private static final int SCRATCH_SIZE = 512;
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_SIZE]);
+
+    private final byte[][] segments; // one more segment than slots, each slot between two segments
+    private final String[] slots;
+
+    private Template(byte[][] segments, String[] slots) {
+        this.segments = segments;
+        this.slots = slots;
+    }
+
+    /**
+     * Compiles a template.
+     *
+     * @param source the bytes of the template file
+     * @return the compiled template
+     */
+    public static Template compile(byte[] source) {
+        List<byte[]> segments = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        int segmentStart = 0;
+        int position = 0;
+        while ((position = indexOf(source, SLOT_START, position)) >= 0) {
+            int nameEnd = position + SLOT_START.length;
+            while (nameEnd < source.length && isNameByte(source[nameEnd])) {
+                nameEnd++;
+            }
+            if (nameEnd == position + SLOT_START.length || !startsWith(source, nameEnd, SLOT_END)) {
+                position++; // not a slot, e.g. braces in a script
+                continue;
+            }
+            int slotStart = position;
+            int slotEnd = nameEnd + SLOT_END.length;
+            if (slotStart >= COMMENT_START.length + segmentStart
+                    && startsWith(source, slotStart - COMMENT_START.length, COMMENT_START)
+                    && startsWith(source, slotEnd, COMMENT_END)) { // the whole comment is the slot
+                slotStart -= COMMENT_START.length;
+                slotEnd += COMMENT_END.length;
+            }
+            segments.add(Arrays.copyOfRange(source, segmentStart, slotStart));
+            slots.add(new String(source, position + SLOT_START.length,
+                    nameEnd - position - SLOT_START.length, StandardCharsets.US_ASCII));
+            segmentStart = slotEnd;
+            position = slotEnd;
+        }
+        segments.add(Arrays.copyOfRange(source, segmentStart, source.length));
+        return new Template(segments.toArray(new byte[0][]), slots.toArray(new String[0]));
+    }
+
+    /**
+     * Renders the template: writes its segments and, in place of each slot, what the slot writer writes for it.
+     *
+     * @param out the stream to render into
+     * @param slotWriter writes the value of each slot
+     * @throws IOException if an I/O error occurs
+     */
+    public void render(OutputStream out, SlotWriter slotWriter) throws IOException {
+        for (int i = 0; i < slots.length; i++) {
+            out.write(segments[i]);
+            slotWriter.write(slots[i], out);
+        }
+        out.write(segments[slots.length]);
+    }
+
+    /**
+     * Writes text into a page, encoded as UTF-8 and with the characters that have a meaning in HTML escaped,
+     * so that a value sent by a client cannot inject markup. The bytes are encoded into a small per-thread
+     * array, without building a String or a byte array for the text.
+     *
+     * @param out the stream to write to
+     * @param text the text
+     * @throws IOException if an I/O error occurs
+     */
+    public static void writeEscaped(OutputStream out, String text) throws IOException {
+        byte[] scratch = SCRATCH.get();
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (count > SCRATCH_SIZE - 8) { // room for the longest entity or UTF-8 sequence
+                out.write(scratch, 0, count);
+                count = 0;
+            }
+            char c = text.charAt(i);
+            switch (c) {
+                case '&':
+                    count = append(scratch, count, "&amp;");
+                    break;
+                case '<':
+                    count = append(scratch, count, "&lt;");
+                    break;
+                case '>':
+                    count = append(scratch, count, "&gt;");
+                    break;
+                case '"':
+                    count = append(scratch, count, "&quot;");
+                    break;
+                case '\'':
+                    count = append(scratch, count, "&#39;");
+                    break;
+                default:
+                    if (c < 0x80) {
+                        scratch[count++] = (byte) c;
+                    } else if (c < 0x800) {
+                        scratch[count++] = (byte) (0xc0 | c >> 6);
+                        scratch[count++] = (byte) (0x80 | c & 0x3f);
+                    } else if (Character.isHighSurrogate(c) && i + 1 < text.length()
+                            && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                        scratch[count++] = (byte) (0xf0 | codePoint >> 18);
+                        scratch[count++] = (byte) (0x80 | codePoint >> 12 & 0x3f);
+                        scratch[count++] = (byte) (0x80 | codePoint >> 6 & 0x3f);
+                        scratch[count++] = (byte) (0x80 | codePoint & 0x3f);
+                    } else if (Character.isSurrogate(c)) {
+                        scratch[count++] = '?'; // an unpaired surrogate has no encoding
+                    } else {
+                        scratch[count++] = (byte) (0xe0 | c >> 12);
+                        scratch[count++] = (byte) (0x80 | c >> 6 & 0x3f);
+                        scratch[count++] = (byte) (0x80 | c & 0x3f);
+                    }
+            }
+        }
+        out.write(scratch, 0, count);
+    }
+
+    private static int append(byte[] scratch, int count, String entity) {
+        for (int i = 0; i < entity.length(); i++) {
+            scratch[count++] = (byte) entity.charAt(i);
+        }
+        return count;
+    }
+
+    private static boolean isNameByte(byte b) {
+        return b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z' || b >= '0' && b <= '9' || b == '_' || b == '-' || b == '.';
+    }
+
+    private static int indexOf(byte[] source, byte[] target, int from) {
+        for (int i = from; i <= source.length - target.length; i++) {
+            if (startsWith(source, i, target)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean startsWith(byte[] source, int offset, byte[] prefix) {
+        if (offset < 0 || offset + prefix.length > source.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (source[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the value of a slot, e.g. with {@link #writeEscaped(OutputStream, String)}.
+     */
+    public interface SlotWriter {
+        void write(String slot, OutputStream out) throws IOException;
+    }
+}
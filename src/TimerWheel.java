@@ -0,0 +1,178 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The src.TimerWheel class runs timeouts for many connections with one timer: a hashed wheel of slots, each
+ * holding the timeouts that expire in that slot's tick, which is advanced tick by tick. Scheduling and
+ * cancelling a timeout are O(1) and allocate nothing, since a connection reuses one {@link Timeout}
+ * for all its deadlines, re-arming it as it goes from waiting for a request to reading it to writing the
+ * response; only the timeouts of the current slot are looked at on each tick. A deadline further away than
+ * one turn of the wheel waits in its slot for the turns in between.
+ * The wheel is either advanced by the thread that owns it, as each src.NioServer event loop does between
+ * selects, or by a daemon thread of its own ({@link #start(String)}) shared by all blocking connections.
+ */
+public class TimerWheel {
+    private final long tickMillis;
+    private final Timeout[] slots; // the head of each slot's doubly linked list
+    private final int mask;
+    private long currentTick; // the next tick to run, guarded by this
+
+    /**
+     * Constructs a src.TimerWheel object.
+     *
+     * @param tickMillis the resolution of the timeouts in milliseconds
+     * @param slotCount the number of slots, rounded up to a power of two
+     */
+    public TimerWheel(long tickMillis, int slotCount) {
+        this.tickMillis = tickMillis;
+        int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        slots = new Timeout[size];
+        mask = size - 1;
+        currentTick = System.currentTimeMillis() / tickMillis;
+    }
+
+    /**
+     * Returns the resolution of the timeouts.
+     *
+     * @return the tick in milliseconds
+     */
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    /**
+     * Starts a daemon thread that advances the wheel once per tick.
+     *
+     * @param threadName the name of the thread
+     * @return this wheel
+     */
+    public TimerWheel start(String threadName) {
+        Thread thread = new Thread(() -> {
+            while (true) {
+                try {
+                    Thread.sleep(tickMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                advance(System.currentTimeMillis());
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return this;
+    }
+
+    /**
+     * Arms a timeout to expire after the given delay, re-arming it if it is already scheduled.
+     *
+     * @param timeout the timeout
+     * @param delayMillis the delay in milliseconds, rounded up to whole ticks
+     */
+    public synchronized void schedule(Timeout timeout, long delayMillis) {
+        unlink(timeout);
+        long deadlineTick = (System.currentTimeMillis() + delayMillis + tickMillis - 1) / tickMillis;
+        timeout.deadlineTick = Math.max(deadlineTick, currentTick);
+        int slot = (int) (timeout.deadlineTick & mask);
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.previous = timeout;
+        }
+        slots[slot] = timeout;
+        timeout.scheduled = true;
+    }
+
+    /**
+     * Disarms a timeout; nothing happens if it is not scheduled.
+     *
+     * @param timeout the timeout
+     */
+    public synchronized void cancel(Timeout timeout) {
+        unlink(timeout);
+    }
+
+    /**
+     * Runs the timeouts whose deadline has passed. The tasks run on the calling thread, outside the
+     * wheel's lock, so that they may re-arm their timeout.
+     *
+     * @param nowMillis the current time in milliseconds
+     */
+    public void advance(long nowMillis) {
+        long nowTick = nowMillis / tickMillis;
+        List<Timeout> expired = null;
+        List<Integer> generations = null;
+        synchronized (this) {
+            // after a long pause every slot has been passed, so one turn of the wheel is enough
+            long firstTick = Math.max(currentTick, nowTick - mask);
+            for (long tick = firstTick; tick <= nowTick; tick++) {
+                Timeout timeout = slots[(int) (tick & mask)];
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= nowTick) {
+                        unlink(timeout);
+                        if (expired == null) {
+                            expired = new ArrayList<>();
+                            generations = new ArrayList<>();
+                        }
+                        expired.add(timeout);
+                        generations.add(timeout.generation);
+                    }
+                    timeout = next;
+                }
+            }
+            currentTick = Math.max(currentTick, nowTick + 1);
+        }
+        if (expired == null) {
+            return;
+        }
+        for (int i = 0; i < expired.size(); i++) {
+            Timeout timeout = expired.get(i);
+            synchronized (this) {
+                if (timeout.generation != generations.get(i)) {
+                    continue; // re-armed or cancelled by its owner since it expired
+                }
+            }
+            timeout.task.run();
+        }
+    }
+
+    private void unlink(Timeout timeout) {
+        timeout.generation++;
+        if (!timeout.scheduled) {
+            return;
+        }
+        if (timeout.previous != null) {
+            timeout.previous.next = timeout.next;
+        } else {
+            slots[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.previous = timeout.previous;
+        }
+        timeout.previous = null;
+        timeout.next = null;
+        timeout.scheduled = false;
+    }
+
+    /**
+     * A task that runs when its deadline passes, re-armed for each new deadline.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private long deadlineTick;
+        private Timeout previous;
+        private Timeout next;
+        private boolean scheduled = false;
+        private int generation; // changed whenever the timeout is re-armed or cancelled
+
+        /**
+         * Constructs a src.TimerWheel.Timeout object.
+         *
+         * @param task the task to run when the timeout expires
+         */
+        public Timeout(Runnable task) {
+            this.task = task;
+        }
+    }
+}
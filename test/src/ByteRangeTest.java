@@ -0,0 +1,72 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class ByteRangeTest {
+
+    private static void assertRange(ByteRange range, long start, long end) {
+        assertEquals(start, range.getStart());
+        assertEquals(end, range.getEnd());
+        assertEquals(end - start + 1, range.getLength());
+    }
+
+    @Test
+    void parsesTheThreeFormsOfRange() {
+        assertRange(ByteRange.parse("bytes=0-499", 1000).get(0), 0, 499);
+        assertRange(ByteRange.parse("bytes=500-", 1000).get(0), 500, 999);
+        assertRange(ByteRange.parse("bytes=-300", 1000).get(0), 700, 999);
+    }
+
+    @Test
+    void clampsRangesToTheFile() {
+        assertRange(ByteRange.parse("bytes=900-2000", 1000).get(0), 900, 999);
+        assertRange(ByteRange.parse("bytes=-5000", 1000).get(0), 0, 999);
+        assertRange(ByteRange.parse("bytes=999-999", 1000).get(0), 999, 999);
+    }
+
+    @Test
+    void keepsSeveralRangesInOrder() {
+        List<ByteRange> ranges = ByteRange.parse("bytes=0-0, -1 ,10-19", 100);
+        assertEquals(3, ranges.size());
+        assertRange(ranges.get(0), 0, 0);
+        assertRange(ranges.get(1), 99, 99);
+        assertRange(ranges.get(2), 10, 19);
+    }
+
+    @Test
+    void dropsUnsatisfiableRanges() {
+        assertTrue(ByteRange.parse("bytes=1000-", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-0", 1000).isEmpty());
+        assertTrue(ByteRange.parse("bytes=-10", 0).isEmpty());
+        assertEquals(1, ByteRange.parse("bytes=2000-3000,0-9", 1000).size());
+    }
+
+    @Test
+    void ignoresMalformedHeaders() {
+        for (String header : new String[] {
+                null, "items=0-1", "bytes=", "bytes=5", "bytes=-", "bytes=9-5", "bytes=a-b", "bytes=1-2-3",
+                "bytes=+5-10", "bytes=--5", "bytes=-+5", "bytes=0-1,x", "bytes=99999999999999999999-"}) {
+            assertNull(ByteRange.parse(header, 1000), header);
+        }
+    }
+
+    @Test
+    void refusesTooManyRanges() {
+        StringBuilder header = new StringBuilder("bytes=0-0");
+        for (int i = 1; i < 16; i++) {
+            header.append(',').append(i).append('-').append(i);
+        }
+        assertEquals(16, ByteRange.parse(header.toString(), 1000).size());
+        assertNull(ByteRange.parse(header.append(",16-16").toString(), 1000));
+    }
+
+    @Test
+    void formatsTheContentRange() {
+        assertEquals("bytes 0-499/1234", new ByteRange(0, 499).toContentRange(1234));
+    }
+}
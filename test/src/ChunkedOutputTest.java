@@ -0,0 +1,170 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ChunkedOutputTest {
+    @TempDir
+    Path directory;
+
+    private final RecordingOutput out = new RecordingOutput();
+    private final ChunkedOutput chunked = new ChunkedOutput().start(out);
+
+    /**
+     * Collects what the chunked output writes, reading sent files into the same bytes.
+     */
+    private static final class RecordingOutput extends ResponseOutput {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final List<byte[]> arrays = new ArrayList<>(); // the arrays passed to write, to tell copies apart
+        int flushes;
+
+        @Override
+        public void write(int b) {
+            bytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            arrays.add(b);
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public void sendFile(Path file, long position, long count) throws IOException {
+            byte[] content = Files.readAllBytes(file);
+            bytes.write(content, (int) position, (int) count);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    /**
+     * Reads back a chunked body: the size of each chunk, checked to be framed with CRLF, then the last chunk.
+     */
+    private static List<Integer> chunkSizes(byte[] encoded, ByteArrayOutputStream body) {
+        String text = new String(encoded, StandardCharsets.ISO_8859_1);
+        List<Integer> sizes = new ArrayList<>();
+        int position = 0;
+        while (true) {
+            int lineEnd = text.indexOf("\r\n", position);
+            int size = Integer.parseInt(text.substring(position, lineEnd), 16);
+            position = lineEnd + 2;
+            if (size == 0) {
+                assertEquals("\r\n", text.substring(position));
+                return sizes;
+            }
+            sizes.add(size);
+            body.write(encoded, position, size);
+            position += size;
+            assertEquals("\r\n", text.substring(position, position + 2));
+            position += 2;
+        }
+    }
+
+    private static byte[] body(int length) {
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        return body;
+    }
+
+    @Test
+    void framesAShortBody() throws IOException {
+        chunked.write("hello".getBytes(StandardCharsets.ISO_8859_1));
+        chunked.close();
+        assertEquals("5\r\nhello\r\n0\r\n\r\n", out.bytes.toString(StandardCharsets.ISO_8859_1));
+        assertEquals(5, chunked.getBodyBytes());
+    }
+
+    @Test
+    void doublesTheChunkSizeUpToTheMaximum() throws IOException {
+        byte[] body = body(40000);
+        for (byte b : body) {
+            chunked.write(b);
+        }
+        chunked.close();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        assertEquals(List.of(0x400, 0x800, 0x1000, 0x2000, 0x4000, 0x2040),
+                chunkSizes(out.bytes.toByteArray(), decoded));
+        assertArrayEquals(body, decoded.toByteArray());
+        assertEquals(1, out.flushes); // only the first chunk is flushed at once
+        assertEquals(40000, chunked.getBodyBytes());
+    }
+
+    @Test
+    void writesLargeArraysWithoutCopying() throws IOException {
+        byte[] first = body(0xffff);
+        byte[] second = body(0x10000);
+        chunked.write(first);
+        chunked.write(second);
+        chunked.close();
+        assertEquals(List.of(0xffff, 0x10000), chunkSizes(out.bytes.toByteArray(), new ByteArrayOutputStream()));
+        assertSame(first, out.arrays.get(1)); // between the size line and the CRLF
+        assertSame(second, out.arrays.get(4));
+        String encoded = out.bytes.toString(StandardCharsets.ISO_8859_1);
+        assertEquals("ffff\r\n", encoded.substring(0, 6));
+        assertEquals("\r\n10000\r\n", encoded.substring(6 + 0xffff, 6 + 0xffff + 9));
+    }
+
+    @Test
+    void collectsSmallWritesBetweenLargeOnes() throws IOException {
+        byte[] body = body(5000);
+        chunked.write(body, 0, 10);
+        chunked.write(body, 10, 4000); // completes the first chunk, and the rest is a chunk of its own
+        chunked.write(ByteBuffer.wrap(body, 4010, 990)); // smaller than the next chunk size, collected
+        chunked.close();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        assertEquals(List.of(0x400, 0xbaa, 0x3de), chunkSizes(out.bytes.toByteArray(), decoded));
+        assertArrayEquals(body, decoded.toByteArray());
+    }
+
+    @Test
+    void writesLargeBuffersAsTheirOwnChunk() throws IOException {
+        byte[] body = body(0x10000);
+        chunked.write(ByteBuffer.allocateDirect(body.length).put(body).flip());
+        chunked.close();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        assertEquals(List.of(0x10000), chunkSizes(out.bytes.toByteArray(), decoded));
+        assertArrayEquals(body, decoded.toByteArray());
+    }
+
+    @Test
+    void sendsFilesInChunksOfAMegabyte() throws IOException {
+        byte[] content = body(3 + (1 << 20) + 0x10);
+        Path file = Files.write(directory.resolve("body.bin"), content);
+        chunked.write(content, 0, 3); // collected bytes go first, as a chunk of their own
+        chunked.sendFile(file, 3, content.length - 3);
+        chunked.close();
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        assertEquals(List.of(3, 0x100000, 0x10), chunkSizes(out.bytes.toByteArray(), decoded));
+        assertArrayEquals(content, decoded.toByteArray());
+        assertEquals(content.length, chunked.getBodyBytes());
+    }
+
+    @Test
+    void flushesAPartialChunk() throws IOException {
+        chunked.write(body(3));
+        chunked.flush();
+        assertEquals("3\r\nabc\r\n", out.bytes.toString(StandardCharsets.ISO_8859_1));
+        chunked.flush(); // nothing collected, no empty chunk that would end the body
+        chunked.close();
+        assertEquals("3\r\nabc\r\n0\r\n\r\n", out.bytes.toString(StandardCharsets.ISO_8859_1));
+        assertEquals(List.of(3), chunkSizes(out.bytes.toByteArray(), new ByteArrayOutputStream()));
+    }
+}
@@ -0,0 +1,44 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ConfigTest {
+    @TempDir
+    Path directory;
+
+    private Config config(String... lines) throws IOException {
+        Path file = directory.resolve("config.ini");
+        Files.writeString(file, "port=8080\nroot=www\ndefaultPage=index.html\nmaxThreads=10\n"
+                + "imageExtensions=jpg,bmp,png,gif\n" + String.join("\n", lines) + "\n");
+        return new Config(new ConfigReader(file.toString()));
+    }
+
+    @Test
+    void readsTheDefaults() throws IOException {
+        Config config = config();
+        assertEquals(8080, config.getPort());
+        assertEquals(10, config.getMaxThreads());
+    }
+
+    @Test
+    void capsTheCachedFileSizesAtTheLargestBuffer() throws IOException {
+        assertEquals(Integer.MAX_VALUE, config("offHeapCacheMaxFileSize=2147483647").getOffHeapCacheMaxFileSize());
+        assertThrows(IllegalArgumentException.class, () -> config("offHeapCacheMaxFileSize=2147483648"));
+        assertThrows(IllegalArgumentException.class, () -> config("heapCacheMaxFileSize=3000000000"));
+    }
+
+    @Test
+    void rejectsInvalidNumbers() throws IOException {
+        assertThrows(IllegalArgumentException.class, () -> config("keepAliveTimeout=soon"));
+        assertThrows(IllegalArgumentException.class, () -> config("maxHeaderSize=0"));
+        assertThrows(IllegalArgumentException.class, () -> config("compressionLevel=10"));
+        assertEquals(9, config("compressionLevel=9").getCompressionLevel());
+    }
+}
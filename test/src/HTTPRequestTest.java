@@ -0,0 +1,111 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class HTTPRequestTest {
+    private static final String[] IMAGE_EXTENSIONS = {"bmp", "gif", "png", "jpg"};
+
+    private static HTTPRequest request(String head) {
+        RequestParser parser = new RequestParser();
+        parser.reset(0);
+        byte[] buffer = head.getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(buffer.length, parser.parse(buffer, buffer.length));
+        return new HTTPRequest(parser, IMAGE_EXTENSIONS);
+    }
+
+    private static HTTPRequest post(String... headers) {
+        return request("POST /form HTTP/1.1\r\nHost: x\r\n" + String.join("\r\n", headers) + "\r\n\r\n");
+    }
+
+    @Test
+    void readsTheRequestLine() {
+        HTTPRequest request = request("GET /img/a.png?x=1&x=2&y=%41 HTTP/1.1\r\nHost: x\r\n\r\n");
+        assertTrue(request.isValid());
+        assertEquals(RequestType.GET, request.getMethod());
+        assertEquals("/img/a.png", request.getRequestedPage());
+        assertEquals("image", request.getContentType());
+        assertEquals(List.of("1", "2"), request.getParameterValues("x"));
+        assertEquals("A", request.getParameters().get("y"));
+        assertTrue(request.isKeepAlive());
+        assertFalse(request.hasBody());
+    }
+
+    @Test
+    void normalizesThePath() {
+        assertEquals("/index.html", request("GET / HTTP/1.1\r\n\r\n").getRequestedPage());
+        assertEquals("/b.html", request("GET /a/../b.html HTTP/1.1\r\n\r\n").getRequestedPage());
+        assertFalse(request("GET /../../etc/passwd HTTP/1.1\r\n\r\n").getRequestedPage().contains(".."));
+    }
+
+    @Test
+    void readsTheConnectionPersistence() {
+        assertFalse(request("GET / HTTP/1.1\r\nConnection: keep-alive, close\r\n\r\n").isKeepAlive());
+        assertFalse(request("GET / HTTP/1.0\r\n\r\n").isKeepAlive());
+        assertTrue(request("GET / HTTP/1.0\r\nConnection: Keep-Alive\r\n\r\n").isKeepAlive());
+        assertTrue(request("GET / HTTP/2.5\r\n\r\n").isUnsupportedHttpVersion());
+        assertFalse(request("GET / FTP/1.0\r\n\r\n").isValid());
+    }
+
+    @Test
+    void readsTheContentLength() {
+        HTTPRequest request = post("Content-Length: 5");
+        assertTrue(request.isValid());
+        assertTrue(request.hasBody());
+        assertEquals(5, request.getContentLength());
+        assertFalse(post("Content-Length: 5x").isValid());
+        assertFalse(post("Content-Length: -5").isValid());
+        assertFalse(post("Content-Length: 4294967296").isValid());
+        assertFalse(post("Content-Length:").isValid());
+    }
+
+    @Test
+    void acceptsRepeatedIdenticalContentLengths() {
+        HTTPRequest request = post("Content-Length: 5", "Content-Length: 5");
+        assertTrue(request.isValid());
+        assertEquals(5, request.getContentLength());
+        request = post("Content-Length: 5, 5,5");
+        assertTrue(request.isValid());
+        assertEquals(5, request.getContentLength());
+    }
+
+    @Test
+    void rejectsConflictingContentLengths() {
+        for (HTTPRequest request : List.of(
+                post("Content-Length: 5", "Content-Length: 0"),
+                post("Content-Length: 0", "X: y", "Content-Length: 5"),
+                post("Content-Length: 5, 0"),
+                post("Content-Length: 5,"),
+                post("Content-Length: 5, x"))) {
+            assertFalse(request.isValid());
+            assertEquals(400, request.getErrorStatus());
+        }
+    }
+
+    @Test
+    void framesChunkedBodiesWithoutTheContentLength() {
+        HTTPRequest request = post("Transfer-Encoding: chunked");
+        assertTrue(request.isValid());
+        assertTrue(request.isChunkedBody());
+        assertTrue(request.isKeepAlive());
+
+        request = post("Content-Length: 5", "Transfer-Encoding: chunked");
+        assertTrue(request.isValid());
+        assertTrue(request.isChunkedBody());
+        assertEquals(0, request.getContentLength());
+        assertFalse(request.isKeepAlive()); // a possible smuggling attempt ends the connection
+    }
+
+    @Test
+    void rejectsUnsupportedTransferCodings() {
+        assertFalse(post("Transfer-Encoding: gzip").isValid());
+        assertFalse(post("Transfer-Encoding: chunked, gzip").isValid());
+        assertFalse(post("Transfer-Encoding: chunked", "Transfer-Encoding: gzip").isValid());
+        assertFalse(post("Transfer-Encoding: chunked", "Transfer-Encoding: chunked").isValid());
+    }
+}
@@ -0,0 +1,185 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the coders against the examples of RFC 7541 Appendix C. Each example is a sequence of blocks sent on one
+ * connection, so one decoder or encoder goes through all of them, with the dynamic table they build.
+ */
+class HpackTest {
+    private static final int MAX_LIST_SIZE = 16384;
+
+    private static final String[] REQUESTS_WITHOUT_HUFFMAN = { // C.3
+        "828684410f7777772e6578616d706c652e636f6d",
+        "828684be58086e6f2d6361636865",
+        "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"};
+
+    private static final String[] REQUESTS_WITH_HUFFMAN = { // C.4
+        "828684418cf1e3c2e5f23a6ba0ab90f4ff",
+        "828684be5886a8eb10649cbf",
+        "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"};
+
+    private static final List<List<String>> REQUESTS = List.of(
+            List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+            List.of(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                    "cache-control", "no-cache"),
+            List.of(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+                    "custom-key", "custom-value"));
+
+    private static final String[] RESPONSES_WITHOUT_HUFFMAN = { // C.5
+        "4803333032580770726976617465611d4d6f6e2c203231204f637420323031332032303a31333a323120474d54"
+                + "6e1768747470733a2f2f7777772e6578616d706c652e636f6d",
+        "4803333037c1c0bf",
+        "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54c05a04677a69707738666f6f3d"
+                + "4153444a4b48514b425a584f5157454f50495541585157454f49553b206d61782d6167653d333630303b2076657273"
+                + "696f6e3d31"};
+
+    private static final String[] RESPONSES_WITH_HUFFMAN = { // C.6
+        "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1bff6e919d29ad171863c78f0b97c8"
+                + "e9ae82ae43d3",
+        "4883640effc1c0bf",
+        "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad94e7821dd7f2e6c7b335dfdfcd5b"
+                + "3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"};
+
+    private static final List<List<String>> RESPONSES = List.of(
+            List.of(":status", "302", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                    "location", "https://www.example.com"),
+            List.of(":status", "307", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:21 GMT",
+                    "location", "https://www.example.com"),
+            List.of(":status", "200", "cache-control", "private", "date", "Mon, 21 Oct 2013 20:13:22 GMT",
+                    "location", "https://www.example.com", "content-encoding", "gzip",
+                    "set-cookie", "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1"));
+
+    private static final String TABLE_SIZE_256 = "3fe101"; // the examples of responses use a 256-byte table
+
+    private static byte[] bytes(String hex) {
+        return HexFormat.of().parseHex(hex);
+    }
+
+    private static List<String> decode(HpackDecoder decoder, String hex) throws IOException {
+        byte[] block = bytes(hex);
+        List<String> fields = new ArrayList<>();
+        decoder.decode(block, block.length, fields, MAX_LIST_SIZE);
+        return fields;
+    }
+
+    private static void assertDecoded(String[] blocks, List<List<String>> expected) throws IOException {
+        HpackDecoder decoder = new HpackDecoder();
+        for (int i = 0; i < blocks.length; i++) {
+            assertEquals(expected.get(i), decode(decoder, blocks[i]), blocks[i]);
+        }
+    }
+
+    @Test
+    void decodesTheLiteralFieldRepresentations() throws IOException { // C.2
+        assertEquals(List.of("custom-key", "custom-header"),
+                decode(new HpackDecoder(), "400a637573746f6d2d6b65790d637573746f6d2d686561646572"));
+        assertEquals(List.of(":path", "/sample/path"),
+                decode(new HpackDecoder(), "040c2f73616d706c652f70617468"));
+        assertEquals(List.of("password", "secret"),
+                decode(new HpackDecoder(), "100870617373776f726406736563726574"));
+        assertEquals(List.of(":method", "GET"), decode(new HpackDecoder(), "82"));
+    }
+
+    @Test
+    void decodesRequestsWithoutHuffmanCoding() throws IOException {
+        assertDecoded(REQUESTS_WITHOUT_HUFFMAN, REQUESTS);
+    }
+
+    @Test
+    void decodesRequestsWithHuffmanCoding() throws IOException {
+        assertDecoded(REQUESTS_WITH_HUFFMAN, REQUESTS);
+    }
+
+    @Test
+    void decodesResponsesWithoutHuffmanCoding() throws IOException {
+        String[] blocks = RESPONSES_WITHOUT_HUFFMAN.clone();
+        blocks[0] = TABLE_SIZE_256 + blocks[0];
+        assertDecoded(blocks, RESPONSES);
+    }
+
+    @Test
+    void decodesResponsesWithHuffmanCoding() throws IOException {
+        String[] blocks = RESPONSES_WITH_HUFFMAN.clone();
+        blocks[0] = TABLE_SIZE_256 + blocks[0];
+        assertDecoded(blocks, RESPONSES);
+    }
+
+    @Test
+    void evictsTheOldestEntriesOfAFullTable() throws IOException {
+        HpackDecoder decoder = new HpackDecoder();
+        decode(decoder, TABLE_SIZE_256 + RESPONSES_WITH_HUFFMAN[0]);
+        decode(decoder, RESPONSES_WITH_HUFFMAN[1]);
+        decode(decoder, RESPONSES_WITH_HUFFMAN[2]);
+        // the table now holds set-cookie, content-encoding and the second date, 215 bytes in all
+        assertEquals(List.of("date", "Mon, 21 Oct 2013 20:13:22 GMT"), decode(decoder, "c0"));
+        assertThrows(IOException.class, () -> decode(decoder, "c1"));
+    }
+
+    @Test
+    void encodesTheResponsesOfTheExamples() {
+        HpackEncoder encoder = new HpackEncoder();
+        encoder.setMaxTableSize(256);
+        for (int i = 0; i < RESPONSES.size(); i++) {
+            List<String> fields = RESPONSES.get(i);
+            encoder.encode(Integer.parseInt(fields.get(1)), fields.subList(2, fields.size()));
+            // Huffman coding "307" saves nothing, so the second block has it as a plain literal, as in C.5
+            String block = i == 1 ? RESPONSES_WITHOUT_HUFFMAN[i] : RESPONSES_WITH_HUFFMAN[i];
+            String expected = (i == 0 ? TABLE_SIZE_256 : "") + block;
+            assertEquals(expected, HexFormat.of().formatHex(encoder.array(), 0, encoder.length()));
+        }
+    }
+
+    @Test
+    void leavesChangingFieldsOutOfTheTable() throws IOException {
+        HpackEncoder encoder = new HpackEncoder();
+        HpackDecoder decoder = new HpackDecoder();
+        List<String> fields = List.of("content-type", "text/html", "content-length", "2562");
+        for (int i = 0; i < 2; i++) {
+            encoder.encode(200, fields);
+            List<String> decoded = new ArrayList<>();
+            decoder.decode(encoder.array(), encoder.length(), decoded, MAX_LIST_SIZE);
+            assertEquals(List.of(":status", "200", "content-type", "text/html", "content-length", "2562"), decoded);
+        }
+        // the second block: :status 200 and content-type from the tables, content-length as a literal again
+        byte[] block = Arrays.copyOf(encoder.array(), encoder.length());
+        assertArrayEquals(bytes("88be0f0d"), Arrays.copyOf(block, 4));
+    }
+
+    @Test
+    void huffmanCodesStrings() throws IOException {
+        String text = "www.example.com";
+        byte[] coded = new byte[Hpack.huffmanLength(text)];
+        assertEquals(coded.length, Hpack.huffmanEncode(text, coded, 0));
+        assertArrayEquals(bytes("f1e3c2e5f23a6ba0ab90f4ff"), coded);
+        assertEquals(text, Hpack.huffmanDecode(coded, 0, coded.length));
+        String all = new String(new char[] {0, 1, '~', 0x7f, 0xff, 'a', 0x80});
+        coded = new byte[Hpack.huffmanLength(all)];
+        Hpack.huffmanEncode(all, coded, 0);
+        assertEquals(all, Hpack.huffmanDecode(coded, 0, coded.length));
+    }
+
+    @Test
+    void rejectsInvalidBlocks() {
+        for (String block : new String[] {
+                "be", // an index past the dynamic table
+                "80", // index 0
+                "3fe21f", // a table size over the announced 4096 bytes
+                "823fe101", // a table size update after a field
+                "400a6375", // a truncated string
+                "41ff", // a truncated integer
+                "418100", // Huffman padding of zeros
+                "4184ffffffff"}) { // EOS in a Huffman-coded string
+            assertThrows(IOException.class, () -> decode(new HpackDecoder(), block), block);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class RequestBodyDecoderTest {
+    private static final long MAX_BODY_SIZE = 1000;
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static String content(RequestBody body) throws IOException {
+        try (InputStream in = body.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    void passesOnExactlyContentLengthBytes() throws IOException {
+        byte[] buffer = bytes("helloGET / HTTP/1.1\r\n\r\n");
+        RequestBodyDecoder decoder = RequestBodyDecoder.forContentLength(5, MAX_BODY_SIZE);
+        RequestBody body = new RequestBody(100);
+        assertEquals(5, decoder.decode(buffer, 0, buffer.length, body)); // the pipelined request is left alone
+        assertTrue(decoder.isComplete());
+        assertEquals("hello", content(body));
+    }
+
+    @Test
+    void resumesAContentLengthBodyAcrossReads() throws IOException {
+        byte[] buffer = bytes("hello");
+        RequestBodyDecoder decoder = RequestBodyDecoder.forContentLength(5, MAX_BODY_SIZE);
+        RequestBody body = new RequestBody(100);
+        assertEquals(2, decoder.decode(buffer, 0, 2, body));
+        assertFalse(decoder.isComplete());
+        assertEquals(5, decoder.decode(buffer, 2, 5, body));
+        assertTrue(decoder.isComplete());
+        assertEquals("hello", content(body));
+    }
+
+    @Test
+    void completesAnEmptyBodyAtOnce() throws IOException {
+        RequestBodyDecoder decoder = RequestBodyDecoder.forContentLength(0, MAX_BODY_SIZE);
+        assertTrue(decoder.isComplete());
+        assertEquals(0, decoder.decode(new byte[1], 0, 1, new RequestBody(100)));
+    }
+
+    @Test
+    void refusesAContentLengthOverTheLimit() throws IOException {
+        RequestBodyDecoder decoder = RequestBodyDecoder.forContentLength(MAX_BODY_SIZE + 1, MAX_BODY_SIZE);
+        assertEquals(RequestBodyDecoder.TOO_LARGE, decoder.decode(new byte[1], 0, 1, new RequestBody(100)));
+    }
+
+    @Test
+    void decodesChunksWithExtensionsAndTrailers() throws IOException {
+        String chunked = "5;name=value\r\nhello\r\n6\r\n world\r\nA\r\n0123456789\r\n0\r\nTrailer: x\r\n\r\n";
+        byte[] buffer = bytes(chunked + "NEXT");
+        RequestBodyDecoder decoder = RequestBodyDecoder.forChunked(MAX_BODY_SIZE);
+        RequestBody body = new RequestBody(100);
+        assertEquals(chunked.length(), decoder.decode(buffer, 0, buffer.length, body));
+        assertTrue(decoder.isComplete());
+        assertEquals("hello world0123456789", content(body));
+    }
+
+    @Test
+    void resumesAChunkedBodyAtEveryByte() throws IOException {
+        byte[] buffer = bytes("3\r\nabc\r\n10\r\n0123456789abcdef\r\n0\r\n\r\n");
+        RequestBodyDecoder decoder = RequestBodyDecoder.forChunked(MAX_BODY_SIZE);
+        RequestBody body = new RequestBody(100);
+        for (int i = 0; i < buffer.length; i++) {
+            assertFalse(decoder.isComplete());
+            assertEquals(i + 1, decoder.decode(buffer, i, i + 1, body));
+        }
+        assertTrue(decoder.isComplete());
+        assertEquals("abc0123456789abcdef", content(body));
+    }
+
+    @Test
+    void acceptsBareLineFeeds() throws IOException {
+        byte[] buffer = bytes("2\nab\n0\n\n");
+        RequestBodyDecoder decoder = RequestBodyDecoder.forChunked(MAX_BODY_SIZE);
+        RequestBody body = new RequestBody(100);
+        assertEquals(buffer.length, decoder.decode(buffer, 0, buffer.length, body));
+        assertTrue(decoder.isComplete());
+        assertEquals("ab", content(body));
+    }
+
+    @Test
+    void rejectsMalformedChunks() throws IOException {
+        for (String chunked : new String[] {"x\r\n", "\r\n", "2\r\nabX", "2\r\nab\rX", "2 x\rX", "0\r\n\rX"}) {
+            byte[] buffer = bytes(chunked);
+            RequestBodyDecoder decoder = RequestBodyDecoder.forChunked(MAX_BODY_SIZE);
+            assertEquals(RequestBodyDecoder.MALFORMED, decoder.decode(buffer, 0, buffer.length, new RequestBody(100)),
+                    chunked);
+        }
+    }
+
+    @Test
+    void refusesChunksOverTheLimit() throws IOException {
+        byte[] buffer = bytes("3E8\r\n"); // 1000 bytes, the limit
+        assertEquals(buffer.length, RequestBodyDecoder.forChunked(MAX_BODY_SIZE)
+                .decode(buffer, 0, buffer.length, new RequestBody(100)));
+        buffer = bytes("3E9\r\n");
+        assertEquals(RequestBodyDecoder.TOO_LARGE, RequestBodyDecoder.forChunked(MAX_BODY_SIZE)
+                .decode(buffer, 0, buffer.length, new RequestBody(100)));
+        buffer = bytes("200\r\n" + "a".repeat(512) + "\r\n1F5\r\n"); // 512 + 501 bytes in total
+        assertEquals(RequestBodyDecoder.TOO_LARGE, RequestBodyDecoder.forChunked(MAX_BODY_SIZE)
+                .decode(buffer, 0, buffer.length, new RequestBody(1000)));
+        buffer = bytes("1000000000000000\r\n"); // would overflow a long
+        assertEquals(RequestBodyDecoder.TOO_LARGE, RequestBodyDecoder.forChunked(Long.MAX_VALUE)
+                .decode(buffer, 0, buffer.length, new RequestBody(100)));
+    }
+
+    @Test
+    void spillsALargeBodyToAFile() throws IOException {
+        byte[] buffer = bytes("a".repeat(300));
+        RequestBodyDecoder decoder = RequestBodyDecoder.forContentLength(300, MAX_BODY_SIZE);
+        try (RequestBody body = new RequestBody(100)) {
+            decoder.decode(buffer, 0, 150, body);
+            decoder.decode(buffer, 150, 300, body);
+            assertTrue(body.isSpilled());
+            assertEquals(300, body.getLength());
+            assertEquals("a".repeat(300), content(body));
+        }
+    }
+}
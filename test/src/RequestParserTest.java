@@ -0,0 +1,139 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class RequestParserTest {
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private static RequestParser parsed(String head) {
+        RequestParser parser = new RequestParser();
+        parser.reset(0);
+        byte[] buffer = bytes(head);
+        assertEquals(buffer.length, parser.parse(buffer, buffer.length));
+        return parser;
+    }
+
+    private static int parse(String head, int maxRequestLineSize, int maxHeaderSize) {
+        RequestParser parser = new RequestParser();
+        parser.setLimits(maxRequestLineSize, maxHeaderSize);
+        parser.reset(0);
+        byte[] buffer = bytes(head);
+        return parser.parse(buffer, buffer.length);
+    }
+
+    @Test
+    void parsesRequestLineAndHeaders() {
+        RequestParser parser = parsed("GET /a?b=c HTTP/1.1\r\nHost: example\r\nAccept-Encoding:  gzip;q=0.5, br \r\n\r\n");
+        assertTrue(parser.methodEquals("GET"));
+        assertTrue(parser.versionEquals("HTTP/1.1"));
+        assertEquals("/a?b=c", new String(parser.buffer(), parser.targetStart(),
+                parser.targetEnd() - parser.targetStart(), StandardCharsets.ISO_8859_1));
+        assertEquals(2, parser.headerCount());
+        int index = parser.indexOfHeader("accept-encoding");
+        assertEquals(1, index);
+        assertEquals("gzip;q=0.5, br", parser.headerValue(index)); // surrounding whitespace trimmed
+        assertEquals(500, parser.tokenQuality(index, "gzip"));
+        assertEquals(1000, parser.tokenQuality(index, "br"));
+        assertEquals(-1, parser.tokenQuality(index, "deflate"));
+        assertEquals("GET /a?b=c HTTP/1.1\r\nHost: example\r\nAccept-Encoding:  gzip;q=0.5, br ", parser.rawHead());
+    }
+
+    @Test
+    void acceptsBareLineFeedsAndEmptyValues() {
+        RequestParser parser = parsed("\r\nPOST / HTTP/1.0\nX-Empty:\nX-Blank:   \n\n");
+        assertTrue(parser.methodEquals("POST"));
+        assertEquals("", parser.headerValue(parser.indexOfHeader("x-empty")));
+        assertEquals("", parser.headerValue(parser.indexOfHeader("x-blank")));
+    }
+
+    @Test
+    void resumesWhereItStopped() {
+        byte[] buffer = bytes("GET / HTTP/1.1\r\nContent-Length: 42\r\nConnection: close\r\n\r\nbody");
+        int headEnd = buffer.length - 4;
+        RequestParser parser = new RequestParser();
+        parser.reset(0);
+        for (int limit = 1; limit < headEnd; limit++) {
+            assertEquals(RequestParser.NEED_MORE, parser.parse(buffer, limit), "at " + limit);
+        }
+        assertEquals(headEnd, parser.parse(buffer, buffer.length));
+        assertEquals(headEnd, parser.parse(buffer, buffer.length)); // the body is not parsed
+        assertEquals(42, parser.headerValueAsLong(parser.indexOfHeader("content-length")));
+        assertTrue(parser.headerValueContainsToken(parser.indexOfHeader("connection"), "close"));
+    }
+
+    @Test
+    void findsEveryFieldOfARepeatedHeader() {
+        RequestParser parser = parsed("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\na: 3\r\n\r\n");
+        int first = parser.indexOfHeader("a");
+        assertEquals(0, first);
+        int second = parser.indexOfHeader("a", first + 1);
+        assertEquals(2, second);
+        assertEquals(-1, parser.indexOfHeader("a", second + 1));
+        assertEquals(-1, parser.indexOfHeader("c"));
+    }
+
+    @Test
+    void rejectsMalformedHeads() {
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\n folded\r\n\r\n", 8192, 8192));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\r\nBad Name: x\r\n\r\n", 8192, 8192));
+        assertEquals(RequestParser.MALFORMED, parse("GET /\u0001 HTTP/1.1\r\n\r\n", 8192, 8192));
+        assertEquals(RequestParser.MALFORMED, parse("GET  HTTP/1.1\r\n\r\n", 8192, 8192));
+        assertEquals(RequestParser.MALFORMED, parse("GET / HTTP/1.1\rX\n\r\n", 8192, 8192));
+        assertEquals(RequestParser.MALFORMED, parse("G(T / HTTP/1.1\r\n\r\n", 8192, 8192));
+    }
+
+    @Test
+    void enforcesTheRequestLineLimit() {
+        String line = "GET /" + "a".repeat(100) + " HTTP/1.1";
+        assertEquals(RequestParser.URI_TOO_LONG, parse(line + "\r\n\r\n", line.length() - 1, 8192));
+        assertTrue(parse(line + "\r\n\r\n", line.length(), 8192) > 0);
+        // an endless line is refused before its end arrives
+        assertEquals(RequestParser.URI_TOO_LONG, parse("GET /" + "a".repeat(200), 100, 8192));
+    }
+
+    @Test
+    void enforcesTheHeaderLimit() {
+        String head = "GET / HTTP/1.1\r\nX: " + "v".repeat(200) + "\r\n\r\n";
+        assertEquals(RequestParser.HEADER_TOO_LARGE, parse(head, 8192, head.length() - 1));
+        assertEquals(head.length(), parse(head, 8192, head.length()));
+        assertEquals(RequestParser.HEADER_TOO_LARGE, parse("GET / HTTP/1.1\r\nX: " + "v".repeat(200), 8192, 100));
+        StringBuilder many = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i <= 100; i++) {
+            many.append("H").append(i).append(": x\r\n");
+        }
+        assertEquals(RequestParser.HEADER_TOO_LARGE, parse(many.append("\r\n").toString(), 8192, 8192));
+    }
+
+    @Test
+    void resumesAfterTheLastCarriageReturnOfAFullHead() {
+        StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 100; i++) { // as many fields as the parser holds
+            head.append("H").append(i).append(": x\r\n");
+        }
+        byte[] buffer = bytes(head.append("\r\n").toString());
+        RequestParser parser = new RequestParser();
+        parser.reset(0);
+        assertEquals(RequestParser.NEED_MORE, parser.parse(buffer, buffer.length - 3)); // up to the last field's CR
+        assertEquals(buffer.length, parser.parse(buffer, buffer.length));
+        assertEquals(100, parser.headerCount());
+        assertEquals("x", parser.headerValue(99));
+    }
+
+    @Test
+    void parsesNumbersStrictly() {
+        RequestParser parser = parsed("GET / HTTP/1.1\r\nA: 123\r\nB: 12a\r\nC: -1\r\nD: 1234567890123456789\r\n\r\n");
+        assertEquals(123, parser.headerValueAsLong(0));
+        assertEquals(-1, parser.headerValueAsLong(1));
+        assertEquals(-1, parser.headerValueAsLong(2));
+        assertEquals(-1, parser.headerValueAsLong(3));
+        assertFalse(parser.headerValueEqualsIgnoreCase(0, "12"));
+    }
+}
@@ -0,0 +1,90 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class RouterTest {
+    private final Handler files = exchange -> Handler.DONE;
+    private final Handler images = exchange -> Handler.DONE;
+    private final Handler metrics = exchange -> Handler.DONE;
+    private final Handler form = exchange -> Handler.DONE;
+    private final Handler trace = exchange -> Handler.DONE;
+
+    private final Router router = new Router.Builder()
+            .prefix("/", files, RequestType.GET, RequestType.HEAD)
+            .prefix("/img/", images, RequestType.GET)
+            .route("/__metrics", metrics, RequestType.GET)
+            .route("/params_info.html", form, RequestType.POST)
+            .prefix("", trace, RequestType.TRACE)
+            .build();
+
+    @Test
+    void prefersAnExactRouteOverPrefixes() {
+        assertSame(metrics, router.find(RequestType.GET, "/__metrics"));
+        assertSame(form, router.find(RequestType.POST, "/params_info.html"));
+    }
+
+    @Test
+    void takesTheLongestMatchingPrefix() {
+        assertSame(images, router.find(RequestType.GET, "/img/a.png"));
+        assertSame(images, router.find(RequestType.GET, "/img/"));
+        assertSame(files, router.find(RequestType.GET, "/img"));
+        assertSame(files, router.find(RequestType.GET, "/index.html"));
+        assertSame(files, router.find(RequestType.GET, "/"));
+    }
+
+    @Test
+    void fallsBackToAPrefixWhenTheExactRouteIsLongerOrShorter() {
+        assertSame(files, router.find(RequestType.GET, "/__metric"));
+        assertSame(files, router.find(RequestType.GET, "/__metrics/more"));
+        assertSame(files, router.find(RequestType.GET, "/__metricz"));
+    }
+
+    @Test
+    void onlyMatchesTheMethodsOfARoute() {
+        assertSame(files, router.find(RequestType.HEAD, "/img/a.png")); // the image prefix is GET only
+        assertSame(files, router.find(RequestType.GET, "/params_info.html")); // the form route is POST only
+        assertNull(router.find(RequestType.POST, "/index.html"));
+        assertNull(router.find(RequestType.PUT, "/"));
+        assertSame(trace, router.find(RequestType.TRACE, "/anything"));
+        assertSame(trace, router.find(RequestType.TRACE, ""));
+    }
+
+    @Test
+    void matchesCharactersOutsideTheRoutes() {
+        assertSame(files, router.find(RequestType.GET, "/été.html"));
+        assertSame(files, router.find(RequestType.GET, "/ "));
+        assertNull(router.find(RequestType.GET, "relative"));
+    }
+
+    @Test
+    void tellsRoutedMethods() {
+        assertTrue(router.isRouted(RequestType.GET));
+        assertTrue(router.isRouted(RequestType.POST));
+        assertTrue(router.isRouted(RequestType.TRACE));
+        assertFalse(router.isRouted(RequestType.PUT));
+        assertFalse(router.isRouted(RequestType.DELETE));
+    }
+
+    @Test
+    void rejectsDuplicateRoutes() {
+        Router.Builder builder = new Router.Builder().route("/a", files, RequestType.GET);
+        assertThrows(IllegalArgumentException.class, () -> builder.route("/a", images, RequestType.POST, RequestType.GET));
+        builder.prefix("/a", images, RequestType.GET); // a prefix of the same path is another route
+        assertThrows(IllegalArgumentException.class, () -> builder.prefix("/a", images, RequestType.GET));
+    }
+
+    @Test
+    void routesAreFixedWhenBuilt() {
+        Router.Builder builder = new Router.Builder().route("/a", files, RequestType.GET);
+        Router built = builder.build();
+        builder.route("/b", images, RequestType.GET);
+        assertNull(built.find(RequestType.GET, "/b"));
+        assertSame(images, builder.build().find(RequestType.GET, "/b"));
+    }
+}
@@ -0,0 +1,95 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class TemplateTest {
+
+    private static String render(String source) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Template.compile(source.getBytes(StandardCharsets.UTF_8))
+                .render(out, (slot, slotOut) -> slotOut.write(("[" + slot + "]").getBytes(StandardCharsets.UTF_8)));
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] escaped(String text) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Template.writeEscaped(out, text);
+        return out.toByteArray();
+    }
+
+    private static byte[] expectedEscaped(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;")
+                .replace("'", "&#39;").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void fillsTheSlots() throws IOException {
+        assertEquals("<p>[name]</p><p>[a.b-c_1]</p>", render("<p>{{name}}</p><p>{{a.b-c_1}}</p>"));
+        assertEquals("[x]", render("{{x}}"));
+        assertEquals("no slots", render("no slots"));
+    }
+
+    @Test
+    void replacesACommentWrappingASlot() throws IOException {
+        assertEquals("<p>[a]</p>", render("<p><!--{{a}}--></p>"));
+        assertEquals("[a][b]", render("<!--{{a}}--><!--{{b}}-->"));
+        assertEquals("<!--[a] -->", render("<!--{{a}} -->")); // not the whole comment
+        assertEquals("<!-- [a]-->", render("<!-- {{a}}-->"));
+        assertEquals("[a]-->", render("{{a}}-->"));
+    }
+
+    @Test
+    void leavesOtherBracesAlone() throws IOException {
+        String script = "<script>var o = {{a: 1}}; if (x) {{}} {{ b }} f({{c}</script>";
+        assertEquals(script, render(script));
+        assertEquals("{[x]}", render("{{{x}}}"));
+        assertEquals("{{x", render("{{x"));
+        assertEquals("<script>{{a: 1}}</script>[b]", render("<script>{{a: 1}}</script>{{b}}"));
+    }
+
+    @Test
+    void escapesMarkup() throws IOException {
+        assertEquals("&lt;a href=&quot;x&quot;&gt;&amp;&#39;", new String(escaped("<a href=\"x\">&'"),
+                StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void encodesUtf8() throws IOException {
+        String text = "é€😀 plain";
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), escaped(text));
+        assertArrayEquals("a?b?".getBytes(StandardCharsets.UTF_8), escaped("a\uDE00b\uD83D")); // unpaired surrogates
+    }
+
+    @Test
+    void encodesValuesLongerThanTheScratchBuffer() throws IOException {
+        // every alignment of multi-byte characters and entities against the flush of the 512-byte scratch buffer
+        for (int offset = 0; offset < 16; offset++) {
+            String text = "x".repeat(500 + offset) + "😀€é&<".repeat(200);
+            int[] largestWrite = new int[1];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            OutputStream out = new OutputStream() {
+                @Override
+                public void write(int b) {
+                    bytes.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    largestWrite[0] = Math.max(largestWrite[0], len);
+                    bytes.write(b, off, len);
+                }
+            };
+            Template.writeEscaped(out, text);
+            assertArrayEquals(expectedEscaped(text), bytes.toByteArray(), "offset " + offset);
+            assertTrue(largestWrite[0] <= 512);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package src;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The wheel reads the clock when a timeout is scheduled, so the tests advance it to times well before or well after
+ * the deadlines, by margins much larger than the time the test takes to run.
+ */
+class TimerWheelTest {
+    private static final long TICK_MILLIS = 10;
+    private static final long DELAY_MILLIS = 1000;
+
+    private final TimerWheel wheel = new TimerWheel(TICK_MILLIS, 8); // one turn of the wheel is 80 ms
+
+    private static final class Counter implements Runnable {
+        int runs;
+
+        @Override
+        public void run() {
+            runs++;
+        }
+    }
+
+    @Test
+    void runsATimeoutOnceItsDeadlinePasses() {
+        Counter counter = new Counter();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(counter);
+        long now = System.currentTimeMillis();
+        wheel.schedule(timeout, DELAY_MILLIS);
+        wheel.advance(now + DELAY_MILLIS / 2); // passes the deadline's slot several times
+        assertEquals(0, counter.runs);
+        wheel.advance(now + DELAY_MILLIS * 2);
+        assertEquals(1, counter.runs);
+        wheel.advance(now + DELAY_MILLIS * 3);
+        assertEquals(1, counter.runs); // an expired timeout is no longer scheduled
+    }
+
+    @Test
+    void doesNotRunACancelledTimeout() {
+        Counter counter = new Counter();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(counter);
+        long now = System.currentTimeMillis();
+        wheel.schedule(timeout, DELAY_MILLIS);
+        wheel.cancel(timeout);
+        wheel.cancel(timeout); // cancelling twice is harmless
+        wheel.advance(now + DELAY_MILLIS * 2);
+        assertEquals(0, counter.runs);
+    }
+
+    @Test
+    void reArmingMovesTheDeadline() {
+        Counter counter = new Counter();
+        TimerWheel.Timeout timeout = new TimerWheel.Timeout(counter);
+        long now = System.currentTimeMillis();
+        wheel.schedule(timeout, DELAY_MILLIS);
+        wheel.schedule(timeout, DELAY_MILLIS * 5);
+        wheel.advance(now + DELAY_MILLIS * 2);
+        assertEquals(0, counter.runs);
+        wheel.advance(now + DELAY_MILLIS * 6);
+        assertEquals(1, counter.runs);
+    }
+
+    @Test
+    void keepsTheOtherTimeoutsOfASlotWhenOneIsCancelled() {
+        List<Counter> counters = new ArrayList<>();
+        List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 5; i++) { // the same delay, so the same slot
+            Counter counter = new Counter();
+            TimerWheel.Timeout timeout = new TimerWheel.Timeout(counter);
+            wheel.schedule(timeout, DELAY_MILLIS);
+            counters.add(counter);
+            timeouts.add(timeout);
+        }
+        wheel.cancel(timeouts.get(0));
+        wheel.cancel(timeouts.get(2));
+        wheel.cancel(timeouts.get(4));
+        wheel.advance(now + DELAY_MILLIS * 2);
+        assertEquals(List.of(0, 1, 0, 1, 0), counters.stream().map(counter -> counter.runs).toList());
+    }
+
+    @Test
+    void runsEveryDueTimeoutAfterALongPause() {
+        Counter counter = new Counter();
+        long now = System.currentTimeMillis();
+        for (int i = 1; i <= 100; i++) { // spread over every slot, and over several turns
+            wheel.schedule(new TimerWheel.Timeout(counter), i * 7L);
+        }
+        wheel.advance(now + DELAY_MILLIS * 10);
+        assertEquals(100, counter.runs);
+    }
+
+    @Test
+    void letsATaskReArmItsOwnTimeout() {
+        AtomicInteger runs = new AtomicInteger();
+        TimerWheel.Timeout[] timeout = new TimerWheel.Timeout[1];
+        timeout[0] = new TimerWheel.Timeout(() -> {
+            if (runs.incrementAndGet() == 1) {
+                wheel.schedule(timeout[0], DELAY_MILLIS * 10);
+            }
+        });
+        long now = System.currentTimeMillis();
+        wheel.schedule(timeout[0], DELAY_MILLIS);
+        wheel.advance(now + DELAY_MILLIS * 2);
+        assertEquals(1, runs.get());
+        wheel.advance(now + DELAY_MILLIS * 5);
+        assertEquals(1, runs.get());
+        wheel.advance(now + DELAY_MILLIS * 20);
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    void runsTimeoutsOnItsOwnThread() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(1);
+        TimerWheel started = new TimerWheel(TICK_MILLIS, 64).start("timer-wheel-test");
+        started.schedule(new TimerWheel.Timeout(expired::countDown), 50);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+    }
+}